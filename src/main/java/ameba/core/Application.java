@@ -77,6 +77,7 @@ public class Application {
     private static final String ADDON_CONF_PREFIX = "app.addon.";
     private static final String JERSEY_CONF_NAME_PREFIX = "app.sys.core.";
     private static final String SCAN_CLASSES_CACHE_FILE = IOUtils.getResource("/").getPath() + "conf/classes.list";
+    private static final String SCAN_CLASSES_INDEX_FILE = IOUtils.getResource("/").getPath() + "conf/classes.idx";
     private static String INFO_SPLITOR = "---------------------------------------------------";
     protected boolean jmxEnabled;
     private String configFile;
@@ -203,33 +204,49 @@ public class Application {
     }
 
     private void scanClasses() {
-        URL cacheList = IOUtils.getResource(SCAN_CLASSES_CACHE_FILE);
-        if (cacheList == null || getMode().isDev()) {
-            logger.debug("scan files ...");
-            final PackageNamesScanner scanner = new PackageNamesScanner(scanPkgs.toArray(new String[scanPkgs.size()]), true);
+        // 二进制索引有效时总是优先使用，不用读取 class 文件
+        File indexFile = new File(SCAN_CLASSES_INDEX_FILE);
+        String checksum = ClassIndex.checksum(getClassLoader(), scanPkgs);
+        List<ClassMetadata> metadataList = ClassIndex.load(indexFile, checksum);
+        URL cacheList = null;
+        if (metadataList == null && !getMode().isDev()) {
+            cacheList = IOUtils.getResource(SCAN_CLASSES_CACHE_FILE);
+        }
+        if (cacheList == null) {
+            if (metadataList == null) {
+                logger.debug("scan files ...");
+                metadataList = ClassIndex.scan(getClassLoader(), scanPkgs);
+                if (metadataList == null) {
+                    PackageNamesScanner scanner = new PackageNamesScanner(scanPkgs.toArray(new String[scanPkgs.size()]), true);
+                    metadataList = ClassIndex.scan(scanner);
+                }
+                ClassIndex.store(indexFile, checksum, metadataList);
+            } else {
+                logger.debug("read classes from scan index ...");
+            }
             Set<String> foundClasses = Sets.newHashSet();
             List<String> acceptClasses = Lists.newArrayList();
-            while (scanner.hasNext()) {
-                ClassFoundEvent.ClassInfo info = new ClassFoundEvent.ClassInfo() {
+            for (final ClassMetadata metadata : metadataList) {
+                String className = metadata.getName();
+                if (foundClasses.add(className)) {
+                    ClassFoundEvent.ClassInfo info = new ClassFoundEvent.ClassInfo(metadata) {
 
-                    InputStream in;
+                        InputStream in;
 
-                    @Override
-                    public InputStream getFileStream() {
-                        if (in == null) {
-                            in = scanner.open();
+                        @Override
+                        public InputStream getFileStream() {
+                            if (in == null) {
+                                in = IOUtils.getResourceAsStream(metadata.getName().replace(".", "/").concat(".class"));
+                            }
+                            return in;
                         }
-                        return in;
-                    }
 
-                    @Override
-                    void closeFileStream() {
-                        closeQuietly(in);
-                    }
-                };
-                info.fileName = scanner.next();
-                String className = info.getCtClass().getName();
-                if (!foundClasses.contains(className)) {
+                        @Override
+                        void closeFileStream() {
+                            closeQuietly(in);
+                            in = null;
+                        }
+                    };
                     ClassFoundEvent event = new ClassFoundEvent(info);
                     SystemEventBus.publish(event);
                     info.closeFileStream();
@@ -238,7 +255,6 @@ public class Application {
                         acceptClasses.add(className);
                     }
                 }
-                foundClasses.add(className);
             }
             foundClasses.clear();
             OutputStream out = null;
@@ -269,16 +285,23 @@ public class Application {
                     String fileName = reader.readLine();
                     while (fileName != null) {
                         if (StringUtils.isBlank(fileName)) continue;
-                        final InputStream fin = IOUtils.getResourceAsStream(fileName.replace(".", "/").concat(".class"));
+                        final String classFile = fileName.replace(".", "/").concat(".class");
                         ClassFoundEvent.ClassInfo info = new ClassFoundEvent.ClassInfo() {
+
+                            InputStream in;
+
                             @Override
                             public InputStream getFileStream() {
-                                return fin;
+                                if (in == null) {
+                                    in = IOUtils.getResourceAsStream(classFile);
+                                }
+                                return in;
                             }
 
                             @Override
                             void closeFileStream() {
-                                closeQuietly(fin);
+                                closeQuietly(in);
+                                in = null;
                             }
                         };
                         info.fileName = fileName.substring(fileName.lastIndexOf(".") + 1).concat(".class");
@@ -1223,15 +1246,48 @@ public class Application {
             private CtClass ctClass;
             private String fileName;
             private Object[] annotations;
+            private ClassMetadata metadata;
+
+            public ClassInfo() {
+            }
+
+            public ClassInfo(ClassMetadata metadata) {
+                this.metadata = metadata;
+                this.fileName = metadata.getFileName();
+            }
 
             public String getFileName() {
                 return fileName;
             }
 
+            /**
+             * class name, access flags, super types and annotation names,
+             * read by {@link ClassMetadata} without javassist
+             *
+             * @return class metadata
+             */
+            public ClassMetadata getMetadata() {
+                if (metadata == null) {
+                    try {
+                        metadata = ClassMetadata.parse(fileName, getFileStream());
+                    } catch (IOException e) {
+                        throw new AmebaException("read class error", e);
+                    } finally {
+                        closeFileStream();
+                    }
+                }
+                return metadata;
+            }
+
+            /**
+             * full javassist class, use {@link #getMetadata()} if only need name, super types or annotations
+             *
+             * @return javassist class in a class pool owned by this class info
+             */
             public CtClass getCtClass() {
                 if (ctClass == null) {
                     try {
-                        ctClass = ClassPool.getDefault().makeClass(getFileStream());
+                        ctClass = new ClassPool(true).makeClass(getFileStream());
                     } catch (IOException e) {
                         throw new AmebaException("make class error", e);
                     }
@@ -1240,7 +1296,7 @@ public class Application {
             }
 
             public String getClassName() {
-                return getCtClass().getName();
+                return getMetadata().getName();
             }
 
             public Object[] getAnnotations() {
@@ -1256,22 +1312,21 @@ public class Application {
                     return false;
                 }
 
-                for (Object anno : getAnnotations()) {
-                    for (Class cls : annotationClass) {
-                        if (((Annotation) anno).annotationType().equals(cls)) {
-                            return true;
-                        }
+                ClassMetadata classMetadata = getMetadata();
+                for (Class cls : annotationClass) {
+                    if (classMetadata.containsAnnotation(cls.getName())) {
+                        return true;
                     }
                 }
                 return false;
             }
 
             public boolean isPublic() {
-                return javassist.Modifier.isPublic(getCtClass().getModifiers());
+                return getMetadata().isPublic();
             }
 
             public Class toClass() {
-                return getClassForName(getCtClass().getName());
+                return getClassForName(getClassName());
             }
 
             public Class getClassForName(final String className) {
@@ -0,0 +1,327 @@
+package ameba.core;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.glassfish.jersey.server.ResourceFinder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * binary index of scanned classes, keyed by the checksum of the jars and directories
+ * which contain the scanned packages, so a warm start read metadata without parse class file.
+ *
+ * @author icode
+ */
+public class ClassIndex {
+    private static final Logger logger = LoggerFactory.getLogger(ClassIndex.class);
+    /**
+     * changed when the index format or the read metadata changed, a index of old version is stale
+     */
+    private static final int MAGIC = 0xAEBA0002;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private ClassIndex() {
+    }
+
+    /**
+     * checksum of all jars and directories contain the packages
+     *
+     * @param classLoader class loader
+     * @param packages    scan packages
+     * @return checksum, null if some source can not be checksum
+     */
+    public static String checksum(ClassLoader classLoader, Collection<String> packages) {
+        Set<String> sources = Sets.newTreeSet();
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+        try {
+            for (String pkg : Sets.newTreeSet(packages)) {
+                Enumeration<URL> urls = classLoader.getResources(pkg.replace('.', '/'));
+                while (urls.hasMoreElements()) {
+                    URL url = urls.nextElement();
+                    String protocol = url.getProtocol();
+                    if ("jar".equals(protocol)) {
+                        URLConnection connection = url.openConnection();
+                        if (!(connection instanceof JarURLConnection)) {
+                            return null;
+                        }
+                        URL jarUrl = ((JarURLConnection) connection).getJarFileURL();
+                        if (!"file".equals(jarUrl.getProtocol())) {
+                            return null;
+                        }
+                        File jar = new File(jarUrl.toURI());
+                        if (sources.add(jar.getPath())) {
+                            update(digest, jar);
+                        }
+                    } else if ("file".equals(protocol)) {
+                        File dir = new File(url.toURI());
+                        if (sources.add(dir.getPath())) {
+                            List<File> files = Lists.newArrayList(FileUtils.listFiles(dir, new String[]{"class"}, true));
+                            Collections.sort(files);
+                            for (File file : files) {
+                                update(digest, file);
+                            }
+                        }
+                    } else {
+                        return null;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("checksum class path error", e);
+            return null;
+        } catch (URISyntaxException e) {
+            logger.debug("checksum class path error", e);
+            return null;
+        }
+        return String.format("%032x", new BigInteger(1, digest.digest()));
+    }
+
+    private static void update(MessageDigest digest, File file) {
+        digest.update(file.getPath().getBytes(UTF_8));
+        digest.update((":" + file.length() + ":" + file.lastModified() + ";").getBytes(UTF_8));
+    }
+
+    /**
+     * load index
+     *
+     * @param indexFile index file
+     * @param checksum  class path checksum
+     * @return metadata list, null if index not exists or stale
+     */
+    public static List<ClassMetadata> load(File indexFile, String checksum) {
+        if (checksum == null || !indexFile.isFile()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != MAGIC || !checksum.equals(in.readUTF())) {
+                return null;
+            }
+            int size = in.readInt();
+            List<ClassMetadata> metadataList = Lists.newArrayListWithCapacity(size);
+            for (int i = 0; i < size; i++) {
+                metadataList.add(ClassMetadata.read(in));
+            }
+            return metadataList;
+        } catch (IOException e) {
+            logger.warn("read class index error", e);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * store index
+     *
+     * @param indexFile    index file
+     * @param checksum     class path checksum
+     * @param metadataList metadata list
+     */
+    public static void store(File indexFile, String checksum, List<ClassMetadata> metadataList) {
+        if (checksum == null) {
+            return;
+        }
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(FileUtils.openOutputStream(indexFile)));
+            out.writeInt(MAGIC);
+            out.writeUTF(checksum);
+            out.writeInt(metadataList.size());
+            for (ClassMetadata metadata : metadataList) {
+                metadata.write(out);
+            }
+        } catch (IOException e) {
+            logger.warn("write class index error", e);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * read and parse the class files of packages in parallel, the class files in directories and
+     * local jars are read by the parse tasks
+     *
+     * @param classLoader class loader
+     * @param packages    scan packages, sub packages are included
+     * @return metadata list, null if a package is not in a directory or a local jar
+     */
+    public static List<ClassMetadata> scan(ClassLoader classLoader, Collection<String> packages) {
+        List<Callable<ClassMetadata>> tasks = Lists.newArrayList();
+        List<JarFile> jars = Lists.newArrayList();
+        Set<String> sources = Sets.newHashSet();
+        try {
+            for (String pkg : packages) {
+                String path = pkg.replace('.', '/');
+                Enumeration<URL> urls = classLoader.getResources(path);
+                while (urls.hasMoreElements()) {
+                    URL url = urls.nextElement();
+                    String protocol = url.getProtocol();
+                    if ("jar".equals(protocol)) {
+                        URLConnection connection = url.openConnection();
+                        if (!(connection instanceof JarURLConnection)) {
+                            return null;
+                        }
+                        URL jarUrl = ((JarURLConnection) connection).getJarFileURL();
+                        if (!"file".equals(jarUrl.getProtocol())) {
+                            return null;
+                        }
+                        File file = new File(jarUrl.toURI());
+                        if (!sources.add(file.getPath() + "!/" + path)) {
+                            continue;
+                        }
+                        JarFile jar = new JarFile(file);
+                        jars.add(jar);
+                        Enumeration<JarEntry> entries = jar.entries();
+                        while (entries.hasMoreElements()) {
+                            JarEntry entry = entries.nextElement();
+                            String name = entry.getName();
+                            if (!entry.isDirectory() && name.startsWith(path + "/") && name.endsWith(".class")) {
+                                tasks.add(new JarEntryTask(jar, entry));
+                            }
+                        }
+                    } else if ("file".equals(protocol)) {
+                        File dir = new File(url.toURI());
+                        if (!sources.add(dir.getPath())) {
+                            continue;
+                        }
+                        for (final File file : FileUtils.listFiles(dir, new String[]{"class"}, true)) {
+                            tasks.add(new Callable<ClassMetadata>() {
+                                @Override
+                                public ClassMetadata call() throws Exception {
+                                    return ClassMetadata.parse(file.getName(), FileUtils.readFileToByteArray(file));
+                                }
+                            });
+                        }
+                    } else {
+                        return null;
+                    }
+                }
+            }
+            return parse(tasks);
+        } catch (IOException e) {
+            logger.debug("list class files error", e);
+            return null;
+        } catch (URISyntaxException e) {
+            logger.debug("list class files error", e);
+            return null;
+        } finally {
+            for (JarFile jar : jars) {
+                try {
+                    jar.close();
+                } catch (IOException e) {
+                    logger.debug("close jar error", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * read class files from scanner and parse them in parallel, the file is read by the scanner
+     * thread, a jar scanner can only read the current entry.
+     *
+     * @param scanner class file iterator
+     * @return metadata list, same order as the scanner
+     */
+    public static List<ClassMetadata> scan(ResourceFinder scanner) {
+        List<Callable<ClassMetadata>> tasks = Lists.newArrayList();
+        try {
+            while (scanner.hasNext()) {
+                final String fileName = scanner.next();
+                InputStream in = scanner.open();
+                final byte[] bytes;
+                try {
+                    bytes = ByteStreams.toByteArray(in);
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+                tasks.add(new Callable<ClassMetadata>() {
+                    @Override
+                    public ClassMetadata call() throws Exception {
+                        return ClassMetadata.parse(fileName, bytes);
+                    }
+                });
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("read class file error", e);
+        }
+        return parse(tasks);
+    }
+
+    /**
+     * run the parse tasks in parallel
+     *
+     * @return metadata list, same order as the tasks, a class file can not be parsed is skipped
+     */
+    private static List<ClassMetadata> parse(List<Callable<ClassMetadata>> tasks) {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<ClassMetadata>> futures = Lists.newArrayListWithCapacity(tasks.size());
+            for (Callable<ClassMetadata> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            List<ClassMetadata> metadataList = Lists.newArrayListWithCapacity(futures.size());
+            for (Future<ClassMetadata> future : futures) {
+                try {
+                    metadataList.add(future.get());
+                } catch (ExecutionException e) {
+                    logger.warn("parse class file error", e.getCause());
+                }
+            }
+            return metadataList;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("scan class interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * read and parse a class file of jar, jar file can be read by many threads
+     */
+    private static class JarEntryTask implements Callable<ClassMetadata> {
+        private final JarFile jar;
+        private final JarEntry entry;
+
+        JarEntryTask(JarFile jar, JarEntry entry) {
+            this.jar = jar;
+            this.entry = entry;
+        }
+
+        @Override
+        public ClassMetadata call() throws Exception {
+            String name = entry.getName();
+            InputStream in = jar.getInputStream(entry);
+            try {
+                return ClassMetadata.parse(name.substring(name.lastIndexOf('/') + 1), ByteStreams.toByteArray(in));
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+    }
+}
@@ -0,0 +1,323 @@
+package ameba.core;
+
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.lang3.ArrayUtils;
+
+import java.io.*;
+import java.util.List;
+
+/**
+ * class name, access flags, super types and runtime visible annotation names read from a class file.
+ * <p/>
+ * the class file is read by a minimal constant pool/attribute reader,
+ * no javassist object model or class pool is created.
+ *
+ * @author icode
+ */
+public class ClassMetadata {
+    private static final int ACC_PUBLIC = 0x0001;
+
+    private String fileName;
+    private String name;
+    private int access;
+    private String superClassName;
+    private String[] interfaceNames;
+    private String[] annotationNames;
+
+    private ClassMetadata() {
+    }
+
+    /**
+     * parse class file bytes, only read the constant pool, class header and class annotations
+     *
+     * @param fileName class file name
+     * @param bytes    class file bytes
+     * @return metadata
+     * @throws IOException class file format error
+     */
+    public static ClassMetadata parse(String fileName, byte[] bytes) throws IOException {
+        try {
+            return new Reader(bytes).read(fileName);
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("truncated class file " + fileName, e);
+        }
+    }
+
+    /**
+     * parse class file stream
+     *
+     * @param fileName class file name
+     * @param in       class file stream
+     * @return metadata
+     * @throws IOException read error or class file format error
+     */
+    public static ClassMetadata parse(String fileName, InputStream in) throws IOException {
+        return parse(fileName, ByteStreams.toByteArray(in));
+    }
+
+    static ClassMetadata read(DataInput in) throws IOException {
+        ClassMetadata metadata = new ClassMetadata();
+        metadata.fileName = in.readUTF();
+        metadata.name = in.readUTF();
+        metadata.access = in.readUnsignedShort();
+        metadata.superClassName = in.readBoolean() ? in.readUTF() : null;
+        metadata.interfaceNames = readArray(in);
+        metadata.annotationNames = readArray(in);
+        return metadata;
+    }
+
+    private static String[] readArray(DataInput in) throws IOException {
+        String[] array = new String[in.readUnsignedShort()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = in.readUTF();
+        }
+        return array;
+    }
+
+    private static void writeArray(DataOutput out, String[] array) throws IOException {
+        out.writeShort(array.length);
+        for (String s : array) {
+            out.writeUTF(s);
+        }
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeUTF(fileName);
+        out.writeUTF(name);
+        out.writeShort(access);
+        out.writeBoolean(superClassName != null);
+        if (superClassName != null) {
+            out.writeUTF(superClassName);
+        }
+        writeArray(out, interfaceNames);
+        writeArray(out, annotationNames);
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getAccess() {
+        return access;
+    }
+
+    public boolean isPublic() {
+        return (access & ACC_PUBLIC) != 0;
+    }
+
+    public String getSuperClassName() {
+        return superClassName;
+    }
+
+    public String[] getInterfaceNames() {
+        return interfaceNames;
+    }
+
+    public String[] getAnnotationNames() {
+        return annotationNames;
+    }
+
+    public boolean containsAnnotation(String annotationName) {
+        return ArrayUtils.contains(annotationNames, annotationName);
+    }
+
+    /**
+     * minimal class file reader, see jvm specification chapter 4
+     */
+    private static class Reader {
+        private static final int MAGIC = 0xCAFEBABE;
+        private final byte[] bytes;
+        private int[] utf8Offsets;
+        private int[] classNameIndexes;
+        private int pos;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        ClassMetadata read(String fileName) throws IOException {
+            if (u4() != MAGIC) {
+                throw new IOException("not a class file " + fileName);
+            }
+            pos += 4; // minor_version, major_version
+            readConstantPool();
+
+            ClassMetadata metadata = new ClassMetadata();
+            metadata.fileName = fileName;
+            metadata.access = u2();
+            metadata.name = className(u2());
+            int superIndex = u2();
+            metadata.superClassName = superIndex == 0 ? null : className(superIndex);
+            String[] interfaces = new String[u2()];
+            for (int i = 0; i < interfaces.length; i++) {
+                interfaces[i] = className(u2());
+            }
+            metadata.interfaceNames = interfaces;
+
+            skipMembers(); // fields
+            skipMembers(); // methods
+
+            List<String> annotations = Lists.newArrayList();
+            int attributes = u2();
+            for (int i = 0; i < attributes; i++) {
+                String name = utf8(u2());
+                int length = u4();
+                int end = pos + length;
+                // class retention annotations are not visible at runtime, like javassist getAnnotations
+                if ("RuntimeVisibleAnnotations".equals(name)) {
+                    int count = u2();
+                    for (int j = 0; j < count; j++) {
+                        annotations.add(descriptorToClassName(utf8(u2())));
+                        skipElementValuePairs();
+                    }
+                }
+                pos = end;
+            }
+            metadata.annotationNames = annotations.toArray(new String[annotations.size()]);
+            return metadata;
+        }
+
+        private void readConstantPool() throws IOException {
+            int count = u2();
+            utf8Offsets = new int[count];
+            classNameIndexes = new int[count];
+            for (int i = 1; i < count; i++) {
+                int tag = bytes[pos++] & 0xFF;
+                switch (tag) {
+                    case 1: // Utf8
+                        utf8Offsets[i] = pos;
+                        pos += 2 + u2At(pos);
+                        break;
+                    case 7: // Class
+                        classNameIndexes[i] = u2();
+                        break;
+                    case 8: // String
+                    case 16: // MethodType
+                    case 19: // Module
+                    case 20: // Package
+                        pos += 2;
+                        break;
+                    case 15: // MethodHandle
+                        pos += 3;
+                        break;
+                    case 3: // Integer
+                    case 4: // Float
+                    case 9: // Fieldref
+                    case 10: // Methodref
+                    case 11: // InterfaceMethodref
+                    case 12: // NameAndType
+                    case 17: // Dynamic
+                    case 18: // InvokeDynamic
+                        pos += 4;
+                        break;
+                    case 5: // Long
+                    case 6: // Double
+                        pos += 8;
+                        i++;
+                        break;
+                    default:
+                        throw new IOException("unknown constant pool tag " + tag);
+                }
+            }
+        }
+
+        private void skipMembers() {
+            int count = u2();
+            for (int i = 0; i < count; i++) {
+                pos += 6; // access_flags, name_index, descriptor_index
+                skipAttributes();
+            }
+        }
+
+        private void skipAttributes() {
+            int count = u2();
+            for (int i = 0; i < count; i++) {
+                pos += 2;
+                int length = u4();
+                pos += length;
+            }
+        }
+
+        private void skipElementValuePairs() throws IOException {
+            int count = u2();
+            for (int i = 0; i < count; i++) {
+                pos += 2;
+                skipElementValue();
+            }
+        }
+
+        private void skipElementValue() throws IOException {
+            int tag = bytes[pos++] & 0xFF;
+            switch (tag) {
+                case 'e':
+                    pos += 4;
+                    break;
+                case '@':
+                    pos += 2;
+                    skipElementValuePairs();
+                    break;
+                case '[':
+                    int count = u2();
+                    for (int i = 0; i < count; i++) {
+                        skipElementValue();
+                    }
+                    break;
+                case 'B':
+                case 'C':
+                case 'D':
+                case 'F':
+                case 'I':
+                case 'J':
+                case 'S':
+                case 'Z':
+                case 's':
+                case 'c':
+                    pos += 2;
+                    break;
+                default:
+                    throw new IOException("unknown element value tag " + (char) tag);
+            }
+        }
+
+        private String className(int classIndex) throws IOException {
+            return utf8(classNameIndexes[classIndex]).replace('/', '.');
+        }
+
+        private String utf8(int index) throws IOException {
+            int offset = utf8Offsets[index];
+            if (offset == 0) {
+                throw new IOException("bad constant pool index " + index);
+            }
+            return new DataInputStream(new ByteArrayInputStream(bytes, offset, 2 + u2At(offset))).readUTF();
+        }
+
+        private static String descriptorToClassName(String descriptor) {
+            if (descriptor.startsWith("L") && descriptor.endsWith(";")) {
+                descriptor = descriptor.substring(1, descriptor.length() - 1);
+            }
+            return descriptor.replace('/', '.');
+        }
+
+        private int u2At(int offset) {
+            return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+        }
+
+        private int u2() {
+            int value = u2At(pos);
+            pos += 2;
+            return value;
+        }
+
+        private int u4() {
+            int value = ((bytes[pos] & 0xFF) << 24) | ((bytes[pos + 1] & 0xFF) << 16)
+                    | ((bytes[pos + 2] & 0xFF) << 8) | (bytes[pos + 3] & 0xFF);
+            pos += 4;
+            return value;
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package ameba.core.ws.rs;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * gzip and deflate streams over pooled {@link Deflater}s.
+ * <p/>
+ * a deflater holds native memory and is costly to create, the streams take one from the pool
+ * and give it back when closed. flush() sync flushes the deflater, what was written can be decoded
+ * by the client at once.
+ *
+ * @author icode
+ */
+public class Compression {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final String BROTLI = "br";
+    public static final int DEFAULT_LEVEL = 6;
+    public static final int DEFAULT_POOL_SIZE = 32;
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+    private static int level = DEFAULT_LEVEL;
+    private static BlockingQueue<Deflater> gzipPool = new ArrayBlockingQueue<Deflater>(DEFAULT_POOL_SIZE);
+    private static BlockingQueue<Deflater> deflatePool = new ArrayBlockingQueue<Deflater>(DEFAULT_POOL_SIZE);
+
+    private Compression() {
+    }
+
+    static void configure(int level, int poolSize) {
+        Compression.level = level;
+        gzipPool = new ArrayBlockingQueue<Deflater>(poolSize);
+        deflatePool = new ArrayBlockingQueue<Deflater>(poolSize);
+    }
+
+    private static Deflater acquire(BlockingQueue<Deflater> pool, boolean nowrap) {
+        Deflater deflater = pool.poll();
+        return deflater == null ? new Deflater(level, nowrap) : deflater;
+    }
+
+    private static void release(BlockingQueue<Deflater> pool, Deflater deflater) {
+        deflater.reset();
+        if (!pool.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    /**
+     * an explicit coding takes precedence over *, "*;q=0, gzip" accepts gzip
+     *
+     * @param acceptEncoding Accept-Encoding header
+     * @param coding         content coding
+     * @return true if the coding is accepted and not q=0
+     */
+    public static boolean accepts(String acceptEncoding, String coding) {
+        if (StringUtils.isBlank(acceptEncoding)) return false;
+        Boolean any = null;
+        for (String part : StringUtils.split(acceptEncoding, ',')) {
+            String[] params = StringUtils.split(part, ';');
+            if (params.length == 0) continue;
+            String name = params[0].trim();
+            boolean exact = name.equalsIgnoreCase(coding);
+            if (!exact && !name.equals("*")) continue;
+            boolean accepted = true;
+            for (int i = 1; i < params.length; i++) {
+                String param = StringUtils.deleteWhitespace(params[i]);
+                if (param.startsWith("q=") && NumberUtils.toDouble(param.substring(2), 1) <= 0) {
+                    accepted = false;
+                }
+            }
+            if (exact) {
+                return accepted;
+            }
+            if (any == null) {
+                any = accepted;
+            }
+        }
+        return any != null && any;
+    }
+
+    /**
+     * @param acceptEncoding Accept-Encoding header
+     * @return gzip or deflate, null if neither is accepted
+     */
+    public static String select(String acceptEncoding) {
+        if (accepts(acceptEncoding, GZIP)) {
+            return GZIP;
+        }
+        if (accepts(acceptEncoding, DEFLATE)) {
+            return DEFLATE;
+        }
+        return null;
+    }
+
+    /**
+     * @param mediaType media type
+     * @return true for text, json, javascript, xml and svg, false for text/event-stream
+     */
+    public static boolean isCompressible(MediaType mediaType) {
+        if (mediaType == null) return false;
+        String type = mediaType.getType();
+        String subtype = mediaType.getSubtype();
+        if ("text".equalsIgnoreCase(type)) {
+            // 事件流逐条推送，压缩会缓冲事件
+            return !"event-stream".equalsIgnoreCase(subtype);
+        }
+        return ("application".equalsIgnoreCase(type) || "image".equalsIgnoreCase(type))
+                && (subtype.endsWith("json")
+                || subtype.endsWith("javascript")
+                || subtype.endsWith("xml"));
+    }
+
+    /**
+     * @param out    raw stream
+     * @param coding gzip or deflate
+     * @return compressed stream, close it to return the deflater
+     * @throws IOException io error
+     */
+    public static OutputStream compress(OutputStream out, String coding) throws IOException {
+        if (GZIP.equals(coding)) {
+            return new GzipStream(out);
+        }
+        if (DEFLATE.equals(coding)) {
+            return new DeflateStream(out);
+        }
+        throw new IllegalArgumentException("unsupported content coding " + coding);
+    }
+
+    /**
+     * @param bytes bytes
+     * @return gzip bytes
+     * @throws IOException io error
+     */
+    public static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 64);
+        OutputStream gzip = new GzipStream(out);
+        try {
+            gzip.write(bytes);
+        } finally {
+            gzip.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static class DeflateStream extends DeflaterOutputStream {
+        private boolean closed;
+
+        DeflateStream(OutputStream out) {
+            super(out, acquire(deflatePool, false), BUFFER_SIZE, true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                finish();
+                out.close();
+            } finally {
+                release(deflatePool, def);
+            }
+        }
+    }
+
+    private static class GzipStream extends DeflaterOutputStream {
+        private final CRC32 crc = new CRC32();
+        private boolean finished;
+        private boolean closed;
+
+        GzipStream(OutputStream out) throws IOException {
+            super(out, acquire(gzipPool, true), BUFFER_SIZE, true);
+            out.write(GZIP_HEADER);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            super.write(b, off, len);
+            crc.update(b, off, len);
+        }
+
+        @Override
+        public void finish() throws IOException {
+            if (finished) return;
+            finished = true;
+            super.finish();
+            writeInt((int) crc.getValue());
+            writeInt(def.getTotalIn());
+        }
+
+        private void writeInt(int i) throws IOException {
+            out.write(i & 0xff);
+            out.write((i >> 8) & 0xff);
+            out.write((i >> 16) & 0xff);
+            out.write((i >> 24) & 0xff);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                finish();
+                out.close();
+            } finally {
+                release(gzipPool, def);
+            }
+        }
+    }
+}
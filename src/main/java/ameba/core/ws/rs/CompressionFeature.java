@@ -0,0 +1,51 @@
+package ameba.core.ws.rs;
+
+import org.apache.commons.lang3.StringUtils;
+
+import javax.ws.rs.core.Configuration;
+import javax.ws.rs.core.Feature;
+import javax.ws.rs.core.FeatureContext;
+
+/**
+ * response compression.
+ * <pre>
+ * app.compression.enabled=true
+ * app.compression.threshold=1024
+ * app.compression.level=6
+ * app.compression.poolSize=32
+ * </pre>
+ *
+ * @author icode
+ * @see CompressionInterceptor
+ */
+public class CompressionFeature implements Feature {
+
+    public static final String ENABLED = "app.compression.enabled";
+    public static final String THRESHOLD = "app.compression.threshold";
+    public static final String LEVEL = "app.compression.level";
+    public static final String POOL_SIZE = "app.compression.poolSize";
+    public static final int DEFAULT_THRESHOLD = 1024;
+
+    private static int getInt(Configuration config, String key, int defaultValue) {
+        Object value = config.getProperty(key);
+        if (value == null || StringUtils.isBlank(String.valueOf(value))) {
+            return defaultValue;
+        }
+        return Integer.parseInt(String.valueOf(value).trim());
+    }
+
+    @Override
+    public boolean configure(FeatureContext context) {
+        Configuration config = context.getConfiguration();
+        Object enabled = config.getProperty(ENABLED);
+        if (enabled != null && !Boolean.parseBoolean(String.valueOf(enabled))) {
+            return false;
+        }
+        Compression.configure(getInt(config, LEVEL, Compression.DEFAULT_LEVEL),
+                getInt(config, POOL_SIZE, Compression.DEFAULT_POOL_SIZE));
+        if (!config.isRegistered(CompressionInterceptor.class)) {
+            context.register(new CompressionInterceptor(getInt(config, THRESHOLD, DEFAULT_THRESHOLD)));
+        }
+        return true;
+    }
+}
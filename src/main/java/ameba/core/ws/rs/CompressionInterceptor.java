@@ -0,0 +1,155 @@
+package ameba.core.ws.rs;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.WriterInterceptor;
+import javax.ws.rs.ext.WriterInterceptorContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * gzip or deflate compress text, json and xml responses larger than a threshold.
+ * <p/>
+ * the response is buffered up to threshold bytes, a smaller response is written as is.
+ * a flush before the threshold is reached writes the buffered bytes and the rest of the response
+ * as is, streamed data is never held back. responses already have a Content-Encoding are not touched.
+ *
+ * @author icode
+ * @see CompressionFeature
+ */
+@Priority(Priorities.ENTITY_CODER)
+public class CompressionInterceptor implements ContainerResponseFilter, WriterInterceptor {
+
+    private static final String ENCODING_PROPERTY_NAME = CompressionInterceptor.class.getName() + ".encoding";
+
+    private final int threshold;
+
+    public CompressionInterceptor(int threshold) {
+        this.threshold = threshold;
+    }
+
+    static void addVary(MultivaluedMap<String, Object> headers) {
+        Object vary = headers.getFirst(HttpHeaders.VARY);
+        if (vary == null) {
+            headers.putSingle(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        } else if (!vary.toString().toLowerCase().contains(HttpHeaders.ACCEPT_ENCODING.toLowerCase())) {
+            headers.putSingle(HttpHeaders.VARY, vary + ", " + HttpHeaders.ACCEPT_ENCODING);
+        }
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+        if (!responseContext.hasEntity()
+                || responseContext.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)
+                || !Compression.isCompressible(responseContext.getMediaType())) {
+            return;
+        }
+        addVary(responseContext.getHeaders());
+        String encoding = Compression.select(requestContext.getHeaderString(HttpHeaders.ACCEPT_ENCODING));
+        if (encoding != null) {
+            requestContext.setProperty(ENCODING_PROPERTY_NAME, encoding);
+        }
+    }
+
+    @Override
+    public void aroundWriteTo(WriterInterceptorContext context) throws IOException, WebApplicationException {
+        String encoding = (String) context.getProperty(ENCODING_PROPERTY_NAME);
+        if (encoding == null || context.getHeaders().containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            context.proceed();
+            return;
+        }
+        context.removeProperty(ENCODING_PROPERTY_NAME);
+        // jersey closes the entity stream after the response written
+        context.setOutputStream(new ThresholdOutputStream(context, encoding));
+        context.proceed();
+    }
+
+    /**
+     * buffer until threshold, then set Content-Encoding and switch to the compressed stream.
+     * flushed before the threshold, switch to the raw stream.
+     */
+    private class ThresholdOutputStream extends OutputStream {
+        private final WriterInterceptorContext context;
+        private final OutputStream raw;
+        private final String encoding;
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream(Math.min(threshold, 8192));
+        private OutputStream compressed;
+        private boolean passed;
+        private boolean closed;
+
+        ThresholdOutputStream(WriterInterceptorContext context, String encoding) {
+            this.context = context;
+            this.raw = context.getOutputStream();
+            this.encoding = encoding;
+        }
+
+        private OutputStream target(int len) throws IOException {
+            if (compressed != null) {
+                return compressed;
+            }
+            if (passed) {
+                return raw;
+            }
+            if (buffer.size() + len <= threshold) {
+                return buffer;
+            }
+            MultivaluedMap<String, Object> headers = context.getHeaders();
+            headers.putSingle(HttpHeaders.CONTENT_ENCODING, encoding);
+            headers.remove(HttpHeaders.CONTENT_LENGTH);
+            compressed = Compression.compress(raw, encoding);
+            buffer.writeTo(compressed);
+            buffer = null;
+            return compressed;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target(1).write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target(len).write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (compressed != null) {
+                // sync flush, the client can decode what was written
+                compressed.flush();
+                return;
+            }
+            if (!passed) {
+                if (buffer.size() == 0) {
+                    // nothing held back, keep the headers open for compression
+                    return;
+                }
+                passed = true;
+                buffer.writeTo(raw);
+                buffer = null;
+            }
+            raw.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            if (compressed != null) {
+                compressed.close();
+            } else {
+                if (!passed) {
+                    buffer.writeTo(raw);
+                }
+                raw.close();
+            }
+        }
+    }
+}
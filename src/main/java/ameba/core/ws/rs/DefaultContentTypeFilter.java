@@ -20,13 +20,21 @@ public class DefaultContentTypeFilter implements ContainerRequestFilter {
     public void filter(ContainerRequestContext request) {
 
         String accept = request.getHeaderString(HttpHeaders.ACCEPT);
+        String contentType = request.getHeaderString(HttpHeaders.CONTENT_TYPE);
 
         if (accept == null || accept.equals(MediaType.WILDCARD)) {
-            request.getHeaders().putSingle(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
+            // 二进制格式的请求默认响应相同格式
+            String type = MediaType.APPLICATION_JSON;
+            if (contentType != null) {
+                if (contentType.startsWith(MediaType.APPLICATION_SMILE)) {
+                    type = MediaType.APPLICATION_SMILE;
+                } else if (contentType.startsWith(MediaType.APPLICATION_CBOR)) {
+                    type = MediaType.APPLICATION_CBOR;
+                }
+            }
+            request.getHeaders().putSingle(HttpHeaders.ACCEPT, type);
         }
 
-        String contentType = request.getHeaderString(HttpHeaders.CONTENT_TYPE);
-
         if (contentType == null
                 || contentType.equals(MediaType.WILDCARD)
                 || contentType.contains(MediaType.TEXT_PLAIN)) {
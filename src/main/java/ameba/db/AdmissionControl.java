@@ -0,0 +1,199 @@
+package ameba.db;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.ws.rs.core.Configuration;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * admission control of database bound requests of a data source.
+ * <p/>
+ * at most maxConcurrent requests run at the same time, default to max active connections of
+ * the druid pool. a request that can not get in waits up to maxWait milliseconds in a small
+ * queue, also when the pool is already exhausted by other threads, and is rejected if it is
+ * still not admitted or the pool is still exhausted. requests beyond the queue are rejected at once.
+ * <pre>
+ * db.{name}.admission.enabled=true
+ * db.{name}.admission.maxConcurrent=20
+ * db.{name}.admission.queueSize=16
+ * db.{name}.admission.maxWait=200
+ * db.{name}.admission.retryAfter=1
+ * </pre>
+ *
+ * @author icode
+ */
+public class AdmissionControl {
+
+    public static final int DEFAULT_MAX_CONCURRENT = 8;
+    public static final int DEFAULT_QUEUE_SIZE = 16;
+    public static final long DEFAULT_MAX_WAIT = 200;
+    public static final int DEFAULT_RETRY_AFTER = 1;
+    private static final long POOL_POLL_MILLIS = 5;
+
+    private static final Map<String, AdmissionControl> controls = Maps.newConcurrentMap();
+
+    private final String name;
+    private final DruidDataSource pool;
+    private final int maxConcurrent;
+    private final int queueSize;
+    private final long maxWait;
+    private final int retryAfter;
+    private final Semaphore permits;
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    private AdmissionControl(String name, DruidDataSource pool,
+                             int maxConcurrent, int queueSize, long maxWait, int retryAfter) {
+        this.name = name;
+        this.pool = pool;
+        this.maxConcurrent = maxConcurrent;
+        this.queueSize = queueSize;
+        this.maxWait = maxWait;
+        this.retryAfter = retryAfter;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * admission control not bound to a druid pool
+     *
+     * @param name          name
+     * @param maxConcurrent max concurrent requests
+     * @param queueSize     max waiting requests
+     * @param maxWait       max wait milliseconds
+     * @param retryAfter    seconds of Retry-After header
+     */
+    public AdmissionControl(String name, int maxConcurrent, int queueSize, long maxWait, int retryAfter) {
+        this(name, null, maxConcurrent, queueSize, maxWait, retryAfter);
+    }
+
+    static void configure(String name, javax.sql.DataSource dataSource, Configuration config) {
+        String prefix = "db." + name + ".admission.";
+        if (!Boolean.parseBoolean(String.valueOf(config.getProperty(prefix + "enabled")))) {
+            controls.remove(name);
+            return;
+        }
+        DruidDataSource pool = dataSource instanceof DruidDataSource ? (DruidDataSource) dataSource : null;
+        int maxConcurrent = (int) getLong(config, prefix + "maxConcurrent",
+                pool == null ? DEFAULT_MAX_CONCURRENT : pool.getMaxActive());
+        controls.put(name, new AdmissionControl(name, pool, maxConcurrent,
+                (int) getLong(config, prefix + "queueSize", DEFAULT_QUEUE_SIZE),
+                getLong(config, prefix + "maxWait", DEFAULT_MAX_WAIT),
+                (int) getLong(config, prefix + "retryAfter", DEFAULT_RETRY_AFTER)));
+    }
+
+    private static long getLong(Configuration config, String key, long defaultValue) {
+        Object value = config.getProperty(key);
+        if (value == null || StringUtils.isBlank(String.valueOf(value))) {
+            return defaultValue;
+        }
+        return Long.parseLong(String.valueOf(value).trim());
+    }
+
+    /**
+     * @param name data source name
+     * @return admission control, null if it is not enabled
+     */
+    public static AdmissionControl get(String name) {
+        return controls.get(name);
+    }
+
+    /**
+     * @return true if all connections of the pool are in use
+     */
+    boolean isPoolExhausted() {
+        return pool != null && pool.getActiveCount() >= pool.getMaxActive();
+    }
+
+    /**
+     * try to admit a request
+     *
+     * @return true if admitted, must {@link #release()} after the request
+     */
+    public boolean acquire() {
+        if (!isPoolExhausted() && permits.tryAcquire()) {
+            admitted.incrementAndGet();
+            return true;
+        }
+        if (waiting.incrementAndGet() > queueSize) {
+            waiting.decrementAndGet();
+            rejected.incrementAndGet();
+            return false;
+        }
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxWait);
+            if (permits.tryAcquire(maxWait, TimeUnit.MILLISECONDS)) {
+                if (awaitPool(deadline)) {
+                    admitted.incrementAndGet();
+                    return true;
+                }
+                permits.release();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            waiting.decrementAndGet();
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * wait until the pool has a free connection, the pool may be exhausted by work not admitted here
+     *
+     * @param deadline nano time to give up
+     * @return true if the pool has a free connection
+     */
+    private boolean awaitPool(long deadline) throws InterruptedException {
+        while (isPoolExhausted()) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return false;
+            }
+            // druid 没有连接归还的通知，轮询活动连接数
+            Thread.sleep(Math.max(1, Math.min(POOL_POLL_MILLIS, TimeUnit.NANOSECONDS.toMillis(left))));
+        }
+        return true;
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getRunning() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int getWaiting() {
+        return waiting.get();
+    }
+
+    public long getAdmittedCount() {
+        return admitted.get();
+    }
+
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return seconds of Retry-After header of rejected requests
+     */
+    public int getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -3,14 +3,18 @@ package ameba.db;
 import ameba.core.AddOn;
 import ameba.core.Application;
 import ameba.db.model.ModelManager;
+import ameba.db.model.ShardMap;
 import com.alibaba.druid.pool.DruidDataSource;
 import com.alibaba.druid.pool.DruidDataSourceFactory;
+import ameba.exception.ConfigErrorException;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.core.Configuration;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -20,7 +24,10 @@ import java.util.Set;
  */
 public class DataSource extends AddOn {
 
+    public static final String REPLICAS_CONF_SUFFIX = ".replicas";
+    public static final long DEFAULT_REPLICA_CHECK_INTERVAL = 10;
     private static final Map<String, javax.sql.DataSource> dataSourceMap = Maps.newHashMap();
+    private static final Map<String, ReplicaDataSource> readDataSourceMap = Maps.newHashMap();
     private static final Logger logger = LoggerFactory.getLogger(DataSource.class);
     private static String DEFAULT_DS_NAME = "default";
 
@@ -38,6 +45,16 @@ public class DataSource extends AddOn {
         return dataSourceMap.get(name);
     }
 
+    /**
+     * 获取只读副本数据源，db.{name}.replicas 配置的副本负载均衡
+     *
+     * @param name data source name
+     * @return replica data source, null if no replicas
+     */
+    public static ReplicaDataSource getReadDataSource(String name) {
+        return readDataSourceMap.get(name);
+    }
+
     /**
      * 获取所有数据源名称
      *
@@ -62,6 +79,7 @@ public class DataSource extends AddOn {
             key = StringUtils.deleteWhitespace(key);
             key = key.replaceAll("\\.{2,}", ".");
             if (key.startsWith(ModelManager.MODULE_MODELS_KEY_PREFIX)) continue;
+            if (key.startsWith(ShardMap.SHARDS_CONF_PREFIX)) continue;
             //db.[DataSourceName].[ConfigKey]
             String[] keys = key.split("\\.");
             if (keys.length > 2 && "db".equals(keys[0])) {
@@ -91,5 +109,33 @@ public class DataSource extends AddOn {
                 logger.error("配置数据源出错", e);
             }
         }
+
+        //db.[DataSourceName].replicas=r1,r2 副本数据源不作为独立数据源
+        Map<String, List<String>> replicaMap = Maps.newHashMap();
+        for (String name : map.keySet()) {
+            String replicas = (String) config.getProperty("db." + name + REPLICAS_CONF_SUFFIX);
+            if (StringUtils.isNotBlank(replicas)) {
+                replicaMap.put(name, Lists.newArrayList(StringUtils.deleteWhitespace(replicas).split(",")));
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : replicaMap.entrySet()) {
+            String name = entry.getKey();
+            List<javax.sql.DataSource> replicas = Lists.newArrayList();
+            for (String replica : entry.getValue()) {
+                javax.sql.DataSource ds = dataSourceMap.remove(replica);
+                if (ds == null) {
+                    throw new ConfigErrorException("replica data source " + replica + " of " + name + " not found");
+                }
+                replicas.add(ds);
+            }
+            Object interval = config.getProperty("db." + name + REPLICAS_CONF_SUFFIX + ".checkInterval");
+            readDataSourceMap.put(name, new ReplicaDataSource(name, dataSourceMap.get(name), entry.getValue(), replicas,
+                    interval == null ? DEFAULT_REPLICA_CHECK_INTERVAL : Long.parseLong(String.valueOf(interval).trim())));
+        }
+
+        for (Map.Entry<String, javax.sql.DataSource> entry : dataSourceMap.entrySet()) {
+            QueryExecutors.configure(entry.getKey(), entry.getValue(), config);
+            AdmissionControl.configure(entry.getKey(), entry.getValue(), config);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,79 @@
+package ameba.db;
+
+import com.alibaba.druid.pool.DruidDataSource;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.ws.rs.core.Configuration;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * bounded executors of async queries, one per data source.
+ * <p/>
+ * threads default to max active connections of the druid pool, so async queries never
+ * wait a connection inside the pool, a full queue rejects the query.
+ * <pre>
+ * db.{name}.async.threads=20
+ * db.{name}.async.queueSize=256
+ * </pre>
+ *
+ * @author icode
+ */
+public class QueryExecutors {
+
+    public static final int DEFAULT_THREADS = 8;
+    public static final int DEFAULT_QUEUE_SIZE = 256;
+
+    private static final Map<String, ListeningExecutorService> executors = Maps.newConcurrentMap();
+
+    private QueryExecutors() {
+    }
+
+    static void configure(String name, javax.sql.DataSource dataSource, Configuration config) {
+        int threads = DEFAULT_THREADS;
+        if (dataSource instanceof DruidDataSource) {
+            threads = ((DruidDataSource) dataSource).getMaxActive();
+        }
+        threads = getInt(config, "db." + name + ".async.threads", threads);
+        int queueSize = getInt(config, "db." + name + ".async.queueSize", DEFAULT_QUEUE_SIZE);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("ameba-query-" + name + "-%d")
+                        .setDaemon(true)
+                        .build());
+        executor.allowCoreThreadTimeOut(true);
+        ListeningExecutorService old = executors.put(name, MoreExecutors.listeningDecorator(executor));
+        if (old != null) {
+            old.shutdown();
+        }
+    }
+
+    private static int getInt(Configuration config, String key, int defaultValue) {
+        Object value = config.getProperty(key);
+        if (value == null || StringUtils.isBlank(String.valueOf(value))) {
+            return defaultValue;
+        }
+        return Integer.parseInt(String.valueOf(value).trim());
+    }
+
+    /**
+     * @param name data source name
+     * @return executor of async queries
+     */
+    public static ListeningExecutorService get(String name) {
+        ListeningExecutorService executor = executors.get(name);
+        if (executor == null) {
+            throw new IllegalStateException("data source " + name + " not found");
+        }
+        return executor;
+    }
+}
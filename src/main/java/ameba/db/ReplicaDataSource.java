@@ -0,0 +1,223 @@
+package ameba.db;
+
+import com.alibaba.druid.pool.GetConnectionTimeoutException;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * load balanced read only data source over replicas.
+ * <p/>
+ * connections are taken from replicas round robin, replicas are checked in background and
+ * a replica failed to connect or failed the check is skipped until it is valid again.
+ * a replica which only timed out waiting for a free pooled connection is busy, not down,
+ * the next replica is tried and the timeout is thrown if no replica gave a connection.
+ * if all replicas are down the primary data source is used.
+ *
+ * @author icode
+ */
+public class ReplicaDataSource implements javax.sql.DataSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReplicaDataSource.class);
+    private static final int VALID_TIMEOUT_SECONDS = 3;
+    private static ScheduledExecutorService checker;
+
+    private final String name;
+    private final javax.sql.DataSource primary;
+    private final Replica[] replicas;
+    private final AtomicInteger next = new AtomicInteger();
+
+    /**
+     * @param name          primary data source name
+     * @param primary       primary data source, used when all replicas are down
+     * @param replicaNames  replica names
+     * @param replicas      replica data sources
+     * @param checkInterval seconds between health checks of replicas
+     */
+    public ReplicaDataSource(String name, javax.sql.DataSource primary,
+                             List<String> replicaNames, List<javax.sql.DataSource> replicas, long checkInterval) {
+        this.name = name;
+        this.primary = primary;
+        this.replicas = new Replica[replicas.size()];
+        for (int i = 0; i < this.replicas.length; i++) {
+            this.replicas[i] = new Replica(replicaNames.get(i), replicas.get(i));
+        }
+        scheduleCheck(checkInterval);
+    }
+
+    private synchronized static ScheduledExecutorService checker() {
+        if (checker == null) {
+            checker = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                    .setNameFormat("ameba-replica-check-%d")
+                    .setDaemon(true)
+                    .build());
+        }
+        return checker;
+    }
+
+    private void scheduleCheck(long interval) {
+        checker().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, interval, interval, TimeUnit.SECONDS);
+    }
+
+    /**
+     * a pool wait timeout without a connect error means the pool of a healthy replica is busy
+     *
+     * @param e error of getting a connection
+     * @return true if the pool is only busy
+     */
+    static boolean isPoolBusy(SQLException e) {
+        // druid 等待超时时，如果创建连接出错会带上创建错误
+        return e instanceof GetConnectionTimeoutException && e.getCause() == null;
+    }
+
+    /**
+     * check all replicas
+     */
+    void check() {
+        for (Replica replica : replicas) {
+            replica.check();
+        }
+    }
+
+    /**
+     * @param index replica index
+     * @return true if the replica is used
+     */
+    boolean isUp(int index) {
+        return replicas[index].up;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public javax.sql.DataSource getPrimary() {
+        return primary;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % replicas.length;
+        SQLException busy = null;
+        for (int i = 0; i < replicas.length; i++) {
+            Replica replica = replicas[(start + i) % replicas.length];
+            if (!replica.up) continue;
+            try {
+                return replica.dataSource.getConnection();
+            } catch (SQLException e) {
+                if (isPoolBusy(e)) {
+                    busy = e;
+                } else {
+                    replica.down(e);
+                }
+            }
+        }
+        if (busy != null) {
+            throw busy;
+        }
+        logger.debug("all replicas of {} are down, read from primary", name);
+        return primary.getConnection();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return primary.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        primary.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        primary.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return primary.getLoginTimeout();
+    }
+
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return (T) this;
+        }
+        return primary.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || primary.isWrapperFor(iface);
+    }
+
+    private class Replica {
+        final String name;
+        final javax.sql.DataSource dataSource;
+        volatile boolean up = true;
+
+        Replica(String name, javax.sql.DataSource dataSource) {
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        void down(SQLException e) {
+            if (up) {
+                up = false;
+                logger.warn("replica " + name + " of " + ReplicaDataSource.this.name + " is down", e);
+            }
+        }
+
+        void check() {
+            Connection connection = null;
+            try {
+                connection = dataSource.getConnection();
+                if (!connection.isValid(VALID_TIMEOUT_SECONDS)) {
+                    throw new SQLException("connection is not valid");
+                }
+                if (!up) {
+                    up = true;
+                    logger.info("replica {} of {} is up", name, ReplicaDataSource.this.name);
+                }
+            } catch (SQLException e) {
+                if (!isPoolBusy(e)) {
+                    down(e);
+                }
+            } finally {
+                if (connection != null) {
+                    try {
+                        connection.close();
+                    } catch (SQLException e) {
+                        // ignore
+                    }
+                }
+            }
+        }
+    }
+}
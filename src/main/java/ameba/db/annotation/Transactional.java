@@ -16,6 +16,11 @@ public @interface Transactional {
 
     Isolation[] isolations() default {};
 
+    /**
+     * read only transaction, begin on the read server over replicas if the data source has replicas
+     */
+    boolean readOnly() default false;
+
     public enum Isolation {
 
         /**
@@ -2,8 +2,12 @@ package ameba.db.ebean;
 
 import ameba.db.DataSource;
 import ameba.db.TransactionFeature;
+import ameba.db.ebean.internal.AdmissionFeature;
 import ameba.db.ebean.internal.EbeanModelProcessor;
+import ameba.db.ebean.internal.ModelCacheListener;
+import ameba.db.ebean.internal.NoServerCacheFactory;
 import ameba.db.ebean.transaction.EbeanTransactional;
+import ameba.db.model.ModelCache;
 import ameba.db.model.ModelManager;
 import ameba.exception.ConfigErrorException;
 import ameba.message.internal.JacksonUtils;
@@ -11,10 +15,13 @@ import ameba.util.IOUtils;
 import com.avaje.ebean.Ebean;
 import com.avaje.ebean.EbeanServer;
 import com.avaje.ebean.EbeanServerFactory;
+import com.avaje.ebean.cache.ServerCache;
+import com.avaje.ebean.cache.ServerCacheOptions;
 import com.avaje.ebean.config.*;
 import com.avaje.ebeaninternal.api.SpiEbeanServer;
 import com.avaje.ebeaninternal.server.ddl.DdlGenerator;
 import com.fasterxml.jackson.core.JsonFactory;
+import com.google.common.collect.Sets;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.avaje.ebeanorm.jackson.JacksonEbeanModule;
@@ -45,6 +52,20 @@ public class EbeanFeature extends TransactionFeature {
     public static final String REQ_TOTAL_COUNT_HEADER_NAME = "model.query.requireTotalCount.header";
     public static final String DEFAULT_PER_PAGE_PARAM_NAME = "model.query.perPage.default";
     public static final String WHERE_PARAM_NAME = "model.query.where";
+    public static final String AFTER_PARAM_NAME = "model.query.after";
+    public static final String NEXT_CURSOR_HEADER_NAME = "model.query.after.header";
+    public static final String QUERY_PLAN_CACHE_SIZE = "model.query.planCache.size";
+    public static final String STREAM_ENABLED = "model.query.stream.enabled";
+    public static final String STREAM_FETCH_SIZE = "model.query.stream.fetchSize";
+    public static final String BATCH_SIZE = "model.batch.size";
+    public static final String COUNT_THREADS = "model.query.count.threads";
+    public static final String COUNT_QUEUE_SIZE = "model.query.count.queueSize";
+    public static final String COUNT_TIMEOUT = "model.query.count.timeout";
+    public static final String COUNT_CACHE_TTL = "model.query.count.cacheTtl";
+
+    public static final String READ_SERVER_SUFFIX = "-read";
+
+    private static final Set<String> readServerNames = Sets.newHashSet();
 
     static {
         setFinderClass(EbeanFinder.class);
@@ -52,6 +73,42 @@ public class EbeanFeature extends TransactionFeature {
         setUpdaterClass(EbeanUpdater.class);
     }
 
+    /**
+     * @param name data source name
+     * @return name of the read server over replicas of the data source
+     */
+    public static String getReadServerName(String name) {
+        return name + READ_SERVER_SUFFIX;
+    }
+
+    /**
+     * 获取只读副本服务
+     *
+     * @param name data source name
+     * @return read server, null if the data source has no replicas
+     */
+    public static EbeanServer getReadServer(String name) {
+        if (!readServerNames.contains(name)) {
+            return null;
+        }
+        return Ebean.getServer(getReadServerName(name));
+    }
+
+    /**
+     * read server of a query without transaction
+     *
+     * @param server primary server
+     * @return read server over replicas, the primary if it has a transaction in progress
+     * or the data source has no replicas
+     */
+    public static EbeanServer getReadServer(EbeanServer server) {
+        EbeanServer readServer = getReadServer(server.getName());
+        if (readServer == null || server.currentTransaction() != null) {
+            return server;
+        }
+        return readServer;
+    }
+
     /**
      * Helper method that generates the required evolution to properly run Ebean.
      *
@@ -104,11 +161,102 @@ public class EbeanFeature extends TransactionFeature {
         return generateEvolutionScript(Ebean.getServer(serverName), config);
     }
 
+    /**
+     * 按 db.{name}.cache.* 设置模型的 bean cache
+     *
+     * @see ModelCache
+     */
+    private static void configureBeanCache(EbeanServer server, String name) {
+        Set<Class> classes = ModelManager.getModels(name);
+        if (classes == null) return;
+        for (Class clazz : classes) {
+            ModelCache cache = ModelCache.get(name, clazz);
+            if (cache == null) continue;
+            final ServerCache beanCache = server.getServerCacheManager().getBeanCache(clazz);
+            ServerCacheOptions options = new ServerCacheOptions();
+            options.setMaxSize(cache.getMaxSize());
+            options.setMaxSecsToLive((int) cache.getTtl());
+            beanCache.setOptions(options);
+            cache.setStatistics(new ModelCache.Statistics() {
+                @Override
+                public long getHitCount() {
+                    return beanCache.getStatistics(false).getHitCount();
+                }
+
+                @Override
+                public long getMissCount() {
+                    return beanCache.getStatistics(false).getMissCount();
+                }
+
+                @Override
+                public long getSize() {
+                    return beanCache.size();
+                }
+            });
+        }
+    }
+
+    /**
+     * 创建数据源的ebean服务配置，不含数据源
+     */
+    private static ServerConfig createServerConfig(final String name, Configuration appConfig, Properties eBeanConfig,
+                                                   JsonFactory jsonFactory, ContainerConfig containerConfig) {
+        final ServerConfig config = new ServerConfig() {
+            @Override
+            public void loadFromProperties(Properties properties) {
+                loadSettings(new PropertiesWrapper("db", name, properties));
+            }
+        };
+        config.setNamingConvention(new UnderscoreNamingConvention() {
+
+            String tableNamePrefix = null;
+
+            @Override
+            public void loadFromProperties(PropertiesWrapper properties) {
+                super.loadFromProperties(properties);
+                tableNamePrefix = properties.get("namingConvention.table.name.prefix", tableNamePrefix);
+            }
+
+            public TableName getTableNameByConvention(Class<?> beanClass) {
+
+                String tableName = beanClass.getSimpleName();
+
+                if (StringUtils.isNotBlank(tableNamePrefix)) {
+                    tableName = tableNamePrefix + tableName;
+                }
+
+                return new TableName(
+                        getCatalog(),
+                        getSchema(),
+                        toUnderscoreFromCamel(tableName));
+            }
+        });
+        config.setPackages(null);
+        config.setJars(null);
+        config.setRegisterJmxMBeans(Boolean.parseBoolean((String) appConfig.getProperty("app.jmx.enabled")));
+        config.setName(name);
+        config.loadFromProperties(eBeanConfig);
+        config.setDdlGenerate(false);
+        config.setDdlRun(false);
+        config.setJsonFactory(jsonFactory);
+        config.setContainerConfig(containerConfig);
+
+        Set<Class> classes = ModelManager.getModels(name);
+        if (classes == null) {
+            throw new ConfigErrorException("please config db.{name}.models property");
+        }
+        for (Class clazz : classes) {
+            config.addClass(clazz);
+        }
+        return config;
+    }
 
     @Override
     public boolean configure(final FeatureContext context) {
         context.register(EbeanTransactional.class);
         context.register(EbeanModelProcessor.class);
+        context.register(AdmissionFeature.class);
+        context.register(AdmissionFeature.ReleaseListener.class);
         final Configuration appConfig = context.getConfiguration();
 
         final Properties eBeanConfig = new Properties();
@@ -130,59 +278,13 @@ public class EbeanFeature extends TransactionFeature {
         containerConfig.loadFromProperties(eBeanConfig);
 
         for (final String name : DataSource.getDataSourceNames()) {
-            final ServerConfig config = new ServerConfig() {
-                @Override
-                public void loadFromProperties(Properties properties) {
-                    loadSettings(new PropertiesWrapper("db", name, properties));
-                }
-            };
-            config.setNamingConvention(new UnderscoreNamingConvention() {
-
-                String tableNamePrefix = null;
-
-                @Override
-                public void loadFromProperties(PropertiesWrapper properties) {
-                    super.loadFromProperties(properties);
-                    tableNamePrefix = properties.get("namingConvention.table.name.prefix", tableNamePrefix);
-                }
-
-                public TableName getTableNameByConvention(Class<?> beanClass) {
-
-                    String tableName = beanClass.getSimpleName();
-
-                    if (StringUtils.isNotBlank(tableNamePrefix)) {
-                        tableName = tableNamePrefix + tableName;
-                    }
-
-                    return new TableName(
-                            getCatalog(),
-                            getSchema(),
-                            toUnderscoreFromCamel(tableName));
-                }
-            });
-            config.setPackages(null);
-            config.setJars(null);
-            config.setRegisterJmxMBeans(Boolean.parseBoolean((String) appConfig.getProperty("app.jmx.enabled")));
-            config.setName(name);
-            config.loadFromProperties(eBeanConfig);
+            final ServerConfig config = createServerConfig(name, appConfig, eBeanConfig, jsonFactory, containerConfig);
             config.setDataSource(DataSource.getDataSource(name));//设置为druid数据源
-            config.setDdlGenerate(false);
-            config.setDdlRun(false);
-            config.setJsonFactory(jsonFactory);
-            config.setContainerConfig(containerConfig);
 
             if (name.equals(DataSource.getDefaultDataSourceName())) {
                 config.setDefaultServer(true);
             }
-
-
-            Set<Class> classes = ModelManager.getModels(name);
-            if (classes == null) {
-                throw new ConfigErrorException("please config db.{name}.models property");
-            }
-            for (Class clazz : classes) {
-                config.addClass(clazz);
-            }
+            config.add(new ModelCacheListener(name));
 
             final boolean genDdl = PropertiesHelper.getValue(appConfig.getProperties(),
                     "db." + name + ".ddl.generate", false, Boolean.class, null);
@@ -193,6 +295,22 @@ public class EbeanFeature extends TransactionFeature {
             final boolean isProd = "product".equals(appConfig.getProperty("app.mode"));
 
             EbeanServer server = EbeanServerFactory.create(config);
+            configureBeanCache(server, name);
+
+            //db.[name].replicas 只读副本服务
+            javax.sql.DataSource readDataSource = DataSource.getReadDataSource(name);
+            if (readDataSource != null) {
+                ServerConfig readConfig = createServerConfig(name, appConfig, eBeanConfig, jsonFactory, containerConfig);
+                readConfig.setName(getReadServerName(name));
+                readConfig.setDataSource(readDataSource);
+                readConfig.setDefaultServer(false);
+                readConfig.setRegisterJmxMBeans(false);
+                //副本有延迟且主库写入不会清除读服务的缓存，读服务不使用二级缓存
+                readConfig.setServerCacheFactory(new NoServerCacheFactory());
+                EbeanServerFactory.create(readConfig);
+                readServerNames.add(name);
+                logger.info("read server {} created over replicas of {}", readConfig.getName(), name);
+            }
 
             JacksonUtils.addDefaultModule(new JacksonEbeanModule(server.json()) {
                 @Override
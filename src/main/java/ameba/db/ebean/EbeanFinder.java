@@ -1,9 +1,17 @@
 package ameba.db.ebean;
 
 import ameba.db.model.Finder;
+import ameba.db.ebean.internal.ShardQuery;
+import ameba.db.model.ModelCache;
+import ameba.db.model.ShardMap;
 import com.avaje.ebean.*;
 import com.avaje.ebean.text.PathProperties;
+import com.avaje.ebeaninternal.api.SpiQuery;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -15,11 +23,35 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
 
     private EbeanServer server;
 
+    private ShardMap shardMap;
+
     private Query<T> query;
 
     public EbeanFinder(String serverName, Class<ID> idType, Class<T> type) {
+        this(serverName, idType, type, null);
+    }
+
+    /**
+     * @param server server of the finder, null to get it by the server name
+     */
+    EbeanFinder(String serverName, Class<ID> idType, Class<T> type, EbeanServer server) {
         super(serverName, idType, type);
-        server = Ebean.getServer(getServerName());
+        shardMap = ShardMap.route(type, serverName);
+        //分片模型的查询创建在第一个分片上，执行时分发到所有分片
+        this.server = server != null ? server
+                : Ebean.getServer(shardMap == null ? getServerName() : shardMap.getServers().get(0));
+    }
+
+    private EbeanFinder(EbeanFinder<ID, T> finder, Query<T> query) {
+        super(finder.getServerName(), finder.getIdType(), finder.<T>getModelType());
+        this.shardMap = finder.shardMap;
+        this.server = finder.server;
+        this.query = query;
+    }
+
+    @Override
+    protected Finder<ID, T> copy() {
+        return new EbeanFinder<ID, T>(this, query == null ? null : ((SpiQuery<T>) query).copy());
     }
 
     public Query<T> query() {
@@ -40,11 +72,78 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
     }
 
     /**
-     * Retrieves an entity by ID.
+     * read server over replicas, primary server is used when it has a transaction in progress
+     * or the data source has no replicas. the read server has no bean or query cache, so it never
+     * returns a bean the primary has invalidated.
+     */
+    private EbeanServer readServer() {
+        if (shardMap != null) {
+            return server;
+        }
+        return EbeanFeature.getReadServer(server);
+    }
+
+    /**
+     * Retrieves an entity by ID, read through the ebean bean cache if the model is cached,
+     * see {@link ModelCache}.
+     */
+    @SuppressWarnings("unchecked")
+    public <M extends T> M byId(final ID id) {
+        ModelCache cache = ModelCache.get(getServerName(), getModelType());
+        if (cache != null) {
+            return cache.get(id, new ModelCache.Loader<M>() {
+                @Override
+                public M load() {
+                    return findCached(id);
+                }
+            });
+        }
+        return find(id);
+    }
+
+    /**
+     * find by id through the bean cache of the primary server, which is invalidated by its writes
      */
     @SuppressWarnings("unchecked")
-    public <M extends T> M byId(ID id) {
-        return (M) server().find(getModelType(), id);
+    private <M extends T> M findCached(ID id) {
+        EbeanServer cacheServer = server;
+        if (shardMap != null) {
+            if (shardMap.getKeyProperty(getModelType()) != null) {
+                return find(id);
+            }
+            cacheServer = Ebean.getServer(shardMap.server(id));
+        }
+        return (M) cacheServer.find(getModelType()).setId(id).setUseCache(true).findUnique();
+    }
+
+    /**
+     * Retrieves entities by IDs with a where id in query.
+     */
+    @SuppressWarnings("unchecked")
+    public <M extends T> Map<ID, M> byIds(Collection<ID> ids) {
+        Map<ID, M> models = Maps.newHashMap();
+        if (ids.isEmpty()) {
+            return models;
+        }
+        Query<T> idQuery = createQuery();
+        idQuery.where().idIn(Lists.newArrayList(ids));
+        List<T> rows = shardMap != null ? ShardQuery.findList(idQuery, shardMap.getServers()) : idQuery.findList();
+        for (T row : rows) {
+            models.put((ID) server().getBeanId(row), (M) row);
+        }
+        return models;
+    }
+
+    @SuppressWarnings("unchecked")
+    private <M extends T> M find(ID id) {
+        if (shardMap != null) {
+            List<String> servers = shardMap.servers(getModelType(), id);
+            if (servers.size() == 1) {
+                return (M) Ebean.getServer(servers.get(0)).find(getModelType(), id);
+            }
+            return (M) ShardQuery.findById(getModelType(), id, servers);
+        }
+        return (M) readServer().find(getModelType(), id);
     }
 
     /**
@@ -52,6 +151,12 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
      */
     @SuppressWarnings("unchecked")
     public <M extends T> M ref(ID id) {
+        if (shardMap != null) {
+            if (shardMap.getKeyProperty(getModelType()) != null) {
+                return byId(id);
+            }
+            return (M) Ebean.getServer(shardMap.server(id)).getReference(getModelType(), id);
+        }
         return (M) server().getReference(getModelType(), id);
     }
 
@@ -66,11 +171,11 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
      * Creates a query.
      */
     public Query<T> createQuery() {
-        return server().createQuery(getModelType());
+        return readServer().createQuery(getModelType());
     }
 
     public SqlQuery createSqlQuery(String sql) {
-        return server().createSqlQuery(sql);
+        return readServer().createSqlQuery(sql);
     }
 
     /**
@@ -130,6 +235,9 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
      * Executes a find IDs query in a background thread.
      */
     public FutureIds<T> findFutureIds() {
+        if (shardMap != null) {
+            return ShardQuery.findFutureIds(query(), shardMap.getServers());
+        }
         return query().findFutureIds();
     }
 
@@ -137,6 +245,9 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
      * Executes a find list query in a background thread.
      */
     public FutureList<T> findFutureList() {
+        if (shardMap != null) {
+            return ShardQuery.findFutureList(query(), shardMap.getServers());
+        }
         return query().findFutureList();
     }
 
@@ -144,6 +255,9 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
      * Executes a find row count query in a background thread.
      */
     public FutureRowCount<T> findFutureRowCount() {
+        if (shardMap != null) {
+            return ShardQuery.findFutureRowCount(query(), shardMap.getServers());
+        }
         return query().findFutureRowCount();
     }
 
@@ -151,6 +265,9 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
      * Executes a query and returns the results as a list of IDs.
      */
     public List<Object> findIds() {
+        if (shardMap != null) {
+            return ShardQuery.findIds(query(), shardMap.getServers());
+        }
         return query().findIds();
     }
 
@@ -159,6 +276,9 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
      */
     @SuppressWarnings("unchecked")
     public <M extends T> List<M> findList() {
+        if (shardMap != null) {
+            return (List<M>) ShardQuery.findList(query(), shardMap.getServers());
+        }
         return (List<M>) query().findList();
     }
 
@@ -167,6 +287,9 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
      */
     @SuppressWarnings("unchecked")
     public <M extends T> Map<?, M> findMap() {
+        if (shardMap != null) {
+            return (Map<?, M>) ShardQuery.findMap(query(), null, shardMap.getServers());
+        }
         return (Map<?, M>) query().findMap();
     }
 
@@ -175,11 +298,17 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
      */
     @SuppressWarnings("unchecked")
     public <K, M extends T> Map<K, M> findMap(String a, Class<K> b) {
+        if (shardMap != null) {
+            return (Map<K, M>) ShardQuery.findMap(query(), a, shardMap.getServers());
+        }
         return (Map<K, M>) query().findMap(a, b);
     }
 
 
     public PagedList<T> findPagedList(int i, int i2) {
+        if (shardMap != null) {
+            return ShardQuery.findPagedList(query(), i, i2, shardMap.getServers());
+        }
         return query().findPagedList(i, i2);
     }
 
@@ -187,6 +316,9 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
      * Returns the number of entities this query should return.
      */
     public int findRowCount() {
+        if (shardMap != null) {
+            return ShardQuery.findRowCount(query(), shardMap.getServers());
+        }
         return query().findRowCount();
     }
 
@@ -195,6 +327,9 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
      */
     @SuppressWarnings("unchecked")
     public <M extends T> Set<M> findSet() {
+        if (shardMap != null) {
+            return Sets.newLinkedHashSet((List<M>) ShardQuery.findList(query(), shardMap.getServers()));
+        }
         return (Set<M>) query().findSet();
     }
 
@@ -203,19 +338,33 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
      */
     @SuppressWarnings("unchecked")
     public <M extends T> M findUnique() {
+        if (shardMap != null) {
+            return (M) ShardQuery.findUnique(query(), shardMap.getServers());
+        }
         return (M) query().findUnique();
     }
 
     public void findEach(QueryEachConsumer<T> consumer) {
+        if (shardMap != null) {
+            ShardQuery.findEach(query(), consumer, shardMap.getServers());
+            return;
+        }
         query().findEach(consumer);
     }
 
     public void findEachWhile(QueryEachWhileConsumer<T> consumer) {
+        if (shardMap != null) {
+            ShardQuery.findEachWhile(query(), consumer, shardMap.getServers());
+            return;
+        }
         query().findEachWhile(consumer);
     }
 
 
     public QueryIterator<T> findIterate() {
+        if (shardMap != null) {
+            return ShardQuery.findIterate(query(), shardMap.getServers());
+        }
         return query().findIterate();
     }
 
@@ -417,7 +566,7 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
      * Sets the OQL query to run
      */
     public Query<T> setQuery(String oql) {
-        return (query = server().createQuery(getModelType(), oql));
+        return (query = readServer().createQuery(getModelType(), oql));
     }
 
     /**
@@ -485,7 +634,13 @@ public class EbeanFinder<ID, T> extends Finder<ID, T> {
 
     @Override
     public void deleteById(ID id) {
-        server().delete(id);
+        if (shardMap != null) {
+            for (String shard : shardMap.servers(getModelType(), id)) {
+                Ebean.getServer(shard).delete(getModelType(), id);
+            }
+        } else {
+            server().delete(getModelType(), id);
+        }
     }
 
 }
\ No newline at end of file
@@ -2,8 +2,14 @@ package ameba.db.ebean;
 
 import ameba.db.model.Model;
 import ameba.db.model.Persister;
+import ameba.db.model.ShardMap;
 import com.avaje.ebean.Ebean;
 import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.bean.EntityBean;
+import com.avaje.ebeaninternal.api.SpiEbeanServer;
+import com.avaje.ebeaninternal.server.deploy.BeanDescriptor;
+import com.avaje.ebeaninternal.server.deploy.BeanProperty;
+import com.google.common.base.Function;
 
 /**
  * Base-class for model-mapped models that provides convenience methods.
@@ -12,13 +18,40 @@ public class EbeanPersister<M extends Model> extends Persister<M> {
 
     private EbeanServer server;
 
+    private ShardMap shardMap;
+
     private EbeanServer server() {
+        if (shardMap != null) {
+            return Ebean.getServer(shardServer());
+        }
         return server;
     }
 
     public EbeanPersister(String serverName, M model) {
         super(serverName, model);
-        server = Ebean.getServer(getServerName());
+        shardMap = ShardMap.route(model.getClass(), serverName);
+        server = Ebean.getServer(shardMap == null ? getServerName() : shardMap.getServers().get(0));
+    }
+
+    /**
+     * shard server of the model, the shard key is read when the model is persisted
+     */
+    private String shardServer() {
+        final M model = getModel();
+        final BeanDescriptor<?> descriptor = ((SpiEbeanServer) server).getBeanDescriptor(model.getClass());
+        BeanProperty idProperty = descriptor.getIdProperty();
+        return shardMap.server(model.getClass(), idProperty == null ? null : idProperty.getName(),
+                new Function<String, Object>() {
+                    @Override
+                    public Object apply(String name) {
+                        BeanProperty property = name == null ? null : descriptor.findBeanProperty(name);
+                        if (property == null) {
+                            throw new IllegalStateException("shard key " + name + " not found in "
+                                    + model.getClass().getName());
+                        }
+                        return property.getValue((EntityBean) model);
+                    }
+                });
     }
 
     @Override
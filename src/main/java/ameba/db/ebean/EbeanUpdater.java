@@ -1,6 +1,7 @@
 package ameba.db.ebean;
 
 import ameba.db.model.Model;
+import ameba.db.model.ShardMap;
 import ameba.db.model.Updater;
 import com.avaje.ebean.Ebean;
 import com.avaje.ebean.EbeanServer;
@@ -14,10 +15,12 @@ public class EbeanUpdater<M extends Model> extends Updater<M> {
 
     private Update<M> update;
     private EbeanServer server;
+    private ShardMap shardMap;
 
     public EbeanUpdater(String serverName, Class<M> modelType, String sql) {
         super(serverName, modelType, sql);
-        server = Ebean.getServer(getServerName());
+        shardMap = ShardMap.route(modelType, serverName);
+        server = Ebean.getServer(shardMap == null ? getServerName() : shardMap.getServers().get(0));
     }
 
     protected Update<M> getUpdate() {
@@ -54,7 +57,16 @@ public class EbeanUpdater<M extends Model> extends Updater<M> {
 
     @Override
     public int execute() {
-        return getUpdate().execute();
+        int rows = 0;
+        if (shardMap != null) {
+            //更新语句没有分片键，在所有分片上执行
+            for (String shard : shardMap.getServers()) {
+                rows += Ebean.getServer(shard).execute(getUpdate(), null);
+            }
+        } else {
+            rows = getUpdate().execute();
+        }
+        return rows;
     }
 
     @Override
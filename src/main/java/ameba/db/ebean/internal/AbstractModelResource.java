@@ -1,24 +1,55 @@
 package ameba.db.ebean.internal;
 
 import ameba.core.ws.rs.PATCH;
+import ameba.db.ebean.EbeanFeature;
 import ameba.db.model.Model;
+import ameba.message.internal.JacksonUtils;
 import com.avaje.ebean.Ebean;
+import com.avaje.ebean.EbeanServer;
 import com.avaje.ebean.FutureRowCount;
 import com.avaje.ebean.OrderBy;
 import com.avaje.ebean.Query;
+import com.avaje.ebean.Transaction;
+import com.avaje.ebean.Update;
 import com.avaje.ebean.bean.EntityBean;
 import com.avaje.ebean.bean.EntityBeanIntercept;
 import com.avaje.ebeaninternal.api.SpiEbeanServer;
 import com.avaje.ebeaninternal.server.deploy.BeanDescriptor;
+import com.avaje.ebeaninternal.server.deploy.BeanProperty;
+import com.avaje.ebeaninternal.server.deploy.BeanPropertyAssoc;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.apache.commons.lang3.StringUtils;
+import org.glassfish.jersey.server.internal.inject.ConfiguredValidator;
 
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.persistence.PersistenceException;
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
 import javax.validation.constraints.NotNull;
 import javax.ws.rs.*;
 import javax.ws.rs.core.*;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Providers;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
 import java.net.URI;
+import java.sql.Timestamp;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -29,8 +60,13 @@ public abstract class AbstractModelResource<T extends Model> {
     protected Class<T> modelType;
     protected final SpiEbeanServer server;
     protected String defaultFindOrderBy;
+    private static volatile ObjectMapper batchMapper;
     @Context
     protected UriInfo uriInfo;
+    @Context
+    private Providers providers;
+    @Inject
+    private Provider<ConfiguredValidator> validatorProvider;
 
     public AbstractModelResource(Class<T> modelType) {
         this(modelType, (SpiEbeanServer) Ebean.getServer(null));
@@ -48,15 +84,7 @@ public abstract class AbstractModelResource<T extends Model> {
      */
     @POST
     public Response insert(@NotNull @Valid final T model) {
-        BeanDescriptor descriptor = server.getBeanDescriptor(model.getClass());
-        Object idProp = descriptor.getId((EntityBean) model);
-        if (idProp instanceof CharSequence) {
-            if (StringUtils.isNotBlank((CharSequence) idProp)) {
-                descriptor.getIdProperty().setValue((EntityBean) model, null);
-            }
-        } else if (idProp != null) {
-            descriptor.getIdProperty().setValue((EntityBean) model, null);
-        }
+        clearId(model);
 
         preInsertModel(model);
         insertModel(model);
@@ -69,6 +97,18 @@ public abstract class AbstractModelResource<T extends Model> {
         return Response.created(createdUri).build();
     }
 
+    private void clearId(final T model) {
+        BeanDescriptor descriptor = server.getBeanDescriptor(model.getClass());
+        Object idProp = descriptor.getId((EntityBean) model);
+        if (idProp instanceof CharSequence) {
+            if (StringUtils.isNotBlank((CharSequence) idProp)) {
+                descriptor.getIdProperty().setValue((EntityBean) model, null);
+            }
+        } else if (idProp != null) {
+            descriptor.getIdProperty().setValue((EntityBean) model, null);
+        }
+    }
+
     protected void preInsertModel(final T model) {
 
     }
@@ -93,13 +133,17 @@ public abstract class AbstractModelResource<T extends Model> {
     public void update(@PathParam("id") String id, @NotNull @Valid final T model) {
         BeanDescriptor descriptor = server.getBeanDescriptor(model.getClass());
         descriptor.convertSetId(id, (EntityBean) model);
+        markAllChanged(model);
+        preUpdateModel(model);
+        updateModel(model);
+        postUpdateModel(model);
+    }
+
+    private void markAllChanged(final T model) {
         EntityBeanIntercept intercept = ((EntityBean) model)._ebean_getIntercept();
         for (int i = 0; i < intercept.getPropertyLength(); i++) {
             intercept.markPropertyAsChanged(i);
         }
-        preUpdateModel(model);
-        updateModel(model);
-        postUpdateModel(model);
     }
 
     protected void preUpdateModel(final T model) {
@@ -116,13 +160,46 @@ public abstract class AbstractModelResource<T extends Model> {
 
     /**
      * Update a model items.
+     * <p>
+     * Only the properties present in the request body are updated (json merge patch).
+     * The version of the model is given by the body or the If-Match header, the update is
+     * checked against it and 409 is returned on conflict.
+     * </p>
      *
-     * @param id    the unique id of the model
-     * @param model the model to update
+     * @param id      the unique id of the model
+     * @param body    the model items to update
+     * @param ifMatch expected version
      */
     @PATCH
     @Path("{id}")
-    public void patch(@PathParam("id") String id, @NotNull final T model) {
+    public void patch(@PathParam("id") String id, @NotNull final ObjectNode body,
+                      @HeaderParam(HttpHeaders.IF_MATCH) String ifMatch) throws IOException {
+        T model;
+        try {
+            model = readMapper().treeToValue(body, modelType);
+        } catch (JsonProcessingException e) {
+            throw new BadRequestException(e);
+        }
+        Set<String> properties = fieldNames(body);
+        if (StringUtils.isNotBlank(ifMatch)) {
+            BeanProperty versionProperty = versionProperty(server.getBeanDescriptor(model.getClass()));
+            if (versionProperty != null) {
+                String version = StringUtils.strip(ifMatch.trim(), "\"");
+                versionProperty.setValue((EntityBean) model, versionProperty.getScalarType().toBeanType(version));
+                properties.add(versionProperty.getName());
+            }
+        }
+        setPatchProperties(model, properties);
+        patch(id, model);
+    }
+
+    /**
+     * Update the loaded properties of a model.
+     *
+     * @param id    the unique id of the model
+     * @param model the model items to update
+     */
+    public void patch(String id, final T model) {
         BeanDescriptor descriptor = server.getBeanDescriptor(model.getClass());
         descriptor.convertSetId(id, (EntityBean) model);
         prePatchModel(model);
@@ -130,18 +207,385 @@ public abstract class AbstractModelResource<T extends Model> {
         postPatchModel(model);
     }
 
+    private static Set<String> fieldNames(JsonNode node) {
+        Set<String> names = Sets.newLinkedHashSet();
+        Iterator<String> it = node.fieldNames();
+        while (it.hasNext()) {
+            names.add(it.next());
+        }
+        return names;
+    }
+
+    /**
+     * mark the given properties loaded and others unloaded, the properties bound by field
+     * access are not intercepted
+     */
+    private static void setPatchProperties(final Object model, final Set<String> properties) {
+        EntityBean bean = (EntityBean) model;
+        EntityBeanIntercept intercept = bean._ebean_getIntercept();
+        for (int i = 0; i < intercept.getPropertyLength(); i++) {
+            if (properties.contains(bean._ebean_getPropertyName(i))) {
+                intercept.setLoadedProperty(i);
+            } else {
+                intercept.setPropertyUnloaded(i);
+            }
+        }
+    }
+
+    private static BeanProperty versionProperty(BeanDescriptor<?> descriptor) {
+        for (BeanProperty property : descriptor.propertiesBaseScalar()) {
+            if (property.isVersion()) {
+                return property;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isNumber(BeanProperty property) {
+        return Number.class.isAssignableFrom(property.getPropertyType()) || property.getPropertyType().isPrimitive();
+    }
+
+    /**
+     * orm update statement of a patch, the version is always increased and checked if the expected
+     * version is given
+     *
+     * @param beanName      bean name
+     * @param properties    property names to update
+     * @param idName        id property name
+     * @param versionName   version property name, null if the model has no version
+     * @param numberVersion version is a number or a timestamp
+     * @param checkVersion  check the expected version
+     * @return orm update, the parameters are the property names, id, version and newVersion
+     */
+    static String patchStatement(String beanName, List<String> properties, String idName,
+                                 String versionName, boolean numberVersion, boolean checkVersion) {
+        StringBuilder ormUpdate = new StringBuilder("update ").append(beanName).append(" set ");
+        for (int i = 0; i < properties.size(); i++) {
+            if (i > 0) ormUpdate.append(", ");
+            String name = properties.get(i);
+            ormUpdate.append(name).append(" = :").append(name);
+        }
+        if (versionName != null) {
+            ormUpdate.append(", ").append(versionName).append(" = ");
+            if (numberVersion) {
+                ormUpdate.append(versionName).append(" + 1");
+            } else {
+                ormUpdate.append(":newVersion");
+            }
+        }
+        ormUpdate.append(" where ").append(idName).append(" = :id");
+        if (versionName != null && checkVersion) {
+            ormUpdate.append(" and ").append(versionName).append(" = :version");
+        }
+        return ormUpdate.toString();
+    }
+
+    /**
+     * @param rows         updated rows
+     * @param checkVersion the expected version is checked
+     * @throws ClientErrorException 409 if the version does not match
+     * @throws NotFoundException    if the model is not found
+     */
+    static void checkPatched(int rows, boolean checkVersion) {
+        if (rows == 0) {
+            if (checkVersion) {
+                throw new ClientErrorException("model version does not match", Response.Status.CONFLICT);
+            }
+            throw new NotFoundException();
+        }
+    }
+
     protected void prePatchModel(final T model) {
 
     }
 
+    /**
+     * Update the loaded properties of model.
+     * <p>
+     * The update is a single UPDATE statement of the loaded scalar properties, the version is
+     * increased and checked if it is loaded. If an association property is loaded, the model is
+     * updated by the orm.
+     * </p>
+     *
+     * @param model model with id and the properties to update
+     */
+    @SuppressWarnings("unchecked")
     protected void patchModel(final T model) {
-        server.update(model);
+        EntityBean bean = (EntityBean) model;
+        EntityBeanIntercept intercept = bean._ebean_getIntercept();
+        BeanDescriptor<T> descriptor = (BeanDescriptor<T>) server.getBeanDescriptor(model.getClass());
+        BeanProperty idProperty = descriptor.getIdProperty();
+        BeanProperty versionProperty = versionProperty(descriptor);
+
+        Object version = null;
+        List<BeanProperty> updates = Lists.newArrayList();
+        for (int i = 0; i < intercept.getPropertyLength(); i++) {
+            if (!intercept.isLoadedProperty(i)) {
+                continue;
+            }
+            BeanProperty property = descriptor.findBeanProperty(bean._ebean_getPropertyName(i));
+            if (property == null || property == idProperty) {
+                continue;
+            }
+            if (property == versionProperty) {
+                version = property.getValue(bean);
+                continue;
+            }
+            if (property instanceof BeanPropertyAssoc || property.isTransient()) {
+                server.update(model);
+                return;
+            }
+            updates.add(property);
+        }
+        if (updates.isEmpty()) {
+            return;
+        }
+
+        List<String> names = Lists.newArrayList();
+        for (BeanProperty property : updates) {
+            names.add(property.getName());
+        }
+        boolean checkVersion = version != null;
+        Update<T> update = server.createUpdate((Class<T>) model.getClass(), patchStatement(descriptor.getName(),
+                names, idProperty.getName(), versionProperty == null ? null : versionProperty.getName(),
+                versionProperty != null && isNumber(versionProperty), checkVersion));
+        for (BeanProperty property : updates) {
+            update.set(property.getName(), property.getValue(bean));
+        }
+        update.set("id", idProperty.getValue(bean));
+        if (versionProperty != null) {
+            if (checkVersion) {
+                update.set("version", versionProperty.getScalarType().toBeanType(version));
+            }
+            if (!isNumber(versionProperty)) {
+                update.set("newVersion", versionProperty.getScalarType()
+                        .toBeanType(new Timestamp(System.currentTimeMillis())));
+            }
+        }
+        checkPatched(update.execute(), checkVersion);
     }
 
     protected void postPatchModel(final T model) {
 
     }
 
+    /**
+     * Insert models from a json array.
+     * <p>
+     * The array is read one model at a time and all models are inserted in one transaction
+     * with jdbc batch, the batch size is model.batch.size.
+     * </p>
+     *
+     * @param in json array of models
+     * @return per item results, index and id or error
+     */
+    @POST
+    @Path("batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response insertBatch(@NotNull final InputStream in) throws IOException {
+        return Response.ok(writeBatch(in, BatchOperation.INSERT)).build();
+    }
+
+    /**
+     * Update models from a json array, every model must have the id.
+     *
+     * @param in json array of models
+     * @return per item results, index and id or error
+     */
+    @PUT
+    @Path("batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response updateBatch(@NotNull final InputStream in) throws IOException {
+        return Response.ok(writeBatch(in, BatchOperation.UPDATE)).build();
+    }
+
+    /**
+     * Update model items from a json array, every model must have the id.
+     *
+     * @param in json array of models
+     * @return per item results, index and id or error
+     */
+    @PATCH
+    @Path("batch")
+    @Consumes(MediaType.APPLICATION_JSON)
+    public Response patchBatch(@NotNull final InputStream in) throws IOException {
+        return Response.ok(writeBatch(in, BatchOperation.PATCH)).build();
+    }
+
+    /**
+     * Write the models of a json array in one transaction.
+     * <p>
+     * Items which can not be read, are not valid, have no id for update or conflict with the
+     * version are reported with error and skipped. A database error rolls back the whole batch,
+     * the response is 500 with the results and every written item is reported as rolled back.
+     * </p>
+     */
+    protected List<Map<String, Object>> writeBatch(final InputStream in, final BatchOperation operation) throws IOException {
+        ObjectMapper mapper = readMapper();
+        JsonParser parser = mapper.getFactory().createParser(in);
+        List<Map<String, Object>> results = Lists.newArrayList();
+        Validator validator = batchValidator();
+        Transaction transaction = server.beginTransaction();
+        try {
+            // patch 需要每条更新的行数来判断版本冲突，不使用 jdbc batch
+            transaction.setBatchMode(operation != BatchOperation.PATCH);
+            transaction.setBatchSize(EbeanModelProcessor.getBatchSize());
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new BadRequestException("request body must be a json array");
+            }
+            int index = 0;
+            while (parser.nextToken() != JsonToken.END_ARRAY) {
+                Map<String, Object> result = Maps.newLinkedHashMap();
+                result.put("index", index++);
+                results.add(result);
+                // read one item as tree, so a bad item does not break the array parsing
+                JsonNode node = parser.readValueAsTree();
+                T model;
+                try {
+                    model = mapper.treeToValue(node, modelType);
+                } catch (JsonMappingException e) {
+                    result.put("error", e.getOriginalMessage());
+                    continue;
+                }
+                if (operation != BatchOperation.INSERT && server.getBeanId(model) == null) {
+                    result.put("error", "id is required");
+                    continue;
+                }
+                Set<String> properties = operation == BatchOperation.PATCH ? fieldNames(node) : null;
+                if (validator != null) {
+                    List<Map<String, String>> violations = validate(validator, model, properties);
+                    if (!violations.isEmpty()) {
+                        result.put("error", "model is not valid");
+                        result.put("violations", violations);
+                        continue;
+                    }
+                }
+                prepareBatchItem(operation, model, properties);
+                if (operation == BatchOperation.INSERT) {
+                    preInsertModel(model);
+                    insertModel(model);
+                    postInsertModel(model);
+                } else if (operation == BatchOperation.UPDATE) {
+                    preUpdateModel(model);
+                    updateModel(model);
+                    postUpdateModel(model);
+                } else {
+                    prePatchModel(model);
+                    try {
+                        patchModel(model);
+                    } catch (ClientErrorException e) {
+                        result.put("error", e.getMessage());
+                        continue;
+                    }
+                    postPatchModel(model);
+                }
+                result.put("model", model);
+            }
+            transaction.commit();
+        } catch (JsonProcessingException e) {
+            throw new BadRequestException("invalid json array", e);
+        } catch (PersistenceException e) {
+            // the batch is flushed by commit, a failed commit already ended the transaction,
+            // an active one is rolled back by end()
+            for (Map<String, Object> result : results) {
+                if (result.remove("model") != null) {
+                    result.put("error", "rolled back");
+                }
+            }
+            throw new InternalServerErrorException(Response.serverError().entity(results).build(), e);
+        } finally {
+            transaction.end();
+            parser.close();
+        }
+        for (Map<String, Object> result : results) {
+            Object model = result.remove("model");
+            if (model != null) {
+                Object id = server.getBeanId(model);
+                result.put("id", id);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return validator of batch items, null if validation is not configured
+     */
+    Validator batchValidator() {
+        return validatorProvider == null ? null : validatorProvider.get();
+    }
+
+    /**
+     * clear the id of an inserted model, mark all properties of an updated model changed
+     * and only the given properties of a patched model loaded
+     */
+    void prepareBatchItem(final BatchOperation operation, final T model, final Set<String> properties) {
+        switch (operation) {
+            case INSERT:
+                clearId(model);
+                break;
+            case UPDATE:
+                markAllChanged(model);
+                break;
+            default:
+                setPatchProperties(model, properties);
+        }
+    }
+
+    /**
+     * validate the model, or only the given properties of model
+     *
+     * @return property path and message of violations
+     */
+    private List<Map<String, String>> validate(Validator validator, T model, Set<String> properties) {
+        Set<ConstraintViolation<T>> violations;
+        if (properties == null) {
+            violations = validator.validate(model);
+        } else {
+            violations = Sets.newLinkedHashSet();
+            BeanDescriptor descriptor = server.getBeanDescriptor(model.getClass());
+            for (String name : properties) {
+                if (descriptor.findBeanProperty(name) != null) {
+                    violations.addAll(validator.validateProperty(model, name));
+                }
+            }
+        }
+        List<Map<String, String>> list = Lists.newArrayList();
+        for (ConstraintViolation<T> violation : violations) {
+            Map<String, String> item = Maps.newLinkedHashMap();
+            item.put("property", String.valueOf(violation.getPropertyPath()));
+            item.put("message", violation.getMessage());
+            list.add(item);
+        }
+        return list;
+    }
+
+    /**
+     * object mapper of the json message body reader, so a model is bound like an entity parameter
+     */
+    protected ObjectMapper readMapper() {
+        if (providers != null) {
+            MessageBodyReader<T> reader = providers.getMessageBodyReader(modelType, modelType,
+                    new Annotation[0], MediaType.APPLICATION_JSON_TYPE);
+            if (reader instanceof JacksonJsonProvider) {
+                return ((JacksonJsonProvider) reader).locateMapper(modelType, MediaType.APPLICATION_JSON_TYPE);
+            }
+        }
+        return batchMapper();
+    }
+
+    private static ObjectMapper batchMapper() {
+        if (batchMapper == null) {
+            ObjectMapper mapper = new ObjectMapper();
+            JacksonUtils.configureMapper(mapper);
+            batchMapper = mapper;
+        }
+        return batchMapper;
+    }
+
+    protected enum BatchOperation {
+        INSERT, UPDATE, PATCH
+    }
+
     /**
      * Delete multiple model using Id's from the Matrix.
      *
@@ -198,7 +642,7 @@ public abstract class AbstractModelResource<T extends Model> {
     @GET
     @Path("{id}")
     public Response find(@NotNull @PathParam("id") final String id) {
-        Query<T> query = server.find(modelType);
+        Query<T> query = readServer().find(modelType);
         FutureRowCount rowCount = applyUriQuery(query);
         configFindByIdQuery(query);
         T m = query.setId(id).findUnique();
@@ -210,6 +654,14 @@ public abstract class AbstractModelResource<T extends Model> {
         return response;
     }
 
+    /**
+     * server of the find queries, the read server over replicas if the data source has replicas
+     * and no transaction is in progress
+     */
+    protected EbeanServer readServer() {
+        return EbeanFeature.getReadServer(server);
+    }
+
     /**
      * Configure the "Find By Id" query.
      * <p>
@@ -237,7 +689,7 @@ public abstract class AbstractModelResource<T extends Model> {
     @GET
     public Response find() {
 
-        Query<T> query = server.find(modelType);
+        Query<T> query = readServer().find(modelType);
 
         if (StringUtils.isNotBlank(defaultFindOrderBy)) {
             // see if we should use the default orderBy clause
@@ -253,12 +705,30 @@ public abstract class AbstractModelResource<T extends Model> {
 
         Response.ResponseBuilder builder = Response.ok();
 
-        List<T> list = query.findList();
+        Object entity;
+        List<T> list = null;
+        if (EbeanModelProcessor.isStream(uriInfo.getQueryParameters())) {
+            QueryStream<T> stream = EbeanModelProcessor.stream(query);
+            stream.setRowProcessor(new QueryStream.RowProcessor<T>() {
+                @Override
+                public Object process(T row) {
+                    return processFoundModelRow(row);
+                }
+            });
+            entity = processFoundModelStream(stream);
+        } else {
+            list = query.findList();
+            entity = processFoundModelList(list);
+        }
 
-        Response response = builder.entity(processFoundModelList(list)).build();
+        Response response = builder.entity(entity).build();
 
         applyRowCountHeader(response.getHeaders(), query, rowCount);
 
+        if (list != null) {
+            EbeanModelProcessor.applyCursorHeader(uriInfo, response.getHeaders(), query, list);
+        }
+
         return response;
     }
 
@@ -277,12 +747,54 @@ public abstract class AbstractModelResource<T extends Model> {
 
     }
 
+    /**
+     * process the found models, every model is processed by {@link #processFoundModelRow(Model)}.
+     * the list is returned as is unless a row is replaced, then a copy with the replaced rows.
+     *
+     * @param list found models
+     * @return response entity
+     */
     protected Object processFoundModelList(final List<T> list) {
-        return list;
+        List<Object> processed = null;
+        int index = 0;
+        for (T model : list) {
+            Object row = processFoundModelRow(model);
+            if (processed == null && row != model) {
+                processed = Lists.newArrayListWithCapacity(list.size());
+                processed.addAll(list.subList(0, index));
+            }
+            if (processed != null) {
+                processed.add(row);
+            }
+            index++;
+        }
+        return processed == null ? list : processed;
+    }
+
+    /**
+     * process a model of the found list, called for every row of a streamed list too
+     *
+     * @param model found model
+     * @return model to write
+     */
+    protected Object processFoundModelRow(final T model) {
+        return model;
+    }
+
+    /**
+     * process the streamed models when model.query.stream.enabled is true,
+     * the rows are read while the response is written and processed by
+     * {@link #processFoundModelRow(Model)}.
+     *
+     * @param stream query stream
+     * @return response entity
+     */
+    protected Object processFoundModelStream(final QueryStream<T> stream) {
+        return stream;
     }
 
     protected FutureRowCount applyUriQuery(final Query<T> query) {
-        return EbeanModelProcessor.applyUriQuery(uriInfo.getQueryParameters(), query);
+        return EbeanModelProcessor.applyUriQuery(uriInfo.getQueryParameters(), query, server.getName());
     }
 
     protected void applyRowCountHeader(MultivaluedMap<String, Object> headerParams, Query query, FutureRowCount rowCount) {
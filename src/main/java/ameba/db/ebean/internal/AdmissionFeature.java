@@ -0,0 +1,134 @@
+package ameba.db.ebean.internal;
+
+import ameba.db.AdmissionControl;
+import ameba.db.DataSource;
+import ameba.db.annotation.Transactional;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.glassfish.jersey.server.monitoring.ApplicationEvent;
+import org.glassfish.jersey.server.monitoring.ApplicationEventListener;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+
+import javax.annotation.Priority;
+import javax.ws.rs.Priorities;
+import javax.ws.rs.container.*;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * bind {@link AdmissionControl} to database bound resource methods, which are methods
+ * with {@link Transactional} and methods of {@link AbstractModelResource}.
+ * <p/>
+ * a rejected request is aborted with 503 and Retry-After. permits are released by
+ * {@link ReleaseListener} when the request is finished.
+ *
+ * @author icode
+ */
+public class AdmissionFeature implements DynamicFeature {
+
+    private static final String ADMITTED_PROPERTY_NAME = AdmissionFeature.class.getName() + ".admitted";
+
+    private static Set<String> getDataSourceNames(ResourceInfo resourceInfo) {
+        Method method = resourceInfo.getResourceMethod();
+        Class<?> resourceClass = resourceInfo.getResourceClass();
+        Transactional transactional = method.getAnnotation(Transactional.class);
+        if (transactional == null) {
+            transactional = resourceClass.getAnnotation(Transactional.class);
+        }
+        if (transactional != null && transactional.servers().length > 0) {
+            return Sets.newLinkedHashSet(Lists.newArrayList(transactional.servers()));
+        }
+        if (transactional != null || AbstractModelResource.class.isAssignableFrom(resourceClass)) {
+            return Collections.singleton(DataSource.getDefaultDataSourceName());
+        }
+        return Collections.emptySet();
+    }
+
+    @Override
+    public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+        List<AdmissionControl> controls = Lists.newArrayList();
+        for (String name : getDataSourceNames(resourceInfo)) {
+            AdmissionControl control = AdmissionControl.get(name);
+            if (control != null) {
+                controls.add(control);
+            }
+        }
+        if (!controls.isEmpty()) {
+            context.register(new AdmissionFilter(controls));
+        }
+    }
+
+    /**
+     * release permits of a request when it is finished, after the entity is written,
+     * since the model processor and query streams run queries while writing.
+     * the finished event is also fired when the request failed.
+     */
+    static void release(ContainerRequestContext requestContext) {
+        @SuppressWarnings("unchecked")
+        List<AdmissionControl> admitted = (List<AdmissionControl>) requestContext.getProperty(ADMITTED_PROPERTY_NAME);
+        if (admitted != null) {
+            requestContext.removeProperty(ADMITTED_PROPERTY_NAME);
+            for (AdmissionControl control : admitted) {
+                control.release();
+            }
+        }
+    }
+
+    @Priority(Priorities.AUTHORIZATION + 100)
+    static class AdmissionFilter implements ContainerRequestFilter {
+
+        private final List<AdmissionControl> controls;
+
+        AdmissionFilter(List<AdmissionControl> controls) {
+            this.controls = controls;
+        }
+
+        @Override
+        public void filter(ContainerRequestContext requestContext) {
+            List<AdmissionControl> admitted = Lists.newArrayListWithCapacity(controls.size());
+            for (AdmissionControl control : controls) {
+                if (!control.acquire()) {
+                    for (AdmissionControl a : admitted) {
+                        a.release();
+                    }
+                    requestContext.abortWith(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                            .header(HttpHeaders.RETRY_AFTER, control.getRetryAfter())
+                            .build());
+                    return;
+                }
+                admitted.add(control);
+            }
+            requestContext.setProperty(ADMITTED_PROPERTY_NAME, admitted);
+        }
+    }
+
+    /**
+     * release admitted permits on {@link RequestEvent.Type#FINISHED}
+     */
+    public static class ReleaseListener implements ApplicationEventListener {
+
+        private static final RequestEventListener REQUEST_LISTENER = new RequestEventListener() {
+            @Override
+            public void onEvent(RequestEvent event) {
+                if (event.getType() == RequestEvent.Type.FINISHED) {
+                    release(event.getContainerRequest());
+                }
+            }
+        };
+
+        @Override
+        public void onEvent(ApplicationEvent event) {
+        }
+
+        @Override
+        public RequestEventListener onRequest(RequestEvent requestEvent) {
+            return REQUEST_LISTENER;
+        }
+    }
+}
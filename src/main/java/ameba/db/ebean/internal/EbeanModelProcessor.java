@@ -15,13 +15,16 @@ import javax.ws.rs.Priorities;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Configuration;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Link;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.ext.WriterInterceptor;
 import javax.ws.rs.ext.WriterInterceptorContext;
 import java.io.IOException;
+import java.net.URI;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * @author icode
@@ -36,7 +39,12 @@ public class EbeanModelProcessor implements WriterInterceptor {
     static String REQ_TOTAL_COUNT_PARAM_NAME = "req_count";
     static String REQ_TOTAL_COUNT_HEADER_NAME = "X-Total-Count";
     static String WHERE_PARAM_NAME = "where";
+    static String AFTER_PARAM_NAME = "after";
+    static String NEXT_CURSOR_HEADER_NAME = "X-Next-Cursor";
     static Integer DEFAULT_PER_PAGE = 20;
+    static boolean STREAM_ENABLED = false;
+    static int STREAM_FETCH_SIZE = 100;
+    static int BATCH_SIZE = 100;
 
     @Context
     private Configuration configuration;
@@ -56,14 +64,20 @@ public class EbeanModelProcessor implements WriterInterceptor {
         PER_PAGE_PARAM_NAME = StringUtils.isNotBlank(perPageParamName) ? perPageParamName : PER_PAGE_PARAM_NAME;
 
         final String reqTotalCountParamName = (String) configuration.getProperty(EbeanFeature.REQ_TOTAL_COUNT_PARAM_NAME);
-        REQ_TOTAL_COUNT_PARAM_NAME = StringUtils.isNotBlank(reqTotalCountParamName) ? perPageParamName : REQ_TOTAL_COUNT_PARAM_NAME;
+        REQ_TOTAL_COUNT_PARAM_NAME = StringUtils.isNotBlank(reqTotalCountParamName) ? reqTotalCountParamName : REQ_TOTAL_COUNT_PARAM_NAME;
 
         final String reqTotalCountHeaderName = (String) configuration.getProperty(EbeanFeature.REQ_TOTAL_COUNT_HEADER_NAME);
-        REQ_TOTAL_COUNT_HEADER_NAME = StringUtils.isNotBlank(reqTotalCountHeaderName) ? perPageParamName : REQ_TOTAL_COUNT_HEADER_NAME;
+        REQ_TOTAL_COUNT_HEADER_NAME = StringUtils.isNotBlank(reqTotalCountHeaderName) ? reqTotalCountHeaderName : REQ_TOTAL_COUNT_HEADER_NAME;
 
         final String whereParamName = (String) configuration.getProperty(EbeanFeature.WHERE_PARAM_NAME);
         WHERE_PARAM_NAME = StringUtils.isNotBlank(whereParamName) ? whereParamName : WHERE_PARAM_NAME;
 
+        final String afterParamName = (String) configuration.getProperty(EbeanFeature.AFTER_PARAM_NAME);
+        AFTER_PARAM_NAME = StringUtils.isNotBlank(afterParamName) ? afterParamName : AFTER_PARAM_NAME;
+
+        final String nextCursorHeaderName = (String) configuration.getProperty(EbeanFeature.NEXT_CURSOR_HEADER_NAME);
+        NEXT_CURSOR_HEADER_NAME = StringUtils.isNotBlank(nextCursorHeaderName) ? nextCursorHeaderName : NEXT_CURSOR_HEADER_NAME;
+
         final String defaultPerPage = (String) configuration.getProperty(EbeanFeature.DEFAULT_PER_PAGE_PARAM_NAME);
         if (StringUtils.isNotBlank(defaultPerPage)) {
             try {
@@ -72,6 +86,69 @@ public class EbeanModelProcessor implements WriterInterceptor {
                 DEFAULT_PER_PAGE = null;
             }
         }
+
+        final String planCacheSize = (String) configuration.getProperty(EbeanFeature.QUERY_PLAN_CACHE_SIZE);
+        if (StringUtils.isNotBlank(planCacheSize)) {
+            UriQueryPlan.setCacheSize(Integer.parseInt(planCacheSize.trim()));
+        }
+
+        final String streamEnabled = (String) configuration.getProperty(EbeanFeature.STREAM_ENABLED);
+        if (StringUtils.isNotBlank(streamEnabled)) {
+            STREAM_ENABLED = Boolean.parseBoolean(streamEnabled.trim());
+        }
+
+        final String streamFetchSize = (String) configuration.getProperty(EbeanFeature.STREAM_FETCH_SIZE);
+        if (StringUtils.isNotBlank(streamFetchSize)) {
+            STREAM_FETCH_SIZE = Integer.parseInt(streamFetchSize.trim());
+        }
+
+        BATCH_SIZE = getIntProperty(EbeanFeature.BATCH_SIZE, BATCH_SIZE);
+
+        RowCounter.configure(
+                getIntProperty(EbeanFeature.COUNT_THREADS, RowCounter.DEFAULT_THREADS),
+                getIntProperty(EbeanFeature.COUNT_QUEUE_SIZE, RowCounter.DEFAULT_QUEUE_SIZE),
+                getIntProperty(EbeanFeature.COUNT_TIMEOUT, (int) RowCounter.DEFAULT_TIMEOUT),
+                getIntProperty(EbeanFeature.COUNT_CACHE_TTL, (int) RowCounter.DEFAULT_CACHE_TTL));
+    }
+
+    private int getIntProperty(String key, int defaultValue) {
+        final String value = (String) configuration.getProperty(key);
+        return StringUtils.isNotBlank(value) ? Integer.parseInt(value.trim()) : defaultValue;
+    }
+
+    /**
+     * @return jdbc batch size of bulk writes
+     */
+    public static int getBatchSize() {
+        return BATCH_SIZE;
+    }
+
+    /**
+     * @return true if list responses are streamed row by row
+     */
+    public static boolean isStreamEnabled() {
+        return STREAM_ENABLED;
+    }
+
+    /**
+     * a keyset page is not streamed, the next cursor header needs the last row before the body is written
+     *
+     * @param queryParams request query parameters
+     * @return true if the list response of the request is streamed row by row
+     */
+    public static boolean isStream(MultivaluedMap<String, String> queryParams) {
+        return STREAM_ENABLED && !queryParams.containsKey(AFTER_PARAM_NAME);
+    }
+
+    /**
+     * stream the query result with the configured jdbc fetch size
+     *
+     * @param query query
+     * @param <T>   model
+     * @return json writable stream
+     */
+    public static <T> QueryStream<T> stream(Query<T> query) {
+        return new QueryStream<T>(query, STREAM_FETCH_SIZE);
     }
 
 
@@ -138,6 +215,31 @@ public class EbeanModelProcessor implements WriterInterceptor {
     }
 
     public static FutureRowCount applyPageList(MultivaluedMap<String, String> queryParams, Query query) {
+        return applyPageList(queryParams, query, null, false);
+    }
+
+    /**
+     * apply page params and start the total count if required.
+     * <p/>
+     * req_count=1 count the rows, req_count=estimate read the estimate count of table
+     * from database statistics when there is no where.
+     *
+     * @param queryParams    uri query params
+     * @param query          query
+     * @param serverName     server name of query, the count is not cached if it is null
+     * @param countCacheable true if the where of query only come from where params
+     * @return row count future, null if not required
+     */
+    static FutureRowCount applyPageList(MultivaluedMap<String, String> queryParams, Query query,
+                                        String serverName, boolean countCacheable) {
+        // count before paging, it runs concurrently with the page query
+        FutureRowCount rowCount = null;
+        String reqTotalCount = getSingleParam(queryParams.get(EbeanModelProcessor.REQ_TOTAL_COUNT_PARAM_NAME));
+        if ("1".equals(reqTotalCount) || "true".equalsIgnoreCase(reqTotalCount)) {
+            rowCount = RowCounter.count(serverName, query, queryParams.get(WHERE_PARAM_NAME), countCacheable, false);
+        } else if ("estimate".equalsIgnoreCase(reqTotalCount)) {
+            rowCount = RowCounter.count(serverName, query, queryParams.get(WHERE_PARAM_NAME), countCacheable, true);
+        }
 
         Integer maxRows = getSingleIntegerParam(queryParams.get(EbeanModelProcessor.PER_PAGE_PARAM_NAME));
 
@@ -152,21 +254,22 @@ public class EbeanModelProcessor implements WriterInterceptor {
             query.setMaxRows(maxRows);
         }
 
-        Integer firstRow = getSingleIntegerParam(queryParams.get(EbeanModelProcessor.PAGE_PARAM_NAME));
-        if (firstRow != null) {
-            if (firstRow < 1) {
-                firstRow = 1;
+        List<String> after = queryParams.get(EbeanModelProcessor.AFTER_PARAM_NAME);
+        if (after != null) {
+            // keyset pagination, page param is ignored
+            String token = getSingleParam(after);
+            KeysetCursor.apply(query, StringUtils.isBlank(token) ? null : token);
+        } else {
+            Integer page = getSingleIntegerParam(queryParams.get(EbeanModelProcessor.PAGE_PARAM_NAME));
+            if (page != null && maxRows != null) {
+                if (page < 1) {
+                    page = 1;
+                }
+                query.setFirstRow((page - 1) * maxRows);
             }
-            firstRow--;
-            query.setFirstRow(firstRow);
         }
 
-        Integer reqTotalCount = getSingleIntegerParam(queryParams.get(EbeanModelProcessor.PAGE_PARAM_NAME));
-        if (reqTotalCount != null && 1 == reqTotalCount) {
-            return query.findFutureRowCount();
-        }
-
-        return null;
+        return rowCount;
     }
 
     public static void applyWhere(MultivaluedMap<String, String> queryParams, Query query) {
@@ -177,22 +280,85 @@ public class EbeanModelProcessor implements WriterInterceptor {
             }
     }
 
+    /**
+     * apply fields, where, sort and page params to query.
+     * <p/>
+     * the parsed fields and sort, and the where templates are taken from {@link UriQueryPlan} cache,
+     * the literals of where are bound as parameters.
+     *
+     * @param queryParams uri query params
+     * @param query       query
+     * @return row count future if required
+     */
     public static FutureRowCount applyUriQuery(MultivaluedMap<String, String> queryParams, Query query) {
-        applyPathProperties(queryParams, query);
-        applyWhere(queryParams, query);
-        applyOrderBy(queryParams, query);
-        return applyPageList(queryParams, query);
+        return applyUriQuery(queryParams, query, null);
     }
 
+    /**
+     * apply fields, where, sort and page params to query, the total count is cached
+     * by the server name.
+     *
+     * @param queryParams uri query params
+     * @param query       query
+     * @param serverName  server name of query
+     * @return row count future if required
+     */
+    public static FutureRowCount applyUriQuery(MultivaluedMap<String, String> queryParams, Query query,
+                                               String serverName) {
+        boolean countCacheable = !RowCounter.hasWhere(query);
+        UriQueryPlan.plan(query,
+                queryParams.get(FIELDS_PARAM_NAME),
+                queryParams.get(WHERE_PARAM_NAME),
+                getSingleParam(queryParams.get(SORT_PARAM_NAME))).apply(query);
+        return applyPageList(queryParams, query, serverName, countCacheable);
+    }
+
+    /**
+     * add next cursor header and next link when the request use keyset pagination
+     *
+     * @param uriInfo      request uri info
+     * @param headerParams response headers
+     * @param query        query
+     * @param rows         rows of current page
+     */
+    public static void applyCursorHeader(UriInfo uriInfo, MultivaluedMap<String, Object> headerParams,
+                                         Query query, List<?> rows) {
+        if (!uriInfo.getQueryParameters().containsKey(AFTER_PARAM_NAME)) {
+            return;
+        }
+        String next = KeysetCursor.next(query, rows);
+        if (next != null) {
+            headerParams.putSingle(NEXT_CURSOR_HEADER_NAME, next);
+            URI nextUri = uriInfo.getRequestUriBuilder().replaceQueryParam(AFTER_PARAM_NAME, next).build();
+            headerParams.add(HttpHeaders.LINK, Link.fromUri(nextUri).rel("next").build().toString());
+        }
+    }
+
+    /**
+     * wait the total count with the count timeout and add the total count header,
+     * the header is omitted if the count failed or timeout.
+     *
+     * @param headerParams response headers
+     * @param query        query
+     * @param rowCount     row count future
+     */
+    @SuppressWarnings("unchecked")
     public static void applyRowCountHeader(MultivaluedMap<String, Object> headerParams, Query query, FutureRowCount rowCount) {
-        if (rowCount != null) {
-            try {
-                headerParams.putSingle(REQ_TOTAL_COUNT_HEADER_NAME, rowCount.get());
-            } catch (InterruptedException e) {
-                headerParams.putSingle(REQ_TOTAL_COUNT_HEADER_NAME, query.findRowCount());
-            } catch (ExecutionException e) {
-                headerParams.putSingle(REQ_TOTAL_COUNT_HEADER_NAME, query.findRowCount());
-            }
+        applyRowCountHeader(headerParams, query, (Future<Integer>) rowCount);
+    }
+
+    /**
+     * wait the total count with the count timeout and add the total count header,
+     * the header is omitted if the count failed or timeout.
+     *
+     * @param headerParams response headers
+     * @param query        query
+     * @param rowCount     row count future
+     */
+    public static void applyRowCountHeader(MultivaluedMap<String, Object> headerParams, Query query, Future<Integer> rowCount) {
+        Integer count = RowCounter.get(rowCount);
+        if (count != null) {
+            headerParams.putSingle(REQ_TOTAL_COUNT_HEADER_NAME, count);
         }
     }
 
@@ -204,8 +370,10 @@ public class EbeanModelProcessor implements WriterInterceptor {
 
             MultivaluedMap<String, String> queryParams = uriInfo.getQueryParameters();
             Query query = null;
+            String serverName = null;
             if (o instanceof Finder) {
                 query = ((Finder) o).query();
+                serverName = ((Finder) o).getServerName();
             } else if (o instanceof Query) {
                 query = (Query) o;
             } else if (o instanceof ExpressionList) {
@@ -213,25 +381,38 @@ public class EbeanModelProcessor implements WriterInterceptor {
             } else if (o instanceof FutureList) {
                 query = ((FutureList) o).getQuery();
             }
-            FutureRowCount rowCount = applyUriQuery(queryParams, query);
-            List list;
+            FutureRowCount rowCount = applyUriQuery(queryParams, query, serverName);
+            Object entity;
             if (o instanceof FutureList) {
-                list = query.findFutureList().getUnchecked();
+                entity = query.findFutureList().getUnchecked();
+            } else if (isStream(queryParams)) {
+                entity = stream(query);
             } else {
-                list = query.findList();
+                entity = query.findList();
             }
 
             applyRowCountHeader(context.getHeaders(), query, rowCount);
 
-            context.setEntity(list);
+            if (entity instanceof List) {
+                applyCursorHeader(uriInfo, context.getHeaders(), query, (List) entity);
+            }
+
+            context.setEntity(entity);
 
-            Class clazz = list.getClass();
+            Class clazz = entity.getClass();
 
             context.setType(clazz);
 
             context.setGenericType(clazz);
         }
 
-        context.proceed();
+        Object entity = context.getEntity();
+        try {
+            context.proceed();
+        } finally {
+            if (entity instanceof QueryStream) {
+                ((QueryStream) entity).close();
+            }
+        }
     }
 }
@@ -0,0 +1,185 @@
+package ameba.db.ebean.internal;
+
+import com.avaje.ebean.OrderBy;
+import com.avaje.ebean.Query;
+import com.avaje.ebean.bean.EntityBean;
+import com.avaje.ebeaninternal.api.SpiQuery;
+import com.avaje.ebeaninternal.server.deploy.BeanDescriptor;
+import com.avaje.ebeaninternal.server.el.ElPropertyValue;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+
+import javax.ws.rs.BadRequestException;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * keyset (seek) pagination.
+ * <p/>
+ * the cursor token is the sort key values of the last row of a page, encoded as base64url json.
+ * the next page is read by a seek predicate on the sort key instead of offset,
+ * so page N cost the same as page 1. the id property is appended to the order by
+ * to make the sort key unique. sort key properties must be non-null root properties.
+ *
+ * @author icode
+ */
+class KeysetCursor {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final BaseEncoding encoding = BaseEncoding.base64Url().omitPadding();
+
+    private KeysetCursor() {
+    }
+
+    /**
+     * make the order by unique by append the id property
+     */
+    @SuppressWarnings("unchecked")
+    private static OrderBy<?> uniqueOrderBy(Query query, BeanDescriptor<?> descriptor) {
+        String idName = descriptor.getIdProperty().getName();
+        OrderBy orderBy = query.orderBy();
+        for (Object property : orderBy.getProperties()) {
+            if (idName.equals(((OrderBy.Property) property).getProperty())) {
+                return orderBy;
+            }
+        }
+        orderBy.asc(idName);
+        return orderBy;
+    }
+
+    /**
+     * apply the seek predicate of cursor token to query
+     *
+     * @param query query with order by applied
+     * @param token cursor token, null for first page
+     */
+    @SuppressWarnings("unchecked")
+    static void apply(Query query, String token) {
+        BeanDescriptor<?> descriptor = ModelServers.descriptor(((SpiQuery<?>) query).getBeanType());
+        List<OrderBy.Property> properties = uniqueOrderBy(query, descriptor).getProperties();
+        if (token == null) {
+            return;
+        }
+        List<Object> values = decode(token, properties.size());
+        List<Object> keys = Lists.newArrayList();
+        for (int i = 0; i < properties.size(); i++) {
+            String property = properties.get(i).getProperty();
+            ElPropertyValue el = descriptor.getElGetValue(property);
+            if (el == null) {
+                throw new BadRequestException("unknown sort property " + property);
+            }
+            keys.add(el.elConvertType(values.get(i)));
+        }
+        query.where().raw(predicate(properties), binds(keys));
+        query.setFirstRow(0);
+    }
+
+    /**
+     * seek predicate of the sort key, (a > ?) or (a = ? and b > ?) or ...
+     *
+     * @param properties sort key properties
+     * @return predicate
+     */
+    static String predicate(List<OrderBy.Property> properties) {
+        StringBuilder predicate = new StringBuilder("(");
+        for (int i = 0; i < properties.size(); i++) {
+            if (i > 0) predicate.append(" or ");
+            predicate.append('(');
+            for (int j = 0; j <= i; j++) {
+                OrderBy.Property property = properties.get(j);
+                if (j > 0) predicate.append(" and ");
+                predicate.append(property.getProperty());
+                if (j < i) {
+                    predicate.append(" = ?");
+                } else {
+                    predicate.append(property.isAscending() ? " > ?" : " < ?");
+                }
+            }
+            predicate.append(')');
+        }
+        return predicate.append(')').toString();
+    }
+
+    /**
+     * @param keys sort key values
+     * @return bind values of {@link #predicate(List)}
+     */
+    static Object[] binds(List<Object> keys) {
+        List<Object> binds = Lists.newArrayList();
+        for (int i = 0; i < keys.size(); i++) {
+            binds.addAll(keys.subList(0, i + 1));
+        }
+        return binds.toArray();
+    }
+
+    /**
+     * @param values sort key values
+     * @return cursor token
+     */
+    static String encode(List<Object> values) {
+        try {
+            return encoding.encode(mapper.writeValueAsBytes(values));
+        } catch (IOException e) {
+            throw new IllegalStateException("encode cursor error", e);
+        }
+    }
+
+    /**
+     * @param token cursor token from the client
+     * @param size  sort key property count
+     * @return sort key values
+     * @throws BadRequestException the token is not a cursor of the sort
+     */
+    @SuppressWarnings("unchecked")
+    static List<Object> decode(String token, int size) {
+        List<Object> values;
+        try {
+            values = mapper.readValue(encoding.decode(token), List.class);
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException("invalid cursor", e);
+        } catch (IOException e) {
+            throw new BadRequestException("invalid cursor", e);
+        }
+        if (values == null) {
+            throw new BadRequestException("invalid cursor");
+        }
+        if (values.size() != size) {
+            throw new BadRequestException("cursor does not match the sort");
+        }
+        for (Object value : values) {
+            if (value == null || value instanceof Map || value instanceof List) {
+                throw new BadRequestException("invalid cursor");
+            }
+        }
+        return values;
+    }
+
+    /**
+     * cursor token of the next page
+     *
+     * @param query query of current page
+     * @param rows  rows of current page
+     * @return token, null if no next page
+     */
+    @SuppressWarnings("unchecked")
+    static String next(Query query, List<?> rows) {
+        int maxRows = query.getMaxRows();
+        if (rows.isEmpty() || (maxRows > 0 && rows.size() < maxRows)) {
+            return null;
+        }
+        BeanDescriptor<?> descriptor = ModelServers.descriptor(((SpiQuery<?>) query).getBeanType());
+        Object last = rows.get(rows.size() - 1);
+        List<Object> values = Lists.newArrayList();
+        for (Object property : query.orderBy().getProperties()) {
+            ElPropertyValue el = descriptor.getElGetValue(((OrderBy.Property) property).getProperty());
+            Object value = el == null ? null : el.elGetValue((EntityBean) last);
+            if (value == null) {
+                return null;
+            }
+            values.add(value);
+        }
+        return encode(values);
+    }
+}
@@ -0,0 +1,61 @@
+package ameba.db.ebean.internal;
+
+import ameba.db.model.ModelCache;
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.event.BeanPersistListener;
+
+import java.util.Set;
+
+/**
+ * forget missing ids of cached models after an insert is committed.
+ * <p/>
+ * ebean calls the listener only after the transaction commits, so a rolled back insert
+ * changes nothing and a concurrent reader can not see the row before it is invalidated.
+ *
+ * @author icode
+ */
+public class ModelCacheListener implements BeanPersistListener {
+
+    private final String serverName;
+
+    public ModelCacheListener(String serverName) {
+        this.serverName = serverName;
+    }
+
+    @Override
+    public boolean isRegisterFor(Class<?> cls) {
+        return ModelCache.isCached(cls);
+    }
+
+    @Override
+    public boolean inserted(Object bean) {
+        ModelCache.invalidate(bean.getClass(), getBeanId(bean));
+        return false;
+    }
+
+    protected Object getBeanId(Object bean) {
+        return Ebean.getServer(serverName).getBeanId(bean);
+    }
+
+    @Override
+    public boolean updated(Object bean, Set<String> updatedProperties) {
+        return false;
+    }
+
+    @Override
+    public boolean deleted(Object bean) {
+        return false;
+    }
+
+    @Override
+    public void remoteInsert(Object id) {
+    }
+
+    @Override
+    public void remoteUpdate(Object id) {
+    }
+
+    @Override
+    public void remoteDelete(Object id) {
+    }
+}
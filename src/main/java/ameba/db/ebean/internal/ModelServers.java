@@ -0,0 +1,37 @@
+package ameba.db.ebean.internal;
+
+import ameba.db.DataSource;
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebeaninternal.api.SpiEbeanServer;
+import com.avaje.ebeaninternal.server.deploy.BeanDescriptor;
+
+/**
+ * find the ebean server and bean descriptor of a model type
+ *
+ * @author icode
+ */
+class ModelServers {
+
+    private ModelServers() {
+    }
+
+    /**
+     * @param beanType model type
+     * @return the server which the model registered
+     */
+    static SpiEbeanServer server(Class<?> beanType) {
+        for (String name : DataSource.getDataSourceNames()) {
+            EbeanServer server = Ebean.getServer(name);
+            if (server instanceof SpiEbeanServer
+                    && ((SpiEbeanServer) server).getBeanDescriptor(beanType) != null) {
+                return (SpiEbeanServer) server;
+            }
+        }
+        throw new IllegalStateException("can not find bean descriptor of " + beanType);
+    }
+
+    static BeanDescriptor<?> descriptor(Class<?> beanType) {
+        return server(beanType).getBeanDescriptor(beanType);
+    }
+}
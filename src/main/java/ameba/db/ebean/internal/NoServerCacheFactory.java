@@ -0,0 +1,93 @@
+package ameba.db.ebean.internal;
+
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.cache.ServerCache;
+import com.avaje.ebean.cache.ServerCacheFactory;
+import com.avaje.ebean.cache.ServerCacheOptions;
+import com.avaje.ebean.cache.ServerCacheStatistics;
+
+/**
+ * bean and query caches which keep nothing, for the read server over replicas.
+ * <p/>
+ * writes go to the primary server and only invalidate it's caches, a cache of the read server
+ * would keep the old beans until they expire.
+ *
+ * @author icode
+ */
+public class NoServerCacheFactory implements ServerCacheFactory {
+
+    @Override
+    public void init(EbeanServer ebeanServer) {
+    }
+
+    @Override
+    public ServerCache createCache(String cacheKey, ServerCacheOptions cacheOptions) {
+        return new NoServerCache(cacheKey, cacheOptions);
+    }
+
+    static class NoServerCache implements ServerCache {
+
+        private final String name;
+        private ServerCacheOptions options;
+
+        NoServerCache(String name, ServerCacheOptions options) {
+            this.name = name;
+            this.options = options;
+        }
+
+        @Override
+        public void init(EbeanServer ebeanServer) {
+        }
+
+        @Override
+        public ServerCacheOptions getOptions() {
+            return options;
+        }
+
+        @Override
+        public void setOptions(ServerCacheOptions options) {
+            this.options = options;
+        }
+
+        @Override
+        public Object get(Object id) {
+            return null;
+        }
+
+        @Override
+        public Object put(Object id, Object value) {
+            return null;
+        }
+
+        @Override
+        public Object putIfAbsent(Object id, Object value) {
+            return null;
+        }
+
+        @Override
+        public Object remove(Object id) {
+            return null;
+        }
+
+        @Override
+        public void clear() {
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+
+        @Override
+        public int getHitRatio() {
+            return 0;
+        }
+
+        @Override
+        public ServerCacheStatistics getStatistics(boolean reset) {
+            ServerCacheStatistics statistics = new ServerCacheStatistics();
+            statistics.setCacheName(name);
+            return statistics;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package ameba.db.ebean.internal;
+
+import com.avaje.ebean.Query;
+import com.avaje.ebean.QueryIterator;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * query result read by a jdbc cursor and written to json array row by row,
+ * the rows are not collected to a list, so memory stays flat for large result.
+ * <p/>
+ * the cursor is closed when the array is written, {@link EbeanModelProcessor}
+ * also closes it after the response entity is written.
+ *
+ * @author icode
+ */
+@JsonSerialize(using = QueryStream.Serializer.class)
+public class QueryStream<T> implements Iterable<T>, Closeable {
+
+    private final Query<T> query;
+    private QueryIterator<T> iterator;
+    private RowProcessor<T> rowProcessor;
+
+    QueryStream(Query<T> query, int fetchSize) {
+        this.query = query;
+        if (fetchSize != 0) {
+            query.setBufferFetchSizeHint(fetchSize);
+        }
+    }
+
+    public Query<T> getQuery() {
+        return query;
+    }
+
+    /**
+     * @param rowProcessor process every row before it is written
+     */
+    public void setRowProcessor(RowProcessor<T> rowProcessor) {
+        this.rowProcessor = rowProcessor;
+    }
+
+    Object process(T row) {
+        return rowProcessor == null ? row : rowProcessor.process(row);
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        if (iterator != null) {
+            throw new IllegalStateException("query stream can only be iterated once");
+        }
+        iterator = query.findIterate();
+        return iterator;
+    }
+
+    @Override
+    public void close() {
+        if (iterator != null) {
+            iterator.close();
+        }
+    }
+
+    /**
+     * process a row of the stream
+     *
+     * @param <T> model
+     */
+    public interface RowProcessor<T> {
+        Object process(T row);
+    }
+
+    public static class Serializer extends JsonSerializer<QueryStream<?>> {
+        @Override
+        public void serialize(QueryStream<?> value, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            writeRows(value, gen, provider);
+        }
+
+        private static <T> void writeRows(QueryStream<T> value, JsonGenerator gen, SerializerProvider provider)
+                throws IOException {
+            gen.writeStartArray();
+            try {
+                for (T row : value) {
+                    provider.defaultSerializeValue(value.process(row), gen);
+                }
+            } finally {
+                value.close();
+            }
+            gen.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package ameba.db.ebean.internal;
+
+import com.avaje.ebean.Ebean;
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.FutureRowCount;
+import com.avaje.ebean.Query;
+import com.avaje.ebean.SqlQuery;
+import com.avaje.ebean.SqlRow;
+import com.avaje.ebeaninternal.api.SpiEbeanServer;
+import com.avaje.ebeaninternal.api.SpiQuery;
+import com.avaje.ebeaninternal.server.query.QueryFutureRowCount;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * total row count of the model query.
+ * <p/>
+ * the count runs on a bounded executor concurrently with the page query and is waited
+ * with a timeout, counts are cached per server, model and where params for a short ttl.
+ * estimate mode reads the row count of table from database statistics when the query has no where.
+ *
+ * @author icode
+ */
+class RowCounter {
+
+    static final int DEFAULT_THREADS = 4;
+    static final int DEFAULT_QUEUE_SIZE = 64;
+    static final long DEFAULT_TIMEOUT = 3000;
+    static final long DEFAULT_CACHE_TTL = 30;
+
+    private static final Logger logger = LoggerFactory.getLogger(RowCounter.class);
+
+    private static ExecutorService executor = newExecutor(DEFAULT_THREADS, DEFAULT_QUEUE_SIZE);
+    private static Cache<String, Integer> counts = newCache(DEFAULT_CACHE_TTL);
+    private static long timeoutMillis = DEFAULT_TIMEOUT;
+
+    private RowCounter() {
+    }
+
+    private static ExecutorService newExecutor(int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("ameba-row-count-%d")
+                        .setDaemon(true)
+                        .build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private static Cache<String, Integer> newCache(long ttl) {
+        if (ttl <= 0) return null;
+        return CacheBuilder.newBuilder()
+                .maximumSize(10000)
+                .expireAfterWrite(ttl, TimeUnit.SECONDS)
+                .build();
+    }
+
+    static void configure(int threads, int queueSize, long timeout, long cacheTtl) {
+        ExecutorService old = executor;
+        executor = newExecutor(threads, queueSize);
+        old.shutdown();
+        counts = newCache(cacheTtl);
+        timeoutMillis = timeout;
+    }
+
+    /**
+     * start count
+     *
+     * @param serverName server name of the query, the counts are not cached if it is null
+     * @param query      query, copied before count
+     * @param wheres     where params, the cache key
+     * @param cacheable  false if the query has other where than where params
+     * @param estimate   read estimate count if query has no where
+     * @return count future, null if the executor is busy
+     */
+    static FutureRowCount<?> count(final String serverName, Query<?> query, List<String> wheres,
+                                   boolean cacheable, boolean estimate) {
+        final SpiQuery<?> copy = ((SpiQuery<?>) query).copy();
+        final Class<?> beanType = copy.getBeanType();
+        final boolean useEstimate = estimate && !hasWhere(copy);
+        final String key = serverName + "/" + beanType.getName() + (useEstimate ? "~" : ":")
+                + (wheres == null ? "" : wheres.toString());
+        final Cache<String, Integer> cache = cacheable && serverName != null ? counts : null;
+        if (cache != null) {
+            final Integer count = cache.getIfPresent(key);
+            if (count != null) {
+                FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return count;
+                    }
+                });
+                task.run();
+                return future(copy, task);
+            }
+        }
+        FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                Integer count = null;
+                if (useEstimate) {
+                    SpiEbeanServer server = serverName == null ?
+                            ModelServers.server(beanType) : (SpiEbeanServer) Ebean.getServer(serverName);
+                    count = estimate(server, server.getDatabasePlatform().getName(),
+                            server.getBeanDescriptor(beanType).getBaseTable());
+                }
+                if (count == null) {
+                    count = copy.findRowCount();
+                }
+                if (cache != null) {
+                    cache.put(key, count);
+                }
+                return count;
+            }
+        });
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.warn("row count executor is busy, skip count of {}", beanType.getName());
+            return null;
+        }
+        return future(copy, task);
+    }
+
+    /**
+     * cancel of the future cancels the count query, not the page query
+     */
+    @SuppressWarnings("unchecked")
+    private static FutureRowCount<?> future(SpiQuery<?> countQuery, FutureTask<Integer> task) {
+        return new QueryFutureRowCount(countQuery, task);
+    }
+
+    static boolean hasWhere(Query<?> query) {
+        SpiQuery<?> spiQuery = (SpiQuery<?>) query;
+        return spiQuery.getWhereExpressions() != null && !spiQuery.getWhereExpressions().isEmpty();
+    }
+
+    /**
+     * estimate row count from table statistics
+     *
+     * @param server   server of the table
+     * @param platform database platform name
+     * @param table    base table of model, with schema or not
+     * @return count, null if the database is not supported
+     */
+    static Integer estimate(EbeanServer server, String platform, String table) {
+        String schema = null;
+        int dot = table.lastIndexOf('.');
+        if (dot > 0) {
+            schema = table.substring(0, dot);
+            table = table.substring(dot + 1);
+        }
+        String sql;
+        if (StringUtils.startsWithIgnoreCase(platform, "mysql")) {
+            sql = "select table_rows as cnt from information_schema.tables where table_name = :table and table_schema = "
+                    + (schema == null ? "database()" : ":schema");
+        } else if (StringUtils.startsWithIgnoreCase(platform, "postgres")) {
+            table = table.toLowerCase();
+            sql = "select cast(reltuples as bigint) as cnt from pg_class where relname = :table and relkind = 'r'";
+            schema = null;
+        } else {
+            return null;
+        }
+        SqlQuery sqlQuery = server.createSqlQuery(sql).setParameter("table", table);
+        if (schema != null) {
+            sqlQuery.setParameter("schema", schema);
+        }
+        SqlRow row = sqlQuery.findUnique();
+        if (row == null || row.getLong("cnt") == null) {
+            return null;
+        }
+        return (int) Math.min(row.getLong("cnt"), Integer.MAX_VALUE);
+    }
+
+    /**
+     * wait the count with timeout
+     *
+     * @param future count future
+     * @return count, null if failed or timeout
+     */
+    static Integer get(Future<Integer> future) {
+        if (future == null) return null;
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            logger.warn("row count timeout after {} ms", timeoutMillis);
+        } catch (ExecutionException e) {
+            logger.error("row count error", e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,632 @@
+package ameba.db.ebean.internal;
+
+import com.avaje.ebean.*;
+import com.avaje.ebean.bean.EntityBean;
+import com.avaje.ebeaninternal.api.SpiEbeanServer;
+import com.avaje.ebeaninternal.api.SpiQuery;
+import com.avaje.ebeaninternal.server.deploy.BeanDescriptor;
+import com.avaje.ebeaninternal.server.el.ElPropertyValue;
+import com.avaje.ebeaninternal.server.query.QueryFutureIds;
+import com.avaje.ebeaninternal.server.query.QueryFutureList;
+import com.avaje.ebeaninternal.server.query.QueryFutureRowCount;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.persistence.NonUniqueResultException;
+import javax.persistence.PersistenceException;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * run a query on all shards in parallel and merge the results.
+ * <p/>
+ * each shard reads first row + max rows, the merged rows are sorted by the order by
+ * of query in memory, then first row and max rows are applied.
+ * <p/>
+ * a shard which has a transaction on the calling thread is queried on the calling thread
+ * in that transaction. findEach, findEachWhile and findIterate read the shards one by one,
+ * the rows are ordered in a shard but not across shards.
+ *
+ * @author icode
+ * @see ameba.db.model.ShardMap
+ */
+public class ShardQuery {
+
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final ThreadPoolExecutor executor;
+
+    static {
+        int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        // 队列满时在调用线程执行，不会无限堆积任务
+        executor = new ThreadPoolExecutor(threads, threads,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_CAPACITY),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("ameba-shard-query-%d")
+                        .setDaemon(true)
+                        .build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    private ShardQuery() {
+    }
+
+    private static <R> List<R> fanOut(List<ShardTask<R>> tasks) {
+        List<Future<R>> futures = Lists.newArrayListWithCapacity(tasks.size());
+        for (ShardTask<R> task : tasks) {
+            task.transaction = task.server.currentTransaction();
+            // 事务绑定在调用线程上，有事务的分片在调用线程执行
+            futures.add(task.transaction == null ? executor.submit(task) : null);
+        }
+        List<R> results = Lists.newArrayListWithCapacity(tasks.size());
+        try {
+            for (int i = 0; i < tasks.size(); i++) {
+                Future<R> future = futures.get(i);
+                results.add(future == null ? tasks.get(i).call() : future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("shard query interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new PersistenceException(e.getCause());
+        } finally {
+            for (Future<R> future : futures) {
+                if (future != null) {
+                    future.cancel(true);
+                }
+            }
+        }
+        return results;
+    }
+
+    private static <T> SpiQuery<T> shardCopy(SpiQuery<T> query) {
+        SpiQuery<T> copy = query.copy();
+        copy.setFirstRow(0);
+        if (query.getMaxRows() > 0) {
+            copy.setMaxRows(query.getFirstRow() + query.getMaxRows());
+        }
+        return copy;
+    }
+
+    /**
+     * find list on all shards
+     *
+     * @param query   query
+     * @param servers shard server names
+     * @param <T>     model
+     * @return merged rows
+     */
+    public static <T> List<T> findList(Query<T> query, List<String> servers) {
+        SpiQuery<T> spiQuery = (SpiQuery<T>) query;
+        List<ShardTask<List<T>>> tasks = Lists.newArrayListWithCapacity(servers.size());
+        for (String server : servers) {
+            final SpiQuery<T> copy = shardCopy(spiQuery);
+            tasks.add(new ShardTask<List<T>>(server) {
+                @Override
+                List<T> call(EbeanServer server, Transaction transaction) {
+                    return server.findList(copy, transaction);
+                }
+            });
+        }
+
+        OrderBy<T> orderBy = spiQuery.getOrderBy();
+        Comparator<T> comparator = null;
+        if (orderBy != null && !orderBy.getProperties().isEmpty()) {
+            comparator = comparator(spiQuery.getBeanType(), orderBy, servers.get(0));
+        }
+        return merge(fanOut(tasks), comparator, spiQuery.getFirstRow(), spiQuery.getMaxRows());
+    }
+
+    /**
+     * merge the rows of shards, then apply first row and max rows
+     *
+     * @param shardRows  rows of every shard
+     * @param comparator order of rows, null to keep the shard order
+     * @param firstRow   first row
+     * @param maxRows    max rows, 0 is no limit
+     * @param <T>        model
+     * @return merged rows
+     */
+    static <T> List<T> merge(List<List<T>> shardRows, Comparator<T> comparator, int firstRow, int maxRows) {
+        List<T> rows = Lists.newArrayList();
+        for (List<T> shard : shardRows) {
+            rows.addAll(shard);
+        }
+        if (comparator != null) {
+            // 稳定排序，相同排序值保持分片顺序
+            Collections.sort(rows, comparator);
+        }
+        int from = Math.min(firstRow, rows.size());
+        int to = maxRows > 0 ? Math.min(from + maxRows, rows.size()) : rows.size();
+        return Lists.newArrayList(rows.subList(from, to));
+    }
+
+    /**
+     * find map on all shards
+     *
+     * @param query       query
+     * @param keyProperty map key property, null for the map key of query or the id
+     * @param servers     shard server names
+     * @param <K>         key
+     * @param <T>         model
+     * @return merged rows by key
+     */
+    @SuppressWarnings("unchecked")
+    public static <K, T> Map<K, T> findMap(Query<T> query, String keyProperty, List<String> servers) {
+        SpiQuery<T> spiQuery = (SpiQuery<T>) query;
+        BeanDescriptor<T> descriptor = ((SpiEbeanServer) Ebean.getServer(servers.get(0)))
+                .getBeanDescriptor(spiQuery.getBeanType());
+        if (keyProperty == null) {
+            keyProperty = spiQuery.getMapKey();
+        }
+        if (keyProperty == null) {
+            keyProperty = descriptor.getIdProperty().getName();
+        }
+        ElPropertyValue key = descriptor.getElGetValue(keyProperty);
+        if (key == null) {
+            throw new PersistenceException("unknown map key property " + keyProperty);
+        }
+        Map<K, T> map = Maps.newLinkedHashMap();
+        for (T row : findList(query, servers)) {
+            map.put((K) key.elGetValue((EntityBean) row), row);
+        }
+        return map;
+    }
+
+    /**
+     * read the shards one by one with the consumer
+     *
+     * @param query    query
+     * @param consumer consumer of rows, return false to stop
+     * @param servers  shard server names
+     * @param <T>      model
+     */
+    public static <T> void findEachWhile(Query<T> query, final QueryEachWhileConsumer<T> consumer,
+                                         List<String> servers) {
+        SpiQuery<T> spiQuery = (SpiQuery<T>) query;
+        final int firstRow = spiQuery.getFirstRow();
+        final int maxRows = spiQuery.getMaxRows();
+        final int[] read = new int[1];
+        final boolean[] stopped = new boolean[1];
+        for (String serverName : servers) {
+            EbeanServer server = Ebean.getServer(serverName);
+            server.findEachWhile(shardCopy(spiQuery), new QueryEachWhileConsumer<T>() {
+                @Override
+                public boolean accept(T bean) {
+                    int index = read[0]++;
+                    if (index < firstRow) {
+                        return true;
+                    }
+                    if ((maxRows > 0 && index >= firstRow + maxRows) || !consumer.accept(bean)) {
+                        stopped[0] = true;
+                        return false;
+                    }
+                    return true;
+                }
+            }, server.currentTransaction());
+            if (stopped[0]) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * read the shards one by one with the consumer
+     *
+     * @param query    query
+     * @param consumer consumer of rows
+     * @param servers  shard server names
+     * @param <T>      model
+     */
+    public static <T> void findEach(Query<T> query, final QueryEachConsumer<T> consumer, List<String> servers) {
+        findEachWhile(query, new QueryEachWhileConsumer<T>() {
+            @Override
+            public boolean accept(T bean) {
+                consumer.accept(bean);
+                return true;
+            }
+        }, servers);
+    }
+
+    /**
+     * iterate the shards one by one, a shard is opened after the previous one is read
+     *
+     * @param query   query
+     * @param servers shard server names
+     * @param <T>     model
+     * @return iterator, must be closed
+     */
+    public static <T> QueryIterator<T> findIterate(Query<T> query, List<String> servers) {
+        return new ShardIterator<T>((SpiQuery<T>) query, servers);
+    }
+
+    /**
+     * find list on all shards in the background
+     *
+     * @param query   query
+     * @param servers shard server names
+     * @param <T>     model
+     * @return future list
+     */
+    public static <T> FutureList<T> findFutureList(final Query<T> query, final List<String> servers) {
+        FutureTask<List<T>> task = new FutureTask<List<T>>(new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws Exception {
+                return findList(query, servers);
+            }
+        });
+        background(servers).execute(task);
+        return new QueryFutureList<T>(query, task);
+    }
+
+    /**
+     * find row count on all shards in the background
+     *
+     * @param query   query
+     * @param servers shard server names
+     * @param <T>     model
+     * @return future row count
+     */
+    public static <T> FutureRowCount<T> findFutureRowCount(final Query<T> query, final List<String> servers) {
+        FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return findRowCount(query, servers);
+            }
+        });
+        background(servers).execute(task);
+        return new QueryFutureRowCount<T>(query, task);
+    }
+
+    /**
+     * find a page on all shards, the row count is the sum of all shards
+     *
+     * @param query     query
+     * @param pageIndex page index, start with 0
+     * @param pageSize  page size
+     * @param servers   shard server names
+     * @param <T>       model
+     * @return paged list
+     */
+    public static <T> PagedList<T> findPagedList(Query<T> query, int pageIndex, int pageSize, List<String> servers) {
+        return new ShardPagedList<T>(((SpiQuery<T>) query).copy(), pageIndex, pageSize, servers);
+    }
+
+    /**
+     * find ids on all shards in the background
+     *
+     * @param query   query
+     * @param servers shard server names
+     * @param <T>     model
+     * @return future ids
+     */
+    public static <T> FutureIds<T> findFutureIds(final Query<T> query, final List<String> servers) {
+        FutureTask<List<Object>> task = new FutureTask<List<Object>>(new Callable<List<Object>>() {
+            @Override
+            public List<Object> call() throws Exception {
+                return findIds(query, servers);
+            }
+        });
+        background(servers).execute(task);
+        return new QueryFutureIds<T>(query, task);
+    }
+
+    /**
+     * the background query runs on the orm executor, it waits the shard tasks and must not take
+     * a thread of the shard executor
+     */
+    private static BackgroundExecutor background(List<String> servers) {
+        return Ebean.getServer(servers.get(0)).getBackgroundExecutor();
+    }
+
+    /**
+     * find unique on all shards
+     *
+     * @param query   query
+     * @param servers shard server names
+     * @param <T>     model
+     * @return row, null if not found
+     */
+    public static <T> T findUnique(Query<T> query, List<String> servers) {
+        List<T> rows = findList(query, servers);
+        if (rows.size() > 1) {
+            throw new NonUniqueResultException("Unique expecting 0 or 1 rows but got [" + rows.size() + "]");
+        }
+        return rows.isEmpty() ? null : rows.get(0);
+    }
+
+    /**
+     * sum row count of all shards
+     *
+     * @param query   query
+     * @param servers shard server names
+     * @return row count
+     */
+    public static int findRowCount(Query<?> query, List<String> servers) {
+        List<ShardTask<Integer>> tasks = Lists.newArrayListWithCapacity(servers.size());
+        for (String server : servers) {
+            final SpiQuery<?> copy = ((SpiQuery<?>) query).copy();
+            tasks.add(new ShardTask<Integer>(server) {
+                @Override
+                Integer call(EbeanServer server, Transaction transaction) {
+                    return server.findRowCount(copy, transaction);
+                }
+            });
+        }
+        int count = 0;
+        for (Integer shardCount : fanOut(tasks)) {
+            count += shardCount;
+        }
+        return count;
+    }
+
+    /**
+     * find ids on all shards
+     *
+     * @param query   query
+     * @param servers shard server names
+     * @return ids
+     */
+    public static List<Object> findIds(Query<?> query, List<String> servers) {
+        List<ShardTask<List<Object>>> tasks = Lists.newArrayListWithCapacity(servers.size());
+        for (String server : servers) {
+            final SpiQuery<?> copy = ((SpiQuery<?>) query).copy();
+            tasks.add(new ShardTask<List<Object>>(server) {
+                @Override
+                List<Object> call(EbeanServer server, Transaction transaction) {
+                    return server.findIds(copy, transaction);
+                }
+            });
+        }
+        List<Object> ids = Lists.newArrayList();
+        for (List<Object> shardIds : fanOut(tasks)) {
+            ids.addAll(shardIds);
+        }
+        return ids;
+    }
+
+    /**
+     * find by id on all shards, used when the shard key is not the id
+     *
+     * @param type    model type
+     * @param id      id
+     * @param servers shard server names
+     * @param <T>     model
+     * @return model, null if not found
+     */
+    public static <T> T findById(final Class<T> type, final Object id, List<String> servers) {
+        List<ShardTask<T>> tasks = Lists.newArrayListWithCapacity(servers.size());
+        for (String server : servers) {
+            tasks.add(new ShardTask<T>(server) {
+                @Override
+                T call(EbeanServer server, Transaction transaction) {
+                    return server.find(type, id, transaction);
+                }
+            });
+        }
+        for (T model : fanOut(tasks)) {
+            if (model != null) {
+                return model;
+            }
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Comparator<T> comparator(Class<T> type, OrderBy<T> orderBy, String server) {
+        final BeanDescriptor<T> descriptor = ((SpiEbeanServer) Ebean.getServer(server)).getBeanDescriptor(type);
+        final List<OrderBy.Property> properties = orderBy.getProperties();
+        final ElPropertyValue[] values = new ElPropertyValue[properties.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = descriptor.getElGetValue(properties.get(i).getProperty());
+            if (values[i] == null) {
+                throw new PersistenceException("unknown order by property " + properties.get(i).getProperty());
+            }
+        }
+        return new Comparator<T>() {
+            @Override
+            public int compare(T o1, T o2) {
+                for (int i = 0; i < values.length; i++) {
+                    Comparable v1 = (Comparable) values[i].elGetValue((EntityBean) o1);
+                    Comparable v2 = (Comparable) values[i].elGetValue((EntityBean) o2);
+                    int c;
+                    if (v1 == null) {
+                        c = v2 == null ? 0 : -1;
+                    } else {
+                        c = v2 == null ? 1 : v1.compareTo(v2);
+                    }
+                    if (c != 0) {
+                        return properties.get(i).isAscending() ? c : -c;
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    /**
+     * query of a shard, runs in the transaction of the calling thread if the shard has one
+     */
+    private abstract static class ShardTask<R> implements Callable<R> {
+        final EbeanServer server;
+        Transaction transaction;
+
+        ShardTask(String serverName) {
+            this.server = Ebean.getServer(serverName);
+        }
+
+        @Override
+        public R call() {
+            return call(server, transaction);
+        }
+
+        abstract R call(EbeanServer server, Transaction transaction);
+    }
+
+    /**
+     * page of merged shard rows, the rows and the row count are loaded lazily
+     */
+    private static class ShardPagedList<T> implements PagedList<T> {
+        private final SpiQuery<T> query;
+        private final int pageIndex;
+        private final int pageSize;
+        private final List<String> servers;
+        private List<T> list;
+        private FutureRowCount<T> futureRowCount;
+
+        ShardPagedList(SpiQuery<T> query, int pageIndex, int pageSize, List<String> servers) {
+            this.query = query;
+            this.pageIndex = pageIndex;
+            this.pageSize = pageSize;
+            this.servers = servers;
+        }
+
+        @Override
+        public synchronized void loadRowCount() {
+            getFutureRowCount();
+        }
+
+        @Override
+        public synchronized Future<Integer> getFutureRowCount() {
+            if (futureRowCount == null) {
+                SpiQuery<T> countQuery = query.copy();
+                countQuery.setFirstRow(0);
+                countQuery.setMaxRows(0);
+                futureRowCount = findFutureRowCount(countQuery, servers);
+            }
+            return futureRowCount;
+        }
+
+        @Override
+        public synchronized List<T> getList() {
+            if (list == null) {
+                SpiQuery<T> pageQuery = query.copy();
+                pageQuery.setFirstRow(pageIndex * pageSize);
+                pageQuery.setMaxRows(pageSize);
+                list = findList(pageQuery, servers);
+            }
+            return list;
+        }
+
+        @Override
+        public int getTotalRowCount() {
+            try {
+                return getFutureRowCount().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new PersistenceException(e);
+            } catch (ExecutionException e) {
+                throw new PersistenceException(e.getCause());
+            }
+        }
+
+        @Override
+        public int getTotalPageCount() {
+            int rowCount = getTotalRowCount();
+            return rowCount == 0 ? 0 : (rowCount - 1) / pageSize + 1;
+        }
+
+        @Override
+        public int getPageSize() {
+            return pageSize;
+        }
+
+        @Override
+        public int getPageIndex() {
+            return pageIndex;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return pageIndex + 1 < getTotalPageCount();
+        }
+
+        @Override
+        public boolean hasPrev() {
+            return pageIndex > 0;
+        }
+
+        @Override
+        public String getDisplayXtoYofZ(String to, String of) {
+            int first = pageIndex * pageSize + 1;
+            int last = first + getList().size() - 1;
+            return first + to + last + of + getTotalRowCount();
+        }
+    }
+
+    /**
+     * iterate shards one by one
+     */
+    private static class ShardIterator<T> implements QueryIterator<T> {
+        private final SpiQuery<T> query;
+        private final Iterator<String> servers;
+        private final int firstRow;
+        private final int maxRows;
+        private QueryIterator<T> current;
+        private int read;
+
+        ShardIterator(SpiQuery<T> query, List<String> servers) {
+            this.query = query;
+            this.servers = servers.iterator();
+            this.firstRow = query.getFirstRow();
+            this.maxRows = query.getMaxRows();
+        }
+
+        private boolean advance() {
+            while (true) {
+                if (maxRows > 0 && read >= firstRow + maxRows) {
+                    return false;
+                }
+                if (current != null && current.hasNext()) {
+                    if (read >= firstRow) {
+                        return true;
+                    }
+                    current.next();
+                    read++;
+                    continue;
+                }
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+                if (!servers.hasNext()) {
+                    return false;
+                }
+                EbeanServer server = Ebean.getServer(servers.next());
+                current = server.findIterate(shardCopy(query), server.currentTransaction());
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return advance();
+        }
+
+        @Override
+        public T next() {
+            if (!advance()) {
+                throw new NoSuchElementException();
+            }
+            read++;
+            return current.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void close() {
+            if (current != null) {
+                current.close();
+                current = null;
+            }
+        }
+    }
+}
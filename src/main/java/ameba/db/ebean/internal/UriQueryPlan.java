@@ -0,0 +1,443 @@
+package ameba.db.ebean.internal;
+
+import com.avaje.ebean.OrderBy;
+import com.avaje.ebean.Query;
+import com.avaje.ebean.text.PathProperties;
+import com.avaje.ebeaninternal.api.SpiQuery;
+import com.avaje.ebeaninternal.server.deploy.BeanDescriptor;
+import com.avaje.ebeaninternal.server.el.ElPropertyValue;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import org.apache.commons.lang3.StringUtils;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * parsed model query uri parameters.
+ * <p/>
+ * the literal values of where clause are extracted to bind values, the parsed {@link PathProperties},
+ * order by, the where templates and the compared property of every bind value are cached per model
+ * type and query shape in a bounded lru cache. requests differ only in literals share a plan, the
+ * literals are converted to the type of the compared property per request. the same query shape
+ * produce the same sql for every request and hit the ebean query plan cache and the prepared
+ * statement cache.
+ *
+ * @author icode
+ */
+class UriQueryPlan {
+
+    static final int DEFAULT_CACHE_SIZE = 1024;
+    // 字面量前是这些类型关键字时保留原样，如 date '2015-01-01'
+    private static final Set<String> TYPE_KEYWORDS = Sets.newHashSet("date", "time", "timestamp", "interval");
+    private static final Object[] NO_VALUES = new Object[0];
+    private static Cache<Key, UriQueryPlan> plans = newCache(DEFAULT_CACHE_SIZE);
+
+    private final PathProperties[] pathProperties;
+    private final OrderBy<?> orderBy;
+    private final String[] whereTemplates;
+    /**
+     * compared property of every bind value, null if the literal is not compared with a property
+     */
+    private final String[][] bindProperties;
+
+    private UriQueryPlan(List<String> fields, String sort, String[] whereTemplates,
+                         List<String> wheres, int[][] literalStarts) {
+        if (fields != null) {
+            pathProperties = new PathProperties[fields.size()];
+            for (int i = 0; i < pathProperties.length; i++) {
+                pathProperties[i] = PathProperties.parse(fields.get(i));
+            }
+        } else {
+            pathProperties = new PathProperties[0];
+        }
+        orderBy = StringUtils.isNotBlank(sort) ? new OrderBy<Object>(sort) : null;
+        this.whereTemplates = whereTemplates;
+        bindProperties = new String[whereTemplates.length][];
+        for (int i = 0; i < whereTemplates.length; i++) {
+            bindProperties[i] = new String[literalStarts[i].length];
+            for (int k = 0; k < literalStarts[i].length; k++) {
+                bindProperties[i][k] = comparedProperty(wheres.get(i), literalStarts[i][k]);
+            }
+        }
+    }
+
+    private static Cache<Key, UriQueryPlan> newCache(int size) {
+        return CacheBuilder.newBuilder().maximumSize(size).build();
+    }
+
+    static void setCacheSize(int size) {
+        plans = newCache(size);
+    }
+
+    /**
+     * get plan of the query shape from cache or parse it, and bind the literals of request
+     *
+     * @param query  query
+     * @param fields fields params
+     * @param wheres where params
+     * @param sort   sort param
+     * @return plan and the bind values of where clauses
+     */
+    static Bound plan(Query query, List<String> fields, List<String> wheres, String sort) {
+        Class<?> beanType = ((SpiQuery<?>) query).getBeanType();
+        return plan(beanType, fields, wheres, sort, new PropertyConverter(beanType));
+    }
+
+    static Bound plan(Class<?> beanType, final List<String> fields, final List<String> wheres,
+                      final String sort, final Converter converter) {
+        int size = wheres == null ? 0 : wheres.size();
+        final String[] templates = new String[size];
+        final int[][] starts = new int[size][];
+        Object[][] literals = new Object[size][];
+        for (int i = 0; i < size; i++) {
+            List<Object> values = Lists.newArrayList();
+            List<Integer> valueStarts = Lists.newArrayList();
+            templates[i] = parameterize(wheres.get(i), values, valueStarts);
+            literals[i] = values.isEmpty() ? NO_VALUES : values.toArray();
+            starts[i] = Ints.toArray(valueStarts);
+        }
+        Key key = new Key(beanType, fields, templates, sort);
+        UriQueryPlan plan;
+        try {
+            plan = plans.get(key, new Callable<UriQueryPlan>() {
+                @Override
+                public UriQueryPlan call() throws Exception {
+                    return new UriQueryPlan(fields, sort, templates, wheres, starts);
+                }
+            });
+        } catch (ExecutionException e) {
+            throw new IllegalArgumentException(e.getCause());
+        } catch (UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+        for (int i = 0; i < size; i++) {
+            for (int k = 0; k < literals[i].length; k++) {
+                literals[i][k] = convert(converter, plan.bindProperties[i][k], literals[i][k]);
+            }
+        }
+        return new Bound(plan, literals);
+    }
+
+    /**
+     * replace string and number literals with bind parameters and convert them to the type of
+     * the compared property
+     *
+     * @param where     raw where clause
+     * @param binds     bind values output
+     * @param converter convert a literal to the type of the compared property
+     * @return where clause template
+     */
+    static String parameterize(String where, List<Object> binds, Converter converter) {
+        List<Object> literals = Lists.newArrayList();
+        List<Integer> starts = Lists.newArrayList();
+        String template = parameterize(where, literals, starts);
+        for (int k = 0; k < literals.size(); k++) {
+            binds.add(convert(converter, comparedProperty(where, starts.get(k)), literals.get(k)));
+        }
+        return template;
+    }
+
+    /**
+     * replace string and number literals with bind parameters, a string literal after a type
+     * keyword is kept
+     *
+     * @param where    raw where clause
+     * @param literals literal values output
+     * @param starts   start index of every literal in where output
+     * @return where clause template
+     */
+    static String parameterize(String where, List<Object> literals, List<Integer> starts) {
+        StringBuilder template = new StringBuilder(where.length());
+        int len = where.length();
+        int i = 0;
+        while (i < len) {
+            char c = where.charAt(i);
+            if (c == '\'') {
+                StringBuilder literal = new StringBuilder();
+                int j = i + 1;
+                boolean closed = false;
+                while (j < len) {
+                    char d = where.charAt(j);
+                    if (d == '\'') {
+                        if (j + 1 < len && where.charAt(j + 1) == '\'') {
+                            literal.append('\'');
+                            j += 2;
+                            continue;
+                        }
+                        closed = true;
+                        break;
+                    }
+                    literal.append(d);
+                    j++;
+                }
+                if (!closed) {
+                    // unterminated literal, keep it as is and let database report the error
+                    template.append(where, i, len);
+                    break;
+                }
+                if (isTypedLiteral(where, i)) {
+                    template.append(where, i, j + 1);
+                } else {
+                    literals.add(literal.toString());
+                    starts.add(i);
+                    template.append('?');
+                }
+                i = j + 1;
+            } else if (Character.isDigit(c) && (i == 0 || !isIdentifierPart(where.charAt(i - 1)))) {
+                int j = i;
+                boolean decimal = false;
+                while (j < len && (Character.isDigit(where.charAt(j))
+                        || (!decimal && where.charAt(j) == '.' && j + 1 < len && Character.isDigit(where.charAt(j + 1))))) {
+                    if (where.charAt(j) == '.') decimal = true;
+                    j++;
+                }
+                if (j < len && isIdentifierPart(where.charAt(j))) {
+                    // not a number, e.g. 1e10 or a quoted identifier
+                    template.append(where, i, j);
+                } else {
+                    String number = where.substring(i, j);
+                    literals.add(decimal ? new BigDecimal(number) : toInteger(number));
+                    starts.add(i);
+                    template.append('?');
+                }
+                i = j;
+            } else {
+                template.append(c);
+                i++;
+            }
+        }
+        return template.toString();
+    }
+
+    private static Object convert(Converter converter, String property, Object value) {
+        if (converter == null || property == null) {
+            return value;
+        }
+        return converter.convert(property, value);
+    }
+
+    /**
+     * the literal is after a type keyword, e.g. date '2015-01-01'
+     */
+    private static boolean isTypedLiteral(String where, int start) {
+        int end = skipSpaceBack(where, start - 1);
+        int begin = end;
+        while (begin >= 0 && Character.isLetter(where.charAt(begin))) {
+            begin--;
+        }
+        if (begin == end || (begin >= 0 && isIdentifierPart(where.charAt(begin)))) {
+            return false;
+        }
+        return TYPE_KEYWORDS.contains(where.substring(begin + 1, end + 1).toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * find the property compared with the literal, name = literal or name in (literal, ...)
+     *
+     * @param where where clause
+     * @param start start index of literal
+     * @return property name, null if it is not a simple comparison
+     */
+    static String comparedProperty(String where, int start) {
+        int j = skipSpaceBack(where, start - 1);
+        if (j < 0) {
+            return null;
+        }
+        char c = where.charAt(j);
+        if (c == '=' || c == '<' || c == '>') {
+            while (j >= 0 && "=<>!".indexOf(where.charAt(j)) >= 0) {
+                j--;
+            }
+            return identifierBack(where, j);
+        }
+        if (c == ',' || c == '(') {
+            // literal of in list, find the open parenthesis
+            while (j >= 0 && where.charAt(j) != '(') {
+                char d = where.charAt(j);
+                if (d == ')') {
+                    return null;
+                }
+                if (d == '\'') {
+                    j--;
+                    while (j >= 0 && where.charAt(j) != '\'') {
+                        j--;
+                    }
+                }
+                j--;
+            }
+            if (j < 0) {
+                return null;
+            }
+            int end = skipSpaceBack(where, j - 1);
+            if (end < 1 || !where.regionMatches(true, end - 1, "in", 0, 2)
+                    || (end > 1 && isIdentifierPart(where.charAt(end - 2)))) {
+                return null;
+            }
+            int nameEnd = skipSpaceBack(where, end - 2);
+            if (nameEnd >= 2 && where.regionMatches(true, nameEnd - 2, "not", 0, 3)
+                    && (nameEnd == 2 || !isIdentifierPart(where.charAt(nameEnd - 3)))) {
+                nameEnd -= 3;
+            }
+            return identifierBack(where, nameEnd);
+        }
+        return null;
+    }
+
+    private static int skipSpaceBack(String where, int index) {
+        while (index >= 0 && Character.isWhitespace(where.charAt(index))) {
+            index--;
+        }
+        return index;
+    }
+
+    private static String identifierBack(String where, int index) {
+        int end = skipSpaceBack(where, index);
+        int begin = end;
+        while (begin >= 0 && (Character.isLetterOrDigit(where.charAt(begin))
+                || where.charAt(begin) == '_' || where.charAt(begin) == '.')) {
+            begin--;
+        }
+        if (begin == end || Character.isDigit(where.charAt(begin + 1))) {
+            return null;
+        }
+        return where.substring(begin + 1, end + 1);
+    }
+
+    private static Object toInteger(String number) {
+        if (number.length() < 19) {
+            return Long.parseLong(number);
+        }
+        return new BigDecimal(number);
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '$' || c == '"' || c == '`';
+    }
+
+    String[] getWhereTemplates() {
+        return whereTemplates;
+    }
+
+    /**
+     * plan with the bind values of a request
+     */
+    static class Bound {
+        private final UriQueryPlan plan;
+        private final Object[][] whereValues;
+
+        private Bound(UriQueryPlan plan, Object[][] whereValues) {
+            this.plan = plan;
+            this.whereValues = whereValues;
+        }
+
+        @SuppressWarnings("unchecked")
+        void apply(Query query) {
+            for (PathProperties properties : plan.pathProperties) {
+                properties.apply(query);
+            }
+            for (int i = 0; i < plan.whereTemplates.length; i++) {
+                query.where().raw(plan.whereTemplates[i], whereValues[i]);
+            }
+            if (plan.orderBy != null) {
+                query.setOrderBy(plan.orderBy.copy());
+            }
+        }
+
+        UriQueryPlan getPlan() {
+            return plan;
+        }
+
+        Object[][] getWhereValues() {
+            return whereValues;
+        }
+    }
+
+    /**
+     * convert a literal to the type of property
+     */
+    interface Converter {
+        /**
+         * @param property compared property
+         * @param value    literal value
+         * @return converted value, or the value if it can not be converted
+         */
+        Object convert(String property, Object value);
+    }
+
+    /**
+     * convert by the bean descriptor of model
+     */
+    private static class PropertyConverter implements Converter {
+        private final Class<?> beanType;
+        private BeanDescriptor<?> descriptor;
+
+        PropertyConverter(Class<?> beanType) {
+            this.beanType = beanType;
+        }
+
+        @Override
+        public Object convert(String property, Object value) {
+            if (descriptor == null) {
+                descriptor = ModelServers.descriptor(beanType);
+            }
+            ElPropertyValue el = descriptor.getElGetValue(property);
+            if (el == null) {
+                return value;
+            }
+            try {
+                return el.elConvertType(value);
+            } catch (RuntimeException e) {
+                // let database report the type error
+                return value;
+            }
+        }
+    }
+
+    private static class Key {
+        private final Class<?> type;
+        private final List<String> fields;
+        private final List<String> whereTemplates;
+        private final String sort;
+        private final int hash;
+
+        Key(Class<?> type, List<String> fields, String[] whereTemplates, String sort) {
+            this.type = type;
+            this.fields = fields == null ? Collections.<String>emptyList() : Lists.newArrayList(fields);
+            this.whereTemplates = Arrays.asList(whereTemplates);
+            this.sort = StringUtils.isBlank(sort) ? null : sort;
+            int h = type == null ? 0 : type.hashCode();
+            h = 31 * h + this.fields.hashCode();
+            h = 31 * h + this.whereTemplates.hashCode();
+            h = 31 * h + (this.sort == null ? 0 : this.sort.hashCode());
+            this.hash = h;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return type == key.type
+                    && fields.equals(key.fields)
+                    && whereTemplates.equals(key.whereTemplates)
+                    && (sort == null ? key.sort == null : sort.equals(key.sort));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
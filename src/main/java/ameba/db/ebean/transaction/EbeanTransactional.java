@@ -3,7 +3,9 @@ package ameba.db.ebean.transaction;
 import ameba.db.DataSource;
 import ameba.db.TransactionInterceptor;
 import ameba.db.annotation.Transactional;
+import ameba.db.ebean.EbeanFeature;
 import com.avaje.ebean.Ebean;
+import com.avaje.ebean.EbeanServer;
 import com.avaje.ebean.Transaction;
 import com.avaje.ebean.TxIsolation;
 
@@ -33,13 +35,25 @@ public class EbeanTransactional extends TransactionInterceptor {
             Transactional.Isolation[] isolation = transactional.isolations();
             for (int i = 0; i < serverNames.length; i++) {
                 TxIsolation txIsolation = isolation.length > i ? TxIsolation.fromLevel(isolation[i].getLevel()) : TxIsolation.DEFAULT;
-                transactions[i] = Ebean.getServer(serverNames[i]).beginTransaction(txIsolation);
+                transactions[i] = getServer(serverNames[i], transactional.readOnly()).beginTransaction(txIsolation);
             }
         } else {
-            transactions = new Transaction[]{Ebean.getServer(DataSource.getDefaultDataSourceName()).beginTransaction()};
+            transactions = new Transaction[]{
+                    getServer(DataSource.getDefaultDataSourceName(), transactional.readOnly()).beginTransaction()
+            };
         }
     }
 
+    private EbeanServer getServer(String name, boolean readOnly) {
+        if (readOnly) {
+            EbeanServer server = EbeanFeature.getReadServer(name);
+            if (server != null) {
+                return server;
+            }
+        }
+        return Ebean.getServer(name);
+    }
+
     @Override
     protected void commit() {
         for (Transaction transaction : transactions)
@@ -1,12 +1,19 @@
 package ameba.db.model;
 
+import ameba.db.QueryExecutors;
 import com.avaje.ebean.*;
 import com.avaje.ebean.text.PathProperties;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import org.apache.commons.lang3.StringUtils;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author icode
@@ -58,6 +65,21 @@ public abstract class Finder<ID, T> {
     @SuppressWarnings("unchecked")
     public abstract <M extends T> Finder<ID, M> on(String server);
 
+    /**
+     * Changes the model server to the shard of key.
+     *
+     * @param key shard key value
+     * @param <M> model
+     * @see ShardMap
+     */
+    public <M extends T> Finder<ID, M> shard(Object key) {
+        ShardMap shardMap = ShardMap.get(modelType);
+        if (shardMap == null) {
+            throw new IllegalStateException(modelType.getName() + " is not sharded");
+        }
+        return on(shardMap.server(key));
+    }
+
     /**
      * Retrieves an entity by ID.
      *
@@ -65,6 +87,122 @@ public abstract class Finder<ID, T> {
      */
     public abstract <M extends T> M byId(ID id);
 
+    /**
+     * Retrieves entities by IDs in one query.
+     *
+     * @param ids ids
+     * @param <M> model
+     * @return id to entity, missing ids are absent
+     */
+    public abstract <M extends T> Map<ID, M> byIds(Collection<ID> ids);
+
+    /**
+     * Defers retrieving an entity by ID, pending ids of the request are retrieved in one query.
+     *
+     * @param <M> model
+     * @see ModelLoader
+     */
+    public <M extends T> ModelLoader.Handle<M> load(ID id) {
+        return ModelLoader.current().load(this, id);
+    }
+
+    /**
+     * finder over a copy of the current query, an async query runs the copy, so the caller can keep
+     * changing or reusing the query. a finder which keeps a query must return a copy.
+     *
+     * @return finder of the same model and server with a copy of the query
+     */
+    protected Finder<ID, T> copy() {
+        return this;
+    }
+
+    private <R> ListenableFuture<R> submit(Callable<R> task) {
+        try {
+            return QueryExecutors.get(serverName).submit(task);
+        } catch (RejectedExecutionException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * Retrieves an entity by ID on the query executor of server.
+     * <p/>
+     * async queries do not join the transaction of caller thread.
+     *
+     * @param <M> model
+     * @see QueryExecutors
+     */
+    public <M extends T> ListenableFuture<M> byIdAsync(final ID id) {
+        return submit(new Callable<M>() {
+            @Override
+            public M call() throws Exception {
+                return Finder.this.<M>byId(id);
+            }
+        });
+    }
+
+    /**
+     * Executes the query on the query executor of server.
+     * <p/>
+     * the query is copied on the caller thread, changes after this call do not affect the result.
+     *
+     * @param <M> model
+     * @see #byIdAsync(Object)
+     */
+    public <M extends T> ListenableFuture<List<M>> findListAsync() {
+        final Finder<ID, T> finder = copy();
+        return submit(new Callable<List<M>>() {
+            @Override
+            public List<M> call() throws Exception {
+                return finder.<M>findList();
+            }
+        });
+    }
+
+    /**
+     * Executes the query for a single bean on the query executor of server.
+     *
+     * @param <M> model
+     * @see #byIdAsync(Object)
+     */
+    public <M extends T> ListenableFuture<M> findUniqueAsync() {
+        final Finder<ID, T> finder = copy();
+        return submit(new Callable<M>() {
+            @Override
+            public M call() throws Exception {
+                return finder.<M>findUnique();
+            }
+        });
+    }
+
+    /**
+     * Streams the query rows from the query executor of server with a bounded buffer.
+     *
+     * @param bufferSize max rows read ahead of the consumer
+     * @param <M>        model
+     * @see ModelStream
+     */
+    public <M extends T> ModelStream<M> findStreamAsync(int bufferSize) {
+        return findStreamAsync(bufferSize, ModelStream.DEFAULT_TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Streams the query rows from the query executor of server with a bounded buffer.
+     * <p/>
+     * the stream fails if the executor rejects the query or the stream is not read for the timeout.
+     *
+     * @param bufferSize max rows read ahead of the consumer
+     * @param timeout    time the reader waits the consumer
+     * @param unit       time unit
+     * @param <M>        model
+     * @see ModelStream
+     */
+    public <M extends T> ModelStream<M> findStreamAsync(int bufferSize, long timeout, TimeUnit unit) {
+        ModelStream<M> stream = new ModelStream<M>(bufferSize, unit.toMillis(timeout));
+        stream.start(QueryExecutors.get(serverName), copy());
+        return stream;
+    }
+
     /**
      * Retrieves an entity reference for this ID.
      *
@@ -0,0 +1,261 @@
+package ameba.db.model;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.ws.rs.core.Configuration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * entity cache settings of a model for {@link Finder#byId(Object)}.
+ * <p/>
+ * caches are configured per data source and model:
+ * <pre>
+ * db.{name}.cache.models=app.models.Country,app.models.City
+ * db.{name}.cache.maxSize=1000
+ * db.{name}.cache.ttl=600
+ * db.{name}.cache.negativeTtl=60
+ * db.{name}.cache.app.models.City.maxSize=5000
+ * </pre>
+ * ttl is in seconds, negativeTtl is how long a missing id is remembered, 0 disable it.
+ * <p/>
+ * entities are kept by the orm bean cache, which gives every reader it's own copy and is
+ * invalidated after the writing transaction commits. this class keeps the settings and the
+ * missing ids, which the orm invalidates after an insert is committed.
+ *
+ * @author icode
+ */
+public class ModelCache {
+
+    public static final String CACHE_CONF_PREFIX = "cache.";
+    public static final int DEFAULT_MAX_SIZE = 1000;
+    public static final long DEFAULT_TTL = 600;
+    public static final long DEFAULT_NEGATIVE_TTL = 60;
+
+    private static final ConcurrentMap<String, ModelCache> caches = Maps.newConcurrentMap();
+
+    private final String modelName;
+    private final int maxSize;
+    private final long ttl;
+    private final Cache<String, Boolean> missing;
+    // changed by every invalidation, a missing id loaded meanwhile is not remembered
+    private final AtomicLong generation = new AtomicLong();
+    private final AtomicLong missingHits = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private volatile Statistics statistics;
+
+    private ModelCache(String modelName, int maxSize, long ttl, long negativeTtl) {
+        this.modelName = modelName;
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        missing = negativeTtl > 0 ? CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(negativeTtl, TimeUnit.SECONDS)
+                .<String, Boolean>build() : null;
+    }
+
+    private static String cacheKey(String serverName, String modelName) {
+        return serverName + ":" + modelName;
+    }
+
+    private static String idKey(Object id) {
+        return String.valueOf(id);
+    }
+
+    /**
+     * create model caches from db.{name}.cache.* configuration
+     *
+     * @param serverName data source name
+     * @param config     configuration
+     */
+    public static void configure(String serverName, Configuration config) {
+        String prefix = "db." + serverName + "." + CACHE_CONF_PREFIX;
+        String models = (String) config.getProperty(prefix + "models");
+        if (StringUtils.isBlank(models)) {
+            return;
+        }
+        long maxSize = getLong(config, prefix + "maxSize", DEFAULT_MAX_SIZE);
+        long ttl = getLong(config, prefix + "ttl", DEFAULT_TTL);
+        long negativeTtl = getLong(config, prefix + "negativeTtl", DEFAULT_NEGATIVE_TTL);
+        for (String className : StringUtils.deleteWhitespace(models).split(",")) {
+            if (StringUtils.isBlank(className)) continue;
+            String modelPrefix = prefix + className + ".";
+            caches.put(cacheKey(serverName, className), new ModelCache(className,
+                    (int) getLong(config, modelPrefix + "maxSize", maxSize),
+                    getLong(config, modelPrefix + "ttl", ttl),
+                    getLong(config, modelPrefix + "negativeTtl", negativeTtl)));
+        }
+    }
+
+    private static long getLong(Configuration config, String key, long defaultValue) {
+        Object value = config.getProperty(key);
+        if (value == null || StringUtils.isBlank(String.valueOf(value))) {
+            return defaultValue;
+        }
+        return Long.parseLong(String.valueOf(value).trim());
+    }
+
+    /**
+     * @param serverName data source name
+     * @param modelType  model type
+     * @return model cache, null if the model is not cached
+     */
+    public static ModelCache get(String serverName, Class<?> modelType) {
+        if (caches.isEmpty()) return null;
+        return caches.get(cacheKey(serverName, modelType.getName()));
+    }
+
+    /**
+     * @param modelType model type
+     * @return true if the model or one of its super models is cached on any data source
+     */
+    public static boolean isCached(Class<?> modelType) {
+        if (caches.isEmpty()) return false;
+        for (Class<?> type = modelType; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (ModelCache cache : caches.values()) {
+                if (cache.modelName.equals(type.getName())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * invalidate a missing id of the model and its super models on all data sources,
+     * call it after the insert is committed
+     *
+     * @param modelType model type
+     * @param id        entity id
+     */
+    public static void invalidate(Class<?> modelType, Object id) {
+        if (caches.isEmpty()) return;
+        for (Class<?> type = modelType; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (ModelCache cache : caches.values()) {
+                if (cache.modelName.equals(type.getName())) {
+                    cache.invalidate(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * hit, miss, size and invalidation counters of all caches
+     *
+     * @return server:model to counters
+     */
+    public static Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = Maps.newTreeMap();
+        for (Map.Entry<String, ModelCache> entry : caches.entrySet()) {
+            ModelCache cache = entry.getValue();
+            Statistics statistics = cache.statistics;
+            Map<String, Long> data = Maps.newLinkedHashMap();
+            data.put("hits", statistics == null ? 0L : statistics.getHitCount());
+            data.put("misses", statistics == null ? 0L : statistics.getMissCount());
+            data.put("size", statistics == null ? 0L : statistics.getSize());
+            data.put("missingHits", cache.missingHits.get());
+            data.put("missingSize", cache.missing == null ? 0L : cache.missing.size());
+            data.put("invalidations", cache.invalidations.get());
+            snapshot.put(entry.getKey(), data);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return json of {@link #snapshot()}
+     */
+    public static String dump() {
+        try {
+            return new ObjectMapper().writeValueAsString(snapshot());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("dump model cache error", e);
+        }
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return ttl in seconds, 0 is never expire
+     */
+    public long getTtl() {
+        return ttl;
+    }
+
+    /**
+     * @param statistics entity cache statistics of the orm bean cache
+     */
+    public void setStatistics(Statistics statistics) {
+        this.statistics = statistics;
+    }
+
+    /**
+     * load the entity unless the id is remembered as missing
+     *
+     * @param id     entity id
+     * @param loader load the entity through the orm bean cache
+     * @param <M>    model
+     * @return entity, null if missing
+     */
+    public <M> M get(Object id, Loader<M> loader) {
+        String key = idKey(id);
+        if (missing != null && missing.getIfPresent(key) != null) {
+            missingHits.incrementAndGet();
+            return null;
+        }
+        long gen = generation.get();
+        M loaded = loader.load();
+        if (loaded == null && missing != null && generation.get() == gen) {
+            missing.put(key, Boolean.TRUE);
+        }
+        return loaded;
+    }
+
+    public void invalidate(Object id) {
+        generation.incrementAndGet();
+        if (missing != null) {
+            missing.invalidate(idKey(id));
+        }
+        invalidations.incrementAndGet();
+    }
+
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        if (missing != null) {
+            missing.invalidateAll();
+        }
+        invalidations.incrementAndGet();
+    }
+
+    /**
+     * load entity from the orm bean cache or database
+     *
+     * @param <M> model
+     */
+    public interface Loader<M> {
+        M load();
+    }
+
+    /**
+     * statistics of the entity cache
+     */
+    public interface Statistics {
+        long getHitCount();
+
+        long getMissCount();
+
+        long getSize();
+    }
+}
@@ -0,0 +1,195 @@
+package ameba.db.model;
+
+import ameba.core.Requests;
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * request scoped batch loader of models by id.
+ * <p/>
+ * {@link Finder#load(Object)} returns a deferred {@link Handle}, pending ids of a model are
+ * loaded by one {@link Finder#byIds(java.util.Collection)} query when a handle is first read
+ * or {@link #dispatch()} is called. loaded models are kept in an identity map of the request,
+ * so an id is loaded once per request.
+ * <pre>
+ * List&lt;ModelLoader.Handle&lt;User&gt;&gt; users = Lists.newArrayList();
+ * for (Order order : orders) {
+ *     users.add(User.find.load(order.getUserId()));
+ * }
+ * users.get(0).get(); // one select ... where id in (...)
+ * </pre>
+ * outside of a request, use {@link #begin()} and {@link #end()} to bind a loader to current thread,
+ * otherwise every load is not batched.
+ *
+ * @author icode
+ */
+public class ModelLoader {
+
+    public static final String REQUEST_PROPERTY_NAME = ModelLoader.class.getName();
+    public static final int MAX_BATCH_SIZE = 500;
+
+    private static final ThreadLocal<ModelLoader> local = new ThreadLocal<ModelLoader>();
+
+    private final Map<String, Batch<?>> batches = Maps.newHashMap();
+
+    /**
+     * @return loader of current thread or request
+     */
+    public static ModelLoader current() {
+        ModelLoader loader = local.get();
+        if (loader != null) {
+            return loader;
+        }
+        try {
+            loader = (ModelLoader) Requests.getProperty(REQUEST_PROPERTY_NAME);
+            if (loader == null) {
+                loader = new ModelLoader();
+                Requests.setProperty(REQUEST_PROPERTY_NAME, loader);
+            }
+            return loader;
+        } catch (RuntimeException e) {
+            // not in request scope
+            return new ModelLoader();
+        }
+    }
+
+    /**
+     * bind a new loader to current thread
+     *
+     * @return loader
+     */
+    public static ModelLoader begin() {
+        ModelLoader loader = new ModelLoader();
+        local.set(loader);
+        return loader;
+    }
+
+    /**
+     * unbind the loader of current thread
+     */
+    public static void end() {
+        local.remove();
+    }
+
+    private static String key(Object id) {
+        return String.valueOf(id);
+    }
+
+    /**
+     * defer load a model by id
+     *
+     * @param finder finder of model
+     * @param id     id
+     * @param <ID>   id type
+     * @param <M>    model
+     * @return handle of the model
+     */
+    public <ID, M> Handle<M> load(final Finder<ID, ? super M> finder, ID id) {
+        return load(finder.getServerName() + ":" + finder.getModelType().getName(),
+                new Function<List<ID>, Map<ID, ?>>() {
+                    @Override
+                    public Map<ID, ?> apply(List<ID> ids) {
+                        return finder.byIds(ids);
+                    }
+                }, id);
+    }
+
+    /**
+     * @param batchKey key of the batch, ids of a batch are loaded together
+     * @param byIds    load the models of ids
+     */
+    @SuppressWarnings("unchecked")
+    synchronized <ID, M> Handle<M> load(String batchKey, Function<List<ID>, Map<ID, ?>> byIds, ID id) {
+        Batch<ID> batch = (Batch<ID>) batches.get(batchKey);
+        if (batch == null) {
+            batch = new Batch<ID>(byIds);
+            batches.put(batchKey, batch);
+        }
+        return batch.load(id);
+    }
+
+    /**
+     * load all pending ids
+     */
+    public synchronized void dispatch() {
+        for (Batch<?> batch : batches.values()) {
+            batch.dispatch();
+        }
+    }
+
+    /**
+     * clear the identity map and pending ids
+     */
+    public synchronized void clear() {
+        batches.clear();
+    }
+
+    /**
+     * deferred model
+     *
+     * @param <M> model
+     */
+    public class Handle<M> {
+        private final Batch<?> batch;
+        private final String key;
+
+        private Handle(Batch<?> batch, String key) {
+            this.batch = batch;
+            this.key = key;
+        }
+
+        /**
+         * @return model, null if not found
+         */
+        @SuppressWarnings("unchecked")
+        public M get() {
+            synchronized (ModelLoader.this) {
+                if (!batch.loaded.containsKey(key)) {
+                    batch.dispatch();
+                }
+                return (M) batch.loaded.get(key);
+            }
+        }
+    }
+
+    private class Batch<ID> {
+        private final Function<List<ID>, Map<ID, ?>> byIds;
+        private final Set<ID> pending = Sets.newLinkedHashSet();
+        private final Map<String, Object> loaded = Maps.newHashMap();
+
+        Batch(Function<List<ID>, Map<ID, ?>> byIds) {
+            this.byIds = byIds;
+        }
+
+        <M> Handle<M> load(ID id) {
+            String key = key(id);
+            if (!loaded.containsKey(key)) {
+                pending.add(id);
+            }
+            return new Handle<M>(this, key);
+        }
+
+        void dispatch() {
+            if (pending.isEmpty()) return;
+            List<ID> ids = Lists.newArrayList(pending);
+            pending.clear();
+            for (List<ID> partition : Lists.partition(ids, MAX_BATCH_SIZE)) {
+                Map<ID, ?> found = byIds.apply(partition);
+                Map<String, Object> models = Maps.newHashMap();
+                for (Map.Entry<ID, ?> entry : found.entrySet()) {
+                    models.put(key(entry.getKey()), entry.getValue());
+                }
+                for (ID id : partition) {
+                    String key = key(id);
+                    loaded.put(key, models.get(key));
+                }
+            }
+        }
+    }
+}
@@ -44,6 +44,7 @@ public class ModelManager extends AddOn {
         }
 
         for (String name : DataSource.getDataSourceNames()) {
+            ModelCache.configure(name, config);
             String modelPackages = (String) config.getProperty("db." + name + ".models");
             if (StringUtils.isNotBlank(modelPackages)) {
                 final Set<String> pkgs = Sets.newHashSet(StringUtils.deleteWhitespace(modelPackages).split(","));
@@ -79,6 +80,8 @@ public class ModelManager extends AddOn {
             }
         }
 
+        ShardMap.configure(config);
+
         defaultModelsPkg.clear();
     }
 
@@ -0,0 +1,193 @@
+package ameba.db.model;
+
+import com.avaje.ebean.QueryIterator;
+
+import javax.persistence.PersistenceException;
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * rows of a query read by a query executor thread into a bounded buffer.
+ * <p/>
+ * the reader waits when the buffer is full, so a slow consumer holds back the query
+ * instead of buffering the whole result. close the stream if it is not read to the end,
+ * a stream which is not read for the timeout is abandoned, the reader stops and releases the
+ * connection, and the stream fails.
+ *
+ * @author icode
+ * @see Finder#findStreamAsync(int)
+ */
+public class ModelStream<M> implements Iterator<M>, Closeable {
+
+    public static final long DEFAULT_TIMEOUT = TimeUnit.SECONDS.toMillis(60);
+    private static final Object END = new Object();
+    // 读取线程等待缓冲区空位时检查关闭状态的间隔
+    private static final long OFFER_SLICE = 100;
+
+    private final BlockingQueue<Object> buffer;
+    private final long timeout;
+    private volatile boolean closed;
+    private Future<?> future;
+    private Object next;
+    private boolean done;
+
+    ModelStream(int bufferSize) {
+        this(bufferSize, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param bufferSize max rows read ahead of the consumer
+     * @param timeout    milliseconds the reader waits the consumer before it abandons the stream
+     */
+    ModelStream(int bufferSize, long timeout) {
+        buffer = new ArrayBlockingQueue<Object>(bufferSize);
+        this.timeout = timeout;
+    }
+
+    void start(ExecutorService executor, final Finder<?, ?> finder) {
+        start(executor, new Callable<Iterator<?>>() {
+            @Override
+            public Iterator<?> call() throws Exception {
+                return finder.findIterate();
+            }
+        });
+    }
+
+    void start(ExecutorService executor, final Callable<? extends Iterator<?>> query) {
+        try {
+            future = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    read(query);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            fail(e);
+        }
+    }
+
+    private void read(Callable<? extends Iterator<?>> query) {
+        Iterator<?> iterator = null;
+        try {
+            iterator = query.call();
+            while (iterator.hasNext()) {
+                if (!offer(iterator.next())) {
+                    return;
+                }
+            }
+            offer(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable e) {
+            fail(e);
+        } finally {
+            if (iterator instanceof QueryIterator) {
+                ((QueryIterator<?>) iterator).close();
+            }
+        }
+    }
+
+    /**
+     * put a row to buffer, wait the consumer at most the timeout
+     *
+     * @return false if the stream is closed or abandoned
+     */
+    private boolean offer(Object row) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!closed) {
+            if (buffer.offer(row, OFFER_SLICE, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            if (System.currentTimeMillis() >= deadline) {
+                fail(new PersistenceException("model stream is not read in " + timeout + "ms, abandoned"));
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * replace the buffered rows with the failure, the consumer gets it at next read
+     */
+    private void fail(Throwable e) {
+        buffer.clear();
+        buffer.offer(new Failure(e));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (done) {
+            return false;
+        }
+        if (next == null) {
+            try {
+                next = buffer.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                close();
+                throw new PersistenceException("read model stream interrupted", e);
+            }
+        }
+        if (next == END) {
+            done = true;
+            return false;
+        }
+        if (next instanceof Failure) {
+            done = true;
+            Throwable e = ((Failure) next).exception;
+            if (e instanceof RuntimeException) {
+                throw (RuntimeException) e;
+            }
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+            throw new PersistenceException(e);
+        }
+        return true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public M next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Object row = next;
+        next = null;
+        return (M) row;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * stop the query and release the connection
+     */
+    @Override
+    public void close() {
+        closed = true;
+        done = true;
+        if (future != null) {
+            future.cancel(true);
+        }
+        buffer.clear();
+    }
+
+    private static class Failure {
+        final Throwable exception;
+
+        Failure(Throwable exception) {
+            this.exception = exception;
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package ameba.db.model;
+
+import ameba.db.DataSource;
+import ameba.exception.ConfigErrorException;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.apache.commons.lang3.StringUtils;
+
+import javax.ws.rs.core.Configuration;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * consistent hash shard map of models over data sources.
+ * <p/>
+ * shard maps are configured by name:
+ * <pre>
+ * db.shards.{map}.servers=s1,s2,s3
+ * db.shards.{map}.models=app.models.Order,app.models.OrderItem
+ * db.shards.{map}.key=userId
+ * db.shards.{map}.app.models.OrderItem.key=orderUserId
+ * db.shards.{map}.virtualNodes=160
+ * </pre>
+ * key is the shard key property of models, default is the id property.
+ * <p/>
+ * {@link Finder} and {@link Persister} of a sharded model route to the shard of the key,
+ * unless they are on one of the shard servers by {@link Finder#on(String)}.
+ * use {@link Finder#shard(Object)} for queries by shard key, queries without shard key
+ * fan out to all shards.
+ *
+ * @author icode
+ */
+public class ShardMap {
+
+    public static final String SHARDS_CONF_PREFIX = "db.shards.";
+    public static final int DEFAULT_VIRTUAL_NODES = 160;
+
+    private static final HashFunction hash = Hashing.murmur3_32();
+    private static final Map<String, ShardMap> models = Maps.newConcurrentMap();
+
+    private final String name;
+    private final List<String> servers;
+    private final SortedMap<Integer, String> ring = new TreeMap<Integer, String>();
+    private final Map<String, String> keys = Maps.newHashMap();
+
+    ShardMap(String name, List<String> servers, int virtualNodes) {
+        this.name = name;
+        this.servers = ImmutableList.copyOf(servers);
+        for (String server : servers) {
+            for (int i = 0; i < virtualNodes; i++) {
+                ring.put(hash(server + "#" + i), server);
+            }
+        }
+    }
+
+    private static int hash(String value) {
+        return hash.hashString(value, Charsets.UTF_8).asInt();
+    }
+
+    /**
+     * create shard maps from db.shards.* configuration
+     *
+     * @param config configuration
+     */
+    public static void configure(Configuration config) {
+        for (String key : config.getPropertyNames()) {
+            if (!key.startsWith(SHARDS_CONF_PREFIX) || !key.endsWith(".servers")) continue;
+            String name = key.substring(SHARDS_CONF_PREFIX.length(), key.length() - ".servers".length());
+            if (StringUtils.isBlank(name) || name.contains(".")) continue;
+            String prefix = SHARDS_CONF_PREFIX + name + ".";
+
+            List<String> servers = split((String) config.getProperty(key));
+            if (servers.isEmpty()) {
+                throw new ConfigErrorException("please config " + key + " property");
+            }
+            for (String server : servers) {
+                if (!DataSource.getDataSourceNames().contains(server)) {
+                    throw new ConfigErrorException("shard server " + server + " of " + name + " not found");
+                }
+            }
+            Object virtualNodes = config.getProperty(prefix + "virtualNodes");
+            ShardMap shardMap = new ShardMap(name, servers, virtualNodes == null ?
+                    DEFAULT_VIRTUAL_NODES : Integer.parseInt(String.valueOf(virtualNodes).trim()));
+
+            String defaultKey = StringUtils.trimToNull((String) config.getProperty(prefix + "key"));
+            for (String model : split((String) config.getProperty(prefix + "models"))) {
+                String modelKey = StringUtils.trimToNull((String) config.getProperty(prefix + model + ".key"));
+                shardMap.setKeyProperty(model, modelKey == null ? defaultKey : modelKey);
+                models.put(model, shardMap);
+            }
+        }
+    }
+
+    private static List<String> split(String value) {
+        if (StringUtils.isBlank(value)) {
+            return ImmutableList.of();
+        }
+        return ImmutableList.copyOf(StringUtils.split(StringUtils.deleteWhitespace(value), ','));
+    }
+
+    /**
+     * @param modelType model type
+     * @return shard map of the model or its super models, null if the model is not sharded
+     */
+    public static ShardMap get(Class<?> modelType) {
+        if (models.isEmpty()) return null;
+        for (Class<?> type = modelType; type != null && type != Object.class; type = type.getSuperclass()) {
+            ShardMap shardMap = models.get(type.getName());
+            if (shardMap != null) {
+                return shardMap;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param modelType  model type
+     * @param serverName server name of finder or persister
+     * @return shard map to route the model, null if the model is not sharded or the server is a shard
+     */
+    public static ShardMap route(Class<?> modelType, String serverName) {
+        ShardMap shardMap = get(modelType);
+        if (shardMap == null || shardMap.servers.contains(serverName)) {
+            return null;
+        }
+        return shardMap;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getServers() {
+        return servers;
+    }
+
+    /**
+     * @param model       model class name
+     * @param keyProperty shard key property name, null for the id property
+     */
+    void setKeyProperty(String model, String keyProperty) {
+        keys.put(model, keyProperty);
+    }
+
+    /**
+     * @param modelType model type
+     * @return shard key property name, null if it is the id property
+     */
+    public String getKeyProperty(Class<?> modelType) {
+        for (Class<?> type = modelType; type != null && type != Object.class; type = type.getSuperclass()) {
+            if (keys.containsKey(type.getName())) {
+                return keys.get(type.getName());
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param modelType model type
+     * @param id        id value
+     * @return servers to find or delete the model by id, the shard of the id if the shard key
+     * is the id property, else all shards
+     */
+    public List<String> servers(Class<?> modelType, Object id) {
+        if (getKeyProperty(modelType) == null) {
+            return ImmutableList.of(server(id));
+        }
+        return servers;
+    }
+
+    /**
+     * @param modelType  model type
+     * @param idProperty id property name of the model
+     * @param properties property values of the model to persist
+     * @return server name of the shard to persist the model
+     */
+    public String server(Class<?> modelType, String idProperty, Function<String, Object> properties) {
+        String keyProperty = getKeyProperty(modelType);
+        if (keyProperty == null) {
+            keyProperty = idProperty;
+        }
+        Object key = properties.apply(keyProperty);
+        if (key == null) {
+            throw new IllegalStateException("shard key " + keyProperty + " of "
+                    + modelType.getName() + " is null, set it before persist");
+        }
+        return server(key);
+    }
+
+    /**
+     * @param key shard key value
+     * @return server name of the shard
+     */
+    public String server(Object key) {
+        if (key == null) {
+            throw new IllegalArgumentException("shard key of " + name + " is null");
+        }
+        SortedMap<Integer, String> tail = ring.tailMap(hash(String.valueOf(key)));
+        return tail.isEmpty() ? ring.get(ring.firstKey()) : tail.get(tail.firstKey());
+    }
+}
@@ -5,6 +5,12 @@ import com.avaje.ebean.Update;
 import org.apache.commons.lang3.StringUtils;
 
 /**
+ * update statement of models.
+ * <p/>
+ * an update of a sharded model has no shard key, {@link #execute()} runs it on every shard
+ * of the {@link ShardMap} and returns the sum of modified rows. use {@link #on(String)} with a
+ * shard server name, or {@link #shard(Object)} with the shard key, to update one shard.
+ *
  * @author icode
  */
 public abstract class Updater<M extends Model> {
@@ -40,6 +46,20 @@ public abstract class Updater<M extends Model> {
      */
     public abstract <E extends M> Updater<E> on(String server);
 
+    /**
+     * Changes the model server to the shard of key.
+     *
+     * @param key shard key value
+     * @see ShardMap
+     */
+    public <E extends M> Updater<E> shard(Object key) {
+        ShardMap shardMap = ShardMap.get(modelType);
+        if (shardMap == null) {
+            throw new IllegalStateException(modelType.getName() + " is not sharded");
+        }
+        return on(shardMap.server(key));
+    }
+
     /**
      * Return the name if it is a named update.
      */
@@ -71,6 +91,10 @@ public abstract class Updater<M extends Model> {
 
     /**
      * Execute the statement returning the number of rows modified.
+     * <p>
+     * a sharded model is updated on every shard, unless the updater is on a shard server
+     * by {@link #on(String)} or {@link #shard(Object)}.
+     * </p>
      */
     public abstract int execute();
 
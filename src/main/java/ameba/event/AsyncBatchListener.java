@@ -0,0 +1,20 @@
+package ameba.event;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * async listener receive events in batches, a batch contains all events drained
+ * from the listener queue in one wakeup, up to the bus batch size.
+ *
+ * @author icode
+ */
+public abstract class AsyncBatchListener<E extends Event> extends AsyncListener<E> {
+
+    @Override
+    public void onReceive(E event) {
+        onReceive(Collections.singletonList(event));
+    }
+
+    public abstract void onReceive(List<E> events);
+}
@@ -4,22 +4,112 @@ import akka.actor.ActorRef;
 import akka.actor.Props;
 import akka.actor.UntypedActor;
 import akka.event.japi.LookupEventBus;
+import ameba.core.Application;
 import ameba.lib.Akka;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
+ * async event bus, every listener has a bounded event queue drained by a actor
+ * or by a {@link Executor}.
+ * <p/>
+ * only one drain is scheduled for a listener at most, so memory is bounded
+ * by queue capacity no matter how slow the listener is, and a listener never
+ * handle events concurrently.
+ *
  * @author icode
  */
 public abstract class AsyncEventBus<E extends Event, S extends ActorRef> extends LookupEventBus<E, S, Class<? extends E>> {
 
+    public static final int DEFAULT_QUEUE_CAPACITY = 8192;
+    public static final int DEFAULT_BATCH_SIZE = 64;
+    public static final OverflowPolicy DEFAULT_OVERFLOW_POLICY = OverflowPolicy.DROP_NEWEST;
+    public static final String QUEUE_CAPACITY_CONF = "event.async.queueCapacity";
+    public static final String OVERFLOW_POLICY_CONF = "event.async.overflowPolicy";
+    public static final String BATCH_SIZE_CONF = "event.async.batchSize";
+
+    private static volatile int defaultQueueCapacity = DEFAULT_QUEUE_CAPACITY;
+    private static volatile OverflowPolicy defaultOverflowPolicy = DEFAULT_OVERFLOW_POLICY;
+    private static volatile int defaultBatchSize = DEFAULT_BATCH_SIZE;
+
     private AsyncEventBus() {
     }
 
+    /**
+     * create async event bus use the configured queue settings,
+     * the settings are read when a listener subscribe
+     *
+     * @return async event bus
+     * @see AddOn
+     */
     public static AsyncEventBus<Event, ActorRef> create() {
-        return new Sub();
+        return create(null);
+    }
+
+    public static AsyncEventBus<Event, ActorRef> create(Executor executor) {
+        return new Sub(0, null, 0, executor);
+    }
+
+    /**
+     * set queue settings of buses created by {@link #create()}
+     *
+     * @param queueCapacity  event queue capacity of every listener
+     * @param overflowPolicy policy when listener queue is full
+     * @param batchSize      max events drained for a listener per wakeup
+     */
+    public static void configure(int queueCapacity, OverflowPolicy overflowPolicy, int batchSize) {
+        if (queueCapacity < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("queue capacity and batch size must be greater than 0");
+        }
+        defaultQueueCapacity = queueCapacity;
+        defaultOverflowPolicy = overflowPolicy == null ? DEFAULT_OVERFLOW_POLICY : overflowPolicy;
+        defaultBatchSize = batchSize;
+    }
+
+    /**
+     * create async event bus
+     *
+     * @param queueCapacity  event queue capacity of every listener
+     * @param overflowPolicy policy when listener queue is full
+     * @param batchSize      max events drained for a listener per wakeup
+     * @return async event bus
+     */
+    public static AsyncEventBus<Event, ActorRef> create(int queueCapacity, OverflowPolicy overflowPolicy, int batchSize) {
+        return create(queueCapacity, overflowPolicy, batchSize, null);
+    }
+
+    /**
+     * create async event bus
+     *
+     * @param queueCapacity  event queue capacity of every listener
+     * @param overflowPolicy policy when listener queue is full
+     * @param batchSize      max events drained for a listener per wakeup
+     * @param executor       default executor of listeners, null use akka actor
+     * @return async event bus
+     * @see EventExecutors#threads()
+     */
+    public static AsyncEventBus<Event, ActorRef> create(int queueCapacity, OverflowPolicy overflowPolicy,
+                                                        int batchSize, Executor executor) {
+        if (queueCapacity < 1 || batchSize < 1 || overflowPolicy == null) {
+            throw new IllegalArgumentException("queue capacity and batch size must be greater than 0"
+                    + " and overflow policy must be set");
+        }
+        return new Sub(queueCapacity, overflowPolicy, batchSize, executor);
     }
 
     @Override
@@ -43,35 +133,186 @@ public abstract class AsyncEventBus<E extends Event, S extends ActorRef> extends
         subscriber.tell(event, ActorRef.noSender());
     }
 
+    /**
+     * offer event to listener queues without count it as published
+     */
+    abstract void dispatch(E event, EventMetrics.EventStat stat);
+
     public abstract boolean subscribe(Class<? extends E> eventClass, final AsyncListener listener);
 
+    /**
+     * subscribe listener run on the executor
+     *
+     * @param eventClass event class
+     * @param listener   listener
+     * @param executor   executor, null use akka actor
+     * @return true if subscribed
+     */
+    public abstract boolean subscribe(Class<? extends E> eventClass, final AsyncListener listener, Executor executor);
+
     public abstract boolean unsubscribe(Class<? extends E> eventClass, final AsyncListener listener);
 
     public abstract void unsubscribe(Class<? extends E> eventClass);
 
+    /**
+     * @return events dropped by {@link OverflowPolicy#DROP_OLDEST} or {@link OverflowPolicy#DROP_NEWEST}
+     */
+    public abstract long getDroppedCount();
+
+    /**
+     * what to do when a listener queue is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * block the publisher until the listener take a event,
+         * a listener publish to it's own BLOCK bus deadlocks when the queue is full
+         */
+        BLOCK,
+        /**
+         * drop the oldest queued event
+         */
+        DROP_OLDEST,
+        /**
+         * drop the published event, the default
+         */
+        DROP_NEWEST
+    }
+
+    /**
+     * read async event queue settings
+     * <pre>
+     * event.async.queueCapacity=8192
+     * event.async.overflowPolicy=DROP_NEWEST
+     * event.async.batchSize=64
+     * </pre>
+     */
+    public static class AddOn extends ameba.core.AddOn {
+        private static int getInt(Application application, String key, int defaultValue) {
+            String value = (String) application.getProperty(key);
+            return StringUtils.isBlank(value) ? defaultValue : Integer.parseInt(value.trim());
+        }
+
+        @Override
+        public void setup(Application application) {
+            String policy = (String) application.getProperty(OVERFLOW_POLICY_CONF);
+            configure(getInt(application, QUEUE_CAPACITY_CONF, DEFAULT_QUEUE_CAPACITY),
+                    StringUtils.isBlank(policy)
+                            ? DEFAULT_OVERFLOW_POLICY
+                            : OverflowPolicy.valueOf(policy.trim().toUpperCase()),
+                    getInt(application, BATCH_SIZE_CONF, DEFAULT_BATCH_SIZE));
+        }
+    }
+
     private static class Sub extends AsyncEventBus<Event, ActorRef> {
 
-        private final EventActorMap eventActorMap = new EventActorMap();
+        private final EventQueueMap eventQueueMap = new EventQueueMap();
+        /**
+         * concrete event class to queues of the class and all it's super types,
+         * resolved on first publish and cleared on subscribe/unsubscribe
+         */
+        private final Map<Class<?>, QueueDispatch> dispatchIndex = Maps.newConcurrentMap();
+        private final AtomicLong removedDropped = new AtomicLong();
+        private final int queueCapacity;
+        private final OverflowPolicy overflowPolicy;
+        private final int batchSize;
+        private final Executor executor;
+
+        Sub(int queueCapacity, OverflowPolicy overflowPolicy, int batchSize, Executor executor) {
+            this.queueCapacity = queueCapacity;
+            this.overflowPolicy = overflowPolicy;
+            this.batchSize = batchSize;
+            this.executor = executor;
+        }
+
+        private int queueCapacity() {
+            return queueCapacity > 0 ? queueCapacity : defaultQueueCapacity;
+        }
+
+        private OverflowPolicy overflowPolicy() {
+            return overflowPolicy != null ? overflowPolicy : defaultOverflowPolicy;
+        }
+
+        private int batchSize() {
+            return batchSize > 0 ? batchSize : defaultBatchSize;
+        }
+
+        @Override
+        public void publish(Event event) {
+            QueueDispatch dispatch = dispatchOf(event.getClass());
+            if (EventMetrics.isEnabled()) {
+                dispatch.stat.published.incrementAndGet();
+            }
+            dispatch(event, dispatch);
+        }
+
+        private QueueDispatch dispatchOf(Class<?> eventClass) {
+            QueueDispatch dispatch = dispatchIndex.get(eventClass);
+            if (dispatch == null) {
+                dispatch = resolveQueues(eventClass);
+            }
+            return dispatch;
+        }
+
+        @Override
+        void dispatch(Event event, EventMetrics.EventStat stat) {
+            QueueDispatch dispatch = dispatchOf(event.getClass());
+            for (EventQueue queue : dispatch.queues) {
+                queue.offer(event, stat);
+            }
+        }
+
+        private void dispatch(Event event, QueueDispatch dispatch) {
+            for (EventQueue queue : dispatch.queues) {
+                queue.offer(event, dispatch.stat);
+            }
+        }
+
+        private synchronized QueueDispatch resolveQueues(Class<?> eventClass) {
+            QueueDispatch resolved = dispatchIndex.get(eventClass);
+            if (resolved == null) {
+                Set<EventQueue> queueSet = Sets.newLinkedHashSet();
+                for (Class<?> type : EventTypes.flatten(eventClass)) {
+                    Map<AsyncListener, EventQueue> typeQueues = eventQueueMap.get(type);
+                    if (typeQueues != null) {
+                        queueSet.addAll(typeQueues.values());
+                    }
+                }
+                resolved = new QueueDispatch(queueSet.toArray(new EventQueue[queueSet.size()]),
+                        EventMetrics.stat(eventClass));
+                dispatchIndex.put(eventClass, resolved);
+            }
+            return resolved;
+        }
 
         public boolean subscribe(Class<? extends Event> eventClass, final AsyncListener listener) {
-            final ActorRef actor = Akka.system().actorOf(Props.create(EventHandler.class, listener));
-            boolean suc = subscribe(actor, eventClass);
-            if (suc) {
-                eventActorMap.put(eventClass, listener, actor);
+            return subscribe(eventClass, listener, executor);
+        }
+
+        public synchronized boolean subscribe(Class<? extends Event> eventClass, final AsyncListener listener,
+                                              Executor executor) {
+            Map<AsyncListener, EventQueue> eventEntry = eventQueueMap.get(eventClass);
+            if (eventEntry != null && eventEntry.containsKey(listener)) {
+                return false;
             }
-            return suc;
+            EventQueue queue = new EventQueue(listener, queueCapacity(), overflowPolicy(), batchSize(), executor);
+            if (executor == null) {
+                queue.actor = Akka.system().actorOf(Props.create(EventHandler.class, listener, queue));
+            }
+            eventQueueMap.put(eventClass, listener, queue);
+            dispatchIndex.clear();
+            EventMetrics.registerQueue(eventClass, queue);
+            return true;
         }
 
-        public boolean unsubscribe(Class<? extends Event> eventClass, final AsyncListener listener) {
-            Map<AsyncListener, ActorRef> eventEntry = eventActorMap.get(eventClass);
+        public synchronized boolean unsubscribe(Class<? extends Event> eventClass, final AsyncListener listener) {
+            Map<AsyncListener, EventQueue> eventEntry = eventQueueMap.get(eventClass);
             if (eventEntry != null) {
-                ActorRef actorRef = eventEntry.get(listener);
-                if (actorRef != null) {
-                    boolean suc = unsubscribe(actorRef, eventClass);
-                    if (suc) {
-                        eventEntry.remove(listener);
-                    }
-                    return suc;
+                EventQueue queue = eventEntry.get(listener);
+                if (queue != null) {
+                    eventEntry.remove(listener);
+                    dispatchIndex.clear();
+                    stop(queue);
+                    return true;
                 }
             }
 
@@ -79,47 +320,244 @@ public abstract class AsyncEventBus<E extends Event, S extends ActorRef> extends
         }
 
         @Override
-        public void unsubscribe(Class<? extends Event> eventClass) {
-            Map<AsyncListener, ActorRef> eventEntries = eventActorMap.get(eventClass);
+        public synchronized void unsubscribe(Class<? extends Event> eventClass) {
+            Map<AsyncListener, EventQueue> eventEntries = eventQueueMap.get(eventClass);
             if (eventEntries != null) {
-                for (ActorRef actorRef : eventEntries.values()) {
-                    unsubscribe(actorRef, eventClass);
+                for (EventQueue queue : eventEntries.values()) {
+                    stop(queue);
                 }
-                eventActorMap.remove(eventClass);
+                eventQueueMap.remove(eventClass);
+                dispatchIndex.clear();
             }
         }
 
-        private static class EventActorMap extends ConcurrentHashMap<Class<? extends Event>, Map<AsyncListener, ActorRef>> {
+        private void stop(EventQueue queue) {
+            removedDropped.addAndGet(queue.dropped.get());
+            EventMetrics.unregisterQueue(queue);
+            if (queue.actor != null) {
+                Akka.system().stop(queue.actor);
+            }
+        }
+
+        @Override
+        public long getDroppedCount() {
+            long dropped = removedDropped.get();
+            for (Map<AsyncListener, EventQueue> queues : eventQueueMap.values()) {
+                for (EventQueue queue : queues.values()) {
+                    dropped += queue.dropped.get();
+                }
+            }
+            return dropped;
+        }
+
+        /**
+         * queues and stat of a event class
+         */
+        private static class QueueDispatch {
+            final EventQueue[] queues;
+            final EventMetrics.EventStat stat;
 
-            public Map<AsyncListener, ActorRef> put(Class<? extends Event> key, AsyncListener listener, ActorRef actorRef) {
-                Map<AsyncListener, ActorRef> o = get(key);
+            QueueDispatch(EventQueue[] queues, EventMetrics.EventStat stat) {
+                this.queues = queues;
+                this.stat = stat;
+            }
+        }
+
+        private static class EventQueueMap extends ConcurrentHashMap<Class<? extends Event>, Map<AsyncListener, EventQueue>> {
+
+            public Map<AsyncListener, EventQueue> put(Class<? extends Event> key, AsyncListener listener, EventQueue queue) {
+                Map<AsyncListener, EventQueue> o = get(key);
                 if (o == null) {
                     o = Maps.newConcurrentMap();
                     put(key, o);
                 }
-                o.put(listener, actorRef);
+                o.put(listener, queue);
                 return o;
             }
 
         }
 
         public static class EventHandler extends UntypedActor {
-            AsyncListener listener;
+            EventQueue queue;
 
-            public EventHandler(AsyncListener listener) {
-                this.listener = listener;
+            public EventHandler(AsyncListener listener, EventQueue queue) {
+                this.queue = queue;
                 listener.actor = this;
             }
 
             @Override
-            @SuppressWarnings("unchecked")
             public void onReceive(final Object message) {
-                if (message instanceof Event) {
-                    listener.onReceive((Event) message);
+                if (message == EventQueue.DRAIN) {
+                    queue.drain();
+                } else if (message instanceof Event) {
+                    queue.deliver((Event) message);
                 } else {
                     unhandled(message);
                 }
             }
         }
     }
+
+    /**
+     * bounded ring buffer of a listener, drained by a single actor message or executor task
+     */
+    static class EventQueue implements Runnable {
+        static final Object DRAIN = new Object();
+        private static final Logger logger = LoggerFactory.getLogger(EventQueue.class);
+
+        final AsyncListener listener;
+        final BlockingQueue<Event> events;
+        final OverflowPolicy overflowPolicy;
+        final int batchSize;
+        final Executor executor;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        final AtomicLong dropped = new AtomicLong();
+        ActorRef actor;
+        // stat of the last delivered event class, only touched by the single drain
+        private Class<?> statClass;
+        private EventMetrics.EventStat stat;
+
+        EventQueue(AsyncListener listener, int capacity, OverflowPolicy overflowPolicy, int batchSize, Executor executor) {
+            this.listener = listener;
+            this.events = new ArrayBlockingQueue<Event>(capacity);
+            this.overflowPolicy = overflowPolicy;
+            this.batchSize = batchSize;
+            this.executor = executor;
+        }
+
+        void offer(Event event, EventMetrics.EventStat stat) {
+            switch (overflowPolicy) {
+                case BLOCK:
+                    try {
+                        events.put(event);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dropped(stat);
+                        return;
+                    }
+                    break;
+                case DROP_OLDEST:
+                    while (!events.offer(event)) {
+                        Event oldest = events.poll();
+                        if (oldest != null) {
+                            dropped(oldest.getClass() == event.getClass() || !EventMetrics.isEnabled()
+                                    ? stat : EventMetrics.stat(oldest.getClass()));
+                        }
+                    }
+                    break;
+                default:
+                    if (!events.offer(event)) {
+                        dropped(stat);
+                        return;
+                    }
+            }
+            schedule();
+        }
+
+        private void dropped(EventMetrics.EventStat stat) {
+            dropped.incrementAndGet();
+            if (stat != null && EventMetrics.isEnabled()) {
+                stat.dropped.incrementAndGet();
+            }
+        }
+
+        private EventMetrics.EventStat statOf(Event event) {
+            if (statClass != event.getClass()) {
+                stat = EventMetrics.stat(event.getClass());
+                statClass = event.getClass();
+            }
+            return stat;
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                if (executor != null) {
+                    try {
+                        executor.execute(this);
+                    } catch (RejectedExecutionException e) {
+                        scheduled.set(false);
+                        logger.error("async event handler executor rejected drain task", e);
+                    }
+                } else {
+                    actor.tell(DRAIN, ActorRef.noSender());
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            drain();
+        }
+
+        /**
+         * deliver a batch, the scheduled flag is cleared only after delivery, so a event offered
+         * meanwhile can not schedule a second drain, then re-check the queue for it
+         */
+        void drain() {
+            try {
+                deliverBatch();
+            } finally {
+                scheduled.set(false);
+            }
+            if (!events.isEmpty()) {
+                schedule();
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void deliverBatch() {
+            List<Event> batch = Lists.newArrayListWithCapacity(Math.min(batchSize, events.size()));
+            events.drainTo(batch, batchSize);
+            if (batch.isEmpty()) {
+                return;
+            }
+            if (listener instanceof AsyncBatchListener) {
+                boolean metrics = EventMetrics.isEnabled();
+                long start = metrics ? System.nanoTime() : 0;
+                boolean failed = false;
+                try {
+                    ((AsyncBatchListener) listener).onReceive(batch);
+                } catch (Exception e) {
+                    failed = true;
+                    logger.error("batch event handler has a error", e);
+                }
+                if (metrics) {
+                    EventMetrics.latency(listener, batch.get(0), start);
+                    for (Event event : batch) {
+                        EventMetrics.EventStat stat = statOf(event);
+                        if (failed) {
+                            stat.failed.incrementAndGet();
+                        } else {
+                            stat.delivered.incrementAndGet();
+                        }
+                    }
+                }
+            } else {
+                for (Event event : batch) {
+                    deliver(event);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void deliver(Event event) {
+            if (!EventMetrics.isEnabled()) {
+                try {
+                    listener.onReceive(event);
+                } catch (Exception e) {
+                    logger.error(event.getClass().getName() + " event handler has a error", e);
+                }
+                return;
+            }
+            long start = System.nanoTime();
+            boolean failed = false;
+            try {
+                listener.onReceive(event);
+            } catch (Exception e) {
+                failed = true;
+                logger.error(event.getClass().getName() + " event handler has a error", e);
+            }
+            EventMetrics.delivered(statOf(event), listener, event, start, failed);
+        }
+    }
 }
@@ -6,6 +6,8 @@ import scala.PartialFunction;
 import scala.runtime.BoxedUnit;
 
 /**
+ * async listener, the actor methods only available when the listener is run by akka actor
+ *
  * @author icode
  */
 public abstract class AsyncListener<E extends Event> implements Listener<E> {
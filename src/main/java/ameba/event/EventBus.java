@@ -2,19 +2,21 @@ package ameba.event;
 
 import akka.actor.ActorRef;
 import ameba.exception.AmebaException;
-import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Lists;
-import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import org.apache.commons.lang3.ArrayUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * @author icode
@@ -22,14 +24,28 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 public abstract class EventBus {
 
     private static final Logger logger = LoggerFactory.getLogger(EventBus.class);
-    private final SetMultimap<Class<?>, Listener> listeners = LinkedHashMultimap.create();
-    private final ReadWriteLock subscribersByTypeLock = new ReentrantReadWriteLock();
+    /**
+     * event type to immutable listener array, the array is never modified after publication,
+     * subscribe/unsubscribe swap a new array under {@link #subscribersByTypeLock},
+     * so publish can read it without lock and without copy
+     */
+    private final ConcurrentMap<Class<?>, Listener[]> listeners = Maps.newConcurrentMap();
+    /**
+     * concrete event class to listeners of the class and all it's super types and the event stat,
+     * resolved on first publish and cleared on subscribe/unsubscribe
+     */
+    private final ConcurrentMap<Class<?>, Dispatch> dispatchIndex = Maps.newConcurrentMap();
+    private final Lock subscribersByTypeLock = new ReentrantLock();
 
     private EventBus() {
     }
 
     public static EventBus createMix() {
-        return new Mixed();
+        return new Mixed(AsyncEventBus.create());
+    }
+
+    public static EventBus createMix(AsyncEventBus<Event, ActorRef> asyncEventBus) {
+        return new Mixed(asyncEventBus);
     }
 
     public static EventBus create() {
@@ -38,11 +54,17 @@ public abstract class EventBus {
     }
 
     public <E extends Event> void subscribe(Class<E> event, final Listener<E> listener) {
-        subscribersByTypeLock.writeLock().lock();
+        subscribersByTypeLock.lock();
         try {
-            listeners.put(event, listener);
+            Listener[] current = listeners.get(event);
+            if (current == null) {
+                listeners.put(event, new Listener[]{listener});
+            } else if (!ArrayUtils.contains(current, listener)) {
+                listeners.put(event, ArrayUtils.add(current, listener));
+            }
+            dispatchIndex.clear();
         } finally {
-            subscribersByTypeLock.writeLock().unlock();
+            subscribersByTypeLock.unlock();
         }
     }
 
@@ -141,30 +163,9 @@ public abstract class EventBus {
                     events = needEvent;
                 }
 
-                method.setAccessible(true);
                 for (final Class<? extends Event> event : events) {
                     if (event == null) continue;
-                    Listener listener = new Listener() {
-                        @Override
-                        public void onReceive(Event ev) {
-                            Object[] args = new Object[needEvent.length];
-                            try {
-                                for (int i = 0; i < needEvent.length; i++) {
-                                    if (needEvent[i] != null && needEvent[i].isAssignableFrom(event)) {
-                                        args[i] = ev;
-                                    }
-                                }
-                                method.invoke(finalObj, args);
-                            } catch (IllegalAccessException e) {
-                                throw new AmebaException("handle event error, " + method.getName()
-                                        + " method must be not have arguments or extends from Event argument", e);
-                            } catch (InvocationTargetException e) {
-                                throw new AmebaException("handle " + method.getName() + " event error. ", e);
-                            } catch (Exception e) {
-                                throw new AmebaException("handle " + method.getName() + " event error. ", e);
-                            }
-                        }
-                    };
+                    Listener listener = new SubscriberListener(finalObj, method, SubscriberInvoker.create(method, event));
                     subscribe(event, listener, subscribe);
                 }
             }
@@ -176,32 +177,152 @@ public abstract class EventBus {
     }
 
     public <E extends Event> void unsubscribe(Class<E> event, final Listener<E> listener) {
-        subscribersByTypeLock.writeLock().lock();
+        subscribersByTypeLock.lock();
         try {
-            listeners.remove(event, listener);
+            Listener[] current = listeners.get(event);
+            if (current != null) {
+                Listener[] removed = ArrayUtils.removeElement(current, listener);
+                if (removed.length == 0) {
+                    listeners.remove(event);
+                } else if (removed.length != current.length) {
+                    listeners.put(event, removed);
+                }
+                dispatchIndex.clear();
+            }
         } finally {
-            subscribersByTypeLock.writeLock().unlock();
+            subscribersByTypeLock.unlock();
         }
     }
 
     public <E extends Event> void unsubscribe(Class<E> event) {
-        subscribersByTypeLock.writeLock().lock();
+        subscribersByTypeLock.lock();
         try {
-            listeners.removeAll(event);
+            listeners.remove(event);
+            dispatchIndex.clear();
         } finally {
-            subscribersByTypeLock.writeLock().unlock();
+            subscribersByTypeLock.unlock();
         }
     }
 
-    @SuppressWarnings("unchecked")
+    private Dispatch resolveDispatch(Class<?> eventClass) {
+        subscribersByTypeLock.lock();
+        try {
+            Dispatch resolved = dispatchIndex.get(eventClass);
+            if (resolved == null) {
+                Set<Listener> listenerSet = Sets.newLinkedHashSet();
+                for (Class<?> type : EventTypes.flatten(eventClass)) {
+                    Listener[] typeListeners = listeners.get(type);
+                    if (typeListeners != null) {
+                        Collections.addAll(listenerSet, typeListeners);
+                    }
+                }
+                resolved = new Dispatch(listenerSet.toArray(new Listener[listenerSet.size()]),
+                        EventMetrics.stat(eventClass));
+                dispatchIndex.put(eventClass, resolved);
+            }
+            return resolved;
+        } finally {
+            subscribersByTypeLock.unlock();
+        }
+    }
+
+    Dispatch dispatchOf(Class<?> eventClass) {
+        Dispatch dispatch = dispatchIndex.get(eventClass);
+        if (dispatch == null) {
+            dispatch = resolveDispatch(eventClass);
+        }
+        return dispatch;
+    }
+
     public void publish(Event event) {
-        Set<Listener> listenerSet = Sets.newCopyOnWriteArraySet(listeners.get(event.getClass()));
-        for (Listener listener : listenerSet) {
+        Dispatch dispatch = dispatchOf(event.getClass());
+        boolean metrics = EventMetrics.isEnabled();
+        if (metrics) {
+            dispatch.stat.published.incrementAndGet();
+        }
+        dispatch(event, dispatch, metrics);
+    }
+
+    @SuppressWarnings("unchecked")
+    void dispatch(Event event, Dispatch dispatch, boolean metrics) {
+        for (Listener listener : dispatch.listeners) {
+            if (!metrics) {
+                try {
+                    listener.onReceive(event);
+                } catch (Exception e) {
+                    logger.error(event.getClass().getName() + " event handler has a error", e);
+                }
+                continue;
+            }
+            long start = System.nanoTime();
+            boolean failed = false;
             try {
                 listener.onReceive(event);
             } catch (Exception e) {
+                failed = true;
                 logger.error(event.getClass().getName() + " event handler has a error", e);
             }
+            EventMetrics.delivered(dispatch.stat, listener, event, start, failed);
+        }
+    }
+
+    /**
+     * listeners and stat of a event class
+     */
+    static class Dispatch {
+        final Listener[] listeners;
+        final EventMetrics.EventStat stat;
+
+        Dispatch(Listener[] listeners, EventMetrics.EventStat stat) {
+            this.listeners = listeners;
+            this.stat = stat;
+        }
+    }
+
+    /**
+     * listener of a {@link Subscribe} method
+     */
+    static class SubscriberListener implements Listener<Event> {
+        final String name;
+        private final Object target;
+        private final Method method;
+        private final SubscriberInvoker invoker;
+
+        SubscriberListener(Object target, Method method, SubscriberInvoker invoker) {
+            this.name = method.getDeclaringClass().getName() + "#" + method.getName();
+            this.target = target;
+            this.method = method;
+            this.invoker = invoker;
+        }
+
+        @Override
+        public void onReceive(Event ev) {
+            try {
+                invoker.invoke(target, ev);
+            } catch (IllegalAccessException e) {
+                throw new AmebaException("handle event error, " + method.getName()
+                        + " method must be not have arguments or extends from Event argument", e);
+            } catch (InvocationTargetException e) {
+                throw new AmebaException("handle " + method.getName() + " event error. ", e);
+            } catch (Exception e) {
+                throw new AmebaException("handle " + method.getName() + " event error. ", e);
+            }
+        }
+    }
+
+    /**
+     * async listener run a sync listener
+     */
+    static class DelegateAsyncListener<E extends Event> extends AsyncListener<E> {
+        final Listener<E> delegate;
+
+        DelegateAsyncListener(Listener<E> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void onReceive(E event) {
+            delegate.onReceive(event);
         }
     }
 
@@ -209,8 +330,8 @@ public abstract class EventBus {
 
         private final AsyncEventBus<Event, ActorRef> asyncEventBus;
 
-        Mixed() {
-            asyncEventBus = AsyncEventBus.create();
+        Mixed(AsyncEventBus<Event, ActorRef> asyncEventBus) {
+            this.asyncEventBus = asyncEventBus;
         }
 
         public <E extends Event> void subscribe(Class<E> event, final Listener<E> listener) {
@@ -224,12 +345,17 @@ public abstract class EventBus {
         @SuppressWarnings("unchecked")
         protected <E extends Event> void subscribe(Class<E> event, final Listener<E> listener, Subscribe subscribe) {
             if (subscribe.async()) {
-                asyncEventBus.subscribe(event, new AsyncListener<E>() {
-                    @Override
-                    public void onReceive(E event) {
-                        listener.onReceive(event);
-                    }
-                });
+                AsyncListener<E> asyncListener = new DelegateAsyncListener<E>(listener);
+                switch (subscribe.executor()) {
+                    case ACTOR:
+                        asyncEventBus.subscribe(event, asyncListener, null);
+                        break;
+                    case THREAD:
+                        asyncEventBus.subscribe(event, asyncListener, EventExecutors.threads());
+                        break;
+                    default:
+                        asyncEventBus.subscribe(event, asyncListener);
+                }
             } else {
                 super.subscribe(event, listener);
             }
@@ -251,8 +377,13 @@ public abstract class EventBus {
 
         public void publish(Event event) {
             if (event == null) return;
-            asyncEventBus.publish(event);
-            super.publish(event);
+            Dispatch dispatch = dispatchOf(event.getClass());
+            boolean metrics = EventMetrics.isEnabled();
+            if (metrics) {
+                dispatch.stat.published.incrementAndGet();
+            }
+            asyncEventBus.dispatch(event, dispatch.stat);
+            dispatch(event, dispatch, metrics);
         }
     }
 }
@@ -0,0 +1,76 @@
+package ameba.event;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * executors for async event handlers
+ *
+ * @author icode
+ */
+public class EventExecutors {
+
+    private static final Logger logger = LoggerFactory.getLogger(EventExecutors.class);
+    private static volatile Executor threadExecutor;
+
+    private EventExecutors() {
+    }
+
+    /**
+     * executor run every delivery on a virtual thread, when virtual thread is unavailable
+     * use a bounded platform thread pool, suit for blocking handlers like jdbc
+     *
+     * @return shared thread executor
+     */
+    public static Executor threads() {
+        if (threadExecutor == null) {
+            synchronized (EventExecutors.class) {
+                if (threadExecutor == null) {
+                    threadExecutor = createThreadExecutor();
+                }
+            }
+        }
+        return threadExecutor;
+    }
+
+    private static Executor createThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            Executor executor = (Executor) method.invoke(null);
+            logger.debug("async event handler use virtual thread executor");
+            return executor;
+        } catch (NoSuchMethodException e) {
+            // virtual thread is unavailable
+        } catch (Exception e) {
+            logger.warn("create virtual thread executor failed, use thread pool", e);
+        }
+        return newBoundedPool(Runtime.getRuntime().availableProcessors() * 8);
+    }
+
+    /**
+     * bounded platform thread pool for async event handlers
+     *
+     * @param threads max thread size
+     * @return executor
+     */
+    public static ExecutorService newBoundedPool(int threads) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("ameba-event-%d")
+                        .setDaemon(true)
+                        .build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,322 @@
+package ameba.event;
+
+import ameba.container.Container;
+import ameba.core.Application;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * event bus metrics, shared by all event buses.
+ * <p/>
+ * counts published, delivered, failed and dropped events per event type,
+ * records latency of every listener and the depth of async listener queues,
+ * and logs listeners slower than the slow listener threshold.
+ * <p/>
+ * metrics are disabled until the add-on is set up, the event buses check {@link #isEnabled()}
+ * before timing a delivery.
+ *
+ * @author icode
+ */
+public class EventMetrics implements EventMetricsMBean {
+
+    public static final String SLOW_LISTENER_THRESHOLD_CONF = "event.slowListenerThreshold";
+    public static final String ENABLED_CONF = "event.metrics.enabled";
+    public static final String MBEAN_NAME = "ameba:type=EventMetrics";
+    private static final Logger logger = LoggerFactory.getLogger(EventMetrics.class);
+    private static final EventMetrics INSTANCE = new EventMetrics();
+
+    // 弱引用事件类，重载后旧应用的类可以被回收
+    private static final ConcurrentMap<Class<?>, EventStat> eventStats = new MapMaker().weakKeys().makeMap();
+    private static final ConcurrentMap<String, LatencyHistogram> listenerLatencies = Maps.newConcurrentMap();
+    private static final ConcurrentMap<String, AsyncEventBus.EventQueue> queues = Maps.newConcurrentMap();
+    private static final LoadingCache<Listener, LatencyHistogram> listenerHistograms = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(new CacheLoader<Listener, LatencyHistogram>() {
+                @Override
+                public LatencyHistogram load(Listener listener) {
+                    String name = nameOf(listener);
+                    LatencyHistogram histogram = listenerLatencies.get(name);
+                    if (histogram == null) {
+                        histogram = new LatencyHistogram();
+                        LatencyHistogram old = listenerLatencies.putIfAbsent(name, histogram);
+                        if (old != null) {
+                            histogram = old;
+                        }
+                    }
+                    return histogram;
+                }
+            });
+    private static volatile long slowListenerThresholdNanos = 0;
+    private static volatile boolean enabled = false;
+
+    private EventMetrics() {
+    }
+
+    public static EventMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    static String nameOf(Listener listener) {
+        if (listener instanceof EventBus.SubscriberListener) {
+            return ((EventBus.SubscriberListener) listener).name;
+        } else if (listener instanceof EventBus.DelegateAsyncListener) {
+            return nameOf(((EventBus.DelegateAsyncListener) listener).delegate);
+        }
+        return listener.getClass().getName();
+    }
+
+    static EventStat stat(Class<?> eventClass) {
+        EventStat stat = eventStats.get(eventClass);
+        if (stat == null) {
+            stat = new EventStat();
+            EventStat old = eventStats.putIfAbsent(eventClass, stat);
+            if (old != null) {
+                stat = old;
+            }
+        }
+        return stat;
+    }
+
+    /**
+     * count a delivery and record the listener latency
+     */
+    static void delivered(EventStat stat, Listener listener, Event event, long startNanos, boolean failed) {
+        if (failed) {
+            stat.failed.incrementAndGet();
+        } else {
+            stat.delivered.incrementAndGet();
+        }
+        latency(listener, event, startNanos);
+    }
+
+    /**
+     * record listener latency and log it if slower than the threshold
+     */
+    static void latency(Listener listener, Event event, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        listenerHistograms.getUnchecked(listener).record(nanos);
+        long threshold = slowListenerThresholdNanos;
+        if (threshold > 0 && nanos > threshold) {
+            logger.warn("slow event listener {} handle {} used {} ms",
+                    nameOf(listener), event.getClass().getName(), TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+    }
+
+    static void registerQueue(Class<?> eventClass, AsyncEventBus.EventQueue queue) {
+        queues.put(nameOf(queue.listener) + "@" + eventClass.getName() + "#" + System.identityHashCode(queue), queue);
+    }
+
+    static void unregisterQueue(AsyncEventBus.EventQueue queue) {
+        queues.values().remove(queue);
+    }
+
+    @Override
+    public boolean getEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        EventMetrics.enabled = enabled;
+    }
+
+    /**
+     * @return slow listener threshold in milliseconds, 0 is disabled
+     */
+    public long getSlowListenerThreshold() {
+        return TimeUnit.NANOSECONDS.toMillis(slowListenerThresholdNanos);
+    }
+
+    /**
+     * @param millis slow listener threshold in milliseconds, 0 is disabled
+     */
+    public void setSlowListenerThreshold(long millis) {
+        slowListenerThresholdNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(millis, 0));
+    }
+
+    public long getPublishedCount() {
+        long count = 0;
+        for (EventStat stat : eventStats.values()) {
+            count += stat.published.get();
+        }
+        return count;
+    }
+
+    public long getDeliveredCount() {
+        long count = 0;
+        for (EventStat stat : eventStats.values()) {
+            count += stat.delivered.get();
+        }
+        return count;
+    }
+
+    public long getFailedCount() {
+        long count = 0;
+        for (EventStat stat : eventStats.values()) {
+            count += stat.failed.get();
+        }
+        return count;
+    }
+
+    public long getDroppedCount() {
+        long count = 0;
+        for (EventStat stat : eventStats.values()) {
+            count += stat.dropped.get();
+        }
+        return count;
+    }
+
+    /**
+     * snapshot of all metrics
+     *
+     * @return events, listeners and queues metrics
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> events = Maps.newTreeMap();
+        for (Map.Entry<Class<?>, EventStat> entry : eventStats.entrySet()) {
+            EventStat stat = entry.getValue();
+            Map<String, Long> data = Maps.newLinkedHashMap();
+            data.put("published", stat.published.get());
+            data.put("delivered", stat.delivered.get());
+            data.put("failed", stat.failed.get());
+            data.put("dropped", stat.dropped.get());
+            events.put(entry.getKey().getName(), data);
+        }
+
+        Map<String, Object> listeners = Maps.newTreeMap();
+        for (Map.Entry<String, LatencyHistogram> entry : listenerLatencies.entrySet()) {
+            LatencyHistogram histogram = entry.getValue();
+            Map<String, Object> data = Maps.newLinkedHashMap();
+            data.put("count", histogram.getCount());
+            data.put("meanMicros", histogram.getMean());
+            data.put("p50Micros", histogram.getValueAtPercentile(50));
+            data.put("p90Micros", histogram.getValueAtPercentile(90));
+            data.put("p99Micros", histogram.getValueAtPercentile(99));
+            data.put("maxMicros", histogram.getMax());
+            listeners.put(entry.getKey(), data);
+        }
+
+        Map<String, Object> queueDepths = Maps.newTreeMap();
+        for (Map.Entry<String, AsyncEventBus.EventQueue> entry : queues.entrySet()) {
+            queueDepths.put(entry.getKey(), entry.getValue().events.size());
+        }
+
+        Map<String, Object> snapshot = Maps.newLinkedHashMap();
+        snapshot.put("enabled", enabled);
+        snapshot.put("slowListenerThreshold", getSlowListenerThreshold());
+        snapshot.put("events", events);
+        snapshot.put("listeners", listeners);
+        snapshot.put("queues", queueDepths);
+        return snapshot;
+    }
+
+    /**
+     * @return json of {@link #snapshot()}
+     */
+    public String dump() {
+        try {
+            return new ObjectMapper().writeValueAsString(snapshot());
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("dump event metrics error", e);
+        }
+    }
+
+    /**
+     * reset counters, the stats are kept since event buses hold them
+     */
+    public void reset() {
+        for (EventStat stat : eventStats.values()) {
+            stat.reset();
+        }
+        listenerLatencies.clear();
+        listenerHistograms.invalidateAll();
+    }
+
+    /**
+     * drop all metrics and queues, call it when the application is shut down
+     */
+    static void clear() {
+        eventStats.clear();
+        listenerLatencies.clear();
+        listenerHistograms.invalidateAll();
+        queues.clear();
+    }
+
+    static class EventStat {
+        final AtomicLong published = new AtomicLong();
+        final AtomicLong delivered = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong dropped = new AtomicLong();
+
+        void reset() {
+            published.set(0);
+            delivered.set(0);
+            failed.set(0);
+            dropped.set(0);
+        }
+    }
+
+    /**
+     * enable metrics, read slow listener threshold and register mbean when jmx enabled.
+     * <p/>
+     * metrics are reset when the application is reloaded, so listeners of the old application
+     * are not held by their names, and cleared when it is shut down.
+     */
+    public static class AddOn extends ameba.core.AddOn {
+        @Override
+        public void setup(Application application) {
+            String enabledConf = (String) application.getProperty(ENABLED_CONF);
+            enabled = StringUtils.isBlank(enabledConf) || Boolean.parseBoolean(enabledConf.trim());
+            String threshold = (String) application.getProperty(SLOW_LISTENER_THRESHOLD_CONF);
+            if (StringUtils.isNotBlank(threshold)) {
+                INSTANCE.setSlowListenerThreshold(Long.parseLong(threshold.trim()));
+            }
+            subscribeSystemEvent(Container.BeginReloadEvent.class, new Listener<Container.BeginReloadEvent>() {
+                @Override
+                public void onReceive(Container.BeginReloadEvent event) {
+                    INSTANCE.reset();
+                }
+            });
+            subscribeSystemEvent(Container.ShutdownEvent.class, new Listener<Container.ShutdownEvent>() {
+                @Override
+                public void onReceive(Container.ShutdownEvent event) {
+                    clear();
+                }
+            });
+        }
+
+        @Override
+        public void done(Application application) {
+            if (!application.isJmxEnabled()) return;
+            try {
+                MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                ObjectName name = new ObjectName(MBEAN_NAME);
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(INSTANCE, name);
+                }
+            } catch (Exception e) {
+                logger.error("register event metrics mbean error", e);
+            }
+        }
+    }
+}
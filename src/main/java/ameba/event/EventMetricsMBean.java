@@ -0,0 +1,29 @@
+package ameba.event;
+
+/**
+ * jmx view of {@link EventMetrics}
+ *
+ * @author icode
+ */
+public interface EventMetricsMBean {
+
+    boolean getEnabled();
+
+    void setEnabled(boolean enabled);
+
+    long getPublishedCount();
+
+    long getDeliveredCount();
+
+    long getFailedCount();
+
+    long getDroppedCount();
+
+    long getSlowListenerThreshold();
+
+    void setSlowListenerThreshold(long millis);
+
+    String dump();
+
+    void reset();
+}
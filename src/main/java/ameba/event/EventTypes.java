@@ -0,0 +1,27 @@
+package ameba.event;
+
+import com.google.common.reflect.TypeToken;
+
+import java.util.Set;
+
+/**
+ * event type hierarchy helper
+ *
+ * @author icode
+ */
+final class EventTypes {
+    private EventTypes() {
+    }
+
+    /**
+     * all types the event class can be dispatched to, the class self first,
+     * then it's super classes and interfaces
+     *
+     * @param eventClass event class
+     * @return event class and all super types
+     */
+    @SuppressWarnings("unchecked")
+    static Set<Class<?>> flatten(Class<?> eventClass) {
+        return (Set) TypeToken.of(eventClass).getTypes().rawTypes();
+    }
+}
@@ -14,4 +14,26 @@ public @interface Subscribe {
     Class<? extends Event>[] value() default {};
 
     boolean async() default false;
+
+    /**
+     * executor of async handler, only used when {@link #async()} is true
+     */
+    AsyncExecutor executor() default AsyncExecutor.DEFAULT;
+
+    enum AsyncExecutor {
+        /**
+         * the async event bus default executor
+         */
+        DEFAULT,
+        /**
+         * akka actor
+         */
+        ACTOR,
+        /**
+         * virtual thread or bounded thread pool, for blocking handlers
+         *
+         * @see EventExecutors#threads()
+         */
+        THREAD
+    }
 }
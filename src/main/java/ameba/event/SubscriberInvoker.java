@@ -0,0 +1,195 @@
+package ameba.event;
+
+import com.google.common.collect.MapMaker;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewMethod;
+import javassist.LoaderClassPath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * invoke a {@link Subscribe} method for a event type.
+ * <p/>
+ * the argument layout is resolved once when subscribe, if the method and it's class are public
+ * a direct invoker class is generated by javassist, otherwise fallback to reflection.
+ * <p/>
+ * the generated class is defined by a child class loader of the listener's class loader,
+ * not injected into the listener's loader, so it works on newer jdk and in containers.
+ *
+ * @author icode
+ */
+public abstract class SubscriberInvoker {
+
+    private static final Logger logger = LoggerFactory.getLogger(SubscriberInvoker.class);
+    private static final AtomicInteger INVOKER_ID = new AtomicInteger();
+    private static final ConcurrentMap<ClassLoader, InvokerClassLoader> invokerLoaders = new MapMaker()
+            .weakKeys().weakValues().makeMap();
+    private static final Set<Class<?>> fallbackClasses = Collections.newSetFromMap(new MapMaker()
+            .weakKeys().<Class<?>, Boolean>makeMap());
+
+    /**
+     * create invoker for method and event type
+     *
+     * @param method    subscribe method
+     * @param eventType subscribed event type
+     * @return invoker
+     */
+    public static SubscriberInvoker create(Method method, Class<? extends Event> eventType) {
+        Class<?>[] argsClass = method.getParameterTypes();
+        boolean[] eventArgs = new boolean[argsClass.length];
+        boolean canGenerate = isAccessible(method);
+        for (int i = 0; i < argsClass.length; i++) {
+            eventArgs[i] = Event.class.isAssignableFrom(argsClass[i])
+                    && argsClass[i].isAssignableFrom(eventType);
+            if (argsClass[i].isPrimitive()) {
+                canGenerate = false;
+            }
+        }
+
+        if (canGenerate) {
+            try {
+                return generate(method, argsClass, eventArgs);
+            } catch (Exception e) {
+                logFallback(method, e);
+            } catch (LinkageError e) {
+                logFallback(method, e);
+            }
+        }
+        method.setAccessible(true);
+        return new ReflectiveInvoker(method, eventArgs);
+    }
+
+    private static void logFallback(Method method, Throwable e) {
+        if (fallbackClasses.add(method.getDeclaringClass())) {
+            logger.warn("generate event invoker for " + method.getDeclaringClass().getName()
+                    + " failed, subscribe methods of it use reflection", e);
+        }
+    }
+
+    private static InvokerClassLoader invokerLoader(ClassLoader parent) {
+        InvokerClassLoader loader = invokerLoaders.get(parent);
+        if (loader == null) {
+            loader = new InvokerClassLoader(parent);
+            InvokerClassLoader old = invokerLoaders.putIfAbsent(parent, loader);
+            if (old != null) {
+                loader = old;
+            }
+        }
+        return loader;
+    }
+
+    private static boolean isAccessible(Method method) {
+        if (!Modifier.isPublic(method.getModifiers())) {
+            return false;
+        }
+        Class<?> clazz = method.getDeclaringClass();
+        while (clazz != null) {
+            if (!Modifier.isPublic(clazz.getModifiers())) {
+                return false;
+            }
+            clazz = clazz.getDeclaringClass();
+        }
+        return true;
+    }
+
+    private static String typeName(Class<?> clazz) {
+        return clazz.isArray() ? typeName(clazz.getComponentType()) + "[]" : clazz.getName();
+    }
+
+    private static SubscriberInvoker generate(Method method, Class<?>[] argsClass, boolean[] eventArgs)
+            throws Exception {
+        Class<?> declaringClass = method.getDeclaringClass();
+        ClassLoader loader = declaringClass.getClassLoader();
+        if (loader == null) {
+            loader = SubscriberInvoker.class.getClassLoader();
+        }
+
+        ClassPool pool = new ClassPool(true);
+        pool.appendClassPath(new LoaderClassPath(loader));
+        pool.appendClassPath(new LoaderClassPath(SubscriberInvoker.class.getClassLoader()));
+
+        CtClass invokerClass = pool.makeClass(declaringClass.getName() + "$$EventInvoker$" + INVOKER_ID.incrementAndGet());
+        invokerClass.setSuperclass(pool.get(SubscriberInvoker.class.getName()));
+
+        StringBuilder body = new StringBuilder("public void invoke(Object target, ")
+                .append(Event.class.getName()).append(" event) throws Exception {")
+                .append("((").append(typeName(declaringClass)).append(") $1).")
+                .append(method.getName()).append("(");
+        for (int i = 0; i < argsClass.length; i++) {
+            if (i > 0) body.append(", ");
+            body.append("(").append(typeName(argsClass[i])).append(") ")
+                    .append(eventArgs[i] ? "$2" : "null");
+        }
+        body.append(");}");
+
+        invokerClass.addMethod(CtNewMethod.make(body.toString(), invokerClass));
+        try {
+            Class<?> clazz = invokerLoader(loader).define(invokerClass.getName(), invokerClass.toBytecode());
+            return (SubscriberInvoker) clazz.newInstance();
+        } finally {
+            invokerClass.detach();
+        }
+    }
+
+    /**
+     * invoke subscribe method
+     *
+     * @param target subscriber instance
+     * @param event  event
+     * @throws Exception method invoke error
+     */
+    public abstract void invoke(Object target, Event event) throws Exception;
+
+    /**
+     * define generated invokers next to the listener's class loader, the invokers only use
+     * public types, so a child loader can link them. ameba classes are loaded from the loader
+     * of this class if the listener's loader can not see them.
+     */
+    private static class InvokerClassLoader extends ClassLoader {
+        InvokerClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException {
+            return SubscriberInvoker.class.getClassLoader().loadClass(name);
+        }
+
+        synchronized Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    static boolean isGenerated(SubscriberInvoker invoker) {
+        return !(invoker instanceof ReflectiveInvoker);
+    }
+
+    private static class ReflectiveInvoker extends SubscriberInvoker {
+        private final Method method;
+        private final boolean[] eventArgs;
+
+        ReflectiveInvoker(Method method, boolean[] eventArgs) {
+            this.method = method;
+            this.eventArgs = eventArgs;
+        }
+
+        @Override
+        public void invoke(Object target, Event event) throws Exception {
+            Object[] args = new Object[eventArgs.length];
+            for (int i = 0; i < eventArgs.length; i++) {
+                if (eventArgs[i]) {
+                    args[i] = event;
+                }
+            }
+            method.invoke(target, args);
+        }
+    }
+}
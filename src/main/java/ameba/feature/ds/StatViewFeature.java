@@ -1,5 +1,7 @@
 package ameba.feature.ds;
 
+import ameba.db.model.ModelCache;
+import ameba.event.EventMetrics;
 import com.alibaba.druid.stat.DruidStatService;
 import com.alibaba.druid.util.Utils;
 import com.google.common.collect.Maps;
@@ -290,6 +292,18 @@ public class StatViewFeature implements Feature {
             return Response.temporaryRedirect(URI.create(dsPath + "/index.html")).build();
         }
 
+        @GET
+        @Path("events.json")
+        public Response events() {
+            return Response.ok(EventMetrics.getInstance().dump()).type(MediaType.APPLICATION_JSON_TYPE).build();
+        }
+
+        @GET
+        @Path("caches.json")
+        public Response caches() {
+            return Response.ok(ModelCache.dump()).type(MediaType.APPLICATION_JSON_TYPE).build();
+        }
+
         @GET
         @Path("{path:.*}")
         public Response getService(@PathParam("path") String path) throws IOException {
@@ -1,8 +1,6 @@
 package ameba.message;
 
-import ameba.message.internal.FilteringJacksonJsonProvider;
-import ameba.message.internal.JacksonFilteringFeature;
-import ameba.message.internal.JacksonJsonProvider;
+import ameba.message.internal.*;
 import com.fasterxml.jackson.jaxrs.base.JsonMappingExceptionMapper;
 import com.fasterxml.jackson.jaxrs.base.JsonParseExceptionMapper;
 import com.fasterxml.jackson.jaxrs.json.JacksonJaxbJsonProvider;
@@ -46,8 +44,13 @@ public class JacksonFeature implements Feature {
             if (EntityFilteringFeature.enabled(config)) {
                 context.register(JacksonFilteringFeature.class);
                 context.register(FilteringJacksonJsonProvider.class, MessageBodyReader.class, MessageBodyWriter.class);
+                //二进制格式 smile/cbor
+                context.register(FilteringJacksonSmileProvider.class, MessageBodyReader.class, MessageBodyWriter.class);
+                context.register(FilteringJacksonCBORProvider.class, MessageBodyReader.class, MessageBodyWriter.class);
             } else {
                 context.register(JacksonJsonProvider.class, MessageBodyReader.class, MessageBodyWriter.class);
+                context.register(JacksonSmileProvider.class, MessageBodyReader.class, MessageBodyWriter.class);
+                context.register(JacksonCBORProvider.class, MessageBodyReader.class, MessageBodyWriter.class);
             }
         }
         return true;
@@ -0,0 +1,29 @@
+package ameba.message.internal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import javax.inject.Singleton;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+
+/**
+ * cbor binary format with entity filtering, same pipeline of {@link FilteringJacksonJsonProvider}
+ *
+ * @author icode
+ */
+@Singleton
+@Consumes(MediaType.APPLICATION_CBOR)
+@Produces(MediaType.APPLICATION_CBOR)
+public class FilteringJacksonCBORProvider extends FilteringJacksonJsonProvider {
+
+    public FilteringJacksonCBORProvider() {
+        super(new ObjectMapper(new CBORFactory()));
+    }
+
+    @Override
+    protected boolean hasMatchingMediaType(javax.ws.rs.core.MediaType mediaType) {
+        return mediaType != null && !mediaType.isWildcardSubtype()
+                && MediaType.APPLICATION_CBOR_TYPE.isCompatible(mediaType);
+    }
+}
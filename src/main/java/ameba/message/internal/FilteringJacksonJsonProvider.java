@@ -27,6 +27,14 @@ public class FilteringJacksonJsonProvider extends JacksonJsonProvider {
     @Inject
     private Provider<ObjectProvider<FilterProvider>> provider;
 
+    public FilteringJacksonJsonProvider() {
+        super();
+    }
+
+    protected FilteringJacksonJsonProvider(ObjectMapper objectMapper) {
+        super(objectMapper, DEFAULT_ANNOTATIONS);
+    }
+
     @Override
     protected JsonEndpointConfig _configForWriting(final ObjectMapper mapper, final Annotation[] annotations,
                                                    final Class<?> defaultView) {
@@ -45,8 +53,14 @@ public class FilteringJacksonJsonProvider extends JacksonJsonProvider {
                         final MultivaluedMap<String, Object> httpHeaders,
                         final OutputStream entityStream) throws IOException {
 
-        JacksonUtils.setObjectWriterInjector(provider, genericType, annotations);
-        super.writeTo(value, type, genericType, annotations, mediaType, httpHeaders, entityStream);
+        final Object outer = JacksonObjectProvider.enterWrite();
+        try {
+            JacksonUtils.setObjectWriterInjector(provider, genericType, annotations);
+            super.writeTo(value, type, genericType, annotations, mediaType, httpHeaders, entityStream);
+        } finally {
+            // 不留在线程池的线程上，嵌套写入恢复外层的栈
+            JacksonObjectProvider.exitWrite(outer);
+        }
     }
 
 }
@@ -0,0 +1,29 @@
+package ameba.message.internal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import javax.inject.Singleton;
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+
+/**
+ * smile binary format with entity filtering, same pipeline of {@link FilteringJacksonJsonProvider}
+ *
+ * @author icode
+ */
+@Singleton
+@Consumes(MediaType.APPLICATION_SMILE)
+@Produces(MediaType.APPLICATION_SMILE)
+public class FilteringJacksonSmileProvider extends FilteringJacksonJsonProvider {
+
+    public FilteringJacksonSmileProvider() {
+        super(new ObjectMapper(new SmileFactory()));
+    }
+
+    @Override
+    protected boolean hasMatchingMediaType(javax.ws.rs.core.MediaType mediaType) {
+        return mediaType != null && !mediaType.isWildcardSubtype()
+                && MediaType.APPLICATION_SMILE_TYPE.isCompatible(mediaType);
+    }
+}
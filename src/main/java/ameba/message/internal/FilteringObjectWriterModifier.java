@@ -2,26 +2,52 @@ package ameba.message.internal;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import com.fasterxml.jackson.databind.ser.BeanPropertyFilter;
 import com.fasterxml.jackson.databind.ser.FilterProvider;
 import com.fasterxml.jackson.databind.ser.PropertyFilter;
 import com.fasterxml.jackson.jaxrs.cfg.EndpointConfigBase;
 import com.fasterxml.jackson.jaxrs.cfg.ObjectWriterModifier;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 
 import javax.ws.rs.core.MultivaluedMap;
 import java.io.IOException;
+import java.lang.reflect.Type;
 
 /**
  * @author icode
  */
 public class FilteringObjectWriterModifier extends ObjectWriterModifier {
 
+    private static final int WRITER_CACHE_SIZE = 1000;
+
+    /**
+     * filtering writers by endpoint, root type, pretty print and filter provider. endpoints and filter providers are
+     * cached and reused by jackson and jersey, so a request gets the writer by a lookup instead of resolve it again.
+     */
+    private static final Cache<WriterKey, ObjectWriter> writers = CacheBuilder.newBuilder()
+            .maximumSize(WRITER_CACHE_SIZE)
+            .build();
+
     private final ObjectWriterModifier original;
     private final FilterProvider filterProvider;
+    private final Type genericType;
 
     public FilteringObjectWriterModifier(final FilterProvider filterProvider, final ObjectWriterModifier original) {
+        this(filterProvider, original, null);
+    }
+
+    /**
+     * @param filterProvider filter provider
+     * @param original       original modifier
+     * @param genericType    generic type of entity, the root type of writer
+     */
+    public FilteringObjectWriterModifier(final FilterProvider filterProvider, final ObjectWriterModifier original,
+                                         final Type genericType) {
         this.original = original;
         this.filterProvider = filterProvider;
+        this.genericType = genericType;
     }
 
     @Override
@@ -30,7 +56,24 @@ public class FilteringObjectWriterModifier extends ObjectWriterModifier {
                                final Object valueToWrite,
                                final ObjectWriter w,
                                final JsonGenerator g) throws IOException {
-        final ObjectWriter writer = original == null ? w : original.modify(endpoint, responseHeaders, valueToWrite, w, g);
+        if (original != null) {
+            // the original modifier may give a new writer per request
+            return withFilter(original.modify(endpoint, responseHeaders, valueToWrite, w, g));
+        }
+        if (genericType == null) {
+            return withFilter(w);
+        }
+        final WriterKey key = new WriterKey(endpoint, genericType, valueToWrite == null,
+                w.isEnabled(SerializationFeature.INDENT_OUTPUT), filterProvider);
+        ObjectWriter writer = writers.getIfPresent(key);
+        if (writer == null) {
+            writer = withFilter(w);
+            writers.put(key, writer);
+        }
+        return writer;
+    }
+
+    private ObjectWriter withFilter(final ObjectWriter writer) {
         final FilterProvider customFilterProvider = writer.getConfig().getFilterProvider();
 
         // Try the custom (user) filter provider first.
@@ -53,4 +96,44 @@ public class FilteringObjectWriterModifier extends ObjectWriterModifier {
             }
         });
     }
-}
\ No newline at end of file
+
+    private static final class WriterKey {
+        private final EndpointConfigBase<?> endpoint;
+        private final Type type;
+        private final boolean nullValue;
+        private final boolean pretty;
+        private final FilterProvider filterProvider;
+        private final int hash;
+
+        private WriterKey(final EndpointConfigBase<?> endpoint, final Type type, final boolean nullValue,
+                          final boolean pretty, final FilterProvider filterProvider) {
+            this.endpoint = endpoint;
+            this.type = type;
+            this.nullValue = nullValue;
+            this.pretty = pretty;
+            this.filterProvider = filterProvider;
+            int h = System.identityHashCode(endpoint);
+            h = 31 * h + type.hashCode();
+            h = 31 * h + (nullValue ? 1 : 0);
+            h = 31 * h + (pretty ? 1 : 0);
+            this.hash = 31 * h + System.identityHashCode(filterProvider);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof WriterKey)) return false;
+            final WriterKey that = (WriterKey) o;
+            return endpoint == that.endpoint
+                    && filterProvider == that.filterProvider
+                    && nullValue == that.nullValue
+                    && pretty == that.pretty
+                    && type.equals(that.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package ameba.message.internal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+
+/**
+ * cbor binary format, same configuration of {@link JacksonJsonProvider}
+ *
+ * @author icode
+ */
+@Consumes(MediaType.APPLICATION_CBOR)
+@Produces(MediaType.APPLICATION_CBOR)
+public class JacksonCBORProvider extends JacksonJsonProvider {
+
+    public JacksonCBORProvider() {
+        super(new ObjectMapper(new CBORFactory()), DEFAULT_ANNOTATIONS);
+    }
+
+    @Override
+    protected boolean hasMatchingMediaType(javax.ws.rs.core.MediaType mediaType) {
+        return mediaType != null && !mediaType.isWildcardSubtype()
+                && MediaType.APPLICATION_CBOR_TYPE.isCompatible(mediaType);
+    }
+}
@@ -10,15 +10,18 @@ import com.fasterxml.jackson.databind.ser.FilterProvider;
 import com.fasterxml.jackson.databind.ser.PropertyFilter;
 import com.fasterxml.jackson.databind.ser.PropertyWriter;
 import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
-import com.google.common.collect.Maps;
-import com.google.common.collect.Sets;
+import com.google.common.base.Objects;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.*;
 import org.glassfish.jersey.message.filtering.spi.AbstractObjectProvider;
 import org.glassfish.jersey.message.filtering.spi.ObjectGraph;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 
 /**
  * @author Michal Gajdos (michal.gajdos at oracle.com)
@@ -26,20 +29,90 @@ import java.util.Stack;
  */
 final class JacksonObjectProvider extends AbstractObjectProvider<FilterProvider> {
 
+    private static final int FILTER_CACHE_SIZE = 1000;
+
+    /**
+     * filter trees by graph shape, a shape is walked per response but the filters are built once
+     */
+    private static final Cache<GraphShape, FilteringPropertyFilter> filters = CacheBuilder.newBuilder()
+            .maximumSize(FILTER_CACHE_SIZE)
+            .build();
+
+    /**
+     * filter providers by object graph identity, jersey keeps a graph per entity class and filtering scopes,
+     * so the graph is not walked again and the provider is the same, which is a key of the writer cache
+     * of {@link FilteringObjectWriterModifier}
+     */
+    private static final Cache<ObjectGraph, FilterProvider> providers = CacheBuilder.newBuilder()
+            .weakKeys()
+            .maximumSize(FILTER_CACHE_SIZE)
+            .build();
+
     @Override
     public FilterProvider transform(final ObjectGraph graph) {
+        FilterProvider provider = providers.getIfPresent(graph);
+        if (provider != null) {
+            return provider;
+        }
+
         // Root entity.
-        final FilteringPropertyFilter root = new FilteringPropertyFilter(graph.getEntityClass(),
+        final GraphShape shape = new GraphShape(graph.getEntityClass(),
                 graph.getFields(),
-                createSubfilters(graph.getEntityClass(), graph.getSubgraphs()));
+                createSubshapes(graph.getEntityClass(), graph.getSubgraphs()));
 
-        return new FilteringFilterProvider(root);
+        FilteringPropertyFilter root = filters.getIfPresent(shape);
+        if (root == null) {
+            root = createFilter(shape);
+            filters.put(shape, root);
+        }
+
+        provider = new FilteringFilterProvider(root);
+        providers.put(graph, provider);
+        return provider;
     }
 
-    private Map<String, FilteringPropertyFilter> createSubfilters(final Class<?> entityClass,
-                                                                  final Map<String, ObjectGraph> entitySubgraphs) {
-        final Set<String> processed = Sets.newHashSet();
-        final Map<String, FilteringPropertyFilter> subfilters = Maps.newHashMap();
+    /**
+     * start a filtered write on the current thread, a write nested in another write gets it's own stack
+     *
+     * @return stack of the outer write, pass it to {@link #exitWrite(Object)}
+     */
+    static Object enterWrite() {
+        final FilterStack outer = FilteringFilterProvider.stacks.get();
+        if (!outer.writing) {
+            outer.writing = true;
+            return null;
+        }
+        final FilterStack stack = new FilterStack();
+        stack.writing = true;
+        FilteringFilterProvider.stacks.set(stack);
+        return outer;
+    }
+
+    /**
+     * end the write, restore the stack of the outer write or remove the stack of the thread
+     *
+     * @param outer returned by {@link #enterWrite()}
+     */
+    static void exitWrite(final Object outer) {
+        if (outer == null) {
+            FilteringFilterProvider.stacks.remove();
+        } else {
+            FilteringFilterProvider.stacks.set((FilterStack) outer);
+        }
+    }
+
+    private static FilteringPropertyFilter createFilter(final GraphShape shape) {
+        final ImmutableMap.Builder<String, FilteringPropertyFilter> subfilters = ImmutableMap.builder();
+        for (final Map.Entry<String, GraphShape> entry : shape.subshapes.entrySet()) {
+            subfilters.put(entry.getKey(), createFilter(entry.getValue()));
+        }
+        return new FilteringPropertyFilter(shape.entityClass, shape.fields, subfilters.build());
+    }
+
+    private Map<String, GraphShape> createSubshapes(final Class<?> entityClass,
+                                                    final Map<String, ObjectGraph> entitySubgraphs) {
+        final Set<List<Object>> processed = Sets.newHashSet();
+        final Map<String, GraphShape> subshapes = Maps.newHashMap();
 
         for (final Map.Entry<String, ObjectGraph> entry : entitySubgraphs.entrySet()) {
             final String fieldName = entry.getKey();
@@ -53,27 +126,24 @@ final class JacksonObjectProvider extends AbstractObjectProvider<FilterProvider>
             // Subgraph Fields.
             final Map<String, ObjectGraph> subgraphs = graph.getSubgraphs(fieldName);
 
-            Map<String, FilteringPropertyFilter> subSubfilters = Maps.newHashMap();
+            Map<String, GraphShape> subSubshapes = Collections.emptyMap();
             if (!subgraphs.isEmpty()) {
                 final Class<?> subEntityClass = graph.getEntityClass();
 
                 processed.add(getProcessedSubgraph(entityClass, fieldName, subEntityClass));
-                subSubfilters = createSubfilters(fieldName, subEntityClass, subgraphs, processed);
+                subSubshapes = createSubshapes(fieldName, subEntityClass, subgraphs, processed);
             }
 
-            final FilteringPropertyFilter filter = new FilteringPropertyFilter(graph.getEntityClass(),
-                    graph.getFields(fieldName), subSubfilters);
-
-            subfilters.put(fieldName, filter);
+            subshapes.put(fieldName, new GraphShape(graph.getEntityClass(), graph.getFields(fieldName), subSubshapes));
         }
 
-        return subfilters;
+        return subshapes;
     }
 
-    private Map<String, FilteringPropertyFilter> createSubfilters(final String parent, final Class<?> entityClass,
-                                                                  final Map<String, ObjectGraph> entitySubgraphs,
-                                                                  final Set<String> processed) {
-        final Map<String, FilteringPropertyFilter> subfilters = Maps.newHashMap();
+    private Map<String, GraphShape> createSubshapes(final String parent, final Class<?> entityClass,
+                                                    final Map<String, ObjectGraph> entitySubgraphs,
+                                                    final Set<List<Object>> processed) {
+        final Map<String, GraphShape> subshapes = Maps.newHashMap();
 
         for (final Map.Entry<String, ObjectGraph> entry : entitySubgraphs.entrySet()) {
             final String fieldName = entry.getKey();
@@ -90,28 +160,75 @@ final class JacksonObjectProvider extends AbstractObjectProvider<FilterProvider>
             final Map<String, ObjectGraph> subgraphs = graph.getSubgraphs(path);
 
             final Class<?> subEntityClass = graph.getEntityClass();
-            final String processedSubgraph = getProcessedSubgraph(entityClass, fieldName, subEntityClass);
+            final List<Object> processedSubgraph = getProcessedSubgraph(entityClass, fieldName, subEntityClass);
 
-            Map<String, FilteringPropertyFilter> subSubfilters = Maps.newHashMap();
-            if (!subgraphs.isEmpty() && !processed.contains(processedSubgraph)) {
-                processed.add(processedSubgraph);
-                subSubfilters = createSubfilters(path, subEntityClass, subgraphs, processed);
+            Map<String, GraphShape> subSubshapes = Collections.emptyMap();
+            if (!subgraphs.isEmpty() && processed.add(processedSubgraph)) {
+                subSubshapes = createSubshapes(path, subEntityClass, subgraphs, processed);
             }
 
-            subfilters.put(fieldName, new FilteringPropertyFilter(graph.getEntityClass(), graph.getFields(path), subSubfilters));
+            subshapes.put(fieldName, new GraphShape(graph.getEntityClass(), graph.getFields(path), subSubshapes));
         }
 
-        return subfilters;
+        return subshapes;
     }
 
-    private String getProcessedSubgraph(final Class<?> parent, final String field, final Class<?> fieldClass) {
-        return parent.getName() + "_" + field + "_" + fieldClass.getName();
+    private List<Object> getProcessedSubgraph(final Class<?> parent, final String field, final Class<?> fieldClass) {
+        return ImmutableList.<Object>of(parent, field, fieldClass);
     }
 
+    /**
+     * entity class, fields and sub shapes of an object graph, the key of filter cache
+     */
+    private static final class GraphShape {
+
+        private final Class<?> entityClass;
+        private final Set<String> fields;
+        private final Map<String, GraphShape> subshapes;
+        private final int hash;
+
+        private GraphShape(final Class<?> entityClass, final Set<String> fields, final Map<String, GraphShape> subshapes) {
+            this.entityClass = entityClass;
+            this.fields = fields;
+            this.subshapes = subshapes;
+            this.hash = Objects.hashCode(entityClass, fields, subshapes);
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (!(o instanceof GraphShape)) return false;
+            final GraphShape that = (GraphShape) o;
+            return hash == that.hash
+                    && entityClass == that.entityClass
+                    && fields.equals(that.fields)
+                    && subshapes.equals(that.subshapes);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * the traversal stack is per thread, so a cached provider is safe to share by concurrent serializations.
+     * the stack lives from {@link #enterWrite()} to {@link #exitWrite(Object)}.
+     */
     private static class FilteringFilterProvider extends FilterProvider {
 
+        // Map keys can be filtered as well so we just say that every key is allowed.
+        private static final PropertyFilter ALLOW_ALL = SimpleBeanPropertyFilter.serializeAllExcept(Collections.<String>emptySet());
+        private static final PropertyFilter EXCLUDE_ALL = SimpleBeanPropertyFilter.filterOutAllExcept(Collections.<String>emptySet());
+
+        private static final ThreadLocal<FilterStack> stacks = new ThreadLocal<FilterStack>() {
+            @Override
+            protected FilterStack initialValue() {
+                return new FilterStack();
+            }
+        };
+
         private final FilteringPropertyFilter root;
-        private final Stack<FilteringPropertyFilter> stack = new Stack<FilteringPropertyFilter>();
 
         public FilteringFilterProvider(final FilteringPropertyFilter root) {
             this.root = root;
@@ -126,6 +243,7 @@ final class JacksonObjectProvider extends AbstractObjectProvider<FilterProvider>
         public PropertyFilter findPropertyFilter(final Object filterId, final Object valueToFilter) {
             if (filterId instanceof String) {
                 final String id = (String) filterId;
+                final FilterStack stack = stacks.get();
 
                 // FilterId should represent a class only in case of root entity is marshalled.
                 if (id.equals(root.getEntityClass().getName())) {
@@ -134,18 +252,14 @@ final class JacksonObjectProvider extends AbstractObjectProvider<FilterProvider>
                 }
 
                 while (!stack.isEmpty()) {
-                    final FilteringPropertyFilter peek = stack.peek();
-                    final FilteringPropertyFilter subfilter = peek.findSubfilter(id);
+                    final FilteringPropertyFilter subfilter = stack.peek().findSubfilter(id);
 
                     if (subfilter != null) {
                         stack.push(subfilter);
 
-                        // Need special handling for maps here - map keys can be filtered as well so we just say that every key is
-                        // allowed.
+                        // Need special handling for maps here.
                         if (valueToFilter instanceof Map) {
-                            final Map<String, ?> map = (Map<String, ?>) valueToFilter;
-                            return new FilteringPropertyFilter(Map.class, map.keySet(),
-                                    Collections.<String, FilteringPropertyFilter>emptyMap());
+                            return ALLOW_ALL;
                         }
                         return subfilter;
                     } else {
@@ -153,7 +267,42 @@ final class JacksonObjectProvider extends AbstractObjectProvider<FilterProvider>
                     }
                 }
             }
-            return SimpleBeanPropertyFilter.filterOutAllExcept();
+            return EXCLUDE_ALL;
+        }
+    }
+
+    /**
+     * array backed stack of filters of a write
+     */
+    private static final class FilterStack {
+
+        private FilteringPropertyFilter[] filters = new FilteringPropertyFilter[16];
+        private int size;
+        private boolean writing;
+
+        private FilteringPropertyFilter push(final FilteringPropertyFilter filter) {
+            if (size == filters.length) {
+                filters = Arrays.copyOf(filters, size * 2);
+            }
+            filters[size++] = filter;
+            return filter;
+        }
+
+        private FilteringPropertyFilter peek() {
+            return filters[size - 1];
+        }
+
+        private void pop() {
+            filters[--size] = null;
+        }
+
+        private boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void clear() {
+            Arrays.fill(filters, 0, size, null);
+            size = 0;
         }
     }
 
@@ -161,19 +310,22 @@ final class JacksonObjectProvider extends AbstractObjectProvider<FilterProvider>
 
         private final Class<?> entityClass;
 
-        private final Set<String> fields;
+        /**
+         * fields and subfilter names, looked up by one probe
+         */
+        private final Set<String> included;
         private final Map<String, FilteringPropertyFilter> subfilters;
 
         private FilteringPropertyFilter(final Class<?> entityClass,
                                         final Set<String> fields, final Map<String, FilteringPropertyFilter> subfilters) {
             this.entityClass = entityClass;
 
-            this.fields = fields;
+            this.included = ImmutableSet.<String>builder().addAll(fields).addAll(subfilters.keySet()).build();
             this.subfilters = subfilters;
         }
 
         private boolean include(final String fieldName) {
-            return fields.contains(fieldName) || subfilters.containsKey(fieldName);
+            return included.contains(fieldName);
         }
 
         @Override
@@ -0,0 +1,27 @@
+package ameba.message.internal;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.Produces;
+
+/**
+ * smile binary format, same configuration of {@link JacksonJsonProvider}
+ *
+ * @author icode
+ */
+@Consumes(MediaType.APPLICATION_SMILE)
+@Produces(MediaType.APPLICATION_SMILE)
+public class JacksonSmileProvider extends JacksonJsonProvider {
+
+    public JacksonSmileProvider() {
+        super(new ObjectMapper(new SmileFactory()), DEFAULT_ANNOTATIONS);
+    }
+
+    @Override
+    protected boolean hasMatchingMediaType(javax.ws.rs.core.MediaType mediaType) {
+        return mediaType != null && !mediaType.isWildcardSubtype()
+                && MediaType.APPLICATION_SMILE_TYPE.isCompatible(mediaType);
+    }
+}
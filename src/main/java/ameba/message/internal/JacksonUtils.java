@@ -5,6 +5,7 @@ import com.fasterxml.jackson.databind.*;
 import com.fasterxml.jackson.databind.introspect.*;
 import com.fasterxml.jackson.databind.ser.FilterProvider;
 import com.fasterxml.jackson.jaxrs.cfg.ObjectWriterInjector;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Sets;
 import org.glassfish.jersey.internal.util.ReflectionHelper;
 import org.glassfish.jersey.message.filtering.spi.ObjectProvider;
@@ -15,6 +16,7 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.lang.reflect.Type;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author icode
@@ -25,12 +27,19 @@ public class JacksonUtils {
     }
 
     private static Set<Module> defaultModules = Sets.newLinkedHashSet();
+    private static final ConcurrentMap<ObjectMapper, Boolean> filterMappers = new MapMaker().weakKeys().makeMap();
 
     public static void addDefaultModule(Module module) {
         defaultModules.add(module);
     }
 
+    /**
+     * set the filter introspector of mapper once, a mapper already configured is returned as is
+     */
     public static ObjectMapper configFilterIntrospector(final ObjectMapper mapper) {
+        if (filterMappers.putIfAbsent(mapper, Boolean.TRUE) != null) {
+            return mapper;
+        }
         final AnnotationIntrospector customIntrospector = mapper.getSerializationConfig().getAnnotationIntrospector();
         // Set the custom (user) introspector to be the primary one.
         return mapper.setAnnotationIntrospector(AnnotationIntrospector.pair(customIntrospector,
@@ -66,7 +75,8 @@ public class JacksonUtils {
                                                final Annotation[] annotations) throws IOException {
         final FilterProvider filterProvider = provider.get().getFilteringObject(genericType, true, annotations);
         if (filterProvider != null) {
-            ObjectWriterInjector.set(new FilteringObjectWriterModifier(filterProvider, ObjectWriterInjector.getAndClear()));
+            ObjectWriterInjector.set(new FilteringObjectWriterModifier(filterProvider,
+                    ObjectWriterInjector.getAndClear(), genericType));
         }
     }
 
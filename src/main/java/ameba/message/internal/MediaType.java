@@ -6,4 +6,10 @@ package ameba.message.internal;
 public class MediaType extends javax.ws.rs.core.MediaType {
     public final static String APPLICATION_PROTOBUF = "application/x-protobuf";
     public static final String JSON_PATCH = "application/json-patch+json";
+    public final static String APPLICATION_SMILE = "application/x-jackson-smile";
+    public final static javax.ws.rs.core.MediaType APPLICATION_SMILE_TYPE =
+            new javax.ws.rs.core.MediaType("application", "x-jackson-smile");
+    public final static String APPLICATION_CBOR = "application/cbor";
+    public final static javax.ws.rs.core.MediaType APPLICATION_CBOR_TYPE =
+            new javax.ws.rs.core.MediaType("application", "cbor");
 }
@@ -1,18 +1,31 @@
 package ameba.mvc.assets;
 
+import ameba.core.Application;
+import ameba.core.ws.rs.Compression;
 import ameba.util.MimeType;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.io.ByteStreams;
 
+import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.UriInfo;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 
 /**
+ * 静态资源，优先使用预压缩的 .br/.gz 文件，没有 .gz 文件时首次请求压缩并缓存
+ *
  * @author ICode
  * @since 13-8-17 下午2:55
  */
@@ -20,29 +33,117 @@ import java.net.URI;
 @Singleton
 public class AssetsResource {
 
+    private static final String BROTLI_SUFFIX = ".br";
+    private static final String GZIP_SUFFIX = ".gz";
+    private static final int MAX_CACHE_ASSET_SIZE = 1024 * 1024;
+    private static final long MAX_CACHE_WEIGHT = 32 * 1024 * 1024;
+
+    // 首次请求压缩的资源，空数组表示超过 MAX_CACHE_ASSET_SIZE，不压缩
+    private static final byte[] TOO_LARGE = new byte[0];
+    private final Cache<String, byte[]> gzipCache = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_CACHE_WEIGHT)
+            .weigher(new Weigher<String, byte[]>() {
+                @Override
+                public int weigh(String key, byte[] value) {
+                    return value.length;
+                }
+            })
+            .build();
+    @Inject
+    private Application application;
+
+    private static MediaType getMediaType(String file) {
+        String path = URI.create(file).getPath();
+
+        int dot = path.lastIndexOf('.');
+
+        String ct;
+        if (dot > 0) {
+            ct = MimeType.get(path.substring(dot + 1));
+        } else {
+            ct = MimeType.get("html");
+        }
+        return ct == null ? null : MediaType.valueOf(ct);
+    }
+
+    private byte[] gzip(String name, String file) throws IOException {
+        // 开发模式下资源会修改，不缓存
+        boolean cached = !application.getMode().isDev();
+        String key = name + "|" + file;
+        byte[] bytes = cached ? gzipCache.getIfPresent(key) : null;
+        if (bytes != null) {
+            return bytes == TOO_LARGE ? null : bytes;
+        }
+        InputStream in = AssetsFeature.findAsset(name, file);
+        if (in == null) {
+            return null;
+        }
+        byte[] raw;
+        try {
+            raw = ByteStreams.toByteArray(ByteStreams.limit(in, MAX_CACHE_ASSET_SIZE + 1));
+        } finally {
+            in.close();
+        }
+        if (raw.length > MAX_CACHE_ASSET_SIZE) {
+            if (cached) {
+                gzipCache.put(key, TOO_LARGE);
+            }
+            return null;
+        }
+        bytes = Compression.gzip(raw);
+        if (cached) {
+            gzipCache.put(key, bytes);
+        }
+        return bytes;
+    }
+
     @GET
     @Path("{file:.*}")
-    public Response getResource(@PathParam("file") String file, @Context UriInfo uriInfo) {
+    public Response getResource(@PathParam("file") String file,
+                                @HeaderParam(HttpHeaders.ACCEPT_ENCODING) String acceptEncoding,
+                                @Context UriInfo uriInfo) throws IOException {
+
+        String name = uriInfo.getPath().replace(file, "");
+        MediaType type = getMediaType(file);
+
+        Object entity = null;
+        String encoding = null;
+        boolean compressible = Compression.isCompressible(type);
+
+        if (compressible) {
+            if (Compression.accepts(acceptEncoding, Compression.BROTLI)) {
+                entity = AssetsFeature.findAsset(name, file + BROTLI_SUFFIX);
+                encoding = Compression.BROTLI;
+            }
+            if (entity == null && Compression.accepts(acceptEncoding, Compression.GZIP)) {
+                entity = AssetsFeature.findAsset(name, file + GZIP_SUFFIX);
+                if (entity == null) {
+                    entity = gzip(name, file);
+                }
+                encoding = Compression.GZIP;
+            }
+        }
 
-        InputStream in = AssetsFeature.findAsset(uriInfo.getPath().replace(file, ""), file);
+        if (entity == null) {
+            entity = AssetsFeature.findAsset(name, file);
+            encoding = null;
+        }
 
-        if (in == null)
+        if (entity == null)
             return Response.status(404).build();
 
-        Response.ResponseBuilder builder = Response.ok(in);
+        Response.ResponseBuilder builder = Response.ok(entity);
 
-        String path = URI.create(file).getPath();
+        if (type != null) {
+            builder.type(type);
+        }
 
-        int dot = path.lastIndexOf('.');
+        if (compressible) {
+            builder.header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
 
-        if (dot > 0) {
-            String ext = path.substring(dot + 1);
-            String ct = MimeType.get(ext);
-            if (ct != null) {
-                builder.type(ct);
-            }
-        } else {
-            builder.type(MimeType.get("html"));
+        if (encoding != null) {
+            builder.header(HttpHeaders.CONTENT_ENCODING, encoding);
         }
 
         return builder.build();
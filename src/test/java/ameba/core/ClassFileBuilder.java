@@ -0,0 +1,192 @@
+package ameba.core;
+
+import com.google.common.collect.Lists;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * write minimal class files for scan tests, see jvm specification chapter 4.
+ * <p/>
+ * the class has a long field with constant value, a method and the class annotations,
+ * a annotation has an array, an enum and a nested annotation element value.
+ *
+ * @author icode
+ */
+class ClassFileBuilder {
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_SUPER = 0x0020;
+
+    private final String name;
+    private String superClassName = "java.lang.Object";
+    private String[] interfaceNames = new String[0];
+    private final List<String> visibleAnnotations = Lists.newArrayList();
+    private final List<String> invisibleAnnotations = Lists.newArrayList();
+    private int access = ACC_PUBLIC | ACC_SUPER;
+
+    ClassFileBuilder(String name) {
+        this.name = name;
+    }
+
+    ClassFileBuilder access(int access) {
+        this.access = access;
+        return this;
+    }
+
+    ClassFileBuilder superClass(String superClassName) {
+        this.superClassName = superClassName;
+        return this;
+    }
+
+    ClassFileBuilder interfaces(String... interfaceNames) {
+        this.interfaceNames = interfaceNames;
+        return this;
+    }
+
+    ClassFileBuilder annotation(String annotationName) {
+        visibleAnnotations.add(annotationName);
+        return this;
+    }
+
+    ClassFileBuilder invisibleAnnotation(String annotationName) {
+        invisibleAnnotations.add(annotationName);
+        return this;
+    }
+
+    byte[] build() {
+        try {
+            Pool pool = new Pool();
+            int thisIndex = pool.classRef(name);
+            int superIndex = superClassName == null ? 0 : pool.classRef(superClassName);
+            int[] interfaceIndexes = new int[interfaceNames.length];
+            for (int i = 0; i < interfaceNames.length; i++) {
+                interfaceIndexes[i] = pool.classRef(interfaceNames[i]);
+            }
+            // long and double take two slots of constant pool
+            int longIndex = pool.longValue(Long.MAX_VALUE);
+            pool.doubleValue(Math.PI);
+            int fieldName = pool.utf8("MAX");
+            int fieldType = pool.utf8("J");
+            int constantValue = pool.utf8("ConstantValue");
+            int methodName = pool.utf8("run");
+            int methodType = pool.utf8("()V");
+            int deprecated = pool.utf8("Deprecated");
+
+            ByteArrayOutputStream visible = annotations(pool, visibleAnnotations);
+            ByteArrayOutputStream invisible = annotations(pool, invisibleAnnotations);
+            int visibleName = pool.utf8("RuntimeVisibleAnnotations");
+            int invisibleName = pool.utf8("RuntimeInvisibleAnnotations");
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(50);
+            out.writeShort(pool.count);
+            pool.bytes.writeTo(out);
+            out.writeShort(access);
+            out.writeShort(thisIndex);
+            out.writeShort(superIndex);
+            out.writeShort(interfaceIndexes.length);
+            for (int index : interfaceIndexes) {
+                out.writeShort(index);
+            }
+
+            out.writeShort(1); // fields
+            out.writeShort(0x0019);
+            out.writeShort(fieldName);
+            out.writeShort(fieldType);
+            out.writeShort(1);
+            out.writeShort(constantValue);
+            out.writeInt(2);
+            out.writeShort(longIndex);
+
+            out.writeShort(1); // methods
+            out.writeShort(ACC_PUBLIC);
+            out.writeShort(methodName);
+            out.writeShort(methodType);
+            out.writeShort(1);
+            out.writeShort(deprecated);
+            out.writeInt(0);
+
+            out.writeShort(2); // attributes
+            out.writeShort(invisibleName);
+            out.writeInt(invisible.size());
+            invisible.writeTo(out);
+            out.writeShort(visibleName);
+            out.writeInt(visible.size());
+            visible.writeTo(out);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ByteArrayOutputStream annotations(Pool pool, List<String> annotationNames) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeShort(annotationNames.size());
+        for (String annotationName : annotationNames) {
+            out.writeShort(pool.utf8(descriptor(annotationName)));
+            out.writeShort(2);
+            // value = {"a", ElementType.TYPE}
+            out.writeShort(pool.utf8("value"));
+            out.writeByte('[');
+            out.writeShort(2);
+            out.writeByte('s');
+            out.writeShort(pool.utf8("a"));
+            out.writeByte('e');
+            out.writeShort(pool.utf8("Ljava/lang/annotation/ElementType;"));
+            out.writeShort(pool.utf8("TYPE"));
+            // nested = @Deprecated
+            out.writeShort(pool.utf8("nested"));
+            out.writeByte('@');
+            out.writeShort(pool.utf8("Ljava/lang/Deprecated;"));
+            out.writeShort(0);
+        }
+        out.flush();
+        return bytes;
+    }
+
+    private static String descriptor(String className) {
+        return "L" + className.replace('.', '/') + ";";
+    }
+
+    private static class Pool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private int count = 1;
+
+        int utf8(String value) throws IOException {
+            out.writeByte(1);
+            out.writeUTF(value);
+            return count++;
+        }
+
+        int classRef(String className) throws IOException {
+            int nameIndex = utf8(className.replace('.', '/'));
+            out.writeByte(7);
+            out.writeShort(nameIndex);
+            return count++;
+        }
+
+        int longValue(long value) throws IOException {
+            out.writeByte(5);
+            out.writeLong(value);
+            int index = count;
+            count += 2;
+            return index;
+        }
+
+        int doubleValue(double value) throws IOException {
+            out.writeByte(6);
+            out.writeDouble(value);
+            int index = count;
+            count += 2;
+            return index;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package ameba.core;
+
+import ameba.util.Benchmark;
+import com.google.common.collect.Lists;
+import javassist.ClassPool;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * class scan of startup on a jar of 5000 classes: the cold scan parse class files in parallel and
+ * store the index, the warm start only read the index. javassist makeClass, which the scan used
+ * before, and a single thread parse are the baselines.
+ *
+ * @author icode
+ * @see Benchmark
+ */
+public class ClassIndexBenchmark {
+
+    private static final int CLASSES = 5000;
+    private static final int SUB_PACKAGES = 10;
+    private static final String PACKAGE = "ameba.bench.scan";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] classFile(int i) {
+        ClassFileBuilder builder = new ClassFileBuilder(PACKAGE + ".p" + (i % SUB_PACKAGES) + ".C" + i)
+                .interfaces("java.io.Serializable");
+        if (i % 3 == 0) {
+            builder.annotation("javax.ws.rs.Path");
+        }
+        return builder.build();
+    }
+
+    private static void writeJar(File file, List<byte[]> classFiles) throws IOException {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        try {
+            // directory entries, class loader find the packages by them
+            String path = "";
+            for (String name : PACKAGE.split("\\.")) {
+                path += name + "/";
+                out.putNextEntry(new JarEntry(path));
+                out.closeEntry();
+            }
+            for (int p = 0; p < SUB_PACKAGES; p++) {
+                out.putNextEntry(new JarEntry(path + "p" + p + "/"));
+                out.closeEntry();
+            }
+            for (int i = 0; i < classFiles.size(); i++) {
+                out.putNextEntry(new JarEntry(path + "p" + (i % SUB_PACKAGES) + "/C" + i + ".class"));
+                out.write(classFiles.get(i));
+                out.closeEntry();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @Test
+    public void startup() throws Exception {
+        Benchmark.assumeEnabled();
+        final List<byte[]> classFiles = Lists.newArrayListWithCapacity(CLASSES);
+        for (int i = 0; i < CLASSES; i++) {
+            classFiles.add(classFile(i));
+        }
+        File jar = folder.newFile("classes.jar");
+        writeJar(jar, classFiles);
+        final ClassLoader loader = new URLClassLoader(new URL[]{jar.toURI().toURL()}, null);
+        final List<String> packages = Lists.newArrayList(PACKAGE);
+        final File indexFile = new File(folder.getRoot(), "classes.index");
+
+        Benchmark.measure("cold scan " + CLASSES + " classes", 1, new Benchmark.Op() {
+            @Override
+            public Object run(int ops) {
+                String checksum = ClassIndex.checksum(loader, packages);
+                List<ClassMetadata> metadataList = ClassIndex.scan(loader, packages);
+                Assert.assertEquals(CLASSES, metadataList.size());
+                ClassIndex.store(indexFile, checksum, metadataList);
+                return metadataList;
+            }
+        });
+        Benchmark.measure("warm start " + CLASSES + " classes", 1, new Benchmark.Op() {
+            @Override
+            public Object run(int ops) {
+                List<ClassMetadata> metadataList = ClassIndex.load(indexFile, ClassIndex.checksum(loader, packages));
+                Assert.assertEquals(CLASSES, metadataList.size());
+                return metadataList;
+            }
+        });
+        Benchmark.measure("single thread parse " + CLASSES + " classes", 1, new Benchmark.Op() {
+            @Override
+            public Object run(int ops) throws Exception {
+                int annotated = 0;
+                for (byte[] classFile : classFiles) {
+                    annotated += ClassMetadata.parse("C.class", classFile).getAnnotationNames().length;
+                }
+                return annotated;
+            }
+        });
+        Benchmark.measure("javassist makeClass " + CLASSES + " classes", 1, new Benchmark.Op() {
+            @Override
+            public Object run(int ops) throws Exception {
+                ClassPool pool = new ClassPool(true);
+                int annotated = 0;
+                for (byte[] classFile : classFiles) {
+                    annotated += pool.makeClass(new ByteArrayInputStream(classFile)).getAvailableAnnotations().length;
+                }
+                return annotated;
+            }
+        });
+    }
+}
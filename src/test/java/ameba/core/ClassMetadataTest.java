@@ -0,0 +1,126 @@
+package ameba.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * @author icode
+ */
+public class ClassMetadataTest {
+
+    @Test
+    public void superClassAndInterfaces() throws IOException {
+        byte[] bytes = new ClassFileBuilder("app.model.User")
+                .superClass("app.model.Base")
+                .interfaces("java.io.Serializable", "java.lang.Runnable")
+                .build();
+        ClassMetadata metadata = ClassMetadata.parse("User.class", bytes);
+        Assert.assertEquals("User.class", metadata.getFileName());
+        Assert.assertEquals("app.model.User", metadata.getName());
+        Assert.assertTrue(metadata.isPublic());
+        Assert.assertEquals("app.model.Base", metadata.getSuperClassName());
+        Assert.assertEquals(Arrays.asList("java.io.Serializable", "java.lang.Runnable"),
+                Arrays.asList(metadata.getInterfaceNames()));
+        Assert.assertEquals(0, metadata.getAnnotationNames().length);
+    }
+
+    @Test
+    public void noSuperClass() throws IOException {
+        byte[] bytes = new ClassFileBuilder("java.lang.Object").superClass(null).access(0).build();
+        ClassMetadata metadata = ClassMetadata.parse("Object.class", bytes);
+        Assert.assertNull(metadata.getSuperClassName());
+        Assert.assertFalse(metadata.isPublic());
+        Assert.assertEquals(0, metadata.getInterfaceNames().length);
+    }
+
+    /**
+     * the long and double constants take two slots, the class and annotation names after them
+     * must be resolved to the right indexes
+     */
+    @Test
+    public void wideConstantsBeforeAnnotations() throws IOException {
+        byte[] bytes = new ClassFileBuilder("app.Resource")
+                .annotation("javax.ws.rs.Path")
+                .annotation("javax.ws.rs.ext.Provider")
+                .build();
+        ClassMetadata metadata = ClassMetadata.parse("Resource.class", bytes);
+        Assert.assertEquals(Arrays.asList("javax.ws.rs.Path", "javax.ws.rs.ext.Provider"),
+                Arrays.asList(metadata.getAnnotationNames()));
+        Assert.assertTrue(metadata.containsAnnotation("javax.ws.rs.Path"));
+    }
+
+    @Test
+    public void invisibleAnnotationsAreSkipped() throws IOException {
+        byte[] bytes = new ClassFileBuilder("app.Resource")
+                .annotation("javax.ws.rs.Path")
+                .invisibleAnnotation("app.ClassRetention")
+                .build();
+        ClassMetadata metadata = ClassMetadata.parse("Resource.class", bytes);
+        Assert.assertEquals(Arrays.asList("javax.ws.rs.Path"), Arrays.asList(metadata.getAnnotationNames()));
+        Assert.assertFalse(metadata.containsAnnotation("app.ClassRetention"));
+    }
+
+    @Test
+    public void compiledClass() throws IOException {
+        InputStream in = ClassMetadataTest.class.getResourceAsStream("ClassMetadataTest$Sample.class");
+        ClassMetadata metadata;
+        try {
+            metadata = ClassMetadata.parse("ClassMetadataTest$Sample.class", in);
+        } finally {
+            in.close();
+        }
+        Assert.assertEquals(Sample.class.getName(), metadata.getName());
+        Assert.assertEquals(Thread.class.getName(), metadata.getSuperClassName());
+        Assert.assertEquals(Arrays.asList(Serializable.class.getName()), Arrays.asList(metadata.getInterfaceNames()));
+        Assert.assertEquals(Arrays.asList(Deprecated.class.getName()), Arrays.asList(metadata.getAnnotationNames()));
+    }
+
+    @Test
+    public void writeAndRead() throws IOException {
+        ClassMetadata metadata = ClassMetadata.parse("User.class", new ClassFileBuilder("app.model.User")
+                .interfaces("java.io.Serializable")
+                .annotation("javax.persistence.Entity")
+                .build());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        metadata.write(new DataOutputStream(bytes));
+        ClassMetadata read = ClassMetadata.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        Assert.assertEquals(metadata.getFileName(), read.getFileName());
+        Assert.assertEquals(metadata.getName(), read.getName());
+        Assert.assertEquals(metadata.getAccess(), read.getAccess());
+        Assert.assertEquals(metadata.getSuperClassName(), read.getSuperClassName());
+        Assert.assertEquals(Arrays.asList(metadata.getInterfaceNames()), Arrays.asList(read.getInterfaceNames()));
+        Assert.assertEquals(Arrays.asList(metadata.getAnnotationNames()), Arrays.asList(read.getAnnotationNames()));
+    }
+
+    @Test(expected = IOException.class)
+    public void notAClassFile() throws IOException {
+        ClassMetadata.parse("a.class", new byte[]{1, 2, 3, 4, 5, 6, 7, 8});
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedClassFile() throws IOException {
+        byte[] bytes = new ClassFileBuilder("app.model.User").build();
+        ClassMetadata.parse("User.class", Arrays.copyOf(bytes, bytes.length / 2));
+    }
+
+    @Deprecated
+    @SuppressWarnings("serial")
+    static class Sample extends Thread implements Serializable {
+        static final long MAX = Long.MAX_VALUE;
+        static final double PI = Math.PI;
+
+        @Override
+        public void run() {
+            System.out.println(MAX + PI);
+        }
+    }
+}
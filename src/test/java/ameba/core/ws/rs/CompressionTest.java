@@ -0,0 +1,136 @@
+package ameba.core.ws.rs;
+
+import com.google.common.io.ByteStreams;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * @author icode
+ */
+public class CompressionTest {
+
+    private static byte[] text(int size) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) ('a' + i % 7 + i / 1000 % 5);
+        }
+        return bytes;
+    }
+
+    private static byte[] compress(String coding, byte[] bytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OutputStream compressed = Compression.compress(out, coding);
+        // 分两次写，覆盖多次 write 的 crc
+        compressed.write(bytes, 0, bytes.length / 3);
+        compressed.write(bytes, bytes.length / 3, bytes.length - bytes.length / 3);
+        compressed.close();
+        return out.toByteArray();
+    }
+
+    /**
+     * read what can be decoded, without the end of the stream
+     */
+    private static byte[] readAvailable(InputStream in, int len) throws IOException {
+        byte[] bytes = new byte[len];
+        int n = 0;
+        while (n < len) {
+            int read = in.read(bytes, n, len - n);
+            if (read < 0) break;
+            n += read;
+        }
+        return Arrays.copyOf(bytes, n);
+    }
+
+    @Test
+    public void gzipFraming() throws IOException {
+        byte[] bytes = text(100000);
+        byte[] gzip = compress(Compression.GZIP, bytes);
+        Assert.assertTrue(gzip.length < bytes.length);
+        Assert.assertArrayEquals(bytes, ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzip))));
+        Assert.assertArrayEquals(bytes,
+                ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(Compression.gzip(bytes)))));
+    }
+
+    @Test
+    public void deflateFraming() throws IOException {
+        byte[] bytes = text(100000);
+        byte[] deflate = compress(Compression.DEFLATE, bytes);
+        Assert.assertTrue(deflate.length < bytes.length);
+        Assert.assertArrayEquals(bytes,
+                ByteStreams.toByteArray(new InflaterInputStream(new ByteArrayInputStream(deflate))));
+    }
+
+    @Test
+    public void pooledDeflaterIsReset() throws IOException {
+        byte[] first = text(5000);
+        byte[] second = text(3000);
+        compress(Compression.GZIP, first);
+        byte[] gzip = compress(Compression.GZIP, second);
+        Assert.assertArrayEquals(second, ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzip))));
+    }
+
+    @Test
+    public void flushedDataCanBeDecoded() throws IOException {
+        byte[] bytes = text(2000);
+        for (String coding : new String[]{Compression.GZIP, Compression.DEFLATE}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            OutputStream compressed = Compression.compress(out, coding);
+            compressed.write(bytes);
+            compressed.flush();
+            InputStream in = new ByteArrayInputStream(out.toByteArray());
+            in = Compression.GZIP.equals(coding) ? new GZIPInputStream(in) : new InflaterInputStream(in);
+            Assert.assertArrayEquals(coding, bytes, readAvailable(in, bytes.length));
+            compressed.close();
+        }
+    }
+
+    @Test
+    public void accepts() {
+        Assert.assertTrue(Compression.accepts("gzip, deflate", Compression.GZIP));
+        Assert.assertTrue(Compression.accepts("deflate, GZIP;q=0.5", Compression.GZIP));
+        Assert.assertTrue(Compression.accepts("*", Compression.GZIP));
+        Assert.assertFalse(Compression.accepts(null, Compression.GZIP));
+        Assert.assertFalse(Compression.accepts("", Compression.GZIP));
+        Assert.assertFalse(Compression.accepts("deflate", Compression.GZIP));
+        Assert.assertFalse(Compression.accepts("gzip;q=0", Compression.GZIP));
+        Assert.assertFalse(Compression.accepts("gzip; q=0.0, deflate", Compression.GZIP));
+    }
+
+    @Test
+    public void explicitCodingOverWildcard() {
+        Assert.assertTrue(Compression.accepts("*;q=0, gzip", Compression.GZIP));
+        Assert.assertFalse(Compression.accepts("*;q=0, gzip", Compression.DEFLATE));
+        Assert.assertFalse(Compression.accepts("gzip;q=0, *", Compression.GZIP));
+        Assert.assertTrue(Compression.accepts("gzip;q=0, *", Compression.DEFLATE));
+    }
+
+    @Test
+    public void select() {
+        Assert.assertEquals(Compression.GZIP, Compression.select("deflate, gzip"));
+        Assert.assertEquals(Compression.DEFLATE, Compression.select("gzip;q=0, deflate"));
+        Assert.assertEquals(Compression.GZIP, Compression.select("*;q=0, gzip"));
+        Assert.assertNull(Compression.select("br"));
+        Assert.assertNull(Compression.select(null));
+    }
+
+    @Test
+    public void compressible() {
+        Assert.assertTrue(Compression.isCompressible(MediaType.TEXT_HTML_TYPE));
+        Assert.assertTrue(Compression.isCompressible(MediaType.APPLICATION_JSON_TYPE));
+        Assert.assertTrue(Compression.isCompressible(MediaType.valueOf("application/javascript")));
+        Assert.assertTrue(Compression.isCompressible(MediaType.valueOf("image/svg+xml")));
+        Assert.assertFalse(Compression.isCompressible(MediaType.valueOf("text/event-stream")));
+        Assert.assertFalse(Compression.isCompressible(MediaType.valueOf("image/png")));
+        Assert.assertFalse(Compression.isCompressible(null));
+    }
+}
@@ -0,0 +1,77 @@
+package ameba.core.ws.rs;
+
+import ameba.message.internal.MediaType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * @author icode
+ */
+public class DefaultContentTypeFilterTest {
+
+    /**
+     * filter a request of the headers
+     *
+     * @return headers after filter
+     */
+    private static MultivaluedMap<String, String> filter(String accept, String contentType) {
+        final MultivaluedMap<String, String> headers = new MultivaluedHashMap<String, String>();
+        if (accept != null) headers.putSingle(HttpHeaders.ACCEPT, accept);
+        if (contentType != null) headers.putSingle(HttpHeaders.CONTENT_TYPE, contentType);
+        ContainerRequestContext request = (ContainerRequestContext) Proxy.newProxyInstance(
+                DefaultContentTypeFilterTest.class.getClassLoader(),
+                new Class[]{ContainerRequestContext.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getHeaderString")) {
+                            return headers.getFirst((String) args[0]);
+                        } else if (method.getName().equals("getHeaders")) {
+                            return headers;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+        new DefaultContentTypeFilter().filter(request);
+        return headers;
+    }
+
+    @Test
+    public void defaultIsJson() {
+        MultivaluedMap<String, String> headers = filter(null, null);
+        Assert.assertEquals(MediaType.APPLICATION_JSON, headers.getFirst(HttpHeaders.ACCEPT));
+        Assert.assertEquals(MediaType.APPLICATION_JSON, headers.getFirst(HttpHeaders.CONTENT_TYPE));
+
+        headers = filter(MediaType.WILDCARD, MediaType.TEXT_PLAIN + ";charset=utf-8");
+        Assert.assertEquals(MediaType.APPLICATION_JSON, headers.getFirst(HttpHeaders.ACCEPT));
+        Assert.assertEquals(MediaType.APPLICATION_JSON, headers.getFirst(HttpHeaders.CONTENT_TYPE));
+    }
+
+    @Test
+    public void binaryBodyDefaultsToSameAccept() {
+        MultivaluedMap<String, String> headers = filter(null, MediaType.APPLICATION_SMILE);
+        Assert.assertEquals(MediaType.APPLICATION_SMILE, headers.getFirst(HttpHeaders.ACCEPT));
+        Assert.assertEquals(MediaType.APPLICATION_SMILE, headers.getFirst(HttpHeaders.CONTENT_TYPE));
+
+        headers = filter(MediaType.WILDCARD, MediaType.APPLICATION_CBOR);
+        Assert.assertEquals(MediaType.APPLICATION_CBOR, headers.getFirst(HttpHeaders.ACCEPT));
+        Assert.assertEquals(MediaType.APPLICATION_CBOR, headers.getFirst(HttpHeaders.CONTENT_TYPE));
+    }
+
+    @Test
+    public void acceptIsKept() {
+        MultivaluedMap<String, String> headers = filter(MediaType.APPLICATION_SMILE, MediaType.APPLICATION_JSON);
+        Assert.assertEquals(MediaType.APPLICATION_SMILE, headers.getFirst(HttpHeaders.ACCEPT));
+
+        headers = filter(MediaType.APPLICATION_JSON, MediaType.APPLICATION_CBOR);
+        Assert.assertEquals(MediaType.APPLICATION_JSON, headers.getFirst(HttpHeaders.ACCEPT));
+        Assert.assertEquals(MediaType.APPLICATION_CBOR, headers.getFirst(HttpHeaders.CONTENT_TYPE));
+    }
+}
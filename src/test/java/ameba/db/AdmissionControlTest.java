@@ -0,0 +1,83 @@
+package ameba.db;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * @author icode
+ */
+public class AdmissionControlTest {
+
+    @Test
+    public void permitsLimitConcurrency() {
+        AdmissionControl control = new AdmissionControl("test", 1, 4, 20, 1);
+        Assert.assertTrue(control.acquire());
+        Assert.assertFalse(control.acquire());
+        Assert.assertEquals(1, control.getRunning());
+        control.release();
+        Assert.assertTrue(control.acquire());
+        Assert.assertEquals(2, control.getAdmittedCount());
+        Assert.assertEquals(1, control.getRejectedCount());
+    }
+
+    @Test
+    public void fullQueueRejectsAtOnce() {
+        PoolControl control = new PoolControl(4, 0, 10000);
+        control.exhausted = true;
+        long start = System.currentTimeMillis();
+        Assert.assertFalse(control.acquire());
+        Assert.assertTrue(System.currentTimeMillis() - start < 5000);
+        Assert.assertEquals(0, control.getWaiting());
+    }
+
+    @Test
+    public void exhaustedPoolIsRejectedAfterMaxWait() {
+        PoolControl control = new PoolControl(4, 4, 50);
+        control.exhausted = true;
+        long start = System.currentTimeMillis();
+        Assert.assertFalse("free permits do not admit while the pool is exhausted", control.acquire());
+        Assert.assertTrue(System.currentTimeMillis() - start >= 45);
+        Assert.assertEquals("the permit is given back", 0, control.getRunning());
+        Assert.assertEquals(0, control.getWaiting());
+        Assert.assertEquals(1, control.getRejectedCount());
+    }
+
+    @Test
+    public void waitForFreeConnection() throws InterruptedException {
+        final PoolControl control = new PoolControl(4, 4, 5000);
+        control.exhausted = true;
+        Thread pool = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                control.exhausted = false;
+            }
+        };
+        pool.start();
+        long start = System.currentTimeMillis();
+        Assert.assertTrue(control.acquire());
+        Assert.assertTrue(System.currentTimeMillis() - start >= 45);
+        Assert.assertEquals(1, control.getRunning());
+        pool.join();
+    }
+
+    /**
+     * pool state set by test
+     */
+    static class PoolControl extends AdmissionControl {
+        volatile boolean exhausted;
+
+        PoolControl(int maxConcurrent, int queueSize, long maxWait) {
+            super("test", maxConcurrent, queueSize, maxWait, 1);
+        }
+
+        @Override
+        boolean isPoolExhausted() {
+            return exhausted;
+        }
+    }
+}
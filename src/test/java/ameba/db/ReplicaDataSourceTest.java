@@ -0,0 +1,215 @@
+package ameba.db;
+
+import com.alibaba.druid.pool.GetConnectionTimeoutException;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.ConnectException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+
+/**
+ * @author icode
+ */
+public class ReplicaDataSourceTest {
+
+    private static ReplicaDataSource replicas(TestDataSource primary, TestDataSource... replicas) {
+        List<String> names = Lists.newArrayList();
+        List<javax.sql.DataSource> dataSources = Lists.newArrayList();
+        for (TestDataSource replica : replicas) {
+            names.add(replica.name);
+            dataSources.add(replica);
+        }
+        return new ReplicaDataSource(primary.name, primary, names, dataSources, 3600);
+    }
+
+    private static String from(Connection connection) {
+        return connection.toString();
+    }
+
+    @Test
+    public void roundRobin() throws SQLException {
+        TestDataSource primary = new TestDataSource("primary");
+        ReplicaDataSource ds = replicas(primary, new TestDataSource("r1"), new TestDataSource("r2"));
+        List<String> used = Lists.newArrayList();
+        for (int i = 0; i < 4; i++) {
+            used.add(from(ds.getConnection()));
+        }
+        Assert.assertEquals(Lists.newArrayList("r1", "r2", "r1", "r2"), used);
+        Assert.assertEquals(0, primary.connections);
+    }
+
+    @Test
+    public void failedReplicaIsSkipped() throws SQLException {
+        TestDataSource r1 = new TestDataSource("r1");
+        ReplicaDataSource ds = replicas(new TestDataSource("primary"), r1, new TestDataSource("r2"));
+        r1.error = new SQLException("connection refused", "08001", new ConnectException());
+
+        Assert.assertEquals("r2", from(ds.getConnection()));
+        Assert.assertFalse(ds.isUp(0));
+        Assert.assertEquals("r2", from(ds.getConnection()));
+        Assert.assertEquals("r2", from(ds.getConnection()));
+        Assert.assertEquals("a down replica is not tried again", 1, r1.connections);
+    }
+
+    @Test
+    public void primaryWhenAllReplicasAreDown() throws SQLException {
+        TestDataSource r1 = new TestDataSource("r1");
+        ReplicaDataSource ds = replicas(new TestDataSource("primary"), r1);
+        r1.error = new SQLException("connection refused", "08001");
+
+        Assert.assertEquals("primary", from(ds.getConnection()));
+        Assert.assertEquals("primary", from(ds.getConnection()));
+    }
+
+    @Test
+    public void busyReplicaIsNotDown() throws SQLException {
+        TestDataSource r1 = new TestDataSource("r1");
+        TestDataSource primary = new TestDataSource("primary");
+        ReplicaDataSource ds = replicas(primary, r1, new TestDataSource("r2"));
+        r1.error = new GetConnectionTimeoutException("wait millis 1000, active 20, maxActive 20");
+
+        Assert.assertEquals("r2", from(ds.getConnection()));
+        Assert.assertTrue(ds.isUp(0));
+        r1.error = null;
+        Assert.assertEquals("r2", from(ds.getConnection()));
+        Assert.assertEquals("r1", from(ds.getConnection()));
+        Assert.assertEquals(0, primary.connections);
+    }
+
+    @Test
+    public void busyTimeoutIsThrownWithoutFallback() throws SQLException {
+        TestDataSource r1 = new TestDataSource("r1");
+        TestDataSource primary = new TestDataSource("primary");
+        ReplicaDataSource ds = replicas(primary, r1);
+        r1.error = new GetConnectionTimeoutException("wait millis 1000, active 20, maxActive 20");
+        try {
+            ds.getConnection();
+            Assert.fail("pool wait timeout expected");
+        } catch (GetConnectionTimeoutException e) {
+            Assert.assertSame(r1.error, e);
+        }
+        Assert.assertTrue(ds.isUp(0));
+        Assert.assertEquals(0, primary.connections);
+    }
+
+    @Test
+    public void timeoutWithConnectErrorIsDown() throws SQLException {
+        TestDataSource r1 = new TestDataSource("r1");
+        ReplicaDataSource ds = replicas(new TestDataSource("primary"), r1);
+        r1.error = new GetConnectionTimeoutException("wait millis 1000, active 0", new ConnectException());
+
+        Assert.assertEquals("primary", from(ds.getConnection()));
+        Assert.assertFalse(ds.isUp(0));
+    }
+
+    @Test
+    public void checkMarksDownAndUp() throws SQLException {
+        TestDataSource r1 = new TestDataSource("r1");
+        ReplicaDataSource ds = replicas(new TestDataSource("primary"), r1);
+
+        r1.valid = false;
+        ds.check();
+        Assert.assertFalse("invalid connection", ds.isUp(0));
+        Assert.assertEquals("primary", from(ds.getConnection()));
+        Assert.assertEquals(1, r1.closed);
+
+        r1.valid = true;
+        ds.check();
+        Assert.assertTrue(ds.isUp(0));
+        Assert.assertEquals("r1", from(ds.getConnection()));
+
+        r1.error = new SQLException("connection refused", "08001");
+        ds.check();
+        Assert.assertFalse(ds.isUp(0));
+
+        r1.error = new GetConnectionTimeoutException("wait millis 1000, active 20, maxActive 20");
+        ds.check();
+        Assert.assertFalse("a busy check does not bring a replica up", ds.isUp(0));
+        r1.error = null;
+        ds.check();
+        Assert.assertTrue(ds.isUp(0));
+
+        r1.error = new GetConnectionTimeoutException("wait millis 1000, active 20, maxActive 20");
+        ds.check();
+        Assert.assertTrue("a busy check does not mark a replica down", ds.isUp(0));
+    }
+
+    static class TestDataSource implements javax.sql.DataSource {
+        final String name;
+        SQLException error;
+        boolean valid = true;
+        int connections;
+        int closed;
+
+        TestDataSource(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            connections++;
+            if (error != null) {
+                throw error;
+            }
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class[]{Connection.class}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                            String methodName = method.getName();
+                            if (methodName.equals("toString")) return name;
+                            if (methodName.equals("isValid")) return valid;
+                            if (methodName.equals("close")) {
+                                closed++;
+                                return null;
+                            }
+                            throw new UnsupportedOperationException(methodName);
+                        }
+                    });
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return getConnection();
+        }
+
+        @Override
+        public PrintWriter getLogWriter() throws SQLException {
+            return null;
+        }
+
+        @Override
+        public void setLogWriter(PrintWriter out) throws SQLException {
+        }
+
+        @Override
+        public void setLoginTimeout(int seconds) throws SQLException {
+        }
+
+        @Override
+        public int getLoginTimeout() throws SQLException {
+            return 0;
+        }
+
+        public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+            throw new SQLFeatureNotSupportedException();
+        }
+
+        @Override
+        public <T> T unwrap(Class<T> iface) throws SQLException {
+            throw new SQLException("not a wrapper");
+        }
+
+        @Override
+        public boolean isWrapperFor(Class<?> iface) throws SQLException {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package ameba.db.ebean;
+
+import ameba.db.model.ModelCache;
+import ameba.db.model.ModelCacheTest;
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.Query;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+/**
+ * @author icode
+ */
+public class EbeanFinderTest {
+
+    /**
+     * server stub, find by id returns the row, calls are recorded
+     */
+    private static EbeanServer server(final List<String> calls, final Object row) {
+        final Query<?> query = (Query<?>) Proxy.newProxyInstance(EbeanFinderTest.class.getClassLoader(),
+                new Class[]{Query.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        calls.add(args == null ? name : name + args[0]);
+                        return name.equals("findUnique") ? row : proxy;
+                    }
+                });
+        return (EbeanServer) Proxy.newProxyInstance(EbeanFinderTest.class.getClassLoader(),
+                new Class[]{EbeanServer.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("find") && args.length == 1) {
+                            return query;
+                        } else if (method.getName().equals("getName")) {
+                            return "stub";
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    @Test
+    public void byIdReadsThroughBeanCache() {
+        ModelCacheTest.configure("ef_read", Item.class, ModelCache.DEFAULT_NEGATIVE_TTL);
+        List<String> calls = Lists.newArrayList();
+        Item item = new Item();
+        EbeanFinder<Long, Item> finder = new EbeanFinder<Long, Item>("ef_read", Long.class, Item.class,
+                server(calls, item));
+
+        Assert.assertSame(item, finder.byId(1L));
+        Assert.assertEquals(Lists.newArrayList("setId1", "setUseCachetrue", "findUnique"), calls);
+    }
+
+    @Test
+    public void byIdRemembersMissingId() {
+        ModelCacheTest.configure("ef_missing", Item.class, ModelCache.DEFAULT_NEGATIVE_TTL);
+        List<String> calls = Lists.newArrayList();
+        EbeanFinder<Long, Item> finder = new EbeanFinder<Long, Item>("ef_missing", Long.class, Item.class,
+                server(calls, null));
+
+        Assert.assertNull(finder.byId(1L));
+        Assert.assertNull(finder.byId(1L));
+        Assert.assertEquals("second read is not queried", 3, calls.size());
+
+        ModelCache.invalidate(Item.class, 1L);
+        Assert.assertNull(finder.byId(1L));
+        Assert.assertEquals("queried again after the insert", 6, calls.size());
+    }
+
+    public static class Item {
+    }
+}
@@ -0,0 +1,375 @@
+package ameba.db.ebean.internal;
+
+import ameba.db.model.Model;
+import com.avaje.ebean.Transaction;
+import com.avaje.ebeaninternal.api.SpiEbeanServer;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import org.glassfish.jersey.server.internal.inject.ConfiguredValidator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.persistence.PersistenceException;
+import javax.validation.ConstraintViolation;
+import javax.validation.Path;
+import javax.validation.Validator;
+import javax.ws.rs.ClientErrorException;
+import javax.ws.rs.InternalServerErrorException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * @author icode
+ */
+public class AbstractModelResourceTest {
+
+    @Test
+    public void patchChecksGivenVersion() {
+        String update = AbstractModelResource.patchStatement("user", Lists.newArrayList("name", "age"), "id",
+                "version", true, true);
+        Assert.assertEquals("update user set name = :name, age = :age, version = version + 1"
+                + " where id = :id and version = :version", update);
+    }
+
+    @Test
+    public void patchIncreasesVersionWithoutCheck() {
+        String update = AbstractModelResource.patchStatement("user", Lists.newArrayList("name"), "id",
+                "version", true, false);
+        Assert.assertEquals("update user set name = :name, version = version + 1 where id = :id", update);
+    }
+
+    @Test
+    public void patchSetsTimestampVersion() {
+        String update = AbstractModelResource.patchStatement("user", Lists.newArrayList("name"), "id",
+                "updatedAt", false, false);
+        Assert.assertEquals("update user set name = :name, updatedAt = :newVersion where id = :id", update);
+    }
+
+    @Test
+    public void patchWithoutVersion() {
+        String update = AbstractModelResource.patchStatement("user", Lists.newArrayList("name"), "id",
+                null, false, true);
+        Assert.assertEquals("update user set name = :name where id = :id", update);
+    }
+
+    @Test
+    public void conflictWhenVersionDoesNotMatch() {
+        try {
+            AbstractModelResource.checkPatched(0, true);
+            Assert.fail("409 expected");
+        } catch (ClientErrorException e) {
+            Assert.assertEquals(Response.Status.CONFLICT.getStatusCode(), e.getResponse().getStatus());
+        }
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void notFoundWithoutVersion() {
+        AbstractModelResource.checkPatched(0, false);
+    }
+
+    @Test
+    public void patched() {
+        AbstractModelResource.checkPatched(1, true);
+        AbstractModelResource.checkPatched(1, false);
+    }
+
+    private static InputStream json(String json) {
+        return new ByteArrayInputStream(json.replace('\'', '"').getBytes());
+    }
+
+    @Test
+    public void insertBatch() throws IOException {
+        ItemResource resource = new ItemResource();
+        List<Map<String, Object>> results = resource.writeBatch(json("[{'id':9,'name':'a'},{'name':'b'}]"),
+                AbstractModelResource.BatchOperation.INSERT);
+
+        Assert.assertEquals(Lists.newArrayList("prepare INSERT a", "insert a", "prepare INSERT b", "insert b"),
+                resource.calls);
+        Assert.assertEquals(2, results.size());
+        Assert.assertEquals(0, results.get(0).get("index"));
+        Assert.assertEquals(1L, results.get(0).get("id"));
+        Assert.assertEquals(2L, results.get(1).get("id"));
+        Assert.assertTrue(resource.transaction.batchMode);
+        Assert.assertTrue(resource.transaction.committed);
+        Assert.assertTrue(resource.transaction.ended);
+    }
+
+    @Test
+    public void updateBatchRequiresId() throws IOException {
+        ItemResource resource = new ItemResource();
+        List<Map<String, Object>> results = resource.writeBatch(json("[{'id':3,'name':'a'},{'name':'b'}]"),
+                AbstractModelResource.BatchOperation.UPDATE);
+
+        Assert.assertEquals(Lists.newArrayList("prepare UPDATE a", "update a"), resource.calls);
+        Assert.assertEquals(3L, results.get(0).get("id"));
+        Assert.assertEquals("id is required", results.get(1).get("error"));
+        Assert.assertFalse(results.get(1).containsKey("id"));
+        Assert.assertTrue(resource.transaction.batchMode);
+        Assert.assertTrue(resource.transaction.committed);
+    }
+
+    @Test
+    public void patchBatchReportsConflict() throws IOException {
+        ItemResource resource = new ItemResource();
+        List<Map<String, Object>> results = resource.writeBatch(json("[{'id':3,'name':'a'},{'id':4,'name':'conflict'}]"),
+                AbstractModelResource.BatchOperation.PATCH);
+
+        Assert.assertEquals(Lists.newArrayList("prepare PATCH a [id, name]", "patch a",
+                "prepare PATCH conflict [id, name]", "patch conflict"), resource.calls);
+        Assert.assertEquals(3L, results.get(0).get("id"));
+        Assert.assertEquals("model version does not match", results.get(1).get("error"));
+        Assert.assertFalse("patch needs the updated rows of every statement", resource.transaction.batchMode);
+        Assert.assertTrue(resource.transaction.committed);
+    }
+
+    @Test
+    public void badItemIsSkipped() throws IOException {
+        ItemResource resource = new ItemResource();
+        List<Map<String, Object>> results = resource.writeBatch(json("[{'id':'x'},{'name':'b'}]"),
+                AbstractModelResource.BatchOperation.INSERT);
+
+        Assert.assertNotNull(results.get(0).get("error"));
+        Assert.assertFalse(results.get(0).containsKey("id"));
+        Assert.assertEquals(1L, results.get(1).get("id"));
+        Assert.assertEquals(Lists.newArrayList("prepare INSERT b", "insert b"), resource.calls);
+    }
+
+    @Test
+    public void invalidItemIsSkipped() throws IOException {
+        ItemResource resource = new ItemResource();
+        resource.validator = validator();
+        List<Map<String, Object>> results = resource.writeBatch(json("[{'id':1},{'name':'b'}]"),
+                AbstractModelResource.BatchOperation.INSERT);
+
+        Assert.assertEquals("model is not valid", results.get(0).get("error"));
+        Object violations = results.get(0).get("violations");
+        Assert.assertEquals("[{property=name, message=may not be null}]", String.valueOf(violations));
+        Assert.assertEquals(1L, results.get(1).get("id"));
+        Assert.assertEquals(Lists.newArrayList("prepare INSERT b", "insert b"), resource.calls);
+    }
+
+    @Test
+    public void failedCommitRespondsRolledBack() throws IOException {
+        ItemResource resource = new ItemResource();
+        resource.transaction.failCommit = true;
+        try {
+            resource.writeBatch(json("[{'name':'a'},{'id':'x'}]"), AbstractModelResource.BatchOperation.INSERT);
+            Assert.fail("500 expected");
+        } catch (InternalServerErrorException e) {
+            Assert.assertTrue(e.getCause() instanceof PersistenceException);
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> results = (List<Map<String, Object>>) e.getResponse().getEntity();
+            Assert.assertEquals("rolled back", results.get(0).get("error"));
+            Assert.assertFalse(results.get(0).containsKey("model"));
+            Assert.assertFalse("rolled back".equals(results.get(1).get("error")));
+        }
+        Assert.assertTrue(resource.transaction.ended);
+    }
+
+    @Test
+    public void failedWriteRespondsRolledBack() throws IOException {
+        ItemResource resource = new ItemResource();
+        try {
+            resource.writeBatch(json("[{'name':'a'},{'name':'fail'}]"), AbstractModelResource.BatchOperation.INSERT);
+            Assert.fail("500 expected");
+        } catch (InternalServerErrorException e) {
+            @SuppressWarnings("unchecked")
+            List<Map<String, Object>> results = (List<Map<String, Object>>) e.getResponse().getEntity();
+            Assert.assertEquals("rolled back", results.get(0).get("error"));
+        }
+        Assert.assertFalse(resource.transaction.committed);
+        Assert.assertTrue("the active transaction is rolled back by end", resource.transaction.ended);
+    }
+
+    private static Item item(String name) {
+        Item item = new Item();
+        item.name = name;
+        return item;
+    }
+
+    @Test
+    public void foundListIsPassedThrough() {
+        List<Item> list = Lists.newArrayList(item("a"), item("b"));
+        Assert.assertSame(list, new ItemResource().processFoundModelList(list));
+    }
+
+    @Test
+    public void foundListIsCopiedWhenRowIsReplaced() {
+        final Item replaced = item("c");
+        ItemResource resource = new ItemResource() {
+            @Override
+            protected Object processFoundModelRow(Item model) {
+                return "b".equals(model.name) ? replaced : model;
+            }
+        };
+        List<Item> list = Lists.newArrayList(item("a"), item("b"), item("d"));
+        List<Item> original = Lists.newArrayList(list);
+
+        Object processed = resource.processFoundModelList(list);
+        Assert.assertNotSame(list, processed);
+        Assert.assertEquals(Lists.<Object>newArrayList(list.get(0), replaced, list.get(2)), processed);
+        Assert.assertEquals("found list is not changed", original, list);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <P> P proxy(Class<P> type, final InvocationHandler handler) {
+        return (P) Proxy.newProxyInstance(type.getClassLoader(), new Class[]{type}, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getDeclaringClass() == Object.class) {
+                    if (method.getName().equals("equals")) return proxy == args[0];
+                    if (method.getName().equals("hashCode")) return System.identityHashCode(proxy);
+                }
+                return handler.invoke(proxy, method, args);
+            }
+        });
+    }
+
+    /**
+     * name is required
+     */
+    private static Validator validator() {
+        return proxy(ConfiguredValidator.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (!method.getName().equals("validate")) {
+                    throw new UnsupportedOperationException(method.getName());
+                }
+                if (((Item) args[0]).name != null) {
+                    return Collections.emptySet();
+                }
+                Set<Object> violations = Sets.newHashSet();
+                violations.add(proxy(ConstraintViolation.class, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getPropertyPath")) {
+                            return proxy(Path.class, new InvocationHandler() {
+                                @Override
+                                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                                    return "name";
+                                }
+                            });
+                        }
+                        if (method.getName().equals("getMessage")) return "may not be null";
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                }));
+                return violations;
+            }
+        });
+    }
+
+    public static class Item extends Model {
+        public Long id;
+        public String name;
+    }
+
+    /**
+     * transaction records the batch mode and fails the commit like a batch flush error,
+     * a failed commit ends the transaction and rollback is not allowed anymore
+     */
+    static class BatchTransaction implements InvocationHandler {
+        boolean batchMode;
+        boolean failCommit;
+        boolean active = true;
+        boolean committed;
+        boolean ended;
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("setBatchMode")) {
+                batchMode = (Boolean) args[0];
+            } else if (name.equals("setBatchSize")) {
+                return null;
+            } else if (name.equals("isActive")) {
+                return active;
+            } else if (name.equals("commit")) {
+                if (!active) throw new IllegalStateException("transaction is inactive");
+                active = false;
+                if (failCommit) throw new PersistenceException("batch flush failed");
+                committed = true;
+            } else if (name.equals("rollback")) {
+                if (!active) throw new IllegalStateException("transaction is inactive");
+                active = false;
+            } else if (name.equals("end")) {
+                active = false;
+                ended = true;
+            } else {
+                throw new UnsupportedOperationException(name);
+            }
+            return null;
+        }
+    }
+
+    static class ItemResource extends AbstractModelResource<Item> {
+        final List<String> calls = Lists.newArrayList();
+        final BatchTransaction transaction;
+        Validator validator;
+        private long nextId = 1;
+
+        ItemResource() {
+            this(new BatchTransaction());
+        }
+
+        private ItemResource(final BatchTransaction transaction) {
+            super(Item.class, proxy(SpiEbeanServer.class, new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if (method.getName().equals("beginTransaction") && args == null) {
+                        return proxy(Transaction.class, transaction);
+                    } else if (method.getName().equals("getBeanId")) {
+                        return ((Item) args[0]).id;
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                }
+            }));
+            this.transaction = transaction;
+        }
+
+        @Override
+        Validator batchValidator() {
+            return validator;
+        }
+
+        @Override
+        void prepareBatchItem(BatchOperation operation, Item model, Set<String> properties) {
+            if (operation == BatchOperation.INSERT) {
+                model.id = null;
+            }
+            calls.add("prepare " + operation + " " + model.name + (properties == null ? "" : " " + properties));
+        }
+
+        @Override
+        protected void insertModel(Item model) {
+            calls.add("insert " + model.name);
+            if ("fail".equals(model.name)) {
+                throw new PersistenceException("duplicate key");
+            }
+            model.id = nextId++;
+        }
+
+        @Override
+        protected void updateModel(Item model) {
+            calls.add("update " + model.name);
+        }
+
+        @Override
+        protected void patchModel(Item model) {
+            calls.add("patch " + model.name);
+            if ("conflict".equals(model.name)) {
+                checkPatched(0, true);
+            }
+        }
+    }
+}
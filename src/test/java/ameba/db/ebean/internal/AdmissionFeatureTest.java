@@ -0,0 +1,101 @@
+package ameba.db.ebean.internal;
+
+import ameba.db.AdmissionControl;
+import com.google.common.collect.Lists;
+import org.glassfish.jersey.internal.MapPropertiesDelegate;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.monitoring.RequestEvent;
+import org.glassfish.jersey.server.monitoring.RequestEventListener;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+
+/**
+ * @author icode
+ */
+public class AdmissionFeatureTest {
+
+    private static ContainerRequest request() {
+        return new ContainerRequest(URI.create("http://localhost/"), URI.create("http://localhost/test"),
+                "GET", null, new MapPropertiesDelegate());
+    }
+
+    private static RequestEvent event(final RequestEvent.Type type, final ContainerRequest request) {
+        return (RequestEvent) Proxy.newProxyInstance(RequestEvent.class.getClassLoader(),
+                new Class[]{RequestEvent.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if (method.getName().equals("getType")) {
+                            return type;
+                        } else if (method.getName().equals("getContainerRequest")) {
+                            return request;
+                        } else if (method.getReturnType() == boolean.class) {
+                            return false;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    private static RequestEventListener listen(ContainerRequest request) {
+        return new AdmissionFeature.ReleaseListener().onRequest(event(RequestEvent.Type.START, request));
+    }
+
+    @Test
+    public void releaseAfterEntityWritten() {
+        AdmissionControl control = new AdmissionControl("test", 2, 0, 0, 1);
+        AdmissionFeature.AdmissionFilter filter = new AdmissionFeature.AdmissionFilter(Lists.newArrayList(control));
+        ContainerRequest request = request();
+        RequestEventListener listener = listen(request);
+
+        filter.filter(request);
+        Assert.assertEquals(1, control.getRunning());
+
+        listener.onEvent(event(RequestEvent.Type.RESP_FILTERS_FINISHED, request));
+        Assert.assertEquals("permit is held while the entity is written", 1, control.getRunning());
+
+        listener.onEvent(event(RequestEvent.Type.FINISHED, request));
+        Assert.assertEquals(0, control.getRunning());
+
+        listener.onEvent(event(RequestEvent.Type.FINISHED, request));
+        Assert.assertEquals("permit is released once", 0, control.getRunning());
+    }
+
+    @Test
+    public void releaseAfterFailure() {
+        AdmissionControl control = new AdmissionControl("test", 2, 0, 0, 1);
+        AdmissionFeature.AdmissionFilter filter = new AdmissionFeature.AdmissionFilter(Lists.newArrayList(control));
+        ContainerRequest request = request();
+        RequestEventListener listener = listen(request);
+
+        filter.filter(request);
+        Assert.assertEquals(1, control.getRunning());
+
+        listener.onEvent(event(RequestEvent.Type.ON_EXCEPTION, request));
+        listener.onEvent(event(RequestEvent.Type.FINISHED, request));
+        Assert.assertEquals(0, control.getRunning());
+    }
+
+    @Test
+    public void rejectedRequestHoldsNoPermit() {
+        AdmissionControl control = new AdmissionControl("test", 1, 0, 0, 1);
+        AdmissionFeature.AdmissionFilter filter = new AdmissionFeature.AdmissionFilter(Lists.newArrayList(control));
+        ContainerRequest admitted = request();
+        ContainerRequest rejected = request();
+
+        filter.filter(admitted);
+        filter.filter(rejected);
+        Assert.assertEquals(1, control.getRunning());
+        Assert.assertEquals(1, control.getRejectedCount());
+
+        listen(rejected).onEvent(event(RequestEvent.Type.FINISHED, rejected));
+        Assert.assertEquals(1, control.getRunning());
+
+        listen(admitted).onEvent(event(RequestEvent.Type.FINISHED, admitted));
+        Assert.assertEquals(0, control.getRunning());
+    }
+}
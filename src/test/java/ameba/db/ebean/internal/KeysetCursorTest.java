@@ -0,0 +1,81 @@
+package ameba.db.ebean.internal;
+
+import com.avaje.ebean.OrderBy;
+import com.google.common.collect.Lists;
+import com.google.common.io.BaseEncoding;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.ws.rs.BadRequestException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author icode
+ */
+public class KeysetCursorTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static String token(String json) {
+        return BaseEncoding.base64Url().omitPadding().encode(json.getBytes(UTF_8));
+    }
+
+    private static void assertInvalid(String token, int size) {
+        try {
+            KeysetCursor.decode(token, size);
+            Assert.fail("accepted " + token);
+        } catch (BadRequestException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void encodeDecode() {
+        List<Object> values = Lists.<Object>newArrayList("名字 a/b+c", 42, 3.5, true, Long.MAX_VALUE);
+        String token = KeysetCursor.encode(values);
+        Assert.assertTrue(token, token.matches("[A-Za-z0-9_-]+"));
+        Assert.assertEquals(values, KeysetCursor.decode(token, values.size()));
+    }
+
+    @Test
+    public void tamperedCursor() {
+        String token = KeysetCursor.encode(Lists.<Object>newArrayList("a", 1));
+        assertInvalid(token + "=", 2);
+        assertInvalid(token.replace('_', '/') + "+", 2);
+        assertInvalid(token.substring(0, token.length() - 3), 2);
+        assertInvalid("!!!", 2);
+        assertInvalid(token("null"), 2);
+        assertInvalid(token("{\"a\":1}"), 1);
+        assertInvalid(token("[\"a\",null]"), 2);
+        assertInvalid(token("[\"a\",[1]]"), 2);
+        assertInvalid(token("[\"a\",{\"id\":1}]"), 2);
+    }
+
+    @Test
+    public void cursorOfOtherSort() {
+        String token = KeysetCursor.encode(Lists.<Object>newArrayList("a", 1));
+        assertInvalid(token, 1);
+        assertInvalid(token, 3);
+    }
+
+    @Test
+    public void mixedSortPredicate() {
+        List<OrderBy.Property> properties = new OrderBy<Object>("createdAt desc, name asc, id asc").getProperties();
+        Assert.assertEquals("((createdAt < ?)"
+                        + " or (createdAt = ? and name > ?)"
+                        + " or (createdAt = ? and name = ? and id > ?))",
+                KeysetCursor.predicate(properties));
+
+        Object[] binds = KeysetCursor.binds(Lists.<Object>newArrayList(9L, "b", 3L));
+        Assert.assertEquals(Arrays.<Object>asList(9L, 9L, "b", 9L, "b", 3L), Arrays.asList(binds));
+    }
+
+    @Test
+    public void singleSortPredicate() {
+        List<OrderBy.Property> properties = new OrderBy<Object>("id desc").getProperties();
+        Assert.assertEquals("((id < ?))", KeysetCursor.predicate(properties));
+        Assert.assertEquals(1, KeysetCursor.binds(Lists.<Object>newArrayList(1L)).length);
+    }
+}
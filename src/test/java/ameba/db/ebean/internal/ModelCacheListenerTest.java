@@ -0,0 +1,90 @@
+package ameba.db.ebean.internal;
+
+import ameba.db.model.ModelCache;
+import ameba.db.model.ModelCacheTest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author icode
+ */
+public class ModelCacheListenerTest {
+
+    private static ModelCacheListener listener(String serverName) {
+        return new ModelCacheListener(serverName) {
+            @Override
+            protected Object getBeanId(Object bean) {
+                return ((Item) bean).id;
+            }
+        };
+    }
+
+    private static ModelCache.Loader<Item> loader(final AtomicInteger loads, final Item item) {
+        return new ModelCache.Loader<Item>() {
+            @Override
+            public Item load() {
+                loads.incrementAndGet();
+                return item;
+            }
+        };
+    }
+
+    @Test
+    public void registerForCachedModels() {
+        ModelCacheTest.configure("mcl_register", Item.class, ModelCache.DEFAULT_NEGATIVE_TTL);
+        ModelCacheListener listener = listener("mcl_register");
+        Assert.assertTrue(listener.isRegisterFor(Item.class));
+        Assert.assertTrue(listener.isRegisterFor(SubItem.class));
+        Assert.assertFalse(listener.isRegisterFor(ModelCacheListenerTest.class));
+    }
+
+    @Test
+    public void committedInsertInvalidatesMissingId() {
+        ModelCache cache = ModelCacheTest.configure("mcl_insert", Item.class, ModelCache.DEFAULT_NEGATIVE_TTL);
+        ModelCacheListener listener = listener("mcl_insert");
+        AtomicInteger loads = new AtomicInteger();
+        Item item = new Item(1L);
+
+        Assert.assertNull(cache.get(1L, loader(loads, null)));
+        Assert.assertNull(cache.get(1L, loader(loads, item)));
+        Assert.assertEquals(1, loads.get());
+
+        // ebean calls the listener after the insert commits
+        Assert.assertFalse("no remote notify", listener.inserted(new SubItem(1L)));
+        Assert.assertSame(item, cache.get(1L, loader(loads, item)));
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void updateAndDeleteKeepMissingIds() {
+        ModelCache cache = ModelCacheTest.configure("mcl_update", Item.class, ModelCache.DEFAULT_NEGATIVE_TTL);
+        ModelCacheListener listener = listener("mcl_update");
+        AtomicInteger loads = new AtomicInteger();
+
+        Assert.assertNull(cache.get(1L, loader(loads, null)));
+        listener.updated(new Item(1L), Collections.singleton("name"));
+        listener.deleted(new Item(1L));
+        Assert.assertNull(cache.get(1L, loader(loads, new Item(1L))));
+        Assert.assertEquals(1, loads.get());
+    }
+
+    public static class Item {
+        Long id;
+
+        Item() {
+        }
+
+        Item(Long id) {
+            this.id = id;
+        }
+    }
+
+    public static class SubItem extends Item {
+        SubItem(Long id) {
+            super(id);
+        }
+    }
+}
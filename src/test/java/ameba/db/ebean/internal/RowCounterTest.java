@@ -0,0 +1,209 @@
+package ameba.db.ebean.internal;
+
+import com.avaje.ebean.EbeanServer;
+import com.avaje.ebean.Query;
+import com.avaje.ebean.SqlQuery;
+import com.avaje.ebean.SqlRow;
+import com.avaje.ebeaninternal.api.SpiQuery;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author icode
+ */
+public class RowCounterTest {
+
+    private static final int ROWS = 42;
+
+    @After
+    public void reset() {
+        RowCounter.configure(RowCounter.DEFAULT_THREADS, RowCounter.DEFAULT_QUEUE_SIZE,
+                RowCounter.DEFAULT_TIMEOUT, RowCounter.DEFAULT_CACHE_TTL);
+    }
+
+    /**
+     * query stub, copy returns itself and findRowCount waits the latch
+     */
+    private static Query<?> query(final AtomicInteger counts, final CountDownLatch latch) {
+        return (Query<?>) Proxy.newProxyInstance(RowCounterTest.class.getClassLoader(),
+                new Class[]{SpiQuery.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        String name = method.getName();
+                        if (name.equals("copy")) {
+                            return proxy;
+                        } else if (name.equals("getBeanType")) {
+                            return Item.class;
+                        } else if (name.equals("findRowCount")) {
+                            counts.incrementAndGet();
+                            if (latch != null) {
+                                latch.await();
+                            }
+                            return ROWS;
+                        } else if (name.equals("hashCode")) {
+                            return System.identityHashCode(proxy);
+                        } else if (name.equals("equals")) {
+                            return proxy == args[0];
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    private static EbeanServer server(final List<String> sqls, final Map<String, Object> params, final Long rows) {
+        final SqlRow row = (SqlRow) Proxy.newProxyInstance(RowCounterTest.class.getClassLoader(),
+                new Class[]{SqlRow.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        return method.getName().equals("getLong") ? rows : null;
+                    }
+                });
+        final SqlQuery sqlQuery = (SqlQuery) Proxy.newProxyInstance(RowCounterTest.class.getClassLoader(),
+                new Class[]{SqlQuery.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("setParameter")) {
+                            params.put((String) args[0], args[1]);
+                            return proxy;
+                        } else if (method.getName().equals("findUnique")) {
+                            return row;
+                        }
+                        return null;
+                    }
+                });
+        return (EbeanServer) Proxy.newProxyInstance(RowCounterTest.class.getClassLoader(),
+                new Class[]{EbeanServer.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("createSqlQuery")) {
+                            sqls.add((String) args[0]);
+                            return sqlQuery;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    @Test
+    public void countIsCachedPerServer() {
+        AtomicInteger counts = new AtomicInteger();
+        Query<?> query = query(counts, null);
+        List<String> wheres = Lists.newArrayList("id=1");
+
+        Assert.assertEquals(Integer.valueOf(ROWS), RowCounter.get(RowCounter.count("s1", query, wheres, true, false)));
+        Assert.assertEquals(Integer.valueOf(ROWS), RowCounter.get(RowCounter.count("s1", query, wheres, true, false)));
+        Assert.assertEquals("second count is read from cache", 1, counts.get());
+
+        RowCounter.get(RowCounter.count("s2", query, wheres, true, false));
+        Assert.assertEquals("other server has its own count", 2, counts.get());
+
+        RowCounter.get(RowCounter.count("s1", query, Lists.newArrayList("id=2"), true, false));
+        Assert.assertEquals("other where has its own count", 3, counts.get());
+    }
+
+    @Test
+    public void countIsNotCachedWithoutServerOrCacheable() {
+        AtomicInteger counts = new AtomicInteger();
+        Query<?> query = query(counts, null);
+        List<String> wheres = Lists.newArrayList("id=1");
+
+        RowCounter.get(RowCounter.count(null, query, wheres, true, false));
+        RowCounter.get(RowCounter.count(null, query, wheres, true, false));
+        Assert.assertEquals(2, counts.get());
+
+        RowCounter.get(RowCounter.count("s1", query, wheres, false, false));
+        RowCounter.get(RowCounter.count("s1", query, wheres, false, false));
+        Assert.assertEquals(4, counts.get());
+    }
+
+    @Test
+    public void countTimeout() {
+        RowCounter.configure(1, 8, 50, 0);
+        AtomicInteger counts = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            Future<Integer> future = RowCounter.count("s1", query(counts, latch), null, true, false);
+            long start = System.nanoTime();
+            Assert.assertNull(RowCounter.get(future));
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            Assert.assertTrue("waited " + waited + " ms", waited >= 40 && waited < 1000);
+            Assert.assertTrue(future.isCancelled());
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void busyExecutorSkipsCount() throws InterruptedException {
+        RowCounter.configure(1, 1, 1000, 0);
+        AtomicInteger counts = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(1);
+        try {
+            Future<Integer> running = RowCounter.count("s1", query(counts, latch), null, false, false);
+            while (counts.get() == 0) {
+                Thread.sleep(1);
+            }
+            Future<Integer> queued = RowCounter.count("s1", query(counts, latch), null, false, false);
+            Assert.assertNotNull(running);
+            Assert.assertNotNull(queued);
+            Assert.assertNull(RowCounter.count("s1", query(counts, latch), null, false, false));
+            Assert.assertNull(RowCounter.get(null));
+        } finally {
+            latch.countDown();
+        }
+    }
+
+    @Test
+    public void estimateMysql() {
+        List<String> sqls = Lists.newArrayList();
+        Map<String, Object> params = Maps.newHashMap();
+        Assert.assertEquals(Integer.valueOf(1234), RowCounter.estimate(server(sqls, params, 1234L), "mysql", "app.item"));
+        Assert.assertEquals(1, sqls.size());
+        Assert.assertTrue(sqls.get(0), sqls.get(0).contains("information_schema.tables"));
+        Assert.assertTrue(sqls.get(0), sqls.get(0).endsWith("table_schema = :schema"));
+        Assert.assertEquals("item", params.get("table"));
+        Assert.assertEquals("app", params.get("schema"));
+
+        sqls.clear();
+        params.clear();
+        RowCounter.estimate(server(sqls, params, 1234L), "mysql", "item");
+        Assert.assertTrue(sqls.get(0), sqls.get(0).endsWith("table_schema = database()"));
+        Assert.assertFalse(params.containsKey("schema"));
+    }
+
+    @Test
+    public void estimatePostgres() {
+        List<String> sqls = Lists.newArrayList();
+        Map<String, Object> params = Maps.newHashMap();
+        Assert.assertEquals(Integer.valueOf(Integer.MAX_VALUE),
+                RowCounter.estimate(server(sqls, params, Long.MAX_VALUE), "postgres", "public.Item"));
+        Assert.assertTrue(sqls.get(0), sqls.get(0).contains("pg_class"));
+        Assert.assertEquals("item", params.get("table"));
+        Assert.assertFalse(params.containsKey("schema"));
+    }
+
+    @Test
+    public void estimateFallsBack() {
+        List<String> sqls = Lists.newArrayList();
+        Map<String, Object> params = Maps.newHashMap();
+        Assert.assertNull("not supported", RowCounter.estimate(server(sqls, params, 1L), "h2", "item"));
+        Assert.assertTrue(sqls.isEmpty());
+        Assert.assertNull("no statistics", RowCounter.estimate(server(sqls, params, null), "mysql", "item"));
+    }
+
+    public static class Item {
+    }
+}
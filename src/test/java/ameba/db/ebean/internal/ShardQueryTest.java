@@ -0,0 +1,58 @@
+package ameba.db.ebean.internal;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * @author icode
+ */
+public class ShardQueryTest {
+
+    private static final Comparator<int[]> BY_VALUE = new Comparator<int[]>() {
+        @Override
+        public int compare(int[] o1, int[] o2) {
+            return o1[0] < o2[0] ? -1 : (o1[0] == o2[0] ? 0 : 1);
+        }
+    };
+
+    private static List<List<int[]>> shards() {
+        List<List<int[]>> shards = Lists.newArrayList();
+        // {value, shard}
+        shards.add(Lists.newArrayList(new int[]{1, 0}, new int[]{4, 0}, new int[]{7, 0}));
+        shards.add(Lists.newArrayList(new int[]{2, 1}, new int[]{4, 1}, new int[]{8, 1}));
+        shards.add(Lists.newArrayList(new int[]{3, 2}, new int[]{5, 2}));
+        return shards;
+    }
+
+    private static String format(List<int[]> rows) {
+        StringBuilder builder = new StringBuilder();
+        for (int[] row : rows) {
+            if (builder.length() > 0) builder.append(',');
+            builder.append(row[0]).append('@').append(row[1]);
+        }
+        return builder.toString();
+    }
+
+    @Test
+    public void mergeInOrder() {
+        Assert.assertEquals("1@0,2@1,3@2,4@0,4@1,5@2,7@0,8@1",
+                format(ShardQuery.merge(shards(), BY_VALUE, 0, 0)));
+    }
+
+    @Test
+    public void mergeAppliesFirstAndMaxRows() {
+        Assert.assertEquals("3@2,4@0,4@1", format(ShardQuery.merge(shards(), BY_VALUE, 2, 3)));
+        Assert.assertEquals("7@0,8@1", format(ShardQuery.merge(shards(), BY_VALUE, 6, 5)));
+        Assert.assertEquals("", format(ShardQuery.merge(shards(), BY_VALUE, 10, 5)));
+    }
+
+    @Test
+    public void mergeWithoutOrderKeepsShardOrder() {
+        Assert.assertEquals("1@0,4@0,7@0,2@1,4@1,8@1,3@2,5@2",
+                format(ShardQuery.merge(shards(), null, 0, 0)));
+    }
+}
@@ -0,0 +1,119 @@
+package ameba.db.ebean.internal;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author icode
+ */
+public class UriQueryPlanTest {
+
+    /**
+     * age is a number property, others are strings
+     */
+    private static final UriQueryPlan.Converter CONVERTER = new UriQueryPlan.Converter() {
+        @Override
+        public Object convert(String property, Object value) {
+            if ("age".equals(property)) {
+                return Integer.valueOf(String.valueOf(value));
+            } else if ("name".equals(property) || "code".equals(property)) {
+                return String.valueOf(value);
+            }
+            return value;
+        }
+    };
+
+    private static List<Object> binds(String where, String template) {
+        List<Object> binds = Lists.newArrayList();
+        Assert.assertEquals(template, UriQueryPlan.parameterize(where, binds, CONVERTER));
+        return binds;
+    }
+
+    @Test
+    public void literals() {
+        List<Object> binds = binds("name = 'it''s' and score > 1.5 and id in (1, 2)",
+                "name = ? and score > ? and id in (?, ?)");
+        Assert.assertEquals(Lists.<Object>newArrayList("it's", new BigDecimal("1.5"), 1L, 2L), binds);
+    }
+
+    @Test
+    public void identifiersWithDigits() {
+        List<Object> binds = binds("t1.col2 = 3", "t1.col2 = ?");
+        Assert.assertEquals(Lists.<Object>newArrayList(3L), binds);
+    }
+
+    @Test
+    public void typedLiteralsStayInline() {
+        List<Object> binds = binds("created > date '2015-01-01' and updated < TIMESTAMP '2015-01-01 10:00:00'"
+                        + " and name = 'date'",
+                "created > date '2015-01-01' and updated < TIMESTAMP '2015-01-01 10:00:00' and name = ?");
+        Assert.assertEquals(Lists.<Object>newArrayList("date"), binds);
+    }
+
+    @Test
+    public void quotedNumberOfNumberProperty() {
+        List<Object> binds = binds("age='5' and code = 7", "age=? and code = ?");
+        Assert.assertEquals(Lists.<Object>newArrayList(5, "7"), binds);
+    }
+
+    @Test
+    public void inListIsConverted() {
+        List<Object> binds = binds("age in ('1', '2') and age not in ('3')", "age in (?, ?) and age not in (?)");
+        Assert.assertEquals(Lists.<Object>newArrayList(1, 2, 3), binds);
+    }
+
+    @Test
+    public void comparedProperty() {
+        String where = "a.b >= 'x' and c <> 1 and d in ('1', 'it''s', 'y') and e not in (2) and f like 'z'";
+        Assert.assertEquals("a.b", UriQueryPlan.comparedProperty(where, where.indexOf("'x'")));
+        Assert.assertEquals("c", UriQueryPlan.comparedProperty(where, where.indexOf("1 and d")));
+        Assert.assertEquals("d", UriQueryPlan.comparedProperty(where, where.indexOf("'y'")));
+        Assert.assertEquals("e", UriQueryPlan.comparedProperty(where, where.indexOf("2)")));
+        Assert.assertNull(UriQueryPlan.comparedProperty(where, where.indexOf("'z'")));
+    }
+
+    @Test
+    public void unterminatedLiteral() {
+        List<Object> binds = binds("name = 'abc", "name = 'abc");
+        Assert.assertTrue(binds.isEmpty());
+    }
+
+    @Test
+    public void literalsShareOnePlan() {
+        final AtomicInteger converted = new AtomicInteger();
+        UriQueryPlan.Converter counter = new UriQueryPlan.Converter() {
+            @Override
+            public Object convert(String property, Object value) {
+                converted.incrementAndGet();
+                return CONVERTER.convert(property, value);
+            }
+        };
+        UriQueryPlan.Bound first = UriQueryPlan.plan(UriQueryPlanTest.class, null,
+                Lists.newArrayList("age = '5' and name in ('a', 'b')"), "name", counter);
+        UriQueryPlan.Bound second = UriQueryPlan.plan(UriQueryPlanTest.class, null,
+                Lists.newArrayList("age = 6 and name in ('c', 'd')"), "name", counter);
+
+        Assert.assertSame("requests differ only in literals share the plan", first.getPlan(), second.getPlan());
+        Assert.assertArrayEquals(new String[]{"age = ? and name in (?, ?)"}, first.getPlan().getWhereTemplates());
+        Assert.assertArrayEquals(new Object[]{5, "a", "b"}, first.getWhereValues()[0]);
+        Assert.assertArrayEquals(new Object[]{6, "c", "d"}, second.getWhereValues()[0]);
+        Assert.assertEquals("literals are converted per request", 6, converted.get());
+    }
+
+    @Test
+    public void shapesHaveTheirOwnPlan() {
+        UriQueryPlan.Bound plan = UriQueryPlan.plan(UriQueryPlanTest.class, null,
+                Lists.newArrayList("age = 5"), null, CONVERTER);
+        Assert.assertNotSame(plan.getPlan(), UriQueryPlan.plan(UriQueryPlanTest.class, null,
+                Lists.newArrayList("age > 5"), null, CONVERTER).getPlan());
+        Assert.assertNotSame(plan.getPlan(), UriQueryPlan.plan(UriQueryPlanTest.class, null,
+                Lists.newArrayList("age = 5"), "age", CONVERTER).getPlan());
+        Assert.assertNotSame(plan.getPlan(), UriQueryPlan.plan(String.class, null,
+                Lists.newArrayList("age = 5"), null, CONVERTER).getPlan());
+    }
+}
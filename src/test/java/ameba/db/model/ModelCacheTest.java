@@ -0,0 +1,171 @@
+package ameba.db.model;
+
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.ws.rs.core.Configuration;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author icode
+ */
+public class ModelCacheTest {
+
+    /**
+     * configuration stub, getProperty reads the properties
+     */
+    static Configuration config(final Map<String, Object> properties) {
+        return (Configuration) Proxy.newProxyInstance(ModelCacheTest.class.getClassLoader(),
+                new Class[]{Configuration.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("getProperty")) {
+                            return properties.get(args[0]);
+                        } else if (method.getName().equals("getProperties")) {
+                            return properties;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    /**
+     * cache the model on the server, each test uses it's own server
+     */
+    public static ModelCache configure(String serverName, Class<?> modelType, long negativeTtl) {
+        Map<String, Object> properties = Maps.newHashMap();
+        properties.put("db." + serverName + ".cache.models", modelType.getName());
+        properties.put("db." + serverName + ".cache.negativeTtl", negativeTtl);
+        ModelCache.configure(serverName, config(properties));
+        return ModelCache.get(serverName, modelType);
+    }
+
+    private static ModelCache.Loader<Item> loader(final AtomicInteger loads, final Item item) {
+        return new ModelCache.Loader<Item>() {
+            @Override
+            public Item load() {
+                loads.incrementAndGet();
+                return item;
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Long> stats(String serverName) {
+        return (Map<String, Long>) ModelCache.snapshot().get(serverName + ":" + Item.class.getName());
+    }
+
+    @Test
+    public void configure() {
+        Map<String, Object> properties = Maps.newHashMap();
+        properties.put("db.mc_conf.cache.models", " " + Item.class.getName() + ", ,");
+        properties.put("db.mc_conf.cache.ttl", "30");
+        properties.put("db.mc_conf.cache." + Item.class.getName() + ".maxSize", 10);
+        ModelCache.configure("mc_conf", config(properties));
+
+        ModelCache cache = ModelCache.get("mc_conf", Item.class);
+        Assert.assertEquals(Item.class.getName(), cache.getModelName());
+        Assert.assertEquals(10, cache.getMaxSize());
+        Assert.assertEquals(30, cache.getTtl());
+        Assert.assertNull("not cached on other server", ModelCache.get("mc_other", Item.class));
+        Assert.assertNull("sub model is not cached by itself", ModelCache.get("mc_conf", SubItem.class));
+        Assert.assertTrue(ModelCache.isCached(SubItem.class));
+        Assert.assertFalse(ModelCache.isCached(Object.class));
+    }
+
+    @Test
+    public void readThrough() {
+        ModelCache cache = configure("mc_read", Item.class, ModelCache.DEFAULT_NEGATIVE_TTL);
+        AtomicInteger loads = new AtomicInteger();
+        Item item = new Item();
+
+        Assert.assertSame(item, cache.get(1, loader(loads, item)));
+        Assert.assertSame("entities are read from the orm bean cache", item, cache.get(1, loader(loads, item)));
+        Assert.assertEquals(2, loads.get());
+        Assert.assertEquals(Long.valueOf(0), stats("mc_read").get("missingSize"));
+    }
+
+    @Test
+    public void missingIdIsRemembered() {
+        ModelCache cache = configure("mc_missing", Item.class, ModelCache.DEFAULT_NEGATIVE_TTL);
+        AtomicInteger loads = new AtomicInteger();
+
+        Assert.assertNull(cache.get(1, loader(loads, null)));
+        Assert.assertNull(cache.get(1, loader(loads, new Item())));
+        Assert.assertNull(cache.get("1", loader(loads, new Item())));
+        Assert.assertEquals(1, loads.get());
+        Assert.assertEquals(Long.valueOf(2), stats("mc_missing").get("missingHits"));
+        Assert.assertEquals(Long.valueOf(1), stats("mc_missing").get("missingSize"));
+
+        Assert.assertNotNull("other id is loaded", cache.get(2, loader(loads, new Item())));
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void negativeTtlZeroDisablesMissing() {
+        ModelCache cache = configure("mc_nottl", Item.class, 0);
+        AtomicInteger loads = new AtomicInteger();
+
+        Assert.assertNull(cache.get(1, loader(loads, null)));
+        Assert.assertNull(cache.get(1, loader(loads, null)));
+        Assert.assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void insertInvalidatesMissingId() {
+        ModelCache cache = configure("mc_insert", Item.class, ModelCache.DEFAULT_NEGATIVE_TTL);
+        AtomicInteger loads = new AtomicInteger();
+        Item item = new Item();
+
+        Assert.assertNull(cache.get(1, loader(loads, null)));
+        Assert.assertNull(cache.get(2, loader(loads, null)));
+        ModelCache.invalidate(SubItem.class, 1);
+
+        Assert.assertSame(item, cache.get(1, loader(loads, item)));
+        Assert.assertNull("other missing id is kept", cache.get(2, loader(loads, item)));
+        Assert.assertEquals(3, loads.get());
+        Assert.assertTrue(stats("mc_insert").get("invalidations") >= 1);
+    }
+
+    @Test
+    public void missingLoadedDuringInvalidationIsNotRemembered() {
+        final ModelCache cache = configure("mc_race", Item.class, ModelCache.DEFAULT_NEGATIVE_TTL);
+        AtomicInteger loads = new AtomicInteger();
+
+        // the insert commits after the read misses the row
+        Assert.assertNull(cache.get(1, new ModelCache.Loader<Item>() {
+            @Override
+            public Item load() {
+                cache.invalidate(1);
+                return null;
+            }
+        }));
+        Item item = new Item();
+        Assert.assertSame(item, cache.get(1, loader(loads, item)));
+        Assert.assertEquals(1, loads.get());
+    }
+
+    @Test
+    public void invalidateAll() {
+        ModelCache cache = configure("mc_all", Item.class, ModelCache.DEFAULT_NEGATIVE_TTL);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get(1, loader(loads, null));
+        cache.get(2, loader(loads, null));
+        cache.invalidateAll();
+        cache.get(1, loader(loads, null));
+        cache.get(2, loader(loads, null));
+        Assert.assertEquals(4, loads.get());
+    }
+
+    public static class Item {
+    }
+
+    public static class SubItem extends Item {
+    }
+}
@@ -0,0 +1,152 @@
+package ameba.db.model;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author icode
+ */
+public class ModelLoaderTest {
+
+    /**
+     * byIds stub, finds ids except the missing, queried ids are recorded
+     */
+    private static Function<List<Long>, Map<Long, ?>> byIds(final List<List<Long>> queries, final Long... missing) {
+        return new Function<List<Long>, Map<Long, ?>>() {
+            @Override
+            public Map<Long, ?> apply(List<Long> ids) {
+                queries.add(Lists.newArrayList(ids));
+                Map<Long, String> found = Maps.newHashMap();
+                for (Long id : ids) {
+                    if (!Lists.newArrayList(missing).contains(id)) {
+                        found.put(id, "model" + id);
+                    }
+                }
+                return found;
+            }
+        };
+    }
+
+    @Test
+    public void loadsAreBatched() {
+        ModelLoader loader = new ModelLoader();
+        List<List<Long>> queries = Lists.newArrayList();
+        Function<List<Long>, Map<Long, ?>> byIds = byIds(queries);
+
+        List<ModelLoader.Handle<String>> handles = Lists.newArrayList();
+        for (long id : new long[]{3, 1, 2, 1}) {
+            handles.add(loader.<Long, String>load("s:Model", byIds, id));
+        }
+        Assert.assertTrue("nothing is loaded before read", queries.isEmpty());
+
+        Assert.assertEquals("model3", handles.get(0).get());
+        Assert.assertEquals(1, queries.size());
+        Assert.assertEquals(Lists.newArrayList(3L, 1L, 2L), queries.get(0));
+
+        Assert.assertEquals("model1", handles.get(1).get());
+        Assert.assertEquals("model2", handles.get(2).get());
+        Assert.assertEquals("model1", handles.get(3).get());
+        Assert.assertEquals("loaded id is not queried again", "model1",
+                loader.<Long, String>load("s:Model", byIds, 1L).get());
+        Assert.assertEquals(1, queries.size());
+    }
+
+    @Test
+    public void batchesAreSplitByKey() {
+        ModelLoader loader = new ModelLoader();
+        List<List<Long>> users = Lists.newArrayList();
+        List<List<Long>> orders = Lists.newArrayList();
+
+        loader.<Long, String>load("s:User", byIds(users), 1L);
+        loader.<Long, String>load("s:Order", byIds(orders), 1L);
+        loader.<Long, String>load("s:User", byIds(users), 2L);
+        loader.dispatch();
+
+        Assert.assertEquals(Lists.<List<Long>>newArrayList(Lists.newArrayList(1L, 2L)), users);
+        Assert.assertEquals(Lists.<List<Long>>newArrayList(Lists.newArrayList(1L)), orders);
+    }
+
+    @Test
+    public void largeBatchIsPartitioned() {
+        ModelLoader loader = new ModelLoader();
+        List<List<Long>> queries = Lists.newArrayList();
+        Function<List<Long>, Map<Long, ?>> byIds = byIds(queries);
+        int count = ModelLoader.MAX_BATCH_SIZE * 2 + 1;
+
+        List<ModelLoader.Handle<String>> handles = Lists.newArrayList();
+        for (long id = 0; id < count; id++) {
+            handles.add(loader.<Long, String>load("s:Model", byIds, id));
+        }
+        Assert.assertEquals("model" + (count - 1), handles.get(count - 1).get());
+
+        Assert.assertEquals(3, queries.size());
+        Assert.assertEquals(ModelLoader.MAX_BATCH_SIZE, queries.get(0).size());
+        Assert.assertEquals(ModelLoader.MAX_BATCH_SIZE, queries.get(1).size());
+        Assert.assertEquals(1, queries.get(2).size());
+        for (ModelLoader.Handle<String> handle : handles) {
+            Assert.assertNotNull(handle.get());
+        }
+        Assert.assertEquals(3, queries.size());
+    }
+
+    @Test
+    public void notFoundIsNullAndNotQueriedAgain() {
+        ModelLoader loader = new ModelLoader();
+        List<List<Long>> queries = Lists.newArrayList();
+        Function<List<Long>, Map<Long, ?>> byIds = byIds(queries, 2L);
+
+        ModelLoader.Handle<String> found = loader.load("s:Model", byIds, 1L);
+        ModelLoader.Handle<String> missing = loader.load("s:Model", byIds, 2L);
+        Assert.assertNull(missing.get());
+        Assert.assertEquals("model1", found.get());
+
+        Assert.assertNull(loader.<Long, String>load("s:Model", byIds, 2L).get());
+        loader.dispatch();
+        Assert.assertEquals(1, queries.size());
+    }
+
+    @Test
+    public void idsMatchByValue() {
+        ModelLoader loader = new ModelLoader();
+        Function<List<Object>, Map<Object, ?>> byIds = new Function<List<Object>, Map<Object, ?>>() {
+            @Override
+            public Map<Object, ?> apply(List<Object> ids) {
+                // the orm returns ids of the id type, not the requested type
+                Map<Object, String> found = Maps.newHashMap();
+                found.put(7L, "model7");
+                return found;
+            }
+        };
+        Assert.assertEquals("model7", loader.<Object, String>load("s:Model", byIds, "7").get());
+        Assert.assertEquals("model7", loader.<Object, String>load("s:Model", byIds, 7).get());
+    }
+
+    @Test
+    public void clearForgetsLoaded() {
+        ModelLoader loader = new ModelLoader();
+        List<List<Long>> queries = Lists.newArrayList();
+        Function<List<Long>, Map<Long, ?>> byIds = byIds(queries);
+
+        loader.<Long, String>load("s:Model", byIds, 1L).get();
+        loader.clear();
+        loader.<Long, String>load("s:Model", byIds, 1L).get();
+        Assert.assertEquals(2, queries.size());
+    }
+
+    @Test
+    public void beginBindsThreadLoader() {
+        ModelLoader loader = ModelLoader.begin();
+        try {
+            Assert.assertSame(loader, ModelLoader.current());
+            Assert.assertSame(loader, ModelLoader.current());
+        } finally {
+            ModelLoader.end();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package ameba.db.model;
+
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.persistence.PersistenceException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author icode
+ */
+public class ModelStreamTest {
+
+    private static Callable<Iterator<?>> rows(final int count, final AtomicInteger read) {
+        return new Callable<Iterator<?>>() {
+            @Override
+            public Iterator<?> call() throws Exception {
+                return new Iterator<Integer>() {
+                    int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < count;
+                    }
+
+                    @Override
+                    public Integer next() {
+                        read.incrementAndGet();
+                        return next++;
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    @Test
+    public void readAllRows() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ModelStream<Integer> stream = new ModelStream<Integer>(4);
+            stream.start(executor, rows(100, new AtomicInteger()));
+            List<Integer> rows = Lists.newArrayList();
+            while (stream.hasNext()) {
+                rows.add(stream.next());
+            }
+            Assert.assertEquals(100, rows.size());
+            Assert.assertEquals(Integer.valueOf(99), rows.get(99));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void rejectedQueryFails() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.shutdown();
+        ModelStream<Integer> stream = new ModelStream<Integer>(4);
+        stream.start(executor, rows(10, new AtomicInteger()));
+        stream.hasNext();
+    }
+
+    @Test
+    public void errorOfReaderFails() {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            ModelStream<Integer> stream = new ModelStream<Integer>(4);
+            stream.start(executor, new Callable<Iterator<?>>() {
+                @Override
+                public Iterator<?> call() throws Exception {
+                    throw new AssertionError("broken driver");
+                }
+            });
+            try {
+                stream.hasNext();
+                Assert.fail("error expected");
+            } catch (AssertionError e) {
+                Assert.assertEquals("broken driver", e.getMessage());
+            }
+            Assert.assertFalse(stream.hasNext());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void abandonedStreamFails() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AtomicInteger read = new AtomicInteger();
+            ModelStream<Integer> stream = new ModelStream<Integer>(2, 200);
+            stream.start(executor, rows(1000, read));
+
+            // the reader gives up and the executor thread is free again
+            Assert.assertEquals("free", executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return "free";
+                }
+            }).get(5, TimeUnit.SECONDS));
+            Assert.assertTrue("read " + read.get(), read.get() <= 3);
+
+            try {
+                stream.hasNext();
+                Assert.fail("abandoned stream must fail");
+            } catch (PersistenceException e) {
+                Assert.assertTrue(e.getMessage().contains("abandoned"));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void closeStopsReader() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            AtomicInteger read = new AtomicInteger();
+            ModelStream<Integer> stream = new ModelStream<Integer>(2);
+            stream.start(executor, rows(1000, read));
+            Assert.assertEquals(Integer.valueOf(0), stream.next());
+            stream.close();
+            Assert.assertFalse(stream.hasNext());
+            Assert.assertEquals("free", executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return "free";
+                }
+            }).get(5, TimeUnit.SECONDS));
+            Assert.assertTrue("read " + read.get(), read.get() < 1000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
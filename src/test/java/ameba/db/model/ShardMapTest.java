@@ -0,0 +1,150 @@
+package ameba.db.model;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author icode
+ */
+public class ShardMapTest {
+
+    private static final int KEYS = 30000;
+
+    private static ShardMap orderShards() {
+        ShardMap shardMap = new ShardMap("orders", Lists.newArrayList("s1", "s2", "s3"), 160);
+        shardMap.setKeyProperty(Order.class.getName(), null);
+        shardMap.setKeyProperty(OrderItem.class.getName(), "userId");
+        return shardMap;
+    }
+
+    private static Function<String, Object> properties(final Map<String, Object> values) {
+        return new Function<String, Object>() {
+            @Override
+            public Object apply(String name) {
+                return values.get(name);
+            }
+        };
+    }
+
+    @Test
+    public void keysAreSpreadOverServers() {
+        List<String> servers = Lists.newArrayList("s1", "s2", "s3");
+        ShardMap shardMap = new ShardMap("test", servers, ShardMap.DEFAULT_VIRTUAL_NODES);
+        Map<String, Integer> counts = Maps.newHashMap();
+        for (int i = 0; i < KEYS; i++) {
+            String server = shardMap.server(i);
+            Integer count = counts.get(server);
+            counts.put(server, count == null ? 1 : count + 1);
+        }
+        Assert.assertEquals(servers.size(), counts.size());
+        for (String server : servers) {
+            double share = counts.get(server) / (double) KEYS;
+            Assert.assertTrue(server + " has " + share, share > 0.25 && share < 0.42);
+        }
+    }
+
+    @Test
+    public void sameKeySameServer() {
+        ShardMap a = new ShardMap("a", Lists.newArrayList("s1", "s2", "s3"), 160);
+        ShardMap b = new ShardMap("b", Lists.newArrayList("s3", "s1", "s2"), 160);
+        for (int i = 0; i < 1000; i++) {
+            Assert.assertEquals(a.server(i), a.server(String.valueOf(i)));
+            Assert.assertEquals(a.server(i), b.server(i));
+        }
+    }
+
+    @Test
+    public void addServerMovesFewKeys() {
+        ShardMap before = new ShardMap("before", Lists.newArrayList("s1", "s2", "s3"), 160);
+        ShardMap after = new ShardMap("after", Lists.newArrayList("s1", "s2", "s3", "s4"), 160);
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String server = after.server(i);
+            if (!server.equals(before.server(i))) {
+                Assert.assertEquals("keys only move to the new server", "s4", server);
+                moved++;
+            }
+        }
+        double share = moved / (double) KEYS;
+        Assert.assertTrue("moved " + share, share > 0.15 && share < 0.35);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nullKey() {
+        new ShardMap("test", Lists.newArrayList("s1"), 160).server(null);
+    }
+
+    @Test
+    public void byIdWithIdKeyReadsOneShard() {
+        ShardMap shardMap = orderShards();
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(Lists.newArrayList(shardMap.server(i)), shardMap.servers(Order.class, i));
+            Assert.assertEquals(shardMap.servers(Order.class, i), shardMap.servers(SpecialOrder.class, i));
+        }
+    }
+
+    @Test
+    public void byIdWithNonIdKeyReadsAllShards() {
+        ShardMap shardMap = orderShards();
+        Assert.assertEquals("userId", shardMap.getKeyProperty(OrderItem.class));
+        for (int i = 0; i < 100; i++) {
+            Assert.assertEquals(shardMap.getServers(), shardMap.servers(OrderItem.class, i));
+        }
+    }
+
+    @Test
+    public void saveWithIdKey() {
+        ShardMap shardMap = orderShards();
+        for (int i = 0; i < 100; i++) {
+            Map<String, Object> values = ImmutableMap.<String, Object>of("id", i, "userId", i + 7);
+            Assert.assertEquals(shardMap.server(i), shardMap.server(Order.class, "id", properties(values)));
+        }
+    }
+
+    @Test
+    public void saveWithNonIdKey() {
+        ShardMap shardMap = orderShards();
+        int moved = 0;
+        for (int i = 0; i < 100; i++) {
+            Map<String, Object> values = ImmutableMap.<String, Object>of("id", i, "userId", i + 7);
+            String server = shardMap.server(OrderItem.class, "id", properties(values));
+            Assert.assertEquals(shardMap.server(i + 7), server);
+            if (!server.equals(shardMap.server(i))) moved++;
+        }
+        Assert.assertTrue("routed by the user id, not the id", moved > 0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void saveWithNullKey() {
+        Map<String, Object> values = ImmutableMap.<String, Object>of("id", 1);
+        orderShards().server(OrderItem.class, "id", properties(values));
+    }
+
+    @Test
+    public void deleteByIdRoutesLikeById() {
+        ShardMap shardMap = orderShards();
+        for (int i = 0; i < 100; i++) {
+            Map<String, Object> values = ImmutableMap.<String, Object>of("id", i, "userId", i + 7);
+            String saved = shardMap.server(Order.class, "id", properties(values));
+            Assert.assertEquals(Lists.newArrayList(saved), shardMap.servers(Order.class, i));
+            saved = shardMap.server(OrderItem.class, "id", properties(values));
+            Assert.assertTrue(shardMap.servers(OrderItem.class, i).contains(saved));
+        }
+    }
+
+    public static class Order {
+    }
+
+    public static class SpecialOrder extends Order {
+    }
+
+    public static class OrderItem {
+    }
+}
@@ -0,0 +1,216 @@
+package ameba.event;
+
+import akka.actor.ActorRef;
+import com.google.common.collect.Lists;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author icode
+ */
+public class AsyncEventBusTest {
+
+    private static List<Integer> received(AsyncEventBus<Event, ActorRef> bus, ManualExecutor executor) {
+        final List<Integer> received = Lists.newArrayList();
+        bus.subscribe(SeqEvent.class, new AsyncListener<SeqEvent>() {
+            @Override
+            public void onReceive(SeqEvent event) {
+                received.add(event.seq);
+            }
+        }, executor);
+        return received;
+    }
+
+    @Test
+    public void dropNewestByDefault() {
+        ManualExecutor executor = new ManualExecutor();
+        AsyncEventBus<Event, ActorRef> bus = AsyncEventBus.create(executor);
+        Assert.assertEquals(AsyncEventBus.OverflowPolicy.DROP_NEWEST, AsyncEventBus.DEFAULT_OVERFLOW_POLICY);
+        List<Integer> received = received(bus, executor);
+
+        for (int i = 0; i < AsyncEventBus.DEFAULT_QUEUE_CAPACITY + 3; i++) {
+            bus.publish(new SeqEvent(i));
+        }
+        executor.runAll();
+
+        Assert.assertEquals(3, bus.getDroppedCount());
+        Assert.assertEquals(AsyncEventBus.DEFAULT_QUEUE_CAPACITY, received.size());
+        Assert.assertEquals(Integer.valueOf(AsyncEventBus.DEFAULT_QUEUE_CAPACITY - 1),
+                received.get(received.size() - 1));
+    }
+
+    @Test
+    public void dropNewest() {
+        ManualExecutor executor = new ManualExecutor();
+        AsyncEventBus<Event, ActorRef> bus = AsyncEventBus.create(2, AsyncEventBus.OverflowPolicy.DROP_NEWEST, 8,
+                executor);
+        List<Integer> received = received(bus, executor);
+
+        for (int i = 0; i < 5; i++) {
+            bus.publish(new SeqEvent(i));
+        }
+        executor.runAll();
+
+        Assert.assertEquals(Lists.newArrayList(0, 1), received);
+        Assert.assertEquals(3, bus.getDroppedCount());
+    }
+
+    @Test
+    public void dropOldest() {
+        ManualExecutor executor = new ManualExecutor();
+        AsyncEventBus<Event, ActorRef> bus = AsyncEventBus.create(2, AsyncEventBus.OverflowPolicy.DROP_OLDEST, 8,
+                executor);
+        List<Integer> received = received(bus, executor);
+
+        for (int i = 0; i < 5; i++) {
+            bus.publish(new SeqEvent(i));
+        }
+        executor.runAll();
+
+        Assert.assertEquals(Lists.newArrayList(3, 4), received);
+        Assert.assertEquals(3, bus.getDroppedCount());
+    }
+
+    @Test
+    public void block() throws InterruptedException {
+        ManualExecutor executor = new ManualExecutor();
+        final AsyncEventBus<Event, ActorRef> bus = AsyncEventBus.create(2, AsyncEventBus.OverflowPolicy.BLOCK, 8,
+                executor);
+        List<Integer> received = received(bus, executor);
+
+        bus.publish(new SeqEvent(0));
+        bus.publish(new SeqEvent(1));
+        Thread publisher = new Thread() {
+            @Override
+            public void run() {
+                bus.publish(new SeqEvent(2));
+            }
+        };
+        publisher.start();
+        publisher.join(200);
+        Assert.assertTrue("publisher must wait for a free slot", publisher.isAlive());
+
+        executor.runAll();
+        publisher.join(5000);
+        Assert.assertFalse(publisher.isAlive());
+        executor.runAll();
+
+        Assert.assertEquals(Lists.newArrayList(0, 1, 2), received);
+        Assert.assertEquals(0, bus.getDroppedCount());
+    }
+
+    @Test
+    public void batchListener() {
+        ManualExecutor executor = new ManualExecutor();
+        AsyncEventBus<Event, ActorRef> bus = AsyncEventBus.create(16, AsyncEventBus.OverflowPolicy.DROP_NEWEST, 3,
+                executor);
+        final List<List<Integer>> batches = Lists.newArrayList();
+        bus.subscribe(SeqEvent.class, new AsyncBatchListener<SeqEvent>() {
+            @Override
+            public void onReceive(List<SeqEvent> events) {
+                List<Integer> batch = Lists.newArrayList();
+                for (SeqEvent event : events) {
+                    batch.add(event.seq);
+                }
+                batches.add(batch);
+            }
+        }, executor);
+
+        for (int i = 0; i < 7; i++) {
+            bus.publish(new SeqEvent(i));
+        }
+        Assert.assertEquals("only one drain is scheduled", 1, executor.tasks.size());
+        executor.runAll();
+
+        List<List<Integer>> expected = Lists.newArrayList();
+        expected.add(Lists.newArrayList(0, 1, 2));
+        expected.add(Lists.newArrayList(3, 4, 5));
+        expected.add(Lists.newArrayList(6));
+        Assert.assertEquals(expected, batches);
+    }
+
+    @Test
+    public void serialDeliveryOnThreadPool() throws InterruptedException {
+        final int count = 2000;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            AsyncEventBus<Event, ActorRef> bus = AsyncEventBus.create(count, AsyncEventBus.OverflowPolicy.DROP_NEWEST,
+                    4, executor);
+            final AtomicInteger inFlight = new AtomicInteger();
+            final AtomicInteger overlapped = new AtomicInteger();
+            final AtomicInteger outOfOrder = new AtomicInteger();
+            final CountDownLatch received = new CountDownLatch(count);
+            bus.subscribe(SeqEvent.class, new AsyncListener<SeqEvent>() {
+                int last = -1;
+
+                @Override
+                public void onReceive(SeqEvent event) {
+                    if (inFlight.incrementAndGet() > 1) {
+                        overlapped.incrementAndGet();
+                    }
+                    if (event.seq != last + 1) {
+                        outOfOrder.incrementAndGet();
+                    }
+                    last = event.seq;
+                    Thread.yield();
+                    inFlight.decrementAndGet();
+                    received.countDown();
+                }
+            });
+
+            for (int i = 0; i < count; i++) {
+                bus.publish(new SeqEvent(i));
+                if (i % 7 == 0) {
+                    Thread.yield();
+                }
+            }
+
+            Assert.assertTrue(received.await(30, TimeUnit.SECONDS));
+            Assert.assertEquals(0, overlapped.get());
+            Assert.assertEquals(0, outOfOrder.get());
+            Assert.assertEquals(0, bus.getDroppedCount());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * run drain tasks on the test thread when asked
+     */
+    static class ManualExecutor implements Executor {
+        final LinkedList<Runnable> tasks = Lists.newLinkedList();
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        synchronized Runnable poll() {
+            return tasks.poll();
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    public static class SeqEvent implements Event {
+        final int seq;
+
+        SeqEvent(int seq) {
+            this.seq = seq;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package ameba.event;
+
+import ameba.util.Benchmark;
+import com.google.common.collect.Sets;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Set;
+
+/**
+ * publish cost as the listener count grows, against the copy of listeners per publish
+ * that publish did before.
+ *
+ * @author icode
+ * @see Benchmark
+ */
+public class EventBusBenchmark {
+
+    private static final int OPS = 200000;
+    private static final int MAX_LISTENERS = 64;
+
+    @Test
+    public void publish() {
+        Benchmark.assumeEnabled();
+        for (int count = 1; count <= MAX_LISTENERS; count *= 2) {
+            final EventBus eventBus = EventBus.create();
+            final Set<Listener> listenerSet = Sets.newLinkedHashSet();
+            final CountListener[] listeners = new CountListener[count];
+            for (int i = 0; i < count; i++) {
+                listeners[i] = new CountListener();
+                eventBus.subscribe(BenchEvent.class, listeners[i]);
+                listenerSet.add(listeners[i]);
+            }
+            final BenchEvent event = new BenchEvent();
+
+            double published = Benchmark.measure("publish " + count + " listeners", OPS, new Benchmark.Op() {
+                @Override
+                public Object run(int ops) {
+                    for (int i = 0; i < ops; i++) {
+                        eventBus.publish(event);
+                    }
+                    return listeners[0].count;
+                }
+            });
+            double copied = Benchmark.measure("copy and publish " + count + " listeners", OPS, new Benchmark.Op() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public Object run(int ops) {
+                    for (int i = 0; i < ops; i++) {
+                        for (Listener listener : Sets.newCopyOnWriteArraySet(listenerSet)) {
+                            listener.onReceive(event);
+                        }
+                    }
+                    return listeners[0].count;
+                }
+            });
+            Assert.assertTrue(listeners[count - 1].count > 0);
+            Assert.assertTrue(published > 0 && copied > 0);
+        }
+    }
+
+    public static class BenchEvent implements Event {
+    }
+
+    public static class CountListener implements Listener<BenchEvent> {
+        long count;
+
+        @Override
+        public void onReceive(BenchEvent event) {
+            count++;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ameba.event;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Map;
+
+/**
+ * @author icode
+ */
+public class EventMetricsTest {
+
+    @After
+    public void clear() {
+        EventMetrics.clear();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> snapshot(String name) {
+        return (Map<String, Object>) EventMetrics.getInstance().snapshot().get(name);
+    }
+
+    private static void deliver(EventMetrics.EventStat stat) {
+        EventMetrics.delivered(stat, new TestListener(), new TestEvent(), System.nanoTime(), false);
+    }
+
+    @Test
+    public void resetKeepsStatsOfEventBuses() {
+        EventMetrics.EventStat stat = EventMetrics.stat(TestEvent.class);
+        deliver(stat);
+        Assert.assertEquals(1, snapshot("listeners").size());
+
+        EventMetrics.getInstance().reset();
+        Assert.assertSame(stat, EventMetrics.stat(TestEvent.class));
+        Assert.assertEquals(0, stat.delivered.get());
+        Assert.assertTrue("listener names are released", snapshot("listeners").isEmpty());
+    }
+
+    @Test
+    public void clearDropsAll() {
+        EventMetrics.EventStat stat = EventMetrics.stat(TestEvent.class);
+        deliver(stat);
+
+        EventMetrics.clear();
+        Assert.assertTrue(snapshot("events").isEmpty());
+        Assert.assertTrue(snapshot("listeners").isEmpty());
+        Assert.assertTrue(snapshot("queues").isEmpty());
+        Assert.assertNotSame(stat, EventMetrics.stat(TestEvent.class));
+    }
+
+    public static class TestEvent implements Event {
+    }
+
+    public static class TestListener implements Listener<TestEvent> {
+        @Override
+        public void onReceive(TestEvent event) {
+        }
+    }
+}
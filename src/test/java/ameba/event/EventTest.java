@@ -3,6 +3,7 @@ package ameba.event;
 import ameba.core.AddOn;
 import ameba.core.Application;
 import ameba.lib.Akka;
+import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -125,6 +126,31 @@ public class EventTest {
         }
     }
 
+    @Test
+    public void publishToSuperType() {
+        EventBus eventBus = EventBus.create();
+        final int[] received = new int[2];
+
+        eventBus.subscribe(Event.class, new Listener<Event>() {
+            @Override
+            public void onReceive(Event event) {
+                received[0]++;
+            }
+        });
+        eventBus.subscribe(TestEvent.class, new Listener<TestEvent>() {
+            @Override
+            public void onReceive(TestEvent event) {
+                received[1]++;
+            }
+        });
+
+        eventBus.publish(new TestEvent("message"));
+        eventBus.publish(new TestEvent1("message"));
+
+        Assert.assertEquals(2, received[0]);
+        Assert.assertEquals(1, received[1]);
+    }
+
     public static class TestEvent implements Event {
         public String message;
 
@@ -0,0 +1,125 @@
+package ameba.event;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @author icode
+ */
+public class LatencyHistogramTest {
+
+    private static final long MICROS = 1000;
+
+    @Test
+    public void smallValuesHaveOwnBucket() {
+        for (int i = 0; i < 8; i++) {
+            Assert.assertEquals(i, LatencyHistogram.bucketIndex(i));
+            Assert.assertEquals(i, LatencyHistogram.bucketUpperBound(i));
+        }
+    }
+
+    @Test
+    public void bucketBounds() {
+        Assert.assertEquals(16, LatencyHistogram.bucketIndex(16));
+        Assert.assertEquals(16, LatencyHistogram.bucketIndex(17));
+        Assert.assertEquals(17, LatencyHistogram.bucketIndex(18));
+        Assert.assertEquals(17, LatencyHistogram.bucketUpperBound(16));
+        Assert.assertEquals(Long.MAX_VALUE,
+                LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(Long.MAX_VALUE)));
+
+        Random random = new Random(7);
+        int last = -1;
+        for (long value = 0; value < 1L << 40; value += 1 + (value >> 4)) {
+            int index = LatencyHistogram.bucketIndex(value);
+            Assert.assertTrue("index is monotonic at " + value, index >= last);
+            last = index;
+            long upper = LatencyHistogram.bucketUpperBound(index);
+            Assert.assertTrue(value + " <= " + upper, value <= upper);
+            Assert.assertTrue(value + " precision " + upper, upper - value <= value / 8);
+            Assert.assertTrue("bound is in the bucket", LatencyHistogram.bucketIndex(upper) == index);
+            long other = random.nextLong() >>> (1 + random.nextInt(63));
+            Assert.assertTrue(other <= LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(other)));
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Assert.assertEquals(0, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(0, histogram.getMean(), 0);
+
+        for (int i = 1000; i >= 1; i--) {
+            histogram.record(i * MICROS);
+        }
+        Assert.assertEquals(1000, histogram.getCount());
+        Assert.assertEquals(1000, histogram.getMax());
+        Assert.assertEquals(500.5, histogram.getMean(), 0.001);
+
+        assertNear(500, histogram.getValueAtPercentile(50));
+        assertNear(900, histogram.getValueAtPercentile(90));
+        assertNear(990, histogram.getValueAtPercentile(99));
+        Assert.assertEquals("max is the upper bound", 1000, histogram.getValueAtPercentile(100));
+        Assert.assertEquals(1, histogram.getValueAtPercentile(0));
+    }
+
+    private static void assertNear(long expected, long value) {
+        Assert.assertTrue(value + " of " + expected, value >= expected && value <= expected * 1.125);
+    }
+
+    @Test
+    public void skewedPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(10 * MICROS);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(50000 * MICROS);
+        }
+        Assert.assertEquals(10, histogram.getValueAtPercentile(50));
+        Assert.assertEquals(10, histogram.getValueAtPercentile(99));
+        Assert.assertEquals(50000, histogram.getValueAtPercentile(99.9));
+    }
+
+    @Test
+    public void negativeAndSubMicroLatency() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(999);
+        Assert.assertEquals(2, histogram.getCount());
+        Assert.assertEquals(0, histogram.getMax());
+        Assert.assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void concurrentRecord() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < 10000; i++) {
+                        histogram.record((i + offset) * MICROS);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(40000, histogram.getCount());
+        Assert.assertEquals(10002, histogram.getMax());
+    }
+}
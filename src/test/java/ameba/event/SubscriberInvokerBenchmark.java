@@ -0,0 +1,83 @@
+package ameba.event;
+
+import ameba.util.Benchmark;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+
+/**
+ * generated invoker against reflection, and against the reflective listener
+ * which resolved the event arguments on each event before.
+ *
+ * @author icode
+ * @see Benchmark
+ */
+public class SubscriberInvokerBenchmark {
+
+    private static final int OPS = 1000000;
+
+    @Test
+    public void invoke() throws Exception {
+        Benchmark.assumeEnabled();
+        final Sub sub = new Sub();
+        final EventTest.TestEvent event = new EventTest.TestEvent("message");
+
+        final Method publicMethod = Sub.class.getMethod("onEvent", EventTest.TestEvent.class);
+        final SubscriberInvoker generated = SubscriberInvoker.create(publicMethod, EventTest.TestEvent.class);
+        Assert.assertTrue(SubscriberInvoker.isGenerated(generated));
+
+        Method privateMethod = Sub.class.getDeclaredMethod("onPrivateEvent", EventTest.TestEvent.class);
+        final SubscriberInvoker reflective = SubscriberInvoker.create(privateMethod, EventTest.TestEvent.class);
+        Assert.assertFalse(SubscriberInvoker.isGenerated(reflective));
+
+        Benchmark.measure("generated invoker", OPS, new Benchmark.Op() {
+            @Override
+            public Object run(int ops) throws Exception {
+                for (int i = 0; i < ops; i++) {
+                    generated.invoke(sub, event);
+                }
+                return sub.count;
+            }
+        });
+        Benchmark.measure("reflective invoker", OPS, new Benchmark.Op() {
+            @Override
+            public Object run(int ops) throws Exception {
+                for (int i = 0; i < ops; i++) {
+                    reflective.invoke(sub, event);
+                }
+                return sub.count;
+            }
+        });
+        final Class[] needEvent = publicMethod.getParameterTypes();
+        Benchmark.measure("reflective listener", OPS, new Benchmark.Op() {
+            @Override
+            public Object run(int ops) throws Exception {
+                for (int i = 0; i < ops; i++) {
+                    Object[] args = new Object[needEvent.length];
+                    for (int j = 0; j < needEvent.length; j++) {
+                        if (needEvent[j] != null && needEvent[j].isAssignableFrom(event.getClass())) {
+                            args[j] = event;
+                        }
+                    }
+                    publicMethod.invoke(sub, args);
+                }
+                return sub.count;
+            }
+        });
+        Assert.assertTrue(sub.count > 0);
+    }
+
+    public static class Sub {
+        long count;
+
+        public void onEvent(EventTest.TestEvent event) {
+            count++;
+        }
+
+        @SuppressWarnings("unused")
+        private void onPrivateEvent(EventTest.TestEvent event) {
+            count++;
+        }
+    }
+}
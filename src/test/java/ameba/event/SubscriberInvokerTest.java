@@ -0,0 +1,57 @@
+package ameba.event;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+
+/**
+ * @author icode
+ */
+public class SubscriberInvokerTest {
+
+    @Test
+    public void generatedInvokerIsUsed() throws Exception {
+        Method method = PublicSub.class.getMethod("onEvent", EventTest.TestEvent.class, EventTest.TestEvent1.class);
+        SubscriberInvoker invoker = SubscriberInvoker.create(method, EventTest.TestEvent.class);
+
+        Assert.assertTrue(invoker.getClass().getName(), SubscriberInvoker.isGenerated(invoker));
+
+        PublicSub sub = new PublicSub();
+        EventTest.TestEvent event = new EventTest.TestEvent("message");
+        invoker.invoke(sub, event);
+        Assert.assertSame(event, sub.event);
+        Assert.assertNull(sub.event1);
+    }
+
+    @Test
+    public void privateMethodUseReflection() throws Exception {
+        Method method = PrivateSub.class.getDeclaredMethod("onEvent", EventTest.TestEvent.class);
+        SubscriberInvoker invoker = SubscriberInvoker.create(method, EventTest.TestEvent.class);
+
+        Assert.assertFalse(SubscriberInvoker.isGenerated(invoker));
+
+        PrivateSub sub = new PrivateSub();
+        invoker.invoke(sub, new EventTest.TestEvent("message"));
+        Assert.assertEquals(1, sub.count);
+    }
+
+    public static class PublicSub {
+        EventTest.TestEvent event;
+        EventTest.TestEvent1 event1;
+
+        public void onEvent(EventTest.TestEvent event, EventTest.TestEvent1 event1) {
+            this.event = event;
+            this.event1 = event1;
+        }
+    }
+
+    public static class PrivateSub {
+        int count;
+
+        @SuppressWarnings("unused")
+        private void onEvent(EventTest.TestEvent event) {
+            count++;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package ameba.message.internal;
+
+import ameba.util.Benchmark;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.reflect.TypeToken;
+import org.glassfish.jersey.message.filtering.spi.ObjectGraph;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Type;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * filtered write of an entity list like {@link FilteringJacksonJsonProvider#writeTo}, the writer from
+ * the cache of {@link FilteringObjectWriterModifier} against the writer resolved per request before.
+ *
+ * @author icode
+ * @see Benchmark
+ */
+public class EntityListWriteBenchmark {
+
+    private static final int OPS = 20000;
+    private static final int ROWS = 50;
+    private static final Type LIST_TYPE = new TypeToken<List<Order>>() {
+    }.getType();
+
+    private static String write(ObjectWriter writer, Object value) throws Exception {
+        Object outer = JacksonObjectProvider.enterWrite();
+        try {
+            return writer.writeValueAsString(value);
+        } finally {
+            JacksonObjectProvider.exitWrite(outer);
+        }
+    }
+
+    @Test
+    public void writeList() throws Exception {
+        Benchmark.assumeEnabled();
+        ObjectMapper mapper = new ObjectMapper();
+        JacksonUtils.configureMapper(mapper);
+        JacksonUtils.configFilterIntrospector(mapper);
+        final ObjectWriter base = mapper.writer();
+        // jersey caches the filter provider per entity class and filtering scopes
+        final FilterProvider filterProvider = new JacksonObjectProvider().transform(
+                new JacksonObjectProviderTest.Graph(Order.class, ImmutableSet.of("id", "name", "email"),
+                        ImmutableMap.<String, ObjectGraph>of("customer",
+                                new JacksonObjectProviderTest.Graph(Customer.class, ImmutableSet.of("id"),
+                                        Collections.<String, ObjectGraph>emptyMap()))));
+        final List<Order> orders = Lists.newArrayListWithCapacity(ROWS);
+        for (int i = 0; i < ROWS; i++) {
+            orders.add(new Order(i));
+        }
+        String expected = write(base.with(filterProvider), orders);
+        Assert.assertFalse(expected, expected.contains("secret"));
+
+        Benchmark.measure("cached writer, " + ROWS + " rows", OPS, new Benchmark.Op() {
+            @Override
+            public Object run(int ops) throws Exception {
+                int length = 0;
+                for (int i = 0; i < ops; i++) {
+                    ObjectWriter writer = new FilteringObjectWriterModifier(filterProvider, null, LIST_TYPE)
+                            .modify(null, null, orders, base, null);
+                    length += write(writer, orders).length();
+                }
+                return length;
+            }
+        });
+        Benchmark.measure("writer per request, " + ROWS + " rows", OPS, new Benchmark.Op() {
+            @Override
+            public Object run(int ops) throws Exception {
+                int length = 0;
+                for (int i = 0; i < ops; i++) {
+                    length += write(base.with(filterProvider), orders).length();
+                }
+                return length;
+            }
+        });
+    }
+
+    @JsonPropertyOrder({"id", "name", "email", "customer", "secret"})
+    public static class Order {
+        private final int id;
+
+        Order(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getName() {
+            return "order " + id;
+        }
+
+        public String getEmail() {
+            return "o" + id + "@example.com";
+        }
+
+        public Customer getCustomer() {
+            return new Customer(id % 7);
+        }
+
+        public String getSecret() {
+            return "secret";
+        }
+    }
+
+    @JsonPropertyOrder({"id", "secret"})
+    public static class Customer {
+        private final int id;
+
+        Customer(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getSecret() {
+            return "secret";
+        }
+    }
+}
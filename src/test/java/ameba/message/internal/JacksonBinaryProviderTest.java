@@ -0,0 +1,160 @@
+package ameba.message.internal;
+
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.fasterxml.jackson.databind.ser.impl.SimpleBeanPropertyFilter;
+import com.fasterxml.jackson.databind.ser.impl.SimpleFilterProvider;
+import com.fasterxml.jackson.jaxrs.base.ProviderBase;
+import com.google.common.collect.Lists;
+import org.glassfish.jersey.message.filtering.spi.ObjectProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.inject.Provider;
+import javax.ws.rs.core.MultivaluedHashMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.List;
+
+/**
+ * smile and cbor providers
+ *
+ * @author icode
+ */
+public class JacksonBinaryProviderTest {
+
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+    private static final javax.ws.rs.core.MediaType JSON = MediaType.APPLICATION_JSON_TYPE;
+    private static final javax.ws.rs.core.MediaType SMILE = MediaType.APPLICATION_SMILE_TYPE;
+    private static final javax.ws.rs.core.MediaType CBOR = MediaType.APPLICATION_CBOR_TYPE;
+
+    /**
+     * inject a filter provider which drops the secret, like the entity filtering feature
+     */
+    private static <P extends FilteringJacksonJsonProvider> P filtering(P provider) throws Exception {
+        final FilterProvider filters = new SimpleFilterProvider()
+                .setDefaultFilter(SimpleBeanPropertyFilter.serializeAllExcept("secret"));
+        final Object objectProvider = Proxy.newProxyInstance(JacksonBinaryProviderTest.class.getClassLoader(),
+                new Class[]{ObjectProvider.class}, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        return method.getName().equals("getFilteringObject") ? filters : null;
+                    }
+                });
+        Field field = FilteringJacksonJsonProvider.class.getDeclaredField("provider");
+        field.setAccessible(true);
+        field.set(provider, new Provider<Object>() {
+            @Override
+            public Object get() {
+                return objectProvider;
+            }
+        });
+        return provider;
+    }
+
+    private static byte[] write(ProviderBase<?, ?, ?, ?> provider, Object value,
+                                javax.ws.rs.core.MediaType mediaType) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        provider.writeTo(value, value.getClass(), value.getClass(), NO_ANNOTATIONS, mediaType,
+                new MultivaluedHashMap<String, Object>(), out);
+        return out.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T read(ProviderBase<?, ?, ?, ?> provider, Class<T> type, byte[] bytes,
+                              javax.ws.rs.core.MediaType mediaType) throws IOException {
+        return (T) provider.readFrom((Class<Object>) (Class) type, type, NO_ANNOTATIONS, mediaType,
+                new MultivaluedHashMap<String, String>(), new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * providers which write the media type, jersey tries the providers produce it and uses the writeable one
+     */
+    private static List<Class<?>> writers(javax.ws.rs.core.MediaType mediaType, ProviderBase<?, ?, ?, ?>... providers) {
+        List<Class<?>> writers = Lists.newArrayList();
+        for (ProviderBase<?, ?, ?, ?> provider : providers) {
+            if (provider.isWriteable(Item.class, Item.class, NO_ANNOTATIONS, mediaType)) {
+                writers.add(provider.getClass());
+            }
+        }
+        return writers;
+    }
+
+    @Test
+    public void smileRoundTrip() throws Exception {
+        byte[] bytes = write(filtering(new FilteringJacksonSmileProvider()), new Item(1, "a", "s"), SMILE);
+        Assert.assertEquals("smile header", ':', bytes[0]);
+        Assert.assertEquals(')', bytes[1]);
+
+        Item item = read(new FilteringJacksonSmileProvider(), Item.class, bytes, SMILE);
+        Assert.assertEquals(1, item.id);
+        Assert.assertEquals("a", item.name);
+        Assert.assertNull("entity filtering applies to smile", item.secret);
+
+        item = read(new JacksonSmileProvider(), Item.class, write(new JacksonSmileProvider(), new Item(2, "b", "s"), SMILE), SMILE);
+        Assert.assertEquals(2, item.id);
+        Assert.assertEquals("s", item.secret);
+    }
+
+    @Test
+    public void cborRoundTrip() throws Exception {
+        byte[] bytes = write(filtering(new FilteringJacksonCBORProvider()), new Item(1, "a", "s"), CBOR);
+        Assert.assertEquals("cbor map", 0xA0, bytes[0] & 0xE0);
+
+        Item item = read(new FilteringJacksonCBORProvider(), Item.class, bytes, CBOR);
+        Assert.assertEquals(1, item.id);
+        Assert.assertEquals("a", item.name);
+        Assert.assertNull("entity filtering applies to cbor", item.secret);
+
+        item = read(new JacksonCBORProvider(), Item.class, write(new JacksonCBORProvider(), new Item(2, "b", "s"), CBOR), CBOR);
+        Assert.assertEquals(2, item.id);
+        Assert.assertEquals("s", item.secret);
+    }
+
+    @Test
+    public void binaryAcceptPicksBinaryProvider() {
+        ProviderBase<?, ?, ?, ?> json = new FilteringJacksonJsonProvider();
+        ProviderBase<?, ?, ?, ?> smile = new FilteringJacksonSmileProvider();
+        ProviderBase<?, ?, ?, ?> cbor = new FilteringJacksonCBORProvider();
+
+        Assert.assertEquals(Lists.<Class<?>>newArrayList(FilteringJacksonSmileProvider.class),
+                writers(SMILE, json, smile, cbor));
+        Assert.assertEquals(Lists.<Class<?>>newArrayList(FilteringJacksonCBORProvider.class),
+                writers(CBOR, json, smile, cbor));
+        Assert.assertEquals(Lists.<Class<?>>newArrayList(FilteringJacksonJsonProvider.class),
+                writers(JSON, json, smile, cbor));
+        Assert.assertEquals("wildcard is not a binary type", Lists.<Class<?>>newArrayList(),
+                writers(new javax.ws.rs.core.MediaType("application", "*"), smile, cbor));
+    }
+
+    @Test
+    public void plainBinaryAcceptPicksBinaryProvider() {
+        ProviderBase<?, ?, ?, ?> json = new JacksonJsonProvider();
+        ProviderBase<?, ?, ?, ?> smile = new JacksonSmileProvider();
+        ProviderBase<?, ?, ?, ?> cbor = new JacksonCBORProvider();
+
+        Assert.assertEquals(Lists.<Class<?>>newArrayList(JacksonSmileProvider.class), writers(SMILE, json, smile, cbor));
+        Assert.assertEquals(Lists.<Class<?>>newArrayList(JacksonCBORProvider.class), writers(CBOR, json, smile, cbor));
+        Assert.assertEquals(Lists.<Class<?>>newArrayList(JacksonJsonProvider.class), writers(JSON, json, smile, cbor));
+    }
+
+    public static class Item {
+        public int id;
+        public String name;
+        public String secret;
+
+        public Item() {
+        }
+
+        Item(int id, String name, String secret) {
+            this.id = id;
+            this.name = name;
+            this.secret = secret;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+package ameba.message.internal;
+
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ser.FilterProvider;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import org.glassfish.jersey.message.filtering.spi.ObjectGraph;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author icode
+ */
+public class JacksonObjectProviderTest {
+
+    private static final ObjectMapper mapper = JacksonUtils.configFilterIntrospector(new ObjectMapper());
+    private static final JacksonObjectProvider provider = new JacksonObjectProvider();
+
+    /**
+     * parent with name, nested and child.id
+     */
+    private static final ObjectWriter parentWriter = mapper.writer(provider.transform(
+            new Graph(Parent.class, ImmutableSet.of("name", "nested"), ImmutableMap.<String, ObjectGraph>of("child",
+                    new Graph(Child.class, ImmutableSet.of("id"), Collections.<String, ObjectGraph>emptyMap())))));
+
+    /**
+     * child with secret only
+     */
+    private static final ObjectWriter childWriter = mapper.writer(provider.transform(
+            new Graph(Child.class, ImmutableSet.of("secret"), Collections.<String, ObjectGraph>emptyMap())));
+
+    /**
+     * write like {@link FilteringJacksonJsonProvider#writeTo}
+     */
+    private static String write(ObjectWriter writer, Object value) throws JsonProcessingException {
+        Object outer = JacksonObjectProvider.enterWrite();
+        try {
+            return writer.writeValueAsString(value);
+        } finally {
+            JacksonObjectProvider.exitWrite(outer);
+        }
+    }
+
+    private static String expected(int i) {
+        return "{\"name\":\"p" + i + "\",\"nested\":\"{\\\"secret\\\":\\\"s" + i + "\\\"}\",\"child\":{\"id\":" + i + "}}";
+    }
+
+    @Test
+    public void nestedWriteKeepsOuterStack() throws JsonProcessingException {
+        Assert.assertEquals(expected(1), write(parentWriter, new Parent(1)));
+    }
+
+    @Test
+    public void stackIsRemovedAfterWrite() throws JsonProcessingException {
+        write(parentWriter, new Parent(1));
+        Object outer = JacksonObjectProvider.enterWrite();
+        try {
+            Assert.assertNull("no write is left on the thread", outer);
+            Object nested = JacksonObjectProvider.enterWrite();
+            Assert.assertNotNull(nested);
+            JacksonObjectProvider.exitWrite(nested);
+        } finally {
+            JacksonObjectProvider.exitWrite(outer);
+        }
+    }
+
+    @Test
+    public void concurrentWrites() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> results = Lists.newArrayList();
+            for (int t = 0; t < 8; t++) {
+                final int thread = t;
+                results.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int wrong = 0;
+                        for (int i = 0; i < 500; i++) {
+                            int id = thread * 1000 + i;
+                            if (i % 2 == 0) {
+                                if (!expected(id).equals(write(parentWriter, new Parent(id)))) wrong++;
+                            } else if (!("{\"secret\":\"s" + id + "\"}").equals(write(childWriter, new Child(id)))) {
+                                wrong++;
+                            }
+                        }
+                        return wrong;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                Assert.assertEquals(Integer.valueOf(0), result.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void graphIsTransformedOnce() {
+        final int[] walks = new int[1];
+        ObjectGraph graph = new Graph(Child.class, ImmutableSet.of("id"), Collections.<String, ObjectGraph>emptyMap()) {
+            @Override
+            public Set<String> getFields() {
+                walks[0]++;
+                return super.getFields();
+            }
+        };
+        FilterProvider first = provider.transform(graph);
+        Assert.assertEquals(1, walks[0]);
+        Assert.assertSame(first, provider.transform(graph));
+        Assert.assertEquals("the cached graph is not walked again", 1, walks[0]);
+    }
+
+    @Test
+    public void graphsOfSameShapeFilterSame() throws JsonProcessingException {
+        FilterProvider a = provider.transform(
+                new Graph(Child.class, ImmutableSet.of("id"), Collections.<String, ObjectGraph>emptyMap()));
+        FilterProvider b = provider.transform(
+                new Graph(Child.class, ImmutableSet.of("id"), Collections.<String, ObjectGraph>emptyMap()));
+        Assert.assertNotSame(a, b);
+        Assert.assertEquals("{\"id\":3}", write(mapper.writer(a), new Child(3)));
+        Assert.assertEquals("{\"id\":3}", write(mapper.writer(b), new Child(3)));
+    }
+
+    @JsonPropertyOrder({"name", "nested", "child", "secret"})
+    public static class Parent {
+        private final int id;
+
+        Parent(int id) {
+            this.id = id;
+        }
+
+        public String getName() {
+            return "p" + id;
+        }
+
+        /**
+         * a write nested in the write of parent
+         */
+        public String getNested() throws JsonProcessingException {
+            return write(childWriter, new Child(id));
+        }
+
+        public Child getChild() {
+            return new Child(id);
+        }
+
+        public String getSecret() {
+            return "s" + id;
+        }
+    }
+
+    @JsonPropertyOrder({"id", "secret"})
+    public static class Child {
+        private final int id;
+
+        Child(int id) {
+            this.id = id;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getSecret() {
+            return "s" + id;
+        }
+    }
+
+    static class Graph implements ObjectGraph {
+        private final Class<?> entityClass;
+        private final Set<String> fields;
+        private final Map<String, ObjectGraph> subgraphs;
+
+        Graph(Class<?> entityClass, Set<String> fields, Map<String, ObjectGraph> subgraphs) {
+            this.entityClass = entityClass;
+            this.fields = fields;
+            this.subgraphs = subgraphs;
+        }
+
+        @Override
+        public Class<?> getEntityClass() {
+            return entityClass;
+        }
+
+        @Override
+        public Set<String> getFields() {
+            return fields;
+        }
+
+        @Override
+        public Set<String> getFields(String parent) {
+            return fields;
+        }
+
+        @Override
+        public Map<String, ObjectGraph> getSubgraphs() {
+            return subgraphs;
+        }
+
+        @Override
+        public Map<String, ObjectGraph> getSubgraphs(String parent) {
+            return subgraphs;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package ameba.util;
+
+import org.junit.Assume;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+
+/**
+ * micro benchmark for unit tests.
+ * <p/>
+ * jmh needs java 7, so benchmarks are junit tests, they are skipped unless
+ * the {@code ameba.benchmark} system property is true:
+ * <pre>
+ * mvn test -Dameba.benchmark=true -Dtest=EventBusBenchmark
+ * </pre>
+ * each op is warmed up, then measured in rounds, the median round is reported.
+ *
+ * @author icode
+ */
+public abstract class Benchmark {
+
+    public static final String ENABLED_PROPERTY = "ameba.benchmark";
+
+    private static final Logger logger = LoggerFactory.getLogger(Benchmark.class);
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int MEASURE_ROUNDS = 10;
+
+    /**
+     * results of ops, read to keep the jit from removing the benchmarked code
+     */
+    public static volatile Object sink;
+
+    /**
+     * skip the test unless benchmarks are enabled
+     */
+    public static void assumeEnabled() {
+        Assume.assumeTrue(Boolean.getBoolean(ENABLED_PROPERTY));
+    }
+
+    /**
+     * measure the op
+     *
+     * @param name name of the result
+     * @param ops  op count of one round
+     * @param op   op
+     * @return median nanoseconds per op
+     */
+    public static double measure(String name, int ops, Op op) {
+        try {
+            for (int i = 0; i < WARMUP_ROUNDS; i++) {
+                sink = op.run(ops);
+            }
+            long[] rounds = new long[MEASURE_ROUNDS];
+            for (int i = 0; i < MEASURE_ROUNDS; i++) {
+                long start = System.nanoTime();
+                sink = op.run(ops);
+                rounds[i] = System.nanoTime() - start;
+            }
+            Arrays.sort(rounds);
+            double nanos = rounds[MEASURE_ROUNDS / 2] / (double) ops;
+            logger.info("{}: {} ns/op", name, String.format("%.1f", nanos));
+            return nanos;
+        } catch (Exception e) {
+            AssertionError error = new AssertionError(name + " failed");
+            error.initCause(e);
+            throw error;
+        }
+    }
+
+    /**
+     * benchmarked op
+     */
+    public interface Op {
+        /**
+         * @param ops op count
+         * @return a result of ops
+         * @throws Exception op error
+         */
+        Object run(int ops) throws Exception;
+    }
+}